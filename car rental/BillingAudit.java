@@ -0,0 +1,384 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Re-prices every rental, live and archived, with the settings it was priced with and
+ * checks the result against the stored breakdown and the payments. Live rentals are copied into primitive arrays under the system lock; archive
+ * months are decoded as primitive columns, never as row strings. Slices and months run
+ * as separate tasks on the common fork/join pool and keep only counts, amounts and a
+ * few sample rentals, so memory is bounded by the largest month, not by the history.
+ *
+ * The breakdown checks compare each step with the stored amounts before it, so one
+ * wrong figure is reported once. Each rental records its tax rate, coupon percentage
+ * and pricing epoch (PricingConfig.getEpoch()); DISCOUNT and TAX use the recorded
+ * values, and SUBTOTAL is only re-priced for rentals whose epoch is the current one,
+ * since the rules that priced older ones are gone. Rows from before these were
+ * recorded skip all three. TOTAL and the payment checks do not depend on settings.
+ */
+class BillingAudit {
+    enum Check {
+        TOTAL("total is not subtotal - discount + tax"),
+        SUBTOTAL("subtotal differs from the car's price with surcharges and demand"),
+        DISCOUNT("discount differs from the recorded coupon percentage"),
+        TAX("tax differs from the recorded tax rate"),
+        UNDERPAID("payments add up to less than the total"),
+        OVERPAID("payments add up to more than the total");
+
+        final String description;
+
+        Check(String description) {
+            this.description = description;
+        }
+    }
+
+    // A rental that failed a check, with the expected and stored amounts in cents
+    static final class Finding {
+        String rentalId; // archive rows get theirs after the month is audited
+        final Check check;
+        final long expectedCents;
+        final long actualCents;
+
+        Finding(String rentalId, Check check, long expectedCents, long actualCents) {
+            this.rentalId = rentalId;
+            this.check = check;
+            this.expectedCents = expectedCents;
+            this.actualCents = actualCents;
+        }
+    }
+
+    private static final int LIVE_SLICE = 65536;
+    private static final int SAMPLES = 10; // sample findings kept per check
+    private static final long NONE = ColumnarRentalFile.Columns.EMPTY;
+    private static final int[] ARCHIVE_COLUMNS = {
+            ColumnarRentalFile.COL_CAR_ID, ColumnarRentalFile.COL_DAYS, ColumnarRentalFile.COL_START_DATE,
+            ColumnarRentalFile.COL_TOTAL, ColumnarRentalFile.COL_DISCOUNT_CODE, ColumnarRentalFile.COL_SUBTOTAL,
+            ColumnarRentalFile.COL_DISCOUNT_AMOUNT, ColumnarRentalFile.COL_TAX_AMOUNT,
+            ColumnarRentalFile.COL_PRICE_MULTIPLIER, ColumnarRentalFile.COL_AMOUNT_PAID, ColumnarRentalFile.COL_TAX_RATE,
+            ColumnarRentalFile.COL_DISCOUNT_PERCENT, ColumnarRentalFile.COL_PRICING_EPOCH};
+
+    private final PricingConfig pricing;
+    private final Map<String, Car> fleet = new HashMap<>();
+
+    // Live rentals copied out under the system lock; money in cents, NONE when unknown
+    private String[] liveId = new String[0];
+    private Car[] liveCar = new Car[0];
+    private long[] liveStart = new long[0];
+    private int[] liveDays = new int[0];
+    private long[] liveTotal = new long[0];
+    private long[] liveSubtotal = new long[0];
+    private long[] liveDiscount = new long[0];
+    private long[] liveTax = new long[0];
+    private long[] livePaid = new long[0];
+    private double[] liveMultiplier = new double[0];
+    private double[] liveTaxRate = new double[0];
+    private double[] livePercent = new double[0];
+    private long[] liveEpoch = new long[0];
+
+    // Called under the CarRentalSystem lock
+    BillingAudit(PricingConfig pricing, List<Car> cars) {
+        this.pricing = pricing;
+        for (Car c : cars) fleet.put(c.getCarId().toUpperCase(), c);
+    }
+
+    // Called under the CarRentalSystem lock
+    void setLiveRentals(List<Rental> rentals) {
+        int n = rentals.size();
+        liveId = new String[n];
+        liveCar = new Car[n];
+        liveStart = new long[n];
+        liveDays = new int[n];
+        liveTotal = new long[n];
+        liveSubtotal = new long[n];
+        liveDiscount = new long[n];
+        liveTax = new long[n];
+        livePaid = new long[n];
+        liveMultiplier = new double[n];
+        liveTaxRate = new double[n];
+        livePercent = new double[n];
+        liveEpoch = new long[n];
+        for (int i = 0; i < n; i++) {
+            Rental r = rentals.get(i);
+            liveId[i] = r.getRentalId();
+            liveCar[i] = r.getCar();
+            liveStart[i] = r.getStartDate().toEpochDay();
+            liveDays[i] = r.getDays();
+            liveTotal[i] = cents(r.getTotalCost());
+            liveSubtotal[i] = cents(r.getSubtotalBeforeDiscount());
+            liveDiscount[i] = cents(r.getDiscountAmount());
+            liveTax[i] = cents(r.getTaxAmount());
+            livePaid[i] = Double.isNaN(r.getAmountPaid()) ? NONE : cents(r.getAmountPaid());
+            liveMultiplier[i] = r.getPriceMultiplier();
+            liveTaxRate[i] = r.getTaxRate();
+            livePercent[i] = r.getDiscountPercent();
+            liveEpoch[i] = r.getPricingEpoch();
+        }
+    }
+
+    private static long cents(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    // Partial results of one source; merged after all sources finish
+    static final class Result {
+        long rentals;
+        long repriced;
+        long unknownCar;    // car no longer in the fleet: pricing checks skipped
+        long noBreakdown;   // rows from before breakdowns were stored
+        long unrecorded;    // rows from before pricing settings were recorded: SUBTOTAL, DISCOUNT and TAX skipped
+        long otherEpoch;    // priced under settings that have changed since: SUBTOTAL skipped
+        long unknownPaid;   // rows from before payment totals were stored
+        long paidCents;
+        long billedCents;
+        final EnumMap<Check, long[]> mismatches = new EnumMap<>(Check.class); // check -> {count, |expected - actual| cents}
+        final EnumMap<Check, List<Finding>> samples = new EnumMap<>(Check.class);
+
+        Result() {
+            for (Check c : Check.values()) {
+                mismatches.put(c, new long[2]);
+                samples.put(c, new ArrayList<>());
+            }
+        }
+
+        public long getMismatches(Check check) {
+            return mismatches.get(check)[0];
+        }
+
+        public long getTotalMismatches() {
+            long n = 0;
+            for (long[] m : mismatches.values()) n += m[0];
+            return n;
+        }
+
+        public List<Finding> getSamples(Check check) {
+            return samples.get(check);
+        }
+
+        // Returns the finding if it is kept as a sample
+        Finding report(Check check, String rentalId, long expected, long actual) {
+            long[] m = mismatches.get(check);
+            m[0]++;
+            m[1] += Math.abs(expected - actual);
+            List<Finding> kept = samples.get(check);
+            if (kept.size() >= SAMPLES) return null;
+            Finding f = new Finding(rentalId, check, expected, actual);
+            kept.add(f);
+            return f;
+        }
+
+        void merge(Result o) {
+            rentals += o.rentals;
+            repriced += o.repriced;
+            unknownCar += o.unknownCar;
+            noBreakdown += o.noBreakdown;
+            unrecorded += o.unrecorded;
+            otherEpoch += o.otherEpoch;
+            unknownPaid += o.unknownPaid;
+            paidCents += o.paidCents;
+            billedCents += o.billedCents;
+            for (Check c : Check.values()) {
+                long[] mine = mismatches.get(c);
+                long[] theirs = o.mismatches.get(c);
+                mine[0] += theirs[0];
+                mine[1] += theirs[1];
+                List<Finding> kept = samples.get(c);
+                for (Finding f : o.samples.get(c)) {
+                    if (kept.size() < SAMPLES) kept.add(f);
+                }
+            }
+        }
+    }
+
+    // Checks one rental; samples it adds go to added as well, so archive rows can get their id afterwards
+    private void audit(Result res, List<Finding> added, String rentalId, Car car, int startMonth, long startDay, int days,
+                       long total, long subtotal, long discount, long tax, double multiplier, double taxRate, double percent,
+                       long epoch, long paid) {
+        res.rentals++;
+        res.billedCents += total;
+        if (paid == NONE) {
+            res.unknownPaid++;
+        } else {
+            res.paidCents += paid;
+            if (paid < total) note(res, added, res.report(Check.UNDERPAID, rentalId, total, paid));
+            else if (paid > total) note(res, added, res.report(Check.OVERPAID, rentalId, total, paid));
+        }
+        if (subtotal == 0 && discount == 0 && tax == 0 && total != 0) {
+            res.noBreakdown++;
+            return;
+        }
+        if (subtotal - discount + tax != total) note(res, added, res.report(Check.TOTAL, rentalId, subtotal - discount + tax, total));
+        if (epoch == 0) {
+            res.unrecorded++;
+            return;
+        }
+        if (car == null) {
+            res.unknownCar++;
+        } else if (epoch != pricing.getEpoch()) {
+            res.otherEpoch++;
+        } else {
+            res.repriced++;
+            long expected = cents(pricing.subtotal(car, startMonth, startDay, days, multiplier));
+            if (expected != subtotal) note(res, added, res.report(Check.SUBTOTAL, rentalId, expected, subtotal));
+        }
+        if (!Double.isNaN(percent)) {
+            long expected = cents(pricing.discountAmount(subtotal / 100.0, percent));
+            if (expected != discount) note(res, added, res.report(Check.DISCOUNT, rentalId, expected, discount));
+        }
+        if (!Double.isNaN(taxRate)) {
+            long expected = cents(PricingConfig.taxAmount(subtotal / 100.0, discount / 100.0, taxRate));
+            if (expected != tax) note(res, added, res.report(Check.TAX, rentalId, expected, tax));
+        }
+    }
+
+    private static void note(Result res, List<Finding> added, Finding sample) {
+        if (sample != null && added != null) added.add(sample);
+    }
+
+    private Result auditLive(int lo, int hi) {
+        Result res = new Result();
+        for (int i = lo; i < hi; i++) {
+            audit(res, null, liveId[i], liveCar[i], LocalDate.ofEpochDay(liveStart[i]).getMonthValue(), liveStart[i], liveDays[i],
+                    liveTotal[i], liveSubtotal[i], liveDiscount[i], liveTax[i], liveMultiplier[i], liveTaxRate[i], livePercent[i],
+                    liveEpoch[i], livePaid[i]);
+        }
+        return res;
+    }
+
+    private Result auditMonth(RentalArchive archive, YearMonth month) throws IOException {
+        Result res = new Result();
+        List<ColumnarRentalFile.Columns> blocks = archive.readMonth(month, ARCHIVE_COLUMNS);
+        List<Finding> added = new ArrayList<>();
+        Map<Integer, List<Finding>> pending = new HashMap<>(); // row within the month -> samples without an id
+        int offset = 0; // row number within the month across blocks, in scanMonth order
+        for (ColumnarRentalFile.Columns b : blocks) {
+            // dictionary columns are resolved once per distinct value
+            Car[] cars = new Car[b.dictionarySize(ColumnarRentalFile.COL_CAR_ID)];
+            for (int k = 0; k < cars.length; k++) {
+                cars[k] = fleet.get(b.dictionaryValue(ColumnarRentalFile.COL_CAR_ID, k).toUpperCase());
+            }
+            double[] taxRates = rates(b, ColumnarRentalFile.COL_TAX_RATE);
+            double[] percents = rates(b, ColumnarRentalFile.COL_DISCOUNT_PERCENT);
+            long[] epochs = new long[b.dictionarySize(ColumnarRentalFile.COL_PRICING_EPOCH)];
+            for (int k = 0; k < epochs.length; k++) {
+                String v = b.dictionaryValue(ColumnarRentalFile.COL_PRICING_EPOCH, k);
+                epochs[k] = v.isEmpty() ? 0 : Long.parseLong(v); // rows from before epochs were recorded
+            }
+            double[] multipliers = new double[b.dictionarySize(ColumnarRentalFile.COL_PRICE_MULTIPLIER)];
+            for (int k = 0; k < multipliers.length; k++) {
+                String v = b.dictionaryValue(ColumnarRentalFile.COL_PRICE_MULTIPLIER, k);
+                multipliers[k] = v.isEmpty() ? 1.0 : Double.parseDouble(v); // rows from before demand pricing
+            }
+            for (int row = 0; row < b.getRows(); row++) {
+                int before = added.size();
+                long startDay = b.number(ColumnarRentalFile.COL_START_DATE, row);
+                audit(res, added, null, cars[b.code(ColumnarRentalFile.COL_CAR_ID, row)], month.getMonthValue(), startDay,
+                        (int) b.number(ColumnarRentalFile.COL_DAYS, row),
+                        zeroIfBlank(b.number(ColumnarRentalFile.COL_TOTAL, row)),
+                        zeroIfBlank(b.number(ColumnarRentalFile.COL_SUBTOTAL, row)),
+                        zeroIfBlank(b.number(ColumnarRentalFile.COL_DISCOUNT_AMOUNT, row)),
+                        zeroIfBlank(b.number(ColumnarRentalFile.COL_TAX_AMOUNT, row)),
+                        multipliers[b.code(ColumnarRentalFile.COL_PRICE_MULTIPLIER, row)],
+                        taxRates[b.code(ColumnarRentalFile.COL_TAX_RATE, row)],
+                        percents[b.code(ColumnarRentalFile.COL_DISCOUNT_PERCENT, row)],
+                        epochs[b.code(ColumnarRentalFile.COL_PRICING_EPOCH, row)],
+                        b.number(ColumnarRentalFile.COL_AMOUNT_PAID, row));
+                if (added.size() > before) pending.put(offset + row, new ArrayList<>(added.subList(before, added.size())));
+            }
+            offset += b.getRows();
+        }
+        if (!pending.isEmpty()) resolveIds(archive, month, pending);
+        return res;
+    }
+
+    // A dictionary column of rates, NaN for blanks
+    private static double[] rates(ColumnarRentalFile.Columns b, int col) {
+        double[] rates = new double[b.dictionarySize(col)];
+        for (int k = 0; k < rates.length; k++) {
+            String v = b.dictionaryValue(col, k);
+            rates[k] = v.isEmpty() ? Double.NaN : Double.parseDouble(v);
+        }
+        return rates;
+    }
+
+    private static long zeroIfBlank(long cents) {
+        return cents == NONE ? 0 : cents;
+    }
+
+    // Rental ids are only decoded for months that produced samples
+    private static void resolveIds(RentalArchive archive, YearMonth month, Map<Integer, List<Finding>> pending) throws IOException {
+        int[] row = {0};
+        archive.scanMonth(month, new int[]{RentalArchive.COL_RENTAL_ID}, p -> {
+            List<Finding> findings = pending.get(row[0]++);
+            if (findings == null) return;
+            for (Finding f : findings) f.rentalId = p[RentalArchive.COL_RENTAL_ID];
+        });
+    }
+
+    public Result run(RentalArchive archive) throws IOException {
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (int from = 0; from < liveId.length; from += LIVE_SLICE) {
+            final int lo = from;
+            final int hi = Math.min(liveId.length, from + LIVE_SLICE);
+            tasks.add(() -> auditLive(lo, hi));
+        }
+        if (archive != null) {
+            for (YearMonth month : archive.getMonths()) {
+                tasks.add(() -> {
+                    try {
+                        return auditMonth(archive, month);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        }
+        Result total = new Result();
+        try {
+            for (Future<Result> f : ForkJoinPool.commonPool().invokeAll(tasks)) total.merge(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Billing audit interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw new IOException("Billing audit failed: " + cause.getMessage(), cause);
+        }
+        return total;
+    }
+
+    static String describe(Result r, long elapsedMs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Audited %d rentals (%d re-priced) in %d ms on %d threads%n",
+                r.rentals, r.repriced, elapsedMs, ForkJoinPool.getCommonPoolParallelism()));
+        sb.append(String.format("Billed $%.2f, paid $%.2f on rentals with payment totals%n", r.billedCents / 100.0, r.paidCents / 100.0));
+        if (r.unknownCar + r.noBreakdown + r.unrecorded + r.unknownPaid > 0) {
+            sb.append(String.format("Not checked: %d without breakdown, %d without recorded pricing settings, %d cars no longer in fleet, "
+                    + "%d without payment totals%n", r.noBreakdown, r.unrecorded, r.unknownCar, r.unknownPaid));
+        }
+        if (r.otherEpoch > 0) {
+            sb.append(String.format("Subtotal not re-priced: %d rentals priced under earlier settings%n", r.otherEpoch));
+        }
+        if (r.getTotalMismatches() == 0) {
+            sb.append("No mismatches.\n");
+            return sb.toString();
+        }
+        for (Check c : Check.values()) {
+            long[] m = r.mismatches.get(c);
+            if (m[0] == 0) continue;
+            sb.append(String.format("%-9s %8d  off by $%.2f in total  (%s)%n", c, m[0], m[1] / 100.0, c.description));
+            for (Finding f : r.samples.get(c)) {
+                sb.append(String.format("    %s expected $%.2f, found $%.2f%n", f.rentalId, f.expectedCents / 100.0, f.actualCents / 100.0));
+            }
+        }
+        return sb.toString();
+    }
+}
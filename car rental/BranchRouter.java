@@ -0,0 +1,319 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Routes operations across branch shards. Each branch is its own CarRentalSystem with
+ * its own lock, indexes, metrics and event bus, so bookings at different branches never
+ * wait on each other. Cars are routed through a directory filled when they are added;
+ * rental ids carry their branch as a "CODE-" prefix, and so do customers registered at
+ * a branch. Customers the router registers ("CUS" + n) are global and are copied into a
+ * branch the first time they rent there.
+ * Fleet search, history and reports query every branch in parallel and merge the results.
+ *
+ * All branches share one CouponEngine, so usage caps and per-customer limits hold
+ * across locations. The engine is thread-safe on its own; the router, not the
+ * branches, loads and saves it.
+ *
+ * Data layout: coupons at the top of the data directory, each branch under
+ * branches/CODE/ in the usual single-system layout.
+ */
+class BranchRouter {
+    private final Map<String, CarRentalSystem> branches = new ConcurrentHashMap<>();
+    private final Map<String, String> branchOfCar = new ConcurrentHashMap<>();
+    private final Map<String, Customer> customers = new ConcurrentHashMap<>();
+    private final AtomicInteger customerSeq = new AtomicInteger();
+    private final CouponEngine coupons = new CouponEngine();
+    // scatter-gather tasks wait on branch locks and disk, so they stay off the common pool the analytics use
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private ScheduledExecutorService saver; // periodic saveAll, created on first use
+    private volatile boolean consoleOutput = true;
+
+    BranchRouter() {
+        CarRentalSystem.seedCoupons(coupons);
+    }
+
+    static String normalizeCode(String code) {
+        String c = code.trim().toUpperCase();
+        if (c.isEmpty() || !c.matches("[A-Z0-9]+")) throw new IllegalArgumentException("Branch code must be letters and digits: " + code);
+        return c;
+    }
+
+    public CarRentalSystem addBranch(String code) {
+        String c = normalizeCode(code);
+        return branches.computeIfAbsent(c, k -> {
+            CarRentalSystem shard = new CarRentalSystem(k + "-", coupons);
+            shard.setConsoleOutput(consoleOutput);
+            return shard;
+        });
+    }
+
+    public CarRentalSystem getBranch(String code) {
+        return code == null ? null : branches.get(code.trim().toUpperCase());
+    }
+
+    public CouponEngine getCoupons() {
+        return coupons;
+    }
+
+    public List<String> getBranchCodes() {
+        List<String> codes = new ArrayList<>(branches.keySet());
+        codes.sort(null);
+        return codes;
+    }
+
+    public void setConsoleOutput(boolean consoleOutput) {
+        this.consoleOutput = consoleOutput;
+        for (CarRentalSystem shard : branches.values()) shard.setConsoleOutput(consoleOutput);
+    }
+
+    public void addCar(String branchCode, Car car) {
+        CarRentalSystem shard = getBranch(branchCode);
+        if (shard == null) throw new IllegalArgumentException("Unknown branch: " + branchCode);
+        String key = car.getCarId().toUpperCase();
+        if (branchOfCar.putIfAbsent(key, normalizeCode(branchCode)) != null) {
+            throw new IllegalArgumentException("Car id already used: " + car.getCarId());
+        }
+        shard.addCar(car);
+    }
+
+    public Customer registerCustomer(String name) {
+        Customer c;
+        do {
+            c = new Customer("CUS" + customerSeq.incrementAndGet(), name);
+        } while (customers.putIfAbsent(c.getCustomerId().toUpperCase(), c) != null);
+        return c;
+    }
+
+    public void addCustomer(Customer customer) {
+        customers.putIfAbsent(customer.getCustomerId().toUpperCase(), customer);
+    }
+
+    // Router customers, then customers registered at a branch (found through their "CODE-" prefix)
+    public Customer findCustomerById(String customerId) {
+        if (customerId == null) return null;
+        Customer c = customers.get(customerId.trim().toUpperCase());
+        if (c != null) return c;
+        CarRentalSystem home = branchForRental(customerId);
+        c = home == null ? null : home.findCustomerById(customerId);
+        if (c != null) customers.putIfAbsent(c.getCustomerId().toUpperCase(), c);
+        return c;
+    }
+
+    // Cars added to a branch directly (e.g. from its data files) are found once and then routed
+    public CarRentalSystem branchForCar(String carId) {
+        if (carId == null) return null;
+        String key = carId.trim().toUpperCase();
+        String code = branchOfCar.get(key);
+        if (code != null) return branches.get(code);
+        for (Map.Entry<String, CarRentalSystem> e : branches.entrySet()) {
+            if (e.getValue().findCarById(key) != null) {
+                branchOfCar.putIfAbsent(key, e.getKey());
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    // Branch of anything whose id carries a "CODE-" prefix: rentals, payments, branch customers
+    public CarRentalSystem branchForRental(String rentalId) {
+        int dash = rentalId == null ? -1 : rentalId.indexOf('-');
+        return dash <= 0 ? null : branches.get(rentalId.substring(0, dash).trim().toUpperCase());
+    }
+
+    public Car findCarById(String carId) {
+        CarRentalSystem shard = branchForCar(carId);
+        return shard == null ? null : shard.findCarById(carId);
+    }
+
+    public Rental rentCar(String carId, String customerId, int days, PaymentMethod method, String discountCode) {
+        return rentCar(carId, customerId, days, method, discountCode, LocalDate.now());
+    }
+
+    // Failures are reported through getLastFailure() of the branch, or the returned null with no branch
+    public Rental rentCar(String carId, String customerId, int days, PaymentMethod method, String discountCode, LocalDate start) {
+        CarRentalSystem shard = branchForCar(carId);
+        Customer customer = findCustomerById(customerId);
+        if (shard == null || customer == null) return null;
+        Car car = shard.findCarById(carId);
+        return shard.rentCar(car, shard.addCustomerIfAbsent(customer), days, method, discountCode, start);
+    }
+
+    public Rental extendRental(String rentalId, int extraDays, PaymentMethod method) {
+        CarRentalSystem shard = branchForRental(rentalId);
+        return shard == null ? null : shard.extendRental(rentalId, extraDays, method);
+    }
+
+    public Rental finalizeReturn(String carId, int actualDays, PaymentMethod method) {
+        CarRentalSystem shard = branchForCar(carId);
+        return shard == null ? null : shard.finalizeReturn(shard.findCarById(carId), actualDays, method);
+    }
+
+    public Rental findActiveRentalByCar(String carId) {
+        CarRentalSystem shard = branchForCar(carId);
+        return shard == null ? null : shard.findActiveRentalByCar(shard.findCarById(carId));
+    }
+
+    // Scatter-gather helpers
+
+    private <T> Map<String, T> gather(Function<CarRentalSystem, T> query) {
+        return gather((code, shard) -> query.apply(shard));
+    }
+
+    // Runs query on every branch concurrently and collects the results by branch code
+    private <T> Map<String, T> gather(BiFunction<String, CarRentalSystem, T> query) {
+        Map<String, CompletableFuture<T>> futures = new TreeMap<>();
+        for (Map.Entry<String, CarRentalSystem> e : branches.entrySet()) {
+            String code = e.getKey();
+            CarRentalSystem shard = e.getValue();
+            futures.put(code, CompletableFuture.supplyAsync(() -> query.apply(code, shard), executor));
+        }
+        Map<String, T> results = new TreeMap<>();
+        for (Map.Entry<String, CompletableFuture<T>> e : futures.entrySet()) {
+            try {
+                results.put(e.getKey(), e.getValue().join());
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+                throw ex;
+            }
+        }
+        return results;
+    }
+
+    // Cars across all branches whose id, brand or model contains query (null = any)
+    public Map<String, List<Car>> searchCars(boolean onlyAvailable, String query) {
+        String q = query == null ? null : query.trim().toLowerCase();
+        CarSpec.Search specs = q == null || q.isEmpty() ? null : CarSpec.search(q);
+        return gather(shard -> {
+            List<Car> matches = new ArrayList<>();
+            for (Car c : shard.getCars()) {
+                if (onlyAvailable && !c.isAvailable()) continue;
+                if (specs != null && !specs.test(c) && !c.getCarId().toLowerCase().contains(q)) continue;
+                matches.add(c);
+            }
+            return matches;
+        });
+    }
+
+    public Map<String, FleetReport> branchReports() {
+        return gather(CarRentalSystem::report);
+    }
+
+    public FleetReport report() {
+        return sum(branchReports().values());
+    }
+
+    static FleetReport sum(Collection<FleetReport> reports) {
+        int total = 0;
+        int available = 0;
+        int active = 0;
+        double revenue = 0;
+        for (FleetReport r : reports) {
+            total += r.getTotalCars();
+            available += r.getAvailableCars();
+            active += r.getActiveRentals();
+            revenue += r.getClosedRevenue();
+        }
+        return new FleetReport(total, available, active, revenue);
+    }
+
+    // null for an unknown customer, like CarRentalSystem.getRentalHistory
+    public List<Rental> getRentalHistory(String customerId) {
+        if (findCustomerById(customerId) == null) return null;
+        List<Rental> all = new ArrayList<>();
+        for (List<Rental> part : gather(shard -> shard.getRentalHistory(customerId)).values()) {
+            if (part != null) all.addAll(part); // null where the customer never rented
+        }
+        all.sort((a, b) -> a.getStartDate().compareTo(b.getStartDate()));
+        return all;
+    }
+
+    // Persistence: coupons in <dir>, one data directory per branch under <dir>/branches/<CODE>
+
+    public void saveAll(String dirPath) throws IOException {
+        Path dir = Path.of(dirPath);
+        Path root = dir.resolve("branches");
+        Files.createDirectories(root);
+        gather((code, shard) -> {
+            shard.saveData(root.resolve(code).toString());
+            return null;
+        });
+        CouponEngine checkpoint = coupons.checkpoint(dir);
+        long generation = checkpoint.getJournalGeneration();
+        DataSnapshot.writeCoupons(dir, checkpoint, generation);
+        CouponEngine.deleteJournalsBefore(dir, generation);
+    }
+
+    public synchronized void startAutosave(String dirPath, long periodSeconds) {
+        if (saver == null) {
+            saver = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "branch-save");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        saver.scheduleAtFixedRate(() -> {
+            try {
+                saveAll(dirPath);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Failed to save branches: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public void loadAll(String dirPath) throws IOException {
+        Path dir = Path.of(dirPath);
+        CarRentalSystem.loadCoupons(coupons, dir);
+        Path root = dir.resolve("branches");
+        if (!Files.isDirectory(root)) return;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path p : ds) addBranch(p.getFileName().toString());
+        }
+        gather((code, shard) -> {
+            shard.loadData(root.resolve(code).toString());
+            return null;
+        });
+        branchOfCar.clear();
+        int maxCustomer = 0;
+        for (Map.Entry<String, CarRentalSystem> e : branches.entrySet()) {
+            for (Car c : e.getValue().getCars()) branchOfCar.put(c.getCarId().toUpperCase(), e.getKey());
+            for (Customer cu : e.getValue().getCustomers()) {
+                addCustomer(cu);
+                String id = cu.getCustomerId();
+                if (id.startsWith("CUS")) {
+                    try {
+                        maxCustomer = Math.max(maxCustomer, Integer.parseInt(id.substring(3)));
+                    } catch (NumberFormatException ignore) {}
+                }
+            }
+        }
+        int seen = maxCustomer;
+        customerSeq.updateAndGet(v -> Math.max(v, seen));
+    }
+
+    // Stops autosave, the scatter-gather executor and every branch's event bus
+    public void close() {
+        synchronized (this) {
+            if (saver != null) saver.shutdownNow();
+        }
+        executor.shutdown();
+        for (CarRentalSystem shard : branches.values()) shard.getEvents().close();
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared description of a kind of car: its class, brand and model. A fleet has far
+ * fewer distinct models than cars, so every Car points at one interned CarSpec
+ * instead of holding its own strings; of() returns the same instance for the same
+ * inputs whether the car was built in code, read from cars.csv or replicated.
+ *
+ * Specs, brands and models each get a dense int code. Brand and model codes ignore
+ * case, so filters compare ints instead of strings, and a text search is decided once
+ * per spec (see search) rather than once per car. The dictionary is process-wide and
+ * only grows; it holds one entry per distinct model ever seen.
+ */
+final class CarSpec {
+    private static final Map<String, CarSpec> specs = new ConcurrentHashMap<>();
+    private static final List<CarSpec> byCode = new ArrayList<>();
+    private static final Map<String, Integer> brandCodes = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> modelCodes = new ConcurrentHashMap<>();
+
+    private final int code;
+    private final Class<? extends Car> carClass;
+    private final String brand;
+    private final String model;
+    private final int brandCode;
+    private final int modelCode;
+    private final String searchText; // lower-cased "brand model"
+
+    private CarSpec(int code, Class<? extends Car> carClass, String brand, String model) {
+        this.code = code;
+        this.carClass = carClass;
+        this.brand = brand;
+        this.model = model;
+        this.brandCode = intern(brandCodes, brand);
+        this.modelCode = intern(modelCodes, model);
+        this.searchText = (brand + " " + model).toLowerCase();
+    }
+
+    public static CarSpec of(Class<? extends Car> carClass, String brand, String model) {
+        String key = carClass.getName() + '\u0000' + brand + '\u0000' + model;
+        CarSpec spec = specs.get(key);
+        if (spec != null) return spec;
+        synchronized (byCode) {
+            spec = specs.get(key);
+            if (spec == null) {
+                spec = new CarSpec(byCode.size(), carClass, brand, model);
+                byCode.add(spec);
+                specs.put(key, spec);
+            }
+            return spec;
+        }
+    }
+
+    private static int intern(Map<String, Integer> codes, String value) {
+        return codes.computeIfAbsent(value.trim().toLowerCase(), k -> codes.size());
+    }
+
+    // Code of a brand or model in any case, or -1 if no car has it
+    public static int brandCode(String brand) {
+        return brand == null ? -1 : brandCodes.getOrDefault(brand.trim().toLowerCase(), -1);
+    }
+
+    public static int modelCode(String model) {
+        return model == null ? -1 : modelCodes.getOrDefault(model.trim().toLowerCase(), -1);
+    }
+
+    public static int count() {
+        synchronized (byCode) {
+            return byCode.size();
+        }
+    }
+
+    /**
+     * Which specs have query in their brand or model, ignoring case. The substring test
+     * runs once per spec here; testing a car is then an array lookup by spec code.
+     */
+    public static Search search(String query) {
+        String q = query == null ? "" : query.trim().toLowerCase();
+        boolean[] matches;
+        synchronized (byCode) {
+            matches = new boolean[byCode.size()];
+            for (int i = 0; i < matches.length; i++) matches[i] = byCode.get(i).searchText.contains(q);
+        }
+        return new Search(q, matches);
+    }
+
+    static final class Search {
+        private final String query;
+        private final boolean[] matches; // by spec code
+
+        private Search(String query, boolean[] matches) {
+            this.query = query;
+            this.matches = matches;
+        }
+
+        public boolean test(Car car) {
+            CarSpec spec = car.getSpec();
+            // a spec created after the search started is tested directly
+            return spec.code < matches.length ? matches[spec.code] : spec.searchText.contains(query);
+        }
+    }
+
+    public int getCode() { return code; }
+    public Class<? extends Car> getCarClass() { return carClass; }
+    public String getBrand() { return brand; }
+    public String getModel() { return model; }
+    public int getBrandCode() { return brandCode; }
+    public int getModelCode() { return modelCode; }
+
+    @Override
+    public String toString() {
+        return carClass.getSimpleName() + " " + brand + " " + model;
+    }
+}
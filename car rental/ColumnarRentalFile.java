@@ -0,0 +1,579 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Columnar file for one partition of rentals (the archive uses one per start month).
+ * Each rentals.csv field is stored as its own block:
+ *   ids that repeat (car, customer, method, coupon) are dictionary-encoded,
+ *   dates are zig-zag varint deltas, money is varint cents, flags are one byte.
+ * A footer holds the row count, min/max start and end dates and the offset of every
+ * column, so readers can skip a whole file from the footer alone and only read the
+ * byte ranges of the columns they decode. Files written before the trailing columns
+ * existed have fewer entries in the footer; those columns read as blank.
+ *
+ * Layout: MAGIC | column blocks ... | footer | footerLength:int | MAGIC
+ */
+class ColumnarRentalFile {
+    static final int FIELD_COUNT = 21;
+
+    private static final int MAGIC = 0x52434F4C; // "RCOL"
+    private static final byte STRING = 0;
+    private static final byte DICT = 1;
+    private static final byte INT = 2;
+    private static final byte DATE = 3;
+    private static final byte CENTS = 4;
+    private static final byte BOOL = 5;
+
+    // Column encodings, indexed like the rentals.csv fields
+    private static final byte[] TYPES = {
+            STRING, // rentalId
+            DICT,   // carId
+            DICT,   // customerId
+            INT,    // days
+            DATE,   // startDate
+            CENTS,  // totalCost
+            BOOL,   // active
+            STRING, // paymentId
+            DICT,   // paymentMethod
+            CENTS,  // paymentAmount
+            DATE,   // paidOn
+            DICT,   // discountCode
+            CENTS,  // subtotal
+            CENTS,  // discountAmount
+            CENTS,  // taxAmount
+            DICT,   // priceMultiplier
+            CENTS,  // amountPaid
+            INT,    // version
+            DICT,   // taxRate
+            DICT,   // discountPercent
+            DICT,   // pricingEpoch
+    };
+
+    static final int COL_CAR_ID = 1;
+    static final int COL_DAYS = 3;
+    static final int COL_START_DATE = 4;
+    static final int COL_TOTAL = 5;
+    static final int COL_DISCOUNT_CODE = 11;
+    static final int COL_SUBTOTAL = 12;
+    static final int COL_DISCOUNT_AMOUNT = 13;
+    static final int COL_TAX_AMOUNT = 14;
+    static final int COL_PRICE_MULTIPLIER = 15;
+    static final int COL_AMOUNT_PAID = 16;
+    static final int COL_VERSION = 17;
+    static final int COL_TAX_RATE = 18;
+    static final int COL_DISCOUNT_PERCENT = 19;
+    static final int COL_PRICING_EPOCH = 20;
+
+    // Money columns keep whole cents, so a value with more decimals reads back rounded
+    static boolean storesCents(int col) {
+        return TYPES[col] == CENTS;
+    }
+
+    // Footer contents; dates are epoch days
+    static class Footer {
+        final int rows;
+        final long minStart;
+        final long maxStart;
+        final long minEnd;
+        final long maxEnd;
+        final int columns; // columns present in the file; later ones read as blank
+        final long[] offsets;
+        final int[] lengths;
+
+        Footer(int rows, long minStart, long maxStart, long minEnd, long maxEnd, int columns, long[] offsets, int[] lengths) {
+            this.rows = rows;
+            this.columns = columns;
+            this.minStart = minStart;
+            this.maxStart = maxStart;
+            this.minEnd = minEnd;
+            this.maxEnd = maxEnd;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        // True if some rental in the file may overlap [from, to]; null bounds are open
+        boolean overlaps(LocalDate from, LocalDate to) {
+            if (rows == 0) return false;
+            if (from != null && maxEnd < from.toEpochDay()) return false;
+            return to == null || minStart <= to.toEpochDay();
+        }
+    }
+
+    private ColumnarRentalFile() {
+    }
+
+    // Write rows (raw rentals.csv field values) sorted by start date; replaces file atomically
+    static void write(Path file, List<String[]> rows) throws IOException {
+        write(file, rows, FIELD_COUNT);
+    }
+
+    // Only the first columns fields, laid out as files from before the later columns existed (for StorageSelfCheck)
+    static void write(Path file, List<String[]> rows, int columns) throws IOException {
+        List<String[]> sorted = new ArrayList<>(rows);
+        sorted.sort((a, b) -> a[COL_START_DATE].compareTo(b[COL_START_DATE]));
+        long minStart = Long.MAX_VALUE, maxStart = Long.MIN_VALUE, minEnd = Long.MAX_VALUE, maxEnd = Long.MIN_VALUE;
+        for (String[] r : sorted) {
+            long start = epochDay(r[COL_START_DATE]);
+            long end = start + Integer.parseInt(r[COL_DAYS]);
+            minStart = Math.min(minStart, start);
+            maxStart = Math.max(maxStart, start);
+            minEnd = Math.min(minEnd, end);
+            maxEnd = Math.max(maxEnd, end);
+        }
+        if (sorted.isEmpty()) {
+            minStart = maxStart = minEnd = maxEnd = 0;
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer head = ByteBuffer.allocate(4).putInt(MAGIC);
+            head.flip();
+            ch.write(head);
+            long[] offsets = new long[columns];
+            int[] lengths = new int[columns];
+            for (int col = 0; col < columns; col++) {
+                byte[] block = encodeColumn(col, sorted);
+                offsets[col] = ch.position();
+                lengths[col] = block.length;
+                ch.write(ByteBuffer.wrap(block));
+            }
+            ByteBuffer footer = ByteBuffer.allocate(4 + 8 * 4 + columns * 12 + 8);
+            footer.putInt(sorted.size()).putLong(minStart).putLong(maxStart).putLong(minEnd).putLong(maxEnd);
+            for (int col = 0; col < columns; col++) {
+                footer.putLong(offsets[col]).putInt(lengths[col]);
+            }
+            int footerLength = footer.position();
+            footer.putInt(footerLength).putInt(MAGIC);
+            footer.flip();
+            ch.write(footer);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Footer readFooter(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readFooter(ch, file);
+        }
+    }
+
+    // Decode all columns
+    static void scan(Path file, Consumer<String[]> visitor) throws IOException {
+        scan(file, null, -1, null, visitor);
+    }
+
+    /**
+     * Decode only the requested columns (null = all). If filterColumn >= 0, that column is
+     * decoded first and the others only for rows where filter accepts the value; when no row
+     * matches, the remaining columns are never read. Unrequested fields are null in the row.
+     */
+    static void scan(Path file, int[] columns, int filterColumn, Predicate<String> filter, Consumer<String[]> visitor) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            Footer footer = readFooter(ch, file);
+            if (footer.rows == 0) return;
+            boolean[] wanted = new boolean[FIELD_COUNT];
+            if (columns == null) {
+                Arrays.fill(wanted, true);
+            } else {
+                for (int c : columns) wanted[c] = true;
+            }
+
+            boolean[] match = null;
+            String[][] decoded = new String[FIELD_COUNT][];
+            if (filterColumn >= 0) {
+                decoded[filterColumn] = decodeColumn(ch, footer, filterColumn);
+                match = new boolean[footer.rows];
+                boolean any = false;
+                for (int i = 0; i < footer.rows; i++) {
+                    match[i] = filter.test(decoded[filterColumn][i]);
+                    any |= match[i];
+                }
+                if (!any) return;
+            }
+            for (int col = 0; col < FIELD_COUNT; col++) {
+                if (wanted[col] && decoded[col] == null) decoded[col] = decodeColumn(ch, footer, col);
+            }
+            for (int i = 0; i < footer.rows; i++) {
+                if (match != null && !match[i]) continue;
+                String[] row = new String[FIELD_COUNT];
+                for (int col = 0; col < FIELD_COUNT; col++) {
+                    if (wanted[col]) row[col] = decoded[col][i];
+                }
+                visitor.accept(row);
+            }
+        }
+    }
+
+    private static Footer readFooter(FileChannel ch, Path file) throws IOException {
+        long size = ch.size();
+        ByteBuffer tail = ByteBuffer.allocate(8);
+        readFully(ch, tail, size - 8);
+        int footerLength = tail.getInt(0);
+        if (tail.getInt(4) != MAGIC || footerLength <= 0 || footerLength > size) {
+            throw new IOException("Not a columnar rentals file: " + file);
+        }
+        ByteBuffer fb = ByteBuffer.allocate(footerLength);
+        readFully(ch, fb, size - 8 - footerLength);
+        int rows = fb.getInt();
+        long minStart = fb.getLong(), maxStart = fb.getLong(), minEnd = fb.getLong(), maxEnd = fb.getLong();
+        int columns = Math.min(FIELD_COUNT, fb.remaining() / 12);
+        long[] offsets = new long[FIELD_COUNT];
+        int[] lengths = new int[FIELD_COUNT];
+        for (int col = 0; col < columns; col++) {
+            offsets[col] = fb.getLong();
+            lengths[col] = fb.getInt();
+        }
+        return new Footer(rows, minStart, maxStart, minEnd, maxEnd, columns, offsets, lengths);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0) throw new IOException("Unexpected end of file");
+        }
+        buf.flip();
+    }
+
+    // Encoding
+
+    // Rows from older files may stop before the trailing fields
+    private static String field(String[] row, int col) {
+        return col < row.length && row[col] != null ? row[col] : "";
+    }
+
+    private static byte[] encodeColumn(int col, List<String[]> rows) {
+        Bytes out = new Bytes();
+        switch (TYPES[col]) {
+            case STRING:
+                for (String[] r : rows) writeString(out, field(r, col));
+                break;
+            case DICT: {
+                Map<String, Integer> dict = new HashMap<>();
+                List<String> values = new ArrayList<>();
+                int[] codes = new int[rows.size()];
+                for (int i = 0; i < rows.size(); i++) {
+                    String v = field(rows.get(i), col);
+                    Integer code = dict.get(v);
+                    if (code == null) {
+                        code = values.size();
+                        dict.put(v, code);
+                        values.add(v);
+                    }
+                    codes[i] = code;
+                }
+                writeVarLong(out, values.size());
+                for (String v : values) writeString(out, v);
+                for (int code : codes) writeVarLong(out, code);
+                break;
+            }
+            case INT:
+                for (String[] r : rows) writeVarLong(out, field(r, col).isEmpty() ? 0 : zigZag(Long.parseLong(r[col])));
+                break;
+            case DATE: {
+                long prev = 0;
+                for (String[] r : rows) {
+                    if (field(r, col).isEmpty()) {
+                        writeVarLong(out, 0);
+                        continue;
+                    }
+                    long day = epochDay(r[col]);
+                    writeVarLong(out, zigZag(day - prev) + 1);
+                    prev = day;
+                }
+                break;
+            }
+            case CENTS:
+                for (String[] r : rows) {
+                    writeVarLong(out, field(r, col).isEmpty() ? 0 : zigZag(cents(r[col])) + 1);
+                }
+                break;
+            case BOOL:
+                for (String[] r : rows) out.write(Boolean.parseBoolean(field(r, col)) ? 1 : 0);
+                break;
+            default:
+                throw new IllegalStateException("Unknown column type " + TYPES[col]);
+        }
+        return out.toByteArray();
+    }
+
+    private static String[] decodeColumn(FileChannel ch, Footer footer, int col) throws IOException {
+        String[] values = new String[footer.rows];
+        if (col >= footer.columns) {
+            Arrays.fill(values, "");
+            return values;
+        }
+        Columns raw = new Columns(footer.rows);
+        raw.decode(col, readColumn(ch, footer, col));
+        for (int i = 0; i < values.length; i++) {
+            switch (TYPES[col]) {
+                case STRING:
+                    values[i] = raw.string(col, i);
+                    break;
+                case DICT:
+                    values[i] = raw.dictionaryValue(col, raw.code(col, i));
+                    break;
+                case INT:
+                    values[i] = String.valueOf(raw.number(col, i));
+                    break;
+                case DATE:
+                    values[i] = raw.number(col, i) == Columns.EMPTY ? "" : LocalDate.ofEpochDay(raw.number(col, i)).toString();
+                    break;
+                case CENTS:
+                    values[i] = raw.number(col, i) == Columns.EMPTY ? "" : String.valueOf(raw.number(col, i) / 100.0);
+                    break;
+                default:
+                    values[i] = String.valueOf(raw.number(col, i) != 0);
+                    break;
+            }
+        }
+        return values;
+    }
+
+    private static ByteBuffer readColumn(FileChannel ch, Footer footer, int col) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(footer.lengths[col]);
+        readFully(ch, in, footer.offsets[col]);
+        return in;
+    }
+
+    // Decode the listed columns (null = all) into primitive arrays
+    static Columns readColumns(Path file, int[] columns) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            Footer footer = readFooter(ch, file);
+            Columns result = new Columns(footer.rows);
+            for (int col = 0; col < footer.columns; col++) {
+                if (wants(columns, col)) result.decode(col, readColumn(ch, footer, col));
+            }
+            return result;
+        }
+    }
+
+    // Same as readColumns for rows that are not in a columnar file yet (legacy segments)
+    static Columns toColumns(List<String[]> rows, int[] columns) {
+        Columns result = new Columns(rows.size());
+        for (int col = 0; col < FIELD_COUNT; col++) {
+            if (wants(columns, col)) result.decode(col, ByteBuffer.wrap(encodeColumn(col, rows)));
+        }
+        return result;
+    }
+
+    private static boolean wants(int[] columns, int col) {
+        if (columns == null) return true;
+        for (int c : columns) if (c == col) return true;
+        return false;
+    }
+
+    /**
+     * Columns decoded into primitive arrays for bulk readers that would otherwise build a
+     * String per field: dates are epoch days, money is cents, flags are 0/1 and blank
+     * values are EMPTY; dictionary columns are codes into their value table. Columns
+     * that were not decoded, or that the file predates, read as blank.
+     */
+    static final class Columns {
+        static final long EMPTY = Long.MIN_VALUE;
+
+        private final int rows;
+        private final long[][] numbers = new long[FIELD_COUNT][];  // INT, DATE, CENTS, BOOL
+        private final int[][] codes = new int[FIELD_COUNT][];      // DICT
+        private final String[][] strings = new String[FIELD_COUNT][]; // STRING per row, DICT per code
+
+        Columns(int rows) {
+            this.rows = rows;
+        }
+
+        public int getRows() { return rows; }
+
+        public long number(int col, int row) {
+            long[] n = numbers[col];
+            return n == null ? EMPTY : n[row];
+        }
+
+        public int code(int col, int row) {
+            int[] c = codes[col];
+            return c == null ? 0 : c[row];
+        }
+
+        public int dictionarySize(int col) {
+            return codes[col] == null ? 1 : strings[col].length;
+        }
+
+        public String dictionaryValue(int col, int code) {
+            return codes[col] == null ? "" : strings[col][code];
+        }
+
+        public String string(int col, int row) {
+            String[] v = strings[col];
+            return v == null ? "" : v[row];
+        }
+
+        private void decode(int col, ByteBuffer in) {
+            switch (TYPES[col]) {
+                case STRING: {
+                    String[] v = new String[rows];
+                    for (int i = 0; i < rows; i++) v[i] = readString(in);
+                    strings[col] = v;
+                    break;
+                }
+                case DICT: {
+                    String[] dict = new String[(int) readVarLong(in)];
+                    for (int i = 0; i < dict.length; i++) dict[i] = readString(in);
+                    int[] c = new int[rows];
+                    for (int i = 0; i < rows; i++) c[i] = (int) readVarLong(in);
+                    strings[col] = dict;
+                    codes[col] = c;
+                    break;
+                }
+                case INT: {
+                    long[] n = new long[rows];
+                    for (int i = 0; i < rows; i++) n[i] = unZigZag(readVarLong(in));
+                    numbers[col] = n;
+                    break;
+                }
+                case DATE: {
+                    long[] n = new long[rows];
+                    long prev = 0;
+                    for (int i = 0; i < rows; i++) {
+                        long v = readVarLong(in);
+                        if (v == 0) {
+                            n[i] = EMPTY;
+                            continue;
+                        }
+                        prev += unZigZag(v - 1);
+                        n[i] = prev;
+                    }
+                    numbers[col] = n;
+                    break;
+                }
+                case CENTS: {
+                    long[] n = new long[rows];
+                    for (int i = 0; i < rows; i++) {
+                        long v = readVarLong(in);
+                        n[i] = v == 0 ? EMPTY : unZigZag(v - 1);
+                    }
+                    numbers[col] = n;
+                    break;
+                }
+                case BOOL: {
+                    long[] n = new long[rows];
+                    for (int i = 0; i < rows; i++) n[i] = in.get() != 0 ? 1 : 0;
+                    numbers[col] = n;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown column type " + TYPES[col]);
+            }
+        }
+    }
+
+    private static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    // yyyy-MM-dd as an epoch day without going through a DateTimeFormatter; other forms take the slow path
+    static long epochDay(String iso) {
+        if (iso.length() == 10 && iso.charAt(4) == '-' && iso.charAt(7) == '-') {
+            int y = digits(iso, 0, 4), m = digits(iso, 5, 7), d = digits(iso, 8, 10);
+            if (y >= 0 && m >= 0 && d >= 0) return LocalDate.of(y, m, d).toEpochDay();
+        }
+        return LocalDate.parse(iso).toEpochDay();
+    }
+
+    // A money amount as written by Double.toString, in cents; plain decimals with up to two places are read exactly
+    static long cents(String v) {
+        int dot = v.indexOf('.');
+        int fraction = dot < 0 ? 0 : v.length() - dot - 1;
+        boolean negative = v.startsWith("-");
+        int intStart = negative ? 1 : 0;
+        int intEnd = dot < 0 ? v.length() : dot;
+        if (fraction <= 2 && intEnd - intStart >= 1 && intEnd - intStart <= 15) {
+            int whole = intEnd - intStart <= 9 ? digits(v, intStart, intEnd) : -1;
+            int part = fraction == 0 ? 0 : digits(v, dot + 1, v.length());
+            if (whole >= 0 && part >= 0) {
+                long c = whole * 100L + (fraction == 1 ? part * 10L : part);
+                return negative ? -c : c;
+            }
+        }
+        return Math.round(Double.parseDouble(v) * 100.0);
+    }
+
+    // Non-negative decimal in s[from, to), or -1 if any character is not a digit
+    private static int digits(String s, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    // Growable byte buffer for encoding; unlike ByteArrayOutputStream its writes take no lock
+    private static final class Bytes {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        void write(int b) {
+            if (size == buf.length) buf = Arrays.copyOf(buf, size * 2);
+            buf[size++] = (byte) b;
+        }
+
+        void write(byte[] b, int off, int len) {
+            if (size + len > buf.length) buf = Arrays.copyOf(buf, Math.max(size * 2, size + len));
+            System.arraycopy(b, off, buf, size, len);
+            size += len;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    private static void writeVarLong(Bytes out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+            shift += 7;
+        }
+    }
+
+    private static void writeString(Bytes out, String s) {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int len = (int) readVarLong(in);
+        String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return s;
+    }
+}
@@ -0,0 +1,729 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// Result of validating or redeeming a coupon for a booking
+enum RedemptionStatus { APPLIED, NO_CODE, UNKNOWN, EXPIRED, EXHAUSTED, CUSTOMER_LIMIT }
+
+// Read-only view of one coupon, handed out by CouponEngine.forEach
+class Coupon {
+    private final String code;
+    private final double percent;
+    private final LocalDate expiresOn; // null = never expires
+    private final int maxUses;          // 0 = unlimited
+    private final int perCustomerLimit; // 0 = unlimited
+    private final int used;
+
+    Coupon(String code, double percent, LocalDate expiresOn, int maxUses, int perCustomerLimit, int used) {
+        this.code = code;
+        this.percent = percent;
+        this.expiresOn = expiresOn;
+        this.maxUses = maxUses;
+        this.perCustomerLimit = perCustomerLimit;
+        this.used = used;
+    }
+
+    public String getCode() { return code; }
+    public double getPercent() { return percent; }
+    public LocalDate getExpiresOn() { return expiresOn; }
+    public int getMaxUses() { return maxUses; }
+    public int getPerCustomerLimit() { return perCustomerLimit; }
+    public int getUsed() { return used; }
+    public boolean isSingleUse() { return maxUses == 1; }
+}
+
+// Fixed-size bloom filter over coupon codes; false positives only, never false negatives
+class BloomFilter {
+    private static final int HASHES = 5;
+    private final long[] bits;
+    private final long mask;
+
+    BloomFilter(int expectedEntries) {
+        // ~16 bits per entry keeps the false positive rate well under 1%
+        long wanted = Math.max(1024L, (long) expectedEntries * 16L);
+        long size = Long.highestOneBit(wanted - 1) << 1;
+        bits = new long[(int) Math.max(1, size >>> 6)];
+        mask = size - 1;
+    }
+
+    void add(String key) {
+        long h1 = hash1(key);
+        long h2 = hash2(h1);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = (h1 + i * h2) & mask;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(String key) {
+        long h1 = hash1(key);
+        long h2 = hash2(h1);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = (h1 + i * h2) & mask;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private static long hash1(String key) {
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long hash2(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h | 1L; // odd step so probes never collapse
+    }
+}
+
+/**
+ * Coupon store sized for millions of codes.
+ * Codes live in an open-addressing table of parallel arrays (no per-coupon objects),
+ * a bloom filter rejects unknown codes before probing, and redemption counters are
+ * CAS-updated so concurrent bookings never over-redeem a limited code.
+ * Redemptions and issued batches are appended to a journal so they survive a crash
+ * between full saves.
+ * Journals are numbered by generation: a checkpoint started a new generation and
+ * records its number, so loading replays exactly the journals written after it.
+ */
+class CouponEngine {
+    private static final int NO_EXPIRY = Integer.MAX_VALUE;
+    private static final String TOMBSTONE = new String("<removed>");
+    private static final char[] CODE_ALPHABET = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789".toCharArray();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ConcurrentHashMap<String, AtomicInteger> customerUses = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong version = new AtomicLong(); // bumped when codes or percentages change, not on redemptions
+
+    private String[] codes;
+    private double[] percents;
+    private int[] expiryDays;
+    private int[] maxUses;
+    private int[] perCustomerLimits;
+    private AtomicIntegerArray used;
+    private int size;
+    private int tombstones;
+    private BloomFilter bloom;
+
+    private volatile BufferedWriter journal; // coupon_redemptions[-N].log, null until a data dir is known
+    private final StringBuilder pending = new StringBuilder(); // journal lines not yet written, guarded by itself
+    private long queuedBatches;  // guarded by pending
+    private long writtenBatches; // guarded by this
+    private Path journalFile;
+    private long journalGeneration = 0;
+
+    CouponEngine() {
+        allocate(64);
+    }
+
+    public static String normalize(String code) {
+        return code == null ? "" : code.trim().toUpperCase();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Part of every quote cache key, so systems sharing this engine all see a coupon change
+    public long getVersion() {
+        return version.get();
+    }
+
+    // Add or update a coupon; the redemption count of an existing code is preserved
+    public void put(String rawCode, double percent, LocalDate expiresOn, int maxUseCount, int perCustomerLimit) {
+        String code = normalize(rawCode);
+        if (code.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + 1);
+            int slot = find(code);
+            if (slot < 0) {
+                slot = insertSlot(code);
+                codes[slot] = code;
+                used.set(slot, 0);
+                size++;
+                bloom.add(code);
+            }
+            percents[slot] = percent;
+            expiryDays[slot] = expiresOn == null ? NO_EXPIRY : (int) expiresOn.toEpochDay();
+            maxUses[slot] = Math.max(0, maxUseCount);
+            perCustomerLimits[slot] = Math.max(0, perCustomerLimit);
+            version.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(String code, double percent) {
+        put(code, percent, null, 0, 0);
+    }
+
+    public boolean remove(String rawCode) {
+        String code = normalize(rawCode);
+        lock.writeLock().lock();
+        try {
+            int slot = find(code);
+            if (slot < 0) return false;
+            codes[slot] = TOMBSTONE;
+            size--;
+            tombstones++;
+            String prefix = code + '\u0000';
+            customerUses.keySet().removeIf(k -> k.startsWith(prefix));
+            version.incrementAndGet();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Percent attached to a code regardless of expiry or limits (used to re-price existing rentals)
+    public double percentFor(String rawCode) {
+        String code = normalize(rawCode);
+        if (code.isEmpty() || !mightExist(code)) return 0.0;
+        lock.readLock().lock();
+        try {
+            int slot = find(code);
+            return slot < 0 ? 0.0 : percents[slot];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Validate without consuming a use (quotes and previews)
+    public RedemptionStatus check(String rawCode, String customerId, LocalDate on) {
+        String code = normalize(rawCode);
+        if (code.isEmpty()) return RedemptionStatus.NO_CODE;
+        if (!mightExist(code)) return RedemptionStatus.UNKNOWN;
+        lock.readLock().lock();
+        try {
+            int slot = find(code);
+            if (slot < 0) return RedemptionStatus.UNKNOWN;
+            if (on.toEpochDay() > expiryDays[slot]) return RedemptionStatus.EXPIRED;
+            if (maxUses[slot] > 0 && used.get(slot) >= maxUses[slot]) return RedemptionStatus.EXHAUSTED;
+            int limit = perCustomerLimits[slot];
+            if (limit > 0 && customerId != null) {
+                AtomicInteger c = customerUses.get(customerKey(code, customerId));
+                if (c != null && c.get() >= limit) return RedemptionStatus.CUSTOMER_LIMIT;
+            }
+            return RedemptionStatus.APPLIED;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Atomically consume one use of the code for the customer
+    public RedemptionStatus redeem(String rawCode, String customerId, LocalDate on) {
+        String code = normalize(rawCode);
+        if (code.isEmpty()) return RedemptionStatus.NO_CODE;
+        if (!mightExist(code)) return RedemptionStatus.UNKNOWN;
+        lock.readLock().lock();
+        try {
+            int slot = find(code);
+            if (slot < 0) return RedemptionStatus.UNKNOWN;
+            if (on.toEpochDay() > expiryDays[slot]) return RedemptionStatus.EXPIRED;
+            // The customer's own use is taken first: backing it out is invisible to other
+            // customers, while a global use taken and handed back could turn them away
+            int limit = perCustomerLimits[slot];
+            AtomicInteger mine = null;
+            if (limit > 0 && customerId != null) {
+                mine = customerUses.computeIfAbsent(customerKey(code, customerId), k -> new AtomicInteger());
+                if (mine.incrementAndGet() > limit) {
+                    mine.decrementAndGet();
+                    return RedemptionStatus.CUSTOMER_LIMIT;
+                }
+            }
+            int max = maxUses[slot];
+            while (true) {
+                int cur = used.get(slot);
+                if (max > 0 && cur >= max) {
+                    if (mine != null) mine.decrementAndGet();
+                    return RedemptionStatus.EXHAUSTED;
+                }
+                if (used.compareAndSet(slot, cur, cur + 1)) break;
+            }
+            appendJournal(code, customerId, 1);
+            return RedemptionStatus.APPLIED;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Give back a use when the booking that redeemed it did not go through
+    public void release(String rawCode, String customerId) {
+        String code = normalize(rawCode);
+        lock.readLock().lock();
+        try {
+            int slot = find(code);
+            if (slot < 0) return;
+            used.updateAndGet(slot, v -> Math.max(0, v - 1));
+            if (perCustomerLimits[slot] > 0 && customerId != null) {
+                AtomicInteger c = customerUses.get(customerKey(code, customerId));
+                if (c != null) c.updateAndGet(v -> Math.max(0, v - 1));
+            }
+            appendJournal(code, customerId, -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Generate count single-use codes and write them, one per line, to exportFile.
+     * Only the generation holds the lock. The codes are journaled before the export
+     * file is written, so a code that was handed out survives a crash before the next
+     * full save, and so do its journaled redemptions.
+     */
+    public int issueBatch(String prefix, int count, double percent, LocalDate expiresOn, Path exportFile) throws IOException {
+        String p = normalize(prefix);
+        String[] issued = new String[count];
+        try (BufferedWriter bw = Files.newBufferedWriter(exportFile)) {
+            lock.writeLock().lock();
+            try {
+                ensureCapacity(size + count);
+                int expiry = expiresOn == null ? NO_EXPIRY : (int) expiresOn.toEpochDay();
+                char[] buf = new char[10];
+                for (int n = 0; n < count; ) {
+                    for (int i = 0; i < buf.length; i++) buf[i] = CODE_ALPHABET[random.nextInt(CODE_ALPHABET.length)];
+                    String code = p + new String(buf);
+                    if (find(code) >= 0) continue;
+                    int slot = insertSlot(code);
+                    codes[slot] = code;
+                    percents[slot] = percent;
+                    expiryDays[slot] = expiry;
+                    maxUses[slot] = 1;
+                    perCustomerLimits[slot] = 0;
+                    used.set(slot, 0);
+                    size++;
+                    bloom.add(code);
+                    issued[n++] = code;
+                }
+                version.incrementAndGet();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            String suffix = "," + percent + "," + (expiresOn == null ? "" : expiresOn.toString()) + ",1,0";
+            StringBuilder journaled = new StringBuilder(count * (p.length() + 12 + suffix.length()));
+            for (String code : issued) journaled.append('+').append(code).append(suffix).append(System.lineSeparator());
+            appendJournal(journaled);
+            for (String code : issued) {
+                bw.write(code);
+                bw.newLine();
+            }
+        }
+        return count;
+    }
+
+    public void forEach(Consumer<Coupon> visitor) {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < codes.length; i++) {
+                String code = codes[i];
+                if (code == null || code == TOMBSTONE) continue;
+                visitor.accept(toCoupon(i));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Coupon get(String rawCode) {
+        String code = normalize(rawCode);
+        lock.readLock().lock();
+        try {
+            int slot = find(code);
+            return slot < 0 ? null : toCoupon(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Persistence
+
+    // coupons.csv: code,percent,expiresOn,maxUses,perCustomerLimit,used
+    public void writeCoupons(BufferedWriter bw) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < codes.length; i++) {
+                String code = codes[i];
+                if (code == null || code == TOMBSTONE) continue;
+                bw.write(code + "," + percents[i] + "," +
+                        (expiryDays[i] == NO_EXPIRY ? "" : LocalDate.ofEpochDay(expiryDays[i]).toString()) + "," +
+                        maxUses[i] + "," + perCustomerLimits[i] + "," + used.get(i));
+                bw.newLine();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // coupon_customer_uses.csv: code,customerId,count
+    public void writeCustomerUses(BufferedWriter bw) throws IOException {
+        for (java.util.Map.Entry<String, AtomicInteger> e : customerUses.entrySet()) {
+            int n = e.getValue().get();
+            if (n <= 0) continue;
+            String[] k = e.getKey().split("\u0000", 2);
+            bw.write(k[0] + "," + k[1] + "," + n);
+            bw.newLine();
+        }
+    }
+
+    // Detached copy of the codes and usage, for writing a checkpoint without holding up redemptions
+    public CouponEngine copy() {
+        CouponEngine c = new CouponEngine();
+        lock.readLock().lock();
+        try {
+            c.codes = codes.clone();
+            c.percents = percents.clone();
+            c.expiryDays = expiryDays.clone();
+            c.maxUses = maxUses.clone();
+            c.perCustomerLimits = perCustomerLimits.clone();
+            c.used = new AtomicIntegerArray(used.length());
+            for (int i = 0; i < used.length(); i++) {
+                int n = used.get(i);
+                if (n != 0) c.used.set(i, n);
+            }
+            c.size = size;
+            c.tombstones = tombstones;
+            c.bloom = bloom;
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (java.util.Map.Entry<String, AtomicInteger> e : customerUses.entrySet()) {
+            c.customerUses.put(e.getKey(), new AtomicInteger(e.getValue().get()));
+        }
+        return c;
+    }
+
+    /**
+     * Switches redemptions to a fresh journal in dir and copies the state at that switch,
+     * with redemptions held off for both, so each one is in exactly one of the copy and
+     * the new journal. For an engine shared by several systems, where no single system
+     * lock orders redemptions against the rotation. The copy reports the new generation.
+     */
+    public CouponEngine checkpoint(Path dir) throws IOException {
+        lock.writeLock().lock();
+        try {
+            long generation = rotateJournal(dir);
+            CouponEngine c = copy();
+            c.journalGeneration = generation;
+            return c;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Replace all coupons and usage with what was read from disk
+    public void replaceAll(CouponEngine loaded) {
+        lock.writeLock().lock();
+        try {
+            this.codes = loaded.codes;
+            this.percents = loaded.percents;
+            this.expiryDays = loaded.expiryDays;
+            this.maxUses = loaded.maxUses;
+            this.perCustomerLimits = loaded.perCustomerLimits;
+            this.used = loaded.used;
+            this.size = loaded.size;
+            this.tombstones = loaded.tombstones;
+            this.bloom = loaded.bloom;
+            this.customerUses.clear();
+            this.customerUses.putAll(loaded.customerUses);
+            version.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void restoreUsage(String rawCode, int usedCount) {
+        String code = normalize(rawCode);
+        lock.writeLock().lock();
+        try {
+            int slot = find(code);
+            if (slot >= 0) used.set(slot, Math.max(0, usedCount));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void restoreCustomerUses(String rawCode, String customerId, int count) {
+        if (count > 0) customerUses.put(customerKey(normalize(rawCode), customerId), new AtomicInteger(count));
+    }
+
+    // Replays redemptions recorded after the last full save
+    public void replayJournal(Path file) throws IOException {
+        if (!Files.exists(file)) return;
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] p = line.split(",", -1);
+                if (line.startsWith("+") && p.length >= 5) {
+                    // +code,percent,expiresOn,maxUses,perCustomerLimit: a code issued after the last full save
+                    try {
+                        put(p[0].substring(1), Double.parseDouble(p[1]), p[2].isEmpty() ? null : LocalDate.parse(p[2]),
+                                Integer.parseInt(p[3]), Integer.parseInt(p[4]));
+                    } catch (RuntimeException ignore) {}
+                    continue;
+                }
+                if (p.length < 3) continue;
+                int delta;
+                try { delta = Integer.parseInt(p[2]); } catch (NumberFormatException ignore) { continue; }
+                adjust(normalize(p[0]), p[1].isEmpty() ? null : p[1], delta);
+            }
+        }
+    }
+
+    // A redemption (delta 1) or release (-1) decided elsewhere, e.g. on a replication leader; never rejected
+    public void applyRedemption(String rawCode, String customerId, int delta) {
+        String code = normalize(rawCode);
+        if (adjust(code, customerId, delta)) appendJournal(code, customerId, delta);
+    }
+
+    private boolean adjust(String code, String customerId, int delta) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(code);
+            if (slot < 0) return false;
+            used.updateAndGet(slot, v -> Math.max(0, v + delta));
+            if (perCustomerLimits[slot] > 0 && customerId != null) {
+                customerUses.computeIfAbsent(customerKey(code, customerId), k -> new AtomicInteger())
+                        .updateAndGet(v -> Math.max(0, v + delta));
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Generation 0 is the journal name used before generations existed
+    static Path journalFile(Path dir, long generation) {
+        return dir.resolve(generation == 0 ? "coupon_redemptions.log" : "coupon_redemptions-" + generation + ".log");
+    }
+
+    // Generations of the journals present in dir, oldest first
+    static List<Long> journalGenerations(Path dir) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return generations;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "coupon_redemptions*.log")) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                if (name.equals("coupon_redemptions.log")) {
+                    generations.add(0L);
+                } else {
+                    try {
+                        generations.add(Long.parseLong(name.substring("coupon_redemptions-".length(), name.length() - ".log".length())));
+                    } catch (NumberFormatException | IndexOutOfBoundsException ignore) {}
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    // Once a checkpoint of this generation is on disk, the older journals are covered by it
+    static void deleteJournalsBefore(Path dir, long generation) throws IOException {
+        for (long g : journalGenerations(dir)) {
+            if (g < generation) Files.deleteIfExists(journalFile(dir, g));
+        }
+    }
+
+    public synchronized long getJournalGeneration() {
+        return journalGeneration;
+    }
+
+    /**
+     * Switch redemptions to a fresh journal of the next generation in dir and return its
+     * number. A checkpoint of the state at this moment must record that number.
+     */
+    public synchronized long rotateJournal(Path dir) throws IOException {
+        openJournal(journalFile(dir, journalGeneration + 1), true);
+        return ++journalGeneration;
+    }
+
+    // Replays the journals of fromGeneration and later in dir, then keeps appending to the newest
+    public void recoverJournals(Path dir, long fromGeneration) throws IOException {
+        long newest = fromGeneration;
+        for (long g : journalGenerations(dir)) {
+            if (g < fromGeneration) continue;
+            replayJournal(journalFile(dir, g));
+            newest = g;
+        }
+        synchronized (this) {
+            journalGeneration = newest;
+            openJournal(journalFile(dir, newest), false);
+        }
+    }
+
+    // Start journaling redemptions into file; truncate when the caller just wrote a full checkpoint
+    public synchronized void openJournal(Path file, boolean truncate) throws IOException {
+        closeJournal(); // queued lines go to the journal they were redeemed under
+        journalFile = file;
+        journal = truncate
+                ? Files.newBufferedWriter(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                : Files.newBufferedWriter(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public synchronized void closeJournal() {
+        writePending();
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException ignore) {
+        }
+        journal = null;
+        journalFile = null;
+    }
+
+    private void appendJournal(String code, String customerId, int delta) {
+        appendJournal(new StringBuilder(code.length() + 16).append(code).append(',')
+                .append(customerId == null ? "" : customerId).append(',').append(delta).append(System.lineSeparator()));
+    }
+
+    /**
+     * Group commit: lines are queued, then whichever caller gets the journal monitor
+     * writes and flushes everything queued so far. Callers whose lines went out with an
+     * earlier batch return without a write, so busy branches sharing this engine pay
+     * one flush per batch instead of one per redemption.
+     */
+    private void appendJournal(CharSequence lines) {
+        if (journal == null) return;
+        long ticket;
+        synchronized (pending) {
+            pending.append(lines);
+            ticket = ++queuedBatches;
+        }
+        synchronized (this) {
+            if (writtenBatches < ticket) writePending();
+        }
+    }
+
+    // Caller holds this
+    private void writePending() {
+        String batch;
+        synchronized (pending) {
+            batch = pending.toString();
+            pending.setLength(0);
+            writtenBatches = queuedBatches;
+        }
+        if (journal == null || batch.isEmpty()) return;
+        try {
+            journal.write(batch);
+            journal.flush();
+        } catch (IOException e) {
+            System.out.println("Failed to journal coupon redemption to " + journalFile + ": " + e.getMessage());
+        }
+    }
+
+    // Table internals (callers hold the lock)
+
+    private boolean mightExist(String code) {
+        lock.readLock().lock();
+        try {
+            return bloom.mightContain(code);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String customerKey(String code, String customerId) {
+        return code + '\u0000' + customerId.trim().toUpperCase();
+    }
+
+    private Coupon toCoupon(int slot) {
+        return new Coupon(codes[slot], percents[slot],
+                expiryDays[slot] == NO_EXPIRY ? null : LocalDate.ofEpochDay(expiryDays[slot]),
+                maxUses[slot], perCustomerLimits[slot], used.get(slot));
+    }
+
+    private static int spread(String code) {
+        int h = code.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int find(String code) {
+        int m = codes.length - 1;
+        for (int i = spread(code) & m; ; i = (i + 1) & m) {
+            String c = codes[i];
+            if (c == null) return -1;
+            if (c != TOMBSTONE && c.equals(code)) return i;
+        }
+    }
+
+    private int insertSlot(String code) {
+        int m = codes.length - 1;
+        for (int i = spread(code) & m; ; i = (i + 1) & m) {
+            String c = codes[i];
+            if (c == null) return i;
+            if (c == TOMBSTONE) {
+                tombstones--;
+                return i;
+            }
+        }
+    }
+
+    private void ensureCapacity(int wanted) {
+        // keep the table at most 60% full (live + tombstones)
+        if ((long) (wanted + tombstones) * 10 <= (long) codes.length * 6) return;
+        String[] oldCodes = codes;
+        double[] oldPercents = percents;
+        int[] oldExpiry = expiryDays;
+        int[] oldMax = maxUses;
+        int[] oldLimits = perCustomerLimits;
+        AtomicIntegerArray oldUsed = used;
+        int capacity = 64;
+        while ((long) wanted * 10 > (long) capacity * 5) capacity <<= 1;
+        allocate(capacity);
+        for (int i = 0; i < oldCodes.length; i++) {
+            String code = oldCodes[i];
+            if (code == null || code == TOMBSTONE) continue;
+            int slot = insertSlot(code);
+            codes[slot] = code;
+            percents[slot] = oldPercents[i];
+            expiryDays[slot] = oldExpiry[i];
+            maxUses[slot] = oldMax[i];
+            perCustomerLimits[slot] = oldLimits[i];
+            used.set(slot, oldUsed.get(i));
+            size++;
+            bloom.add(code);
+        }
+    }
+
+    private void allocate(int capacity) {
+        codes = new String[capacity];
+        percents = new double[capacity];
+        expiryDays = new int[capacity];
+        maxUses = new int[capacity];
+        perCustomerLimits = new int[capacity];
+        used = new AtomicIntegerArray(capacity);
+        size = 0;
+        tombstones = 0;
+        bloom = new BloomFilter(capacity);
+    }
+}
@@ -0,0 +1,407 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental export for analytics tools. Each run writes what changed since the
+ * previous run into its own batch directory, export/batch-<toVersion>:
+ *   cars.jsonl, customers.jsonl, rentals.jsonl, payments.jsonl - one JSON object per line
+ *   rentals-NNNNN.rcol - the same rentals in the archive's columnar format (ColumnarRentalFile)
+ *   batch.json - the version range and row counts
+ * Cars, customers and rentals carry the change version of their last change (see
+ * CarRentalSystem.getChangeVersion). A run exports versions in (watermark, current] and
+ * then stores current as the new watermark, so a run with nothing new writes nothing.
+ *
+ * Memory does not grow with the data: live records are copied under the system lock one
+ * slice at a time and written out before the next slice, archived months are read only
+ * when the archive manifest says they hold a version past the watermark, and the
+ * columnar output is cut into parts of PART_ROWS rentals.
+ *
+ * A batch is written to a temp directory and renamed into place before the watermark
+ * moves. A crash in between exports those changes again in the next batch, and a rental
+ * archived while a run walks the live list can appear twice; every line carries its
+ * version, so consumers keep the highest version per id.
+ */
+class DataExport {
+    static final int SLICE = 16_384;     // live records examined per lock hold
+    static final int PART_ROWS = 16_384; // rentals per columnar part
+
+    private static final String WATERMARK = "watermark";
+    private static final String IN_PROGRESS = "batch-in-progress";
+
+    // What one run exported
+    static final class Result {
+        private final long fromVersion; // exclusive; -1 for a full export
+        private final long toVersion;
+        private final Path batch;       // null when nothing had changed
+        private final long[] counts;    // cars, customers, rentals, payments
+
+        Result(long fromVersion, long toVersion, Path batch, long[] counts) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.batch = batch;
+            this.counts = counts;
+        }
+
+        public long getFromVersion() { return fromVersion; }
+        public long getToVersion() { return toVersion; }
+        public Path getBatch() { return batch; }
+        public long getCars() { return counts[0]; }
+        public long getCustomers() { return counts[1]; }
+        public long getRentals() { return counts[2]; }
+        public long getPayments() { return counts[3]; }
+    }
+
+    // Walks one live list a slice per lock hold; a list replaced in between (reload, archiving) is walked again from the start
+    private static final class Walk {
+        private List<?> source;
+        private int position;
+        private boolean finished;
+
+        <T> List<T> next(List<T> list) {
+            if (finished) return List.of();
+            if (list != source) {
+                source = list;
+                position = 0;
+            }
+            int from = position;
+            position = Math.min(list.size(), from + SLICE);
+            finished = position == list.size();
+            return list.subList(from, position);
+        }
+    }
+
+    private final CarRentalSystem system;
+    private final RentalArchive archive; // null when no data directory is open
+    private final long toVersion;
+    private long fromVersion;
+
+    private final Walk carWalk = new Walk();
+    private final Walk customerWalk = new Walk();
+    private final Walk rentalWalk = new Walk();
+    // filled by collect under the system lock, drained by run without it
+    private final List<Car> changedCars = new ArrayList<>();
+    private final List<Boolean> changedCarAvailable = new ArrayList<>();
+    private final List<Long> changedCarVersion = new ArrayList<>();
+    private final List<Customer> changedCustomers = new ArrayList<>();
+    private final List<Long> changedCustomerVersion = new ArrayList<>();
+    private final List<Rental> changedRentals = new ArrayList<>();
+
+    private final long[] counts = new long[4];
+    private final List<String[]> part = new ArrayList<>();
+    private int parts = 0;
+
+    DataExport(CarRentalSystem system, RentalArchive archive, long toVersion) {
+        this.system = system;
+        this.archive = archive;
+        this.toVersion = toVersion;
+    }
+
+    public Result run(Path exportDir) throws IOException {
+        Files.createDirectories(exportDir);
+        fromVersion = readWatermark(exportDir);
+        if (fromVersion > toVersion) {
+            // the data was reloaded from a checkpoint older than the last export; versions past it mean nothing now
+            fromVersion = -1;
+        }
+        if (fromVersion == toVersion) return new Result(fromVersion, toVersion, null, counts);
+
+        Path tmp = exportDir.resolve(IN_PROGRESS);
+        deleteRecursively(tmp); // left by a run that did not finish
+        Files.createDirectories(tmp);
+        try (Output cars = new Output(tmp.resolve("cars.jsonl"));
+             Output customers = new Output(tmp.resolve("customers.jsonl"));
+             Output rentals = new Output(tmp.resolve("rentals.jsonl"));
+             Output payments = new Output(tmp.resolve("payments.jsonl"))) {
+            while (!(carWalk.finished && customerWalk.finished && rentalWalk.finished)) {
+                system.exportSlice(this);
+                for (int i = 0; i < changedCars.size(); i++) {
+                    writeCar(cars, changedCars.get(i), changedCarAvailable.get(i), changedCarVersion.get(i));
+                }
+                for (int i = 0; i < changedCustomers.size(); i++) {
+                    writeCustomer(customers, changedCustomers.get(i), changedCustomerVersion.get(i));
+                }
+                for (Rental r : changedRentals) writeRental(tmp, rentals, payments, CarRentalSystem.rentalFields(r));
+                clearSlice();
+            }
+            if (archive != null) {
+                for (YearMonth month : archive.getMonths()) {
+                    if (archive.getMaxVersion(month) <= fromVersion) continue;
+                    try {
+                        archive.scanMonth(month, null, p -> {
+                            long version = version(p);
+                            if (version <= fromVersion || version > toVersion) return;
+                            try {
+                                writeRental(tmp, rentals, payments, p);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+            flushPart(tmp);
+        }
+        DataSnapshot.writeAtomically(tmp.resolve("batch.json"), bw -> {
+            JsonWriter json = new JsonWriter(bw);
+            json.beginObject()
+                    .field("fromVersion", fromVersion)
+                    .field("toVersion", toVersion)
+                    .field("cars", counts[0])
+                    .field("customers", counts[1])
+                    .field("rentals", counts[2])
+                    .field("payments", counts[3])
+                    .field("rentalParts", parts)
+                    .endObject();
+            bw.newLine();
+        });
+
+        // The batch is complete once renamed; only then does the watermark move past it
+        Path batch = exportDir.resolve(String.format("batch-%012d", toVersion));
+        deleteRecursively(batch); // an earlier run that stopped before moving the watermark
+        Files.move(tmp, batch, StandardCopyOption.ATOMIC_MOVE);
+        DataSnapshot.writeAtomically(exportDir.resolve(WATERMARK), bw -> bw.write(Long.toString(toVersion)));
+        return new Result(fromVersion, toVersion, batch, counts);
+    }
+
+    // Caller holds the system lock: copy what changed in the next slice of each list
+    void collect(List<Car> cars, List<Customer> customers, Map<Customer, Long> customerVersions, List<Rental> rentals) {
+        for (Car c : carWalk.next(cars)) {
+            if (!changed(c.getVersion())) continue;
+            changedCars.add(c);
+            changedCarAvailable.add(c.isAvailable());
+            changedCarVersion.add(c.getVersion());
+        }
+        for (Customer cu : customerWalk.next(customers)) {
+            long version = customerVersions.getOrDefault(cu, 0L);
+            if (!changed(version)) continue;
+            changedCustomers.add(cu);
+            changedCustomerVersion.add(version);
+        }
+        for (Rental r : rentalWalk.next(rentals)) {
+            if (changed(r.getVersion())) changedRentals.add(r.isActive() ? r.copy() : r); // closed rentals no longer change
+        }
+    }
+
+    // Later changes go to the next batch
+    private boolean changed(long version) {
+        return version > fromVersion && version <= toVersion;
+    }
+
+    private void clearSlice() {
+        changedCars.clear();
+        changedCarAvailable.clear();
+        changedCarVersion.clear();
+        changedCustomers.clear();
+        changedCustomerVersion.clear();
+        changedRentals.clear();
+    }
+
+    private void writeCar(Output out, Car c, boolean available, long version) throws IOException {
+        out.json.beginObject()
+                .field("carId", c.getCarId())
+                .field("type", c.getSpec().getCarClass().getSimpleName())
+                .field("brand", c.getBrand())
+                .field("model", c.getModel())
+                .field("pricePerDay", c.getBasePricePerDay())
+                .field("available", available)
+                .field("version", version)
+                .endObject();
+        out.endLine();
+        counts[0]++;
+    }
+
+    private void writeCustomer(Output out, Customer cu, long version) throws IOException {
+        out.json.beginObject()
+                .field("customerId", cu.getCustomerId())
+                .field("name", cu.getName())
+                .field("version", version)
+                .endObject();
+        out.endLine();
+        counts[1]++;
+    }
+
+    // p holds the rentals.csv fields; archived rows from before a field existed have it blank
+    private void writeRental(Path batchDir, Output rentals, Output payments, String[] p) throws IOException {
+        long version = version(p);
+        JsonWriter json = rentals.json.beginObject()
+                .field("rentalId", p[0])
+                .field("carId", p[1])
+                .field("customerId", p[2]);
+        number(json, "days", p[3]);
+        json.field("startDate", p[4])
+                .field("active", Boolean.parseBoolean(p[6]));
+        number(json, "totalCost", p[5]);
+        number(json, "subtotal", p[12]);
+        json.field("discountCode", blankToNull(p[11]));
+        number(json, "discountAmount", p[13]);
+        number(json, "taxAmount", p[14]);
+        number(json, "priceMultiplier", field(p, 15));
+        number(json, "amountPaid", field(p, 16));
+        json.field("paymentId", blankToNull(p[7]))
+                .field("version", version)
+                .endObject();
+        rentals.endLine();
+        counts[2]++;
+
+        if (!p[7].isEmpty()) {
+            json = payments.json.beginObject()
+                    .field("paymentId", p[7])
+                    .field("rentalId", p[0])
+                    .field("method", blankToNull(p[8]));
+            number(json, "amount", p[9]);
+            json.field("paidOn", blankToNull(p[10]))
+                    .field("version", version)
+                    .endObject();
+            payments.endLine();
+            counts[3]++;
+        }
+
+        part.add(p);
+        if (part.size() >= PART_ROWS) flushPart(batchDir);
+    }
+
+    private void flushPart(Path batchDir) throws IOException {
+        if (part.isEmpty()) return;
+        ColumnarRentalFile.write(batchDir.resolve(String.format("rentals-%05d.rcol", parts++)), part);
+        part.clear();
+    }
+
+    // Fields hold Double.toString / Long.toString output, which is already valid JSON
+    private static void number(JsonWriter json, String name, String value) throws IOException {
+        if (value.isEmpty()) {
+            json.field(name, (String) null);
+        } else {
+            json.name(name).number(value);
+        }
+    }
+
+    private static String blankToNull(String v) {
+        return v == null || v.isEmpty() ? null : v;
+    }
+
+    private static String field(String[] p, int col) {
+        return col < p.length && p[col] != null ? p[col] : "";
+    }
+
+    private static long version(String[] p) {
+        String v = field(p, ColumnarRentalFile.COL_VERSION);
+        return v.isEmpty() ? 0 : Long.parseLong(v);
+    }
+
+    // Last exported version, or -1 before the first export
+    private static long readWatermark(Path exportDir) throws IOException {
+        Path file = exportDir.resolve(WATERMARK);
+        if (!Files.exists(file)) return -1;
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            String line = br.readLine();
+            return line == null || line.trim().isEmpty() ? -1 : Long.parseLong(line.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Unreadable export watermark: " + file);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path f : ds) Files.delete(f);
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * One JSON Lines file, forced to disk on close. JsonWriter makes several small writes
+     * per field, so they collect in a plain char buffer that reaches the encoder 64 KiB at
+     * a time; a BufferedWriter would take its lock on every one of them.
+     */
+    private static final class Output extends Writer {
+        private final FileChannel ch;
+        private final Writer sink;
+        private final char[] buf = new char[64 * 1024];
+        private int used;
+        final JsonWriter json = new JsonWriter(this);
+
+        Output(Path file) throws IOException {
+            ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            sink = new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.UTF_8);
+        }
+
+        void endLine() throws IOException {
+            write('\n');
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (used == buf.length) drain();
+            buf[used++] = (char) c;
+        }
+
+        @Override
+        public void write(String s, int off, int len) throws IOException {
+            while (len > 0) {
+                if (used == buf.length) drain();
+                int n = Math.min(len, buf.length - used);
+                s.getChars(off, off + n, buf, used);
+                used += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void write(char[] c, int off, int len) throws IOException {
+            while (len > 0) {
+                if (used == buf.length) drain();
+                int n = Math.min(len, buf.length - used);
+                System.arraycopy(c, off, buf, used, n);
+                used += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void drain() throws IOException {
+            sink.write(buf, 0, used);
+            used = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            sink.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                ch.force(true);
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    static String describe(Result r) {
+        if (r.getBatch() == null) return "Nothing changed since the last export (version " + r.getToVersion() + ").\n";
+        return String.format("Exported versions %s to %d into %s%n%d cars, %d customers, %d rentals, %d payments%n",
+                r.getFromVersion() < 0 ? "(all)" : String.valueOf(r.getFromVersion() + 1), r.getToVersion(),
+                r.getBatch().toAbsolutePath(), r.getCars(), r.getCustomers(), r.getRentals(), r.getPayments());
+    }
+}
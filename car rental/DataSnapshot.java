@@ -0,0 +1,147 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Point-in-time copy of everything saveData writes. Taking it under the CarRentalSystem
+ * lock costs list copies plus a copy of each active rental: closed rentals, customers
+ * and car details never change once created, so they are shared. Formatting and disk
+ * I/O happen afterwards without the lock.
+ *
+ * Each file is written to a temp file, forced to disk and renamed over the old one, so
+ * a crash leaves either the previous or the new version of every file, never a partial
+ * one. settings.csv goes last; a mapped start only trusts a fleet.snap whose change
+ * version matches it.
+ */
+class DataSnapshot {
+    interface Body {
+        void write(BufferedWriter bw) throws IOException;
+    }
+
+    private final List<Car> cars;
+    private final boolean[] carAvailable; // availability and version are the only car fields that change
+    private final long[] carVersion;
+    private final List<Customer> customers;
+    private final long[] customerVersion;
+    private final List<Rental> rentals;   // active ones are copies
+    private final List<String> settings;
+    private final CouponEngine coupons;   // null for a branch shard; the router saves the shared coupons
+    private final long couponGeneration;  // journals from this generation on are not in coupons
+    private final IdempotencyCache idempotency;
+    private final int rentalSeq;
+    private final long changeVersion;
+    private final List<DemandPricing.Counters> demand;
+
+    DataSnapshot(List<Car> cars, boolean[] carAvailable, long[] carVersion, List<Customer> customers, long[] customerVersion,
+                 List<Rental> rentals, List<String> settings, CouponEngine coupons, long couponGeneration, IdempotencyCache idempotency,
+                 int rentalSeq, long changeVersion, List<DemandPricing.Counters> demand) {
+        this.cars = cars;
+        this.carAvailable = carAvailable;
+        this.carVersion = carVersion;
+        this.customers = customers;
+        this.customerVersion = customerVersion;
+        this.rentals = rentals;
+        this.settings = settings;
+        this.coupons = coupons;
+        this.couponGeneration = couponGeneration;
+        this.idempotency = idempotency;
+        this.rentalSeq = rentalSeq;
+        this.changeVersion = changeVersion;
+        this.demand = demand;
+    }
+
+    public long getCouponGeneration() {
+        return couponGeneration;
+    }
+
+    public int getRentalCount() {
+        return rentals.size();
+    }
+
+    // Returns false when fleet.snap was skipped because the state is too large to map
+    public boolean writeTo(Path dir) throws IOException {
+        // cars.csv: id,type,brand,model,price,available,version
+        writeAtomically(dir.resolve("cars.csv"), bw -> {
+            for (int i = 0; i < cars.size(); i++) {
+                bw.write(CarRentalSystem.carToCsv(cars.get(i), carAvailable[i], carVersion[i]));
+                bw.newLine();
+            }
+        });
+        // customers.csv: id,name,version
+        writeAtomically(dir.resolve("customers.csv"), bw -> {
+            for (int i = 0; i < customers.size(); i++) {
+                bw.write(CarRentalSystem.customerToCsv(customers.get(i), customerVersion[i]));
+                bw.newLine();
+            }
+        });
+        // rentals.csv: rentalId,carId,customerId,days,startDate,totalCost,active,paymentId,paymentMethod,paymentAmount,paidOn,discountCode,subtotal,discountAmount,taxAmount,priceMultiplier,amountPaid,version,taxRate,discountPercent,pricingEpoch
+        writeAtomically(dir.resolve("rentals.csv"), bw -> {
+            for (Rental r : rentals) {
+                bw.write(CarRentalSystem.rentalToCsv(r));
+                bw.newLine();
+            }
+        });
+        // idempotency.csv: key,request,rentalId,failure,expiresAtMillis
+        writeAtomically(dir.resolve("idempotency.csv"), idempotency::write);
+        if (coupons != null) writeCoupons(dir, coupons, couponGeneration);
+        // fleet.snap: the same cars, customers and rentals in the binary form a --mapped start maps
+        boolean mappable = FleetSnapshot.write(dir.resolve(FleetSnapshot.FILE_NAME), cars, carAvailable, carVersion, customers,
+                customerVersion, rentals, rentalSeq, changeVersion, demand);
+        // settings.csv: key,value
+        writeAtomically(dir.resolve("settings.csv"), bw -> {
+            for (String line : settings) {
+                bw.write(line);
+                bw.newLine();
+            }
+        });
+        forceDirectory(dir);
+        return mappable;
+    }
+
+    static void writeCoupons(Path dir, CouponEngine coupons, long generation) throws IOException {
+        // coupon_customer_uses.csv: code,customerId,count
+        writeAtomically(dir.resolve("coupon_customer_uses.csv"), coupons::writeCustomerUses);
+        // coupons.csv: #generation line, then code,percent,expiresOn,maxUses,perCustomerLimit,used
+        writeAtomically(dir.resolve("coupons.csv"), bw -> {
+            bw.write("#generation," + generation);
+            bw.newLine();
+            coupons.writeCoupons(bw);
+        });
+    }
+
+    static void writeAtomically(Path file, Body body) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.UTF_8), 64 * 1024);
+            body.write(bw);
+            bw.flush();
+            ch.force(true);
+        }
+        moveIntoPlace(tmp, file);
+    }
+
+    static void moveIntoPlace(Path tmp, Path file) throws IOException {
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Makes the renames durable; not every platform can open a directory for this
+    private static void forceDirectory(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Demand-based price multiplier per car class. Occupancy is kept as running counters
+ * that CarRentalSystem bumps on add, rent, extend and return, so a quote reads a few
+ * atomics instead of rescanning the fleet. Two signals feed the multiplier:
+ * how much of the class is on rent right now, and how much of it is already booked
+ * over the first days of the requested period (a ring of per-day counts HORIZON_DAYS
+ * ahead). The higher of the two drives a surge above SURGE_FROM and a discount below
+ * IDLE_BELOW.
+ *
+ * Writers are serialized by the CarRentalSystem lock; readers take no lock.
+ */
+class DemandPricing {
+    static final int HORIZON_DAYS = 512;
+    private static final int MASK = HORIZON_DAYS - 1;
+    private static final int WINDOW_DAYS = 14; // forward density looks at most this far into a booking
+    private static final double SURGE_FROM = 0.7;
+    private static final double IDLE_BELOW = 0.3;
+
+    private volatile boolean enabled = false;
+    private volatile double maxSurge = 0.5;    // +50% when a class is fully booked
+    private volatile double idleDiscount = 0.1; // -10% when a class is entirely idle
+
+    private final Map<Class<?>, ClassOccupancy> classes = new ConcurrentHashMap<>();
+    private volatile long today = Long.MIN_VALUE;
+    private volatile long todayValidUntilMillis = 0; // LocalDate.now() is too slow for every booking
+
+    private static final class ClassOccupancy {
+        final String name;
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger rented = new AtomicInteger();
+        final AtomicIntegerArray booked = new AtomicIntegerArray(HORIZON_DAYS); // cars booked on a day
+        final AtomicLongArray dayOfSlot = new AtomicLongArray(HORIZON_DAYS);     // which epoch day a slot counts
+
+        ClassOccupancy(String name) {
+            this.name = name;
+            for (int i = 0; i < HORIZON_DAYS; i++) dayOfSlot.set(i, Long.MIN_VALUE);
+        }
+
+        int bookedOn(long day) {
+            int slot = (int) (day & MASK);
+            return dayOfSlot.get(slot) == day ? booked.get(slot) : 0;
+        }
+
+        void addBooked(long day, int delta) {
+            int slot = (int) (day & MASK);
+            if (dayOfSlot.get(slot) != day) {
+                if (delta < 0) return; // the slot already moved on to a later day
+                booked.set(slot, 0);
+                dayOfSlot.set(slot, day);
+            }
+            booked.addAndGet(slot, delta);
+        }
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public double getMaxSurge() { return maxSurge; }
+    public double getIdleDiscount() { return idleDiscount; }
+
+    public void setMaxSurge(double maxSurge) {
+        if (maxSurge < 0 || maxSurge > 5) throw new IllegalArgumentException("max surge must be between 0 and 5");
+        this.maxSurge = maxSurge;
+    }
+
+    public void setIdleDiscount(double idleDiscount) {
+        if (idleDiscount < 0 || idleDiscount >= 1) throw new IllegalArgumentException("idle discount must be in [0, 1)");
+        this.idleDiscount = idleDiscount;
+    }
+
+    private ClassOccupancy of(Car car) {
+        return classes.computeIfAbsent(car.getClass(), k -> new ClassOccupancy(k.getSimpleName()));
+    }
+
+    public void carAdded(Car car) {
+        ClassOccupancy c = of(car);
+        c.total.incrementAndGet();
+        if (!car.isAvailable()) c.rented.incrementAndGet();
+    }
+
+    public void carRented(Car car) {
+        of(car).rented.incrementAndGet();
+    }
+
+    public void carReturned(Car car) {
+        of(car).rented.decrementAndGet();
+    }
+
+    // Add (delta 1) or remove (delta -1) a car's booking for [start, start + days); past days are not tracked
+    public void book(Car car, LocalDate start, int days, int delta) {
+        ClassOccupancy c = of(car);
+        long today = today();
+        long from = Math.max(start.toEpochDay(), today);
+        long to = Math.min(start.toEpochDay() + days, today + HORIZON_DAYS);
+        for (long d = from; d < to; d++) c.addBooked(d, delta);
+    }
+
+    private long today() {
+        if (System.currentTimeMillis() >= todayValidUntilMillis) {
+            LocalDate now = LocalDate.now();
+            today = now.toEpochDay();
+            todayValidUntilMillis = now.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        return today;
+    }
+
+    // Rebuild all counters from the fleet and its active rentals
+    public void reset(List<Car> fleet, List<Rental> activeRentals) {
+        classes.clear();
+        for (Car car : fleet) carAdded(car);
+        for (Rental r : activeRentals) book(r.getCar(), r.getStartDate(), r.getDays(), 1);
+    }
+
+    // One class's counters as plain values, so they can be saved and restored elsewhere
+    static final class Counters {
+        final Class<?> carClass;
+        final int total;
+        final int rented;
+        final long[] days;  // tracked days with bookings
+        final int[] booked; // cars booked on each of them
+
+        Counters(Class<?> carClass, int total, int rented, long[] days, int[] booked) {
+            this.carClass = carClass;
+            this.total = total;
+            this.rented = rented;
+            this.days = days;
+            this.booked = booked;
+        }
+    }
+
+    // Copy of every class's counters; consistent when the caller holds the CarRentalSystem lock
+    public List<Counters> counters() {
+        List<Counters> result = new ArrayList<>();
+        for (Map.Entry<Class<?>, ClassOccupancy> e : classes.entrySet()) {
+            ClassOccupancy c = e.getValue();
+            int n = 0;
+            long[] days = new long[HORIZON_DAYS];
+            int[] booked = new int[HORIZON_DAYS];
+            for (int slot = 0; slot < HORIZON_DAYS; slot++) {
+                long day = c.dayOfSlot.get(slot);
+                int count = c.booked.get(slot);
+                if (day == Long.MIN_VALUE || count == 0) continue;
+                days[n] = day;
+                booked[n++] = count;
+            }
+            result.add(new Counters(e.getKey(), c.total.get(), c.rented.get(), java.util.Arrays.copyOf(days, n), java.util.Arrays.copyOf(booked, n)));
+        }
+        return result;
+    }
+
+    // Replace all counters with ones taken by counters(), instead of rebuilding them from every car and rental
+    public void restore(List<Counters> counters) {
+        classes.clear();
+        for (Counters k : counters) {
+            ClassOccupancy c = classes.computeIfAbsent(k.carClass, cls -> new ClassOccupancy(cls.getSimpleName()));
+            c.total.addAndGet(k.total);
+            c.rented.addAndGet(k.rented);
+            for (int i = 0; i < k.days.length; i++) c.addBooked(k.days[i], k.booked[i]);
+        }
+    }
+
+    /**
+     * Multiplier for booking a car of this class over [start, start + days); 1.0 when
+     * dynamic pricing is off. O(1): a fixed number of counter reads per call.
+     */
+    public double multiplier(Car car, LocalDate start, int days) {
+        if (!enabled) return 1.0;
+        ClassOccupancy c = classes.get(car.getClass());
+        if (c == null) return 1.0;
+        return multiplierFor(demand(c, start, days));
+    }
+
+    // Rounded to 4 places: it is stored with each rental
+    private double multiplierFor(double demand) {
+        double m = 1.0;
+        if (demand >= SURGE_FROM) m += maxSurge * (demand - SURGE_FROM) / (1.0 - SURGE_FROM);
+        else if (demand <= IDLE_BELOW) m -= idleDiscount * (IDLE_BELOW - demand) / IDLE_BELOW;
+        return Math.round(m * 10000.0) / 10000.0;
+    }
+
+    private static double demand(ClassOccupancy c, LocalDate start, int days) {
+        int total = c.total.get();
+        if (total <= 0) return 0.0;
+        double current = Math.min(1.0, Math.max(0, c.rented.get()) / (double) total);
+        long first = start.toEpochDay();
+        int window = Math.max(1, Math.min(days, WINDOW_DAYS));
+        long booked = 0;
+        for (int i = 0; i < window; i++) booked += c.bookedOn(first + i);
+        double forward = Math.min(1.0, booked / ((double) total * window));
+        return Math.max(current, forward);
+    }
+
+    // One line per class: cars, on rent now, booked share of the next week, multiplier for a week starting today
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        LocalDate today = LocalDate.now();
+        for (ClassOccupancy c : classes.values()) {
+            int total = c.total.get();
+            int rented = c.rented.get();
+            long booked = 0;
+            for (int i = 0; i < 7; i++) booked += c.bookedOn(today.toEpochDay() + i);
+            double demand = demand(c, today, 7);
+            lines.add(String.format("%-12s cars %-5d on rent %-5d (%.0f%%)  booked next 7 days %.0f%%  multiplier x%.3f%s",
+                    c.name, total, rented, total == 0 ? 0.0 : 100.0 * rented / total,
+                    total == 0 ? 0.0 : 100.0 * booked / (7.0 * total), multiplierFor(demand), enabled ? "" : " (off)"));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Utilization time series and demand forecast over live and archived rentals.
+ * Cars are grouped by class and $50 price band. Every rental is folded into
+ * per-month car-day counts for its group and into per-car totals, so memory grows
+ * with fleet size times months of history, never with the number of rentals.
+ * Archive months and slices of the live rentals are independent sources that run
+ * as separate tasks on the common fork/join pool; their partial totals are merged
+ * at the end.
+ *
+ * Utilization divides by today's fleet size, since the fleet's history is not recorded.
+ */
+class FleetAnalytics {
+    private static final int LIVE_SLICE = 65536;
+    private static final double TARGET_UTILIZATION = 0.85;
+    private static final int[] ARCHIVE_COLUMNS = {1, ColumnarRentalFile.COL_DAYS, ColumnarRentalFile.COL_START_DATE, RentalArchive.COL_TOTAL};
+
+    private final List<Car> fleet;
+    private final Map<String, Integer> carIndex = new HashMap<>();
+    private final List<String> groups = new ArrayList<>();
+    private final int[] groupOfCar;    // last slot is for cars no longer in the fleet
+    private final int[] groupSize;
+    private final int seasonalStartMonth;
+    private final int seasonalEndMonth;
+
+    // Live rentals copied out under the system lock: car index, start epoch day, days, total cents
+    private int[] liveCar = new int[0];
+    private long[] liveStart = new long[0];
+    private int[] liveDays = new int[0];
+    private long[] liveCents = new long[0];
+
+    FleetAnalytics(List<Car> fleet, int seasonalStartMonth, int seasonalEndMonth) {
+        this.fleet = fleet;
+        this.seasonalStartMonth = seasonalStartMonth;
+        this.seasonalEndMonth = seasonalEndMonth;
+        Map<String, Integer> groupIds = new LinkedHashMap<>();
+        groupOfCar = new int[fleet.size() + 1];
+        for (int i = 0; i < fleet.size(); i++) {
+            Car c = fleet.get(i);
+            carIndex.put(c.getCarId().toUpperCase(), i);
+            int band = (int) (c.getBasePricePerDay() / 50) * 50;
+            String label = c.getClass().getSimpleName() + " $" + band + "-" + (band + 49);
+            groupOfCar[i] = groupIds.computeIfAbsent(label, k -> groupIds.size());
+        }
+        groupOfCar[fleet.size()] = groupIds.computeIfAbsent("Retired cars", k -> groupIds.size());
+        groups.addAll(groupIds.keySet());
+        groupSize = new int[groups.size()];
+        for (int i = 0; i < fleet.size(); i++) groupSize[groupOfCar[i]]++;
+    }
+
+    // Called under the CarRentalSystem lock
+    void setLiveRentals(List<Rental> rentals) {
+        int n = rentals.size();
+        liveCar = new int[n];
+        liveStart = new long[n];
+        liveDays = new int[n];
+        liveCents = new long[n];
+        for (int i = 0; i < n; i++) {
+            Rental r = rentals.get(i);
+            liveCar[i] = carIndexOf(r.getCar().getCarId());
+            liveStart[i] = r.getStartDate().toEpochDay();
+            liveDays[i] = r.getDays();
+            liveCents[i] = Math.round(r.getTotalCost() * 100.0);
+        }
+    }
+
+    private int carIndexOf(String carId) {
+        Integer idx = carIndex.get(carId.toUpperCase());
+        return idx == null ? fleet.size() : idx;
+    }
+
+    // Partial totals of one source; merged after all sources finish
+    private final class Accumulator {
+        final Map<Integer, long[]> carDaysByMonth = new HashMap<>(); // year * 12 + month - 1 -> car-days per group
+        final long[] carDays = new long[fleet.size() + 1];
+        final long[] carCents = new long[fleet.size() + 1];
+        final long[] carRentals = new long[fleet.size() + 1];
+        long rentals = 0;
+        long firstDay = Long.MAX_VALUE;
+        long lastDay = Long.MIN_VALUE;
+
+        void add(int car, long startDay, int days, long cents) {
+            if (days <= 0) return;
+            rentals++;
+            carRentals[car]++;
+            carDays[car] += days;
+            carCents[car] += cents;
+            firstDay = Math.min(firstDay, startDay);
+            lastDay = Math.max(lastDay, startDay + days - 1);
+            int group = groupOfCar[car];
+            // occupied days are [start, start + days), split across the months they fall in
+            LocalDate d = LocalDate.ofEpochDay(startDay);
+            long remaining = days;
+            while (remaining > 0) {
+                long inMonth = Math.min(remaining, d.lengthOfMonth() - d.getDayOfMonth() + 1);
+                int key = d.getYear() * 12 + d.getMonthValue() - 1;
+                carDaysByMonth.computeIfAbsent(key, k -> new long[groups.size()])[group] += inMonth;
+                remaining -= inMonth;
+                d = d.plusDays(inMonth);
+            }
+        }
+
+        void merge(Accumulator o) {
+            for (Map.Entry<Integer, long[]> e : o.carDaysByMonth.entrySet()) {
+                long[] mine = carDaysByMonth.computeIfAbsent(e.getKey(), k -> new long[groups.size()]);
+                for (int g = 0; g < mine.length; g++) mine[g] += e.getValue()[g];
+            }
+            for (int i = 0; i < carDays.length; i++) {
+                carDays[i] += o.carDays[i];
+                carCents[i] += o.carCents[i];
+                carRentals[i] += o.carRentals[i];
+            }
+            rentals += o.rentals;
+            firstDay = Math.min(firstDay, o.firstDay);
+            lastDay = Math.max(lastDay, o.lastDay);
+        }
+    }
+
+    public String run(RentalArchive archive) throws IOException {
+        long t0 = System.nanoTime();
+        List<Callable<Accumulator>> tasks = new ArrayList<>();
+        for (int from = 0; from < liveCar.length; from += LIVE_SLICE) {
+            final int lo = from;
+            final int hi = Math.min(liveCar.length, from + LIVE_SLICE);
+            tasks.add(() -> {
+                Accumulator acc = new Accumulator();
+                for (int i = lo; i < hi; i++) acc.add(liveCar[i], liveStart[i], liveDays[i], liveCents[i]);
+                return acc;
+            });
+        }
+        int liveTasks = tasks.size();
+        if (archive != null) {
+            for (YearMonth month : archive.getMonths()) {
+                tasks.add(() -> {
+                    Accumulator acc = new Accumulator();
+                    try {
+                        archive.scanMonth(month, ARCHIVE_COLUMNS, p -> acc.add(carIndexOf(p[1]),
+                                LocalDate.parse(p[ColumnarRentalFile.COL_START_DATE]).toEpochDay(),
+                                Integer.parseInt(p[ColumnarRentalFile.COL_DAYS]),
+                                Math.round(Double.parseDouble(p[RentalArchive.COL_TOTAL]) * 100.0)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return acc;
+                });
+            }
+        }
+        Accumulator total = new Accumulator();
+        try {
+            for (Future<Accumulator> f : ForkJoinPool.commonPool().invokeAll(tasks)) total.merge(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Analytics interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw new IOException("Analytics failed: " + cause.getMessage(), cause);
+        }
+        long elapsedMs = (System.nanoTime() - t0) / 1_000_000;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Analysed %d rentals (%d live rentals in %d slices, %d archive months) in %d ms on %d threads%n",
+                total.rentals, liveCar.length, liveTasks, tasks.size() - liveTasks, elapsedMs, ForkJoinPool.getCommonPoolParallelism()));
+        if (total.rentals == 0) {
+            sb.append("No rental history yet.\n");
+            return sb.toString();
+        }
+        appendGroups(sb, total);
+        appendMonthly(sb, total);
+        appendCars(sb, total);
+        appendForecast(sb, total);
+        return sb.toString();
+    }
+
+    private boolean inSeason(int month) {
+        return seasonalStartMonth <= seasonalEndMonth
+                ? month >= seasonalStartMonth && month <= seasonalEndMonth
+                : month >= seasonalStartMonth || month <= seasonalEndMonth;
+    }
+
+    private void appendGroups(StringBuilder sb, Accumulator total) {
+        long[] peakDays = new long[groups.size()];
+        long[] offDays = new long[groups.size()];
+        long peakCalendar = 0;
+        long offCalendar = 0;
+        for (Map.Entry<Integer, long[]> e : total.carDaysByMonth.entrySet()) {
+            YearMonth ym = YearMonth.of(e.getKey() / 12, e.getKey() % 12 + 1);
+            boolean peak = inSeason(ym.getMonthValue());
+            if (peak) peakCalendar += ym.lengthOfMonth(); else offCalendar += ym.lengthOfMonth();
+            for (int g = 0; g < groups.size(); g++) {
+                if (peak) peakDays[g] += e.getValue()[g]; else offDays[g] += e.getValue()[g];
+            }
+        }
+        long[] groupRentals = new long[groups.size()];
+        for (int i = 0; i < total.carRentals.length; i++) groupRentals[groupOfCar[i]] += total.carRentals[i];
+        sb.append(String.format("%n%-22s %5s %9s %10s %8s %8s %8s%n", "Group", "Cars", "Rentals", "Car-days", "Util", "Peak", "Off-peak"));
+        for (int g = 0; g < groups.size(); g++) {
+            if (groupRentals[g] == 0 && groupSize[g] == 0) continue;
+            sb.append(String.format("%-22s %5d %9d %10d %8s %8s %8s%n", groups.get(g), groupSize[g], groupRentals[g],
+                    peakDays[g] + offDays[g], pct(peakDays[g] + offDays[g], groupSize[g], peakCalendar + offCalendar),
+                    pct(peakDays[g], groupSize[g], peakCalendar), pct(offDays[g], groupSize[g], offCalendar)));
+        }
+    }
+
+    private void appendMonthly(StringBuilder sb, Accumulator total) {
+        TreeMap<Integer, long[]> months = new TreeMap<>(total.carDaysByMonth);
+        sb.append("\nUtilization by month (last 12 months with data):\n");
+        sb.append(String.format("%-8s", "Month"));
+        for (int g = 0; g < groups.size(); g++) if (groupSize[g] > 0) sb.append(String.format(" %22s", groups.get(g)));
+        sb.append('\n');
+        int skip = Math.max(0, months.size() - 12);
+        for (Map.Entry<Integer, long[]> e : months.entrySet()) {
+            if (skip-- > 0) continue;
+            YearMonth ym = YearMonth.of(e.getKey() / 12, e.getKey() % 12 + 1);
+            sb.append(String.format("%-8s", ym));
+            for (int g = 0; g < groups.size(); g++) {
+                if (groupSize[g] > 0) sb.append(String.format(" %22s", pct(e.getValue()[g], groupSize[g], ym.lengthOfMonth())));
+            }
+            sb.append('\n');
+        }
+    }
+
+    private void appendCars(StringBuilder sb, Accumulator total) {
+        long span = total.lastDay - total.firstDay + 1;
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < fleet.size(); i++) order.add(i);
+        order.sort((a, b) -> Long.compare(total.carDays[b], total.carDays[a]));
+        int shown = Math.min(5, order.size());
+        sb.append(String.format("%nPer car over %d days of history (busiest and idlest %d):%n", span, shown));
+        List<Integer> picks = new ArrayList<>(order.subList(0, shown));
+        for (int i = Math.max(shown, order.size() - shown); i < order.size(); i++) picks.add(order.get(i));
+        for (int i : picks) {
+            Car c = fleet.get(i);
+            sb.append(String.format("  %-8s %-22s %6d rentals %7d days %7s  $%.2f%n", c.getCarId(), groups.get(groupOfCar[i]),
+                    total.carRentals[i], total.carDays[i], pct(total.carDays[i], 1, span), total.carCents[i] / 100.0));
+        }
+    }
+
+    /**
+     * Seasonal baseline per group: average cars on rent per day for each calendar month,
+     * over all years observed. Months with no history fall back to the peak or off-peak
+     * average, following seasonalStartMonth..seasonalEndMonth. The baseline is scaled by
+     * the year-over-year trend when two full years are available. Only completed months count.
+     */
+    private void appendForecast(StringBuilder sb, Accumulator total) {
+        int n = groups.size();
+        double[][] byCalendarMonth = new double[12][n];
+        int[] yearsSeen = new int[12];
+        double[] peak = new double[n];
+        double[] off = new double[n];
+        int peakMonths = 0;
+        int offMonths = 0;
+        int lastKey = Integer.MIN_VALUE;
+        YearMonth now = YearMonth.now();
+        int currentKey = now.getYear() * 12 + now.getMonthValue() - 1;
+        Map<Integer, long[]> complete = new HashMap<>();
+        for (Map.Entry<Integer, long[]> e : total.carDaysByMonth.entrySet()) {
+            // the current month is still filling up and later months only hold booked days of active rentals
+            if (e.getKey() >= currentKey) continue;
+            complete.put(e.getKey(), e.getValue());
+            YearMonth ym = YearMonth.of(e.getKey() / 12, e.getKey() % 12 + 1);
+            int m = ym.getMonthValue() - 1;
+            yearsSeen[m]++;
+            if (inSeason(m + 1)) peakMonths++; else offMonths++;
+            for (int g = 0; g < n; g++) {
+                double perDay = e.getValue()[g] / (double) ym.lengthOfMonth();
+                byCalendarMonth[m][g] += perDay;
+                if (inSeason(m + 1)) peak[g] += perDay; else off[g] += perDay;
+            }
+            lastKey = Math.max(lastKey, e.getKey());
+        }
+        double trend = trend(complete, lastKey);
+        sb.append(String.format("%nForecast: average cars on rent per day -> cars needed at %.0f%% utilization (trend x%.2f)%n",
+                TARGET_UTILIZATION * 100, trend));
+        sb.append(String.format("%-8s", "Month"));
+        for (int g = 0; g < n; g++) if (groupSize[g] > 0) sb.append(String.format(" %22s", groups.get(g)));
+        sb.append('\n');
+        YearMonth next = now.plusMonths(1);
+        for (int k = 0; k < 12; k++) {
+            YearMonth ym = next.plusMonths(k);
+            int m = ym.getMonthValue() - 1;
+            sb.append(String.format("%-8s", ym));
+            for (int g = 0; g < n; g++) {
+                if (groupSize[g] == 0) continue;
+                double base;
+                if (yearsSeen[m] > 0) {
+                    base = byCalendarMonth[m][g] / yearsSeen[m];
+                } else if (inSeason(m + 1)) {
+                    base = peakMonths > 0 ? peak[g] / peakMonths : (offMonths > 0 ? off[g] / offMonths : 0);
+                } else {
+                    base = offMonths > 0 ? off[g] / offMonths : (peakMonths > 0 ? peak[g] / peakMonths : 0);
+                }
+                double demand = base * trend;
+                int needed = (int) Math.ceil(demand / TARGET_UTILIZATION);
+                sb.append(String.format(" %22s", String.format("%.1f -> %d (have %d)", demand, needed, groupSize[g])));
+            }
+            sb.append('\n');
+        }
+    }
+
+    // Car-days of the last 12 months over the 12 before, clamped to [0.5, 2]; 1 without two years of data
+    private static double trend(Map<Integer, long[]> byMonth, int lastKey) {
+        double recent = 0;
+        double prior = 0;
+        int recentMonths = 0;
+        int priorMonths = 0;
+        for (Map.Entry<Integer, long[]> e : byMonth.entrySet()) {
+            int age = lastKey - e.getKey();
+            long sum = 0;
+            for (long v : e.getValue()) sum += v;
+            if (age < 12) {
+                recent += sum;
+                recentMonths++;
+            } else if (age < 24) {
+                prior += sum;
+                priorMonths++;
+            }
+        }
+        if (recentMonths < 12 || priorMonths < 12 || prior == 0) return 1.0;
+        return Math.max(0.5, Math.min(2.0, recent / prior));
+    }
+
+    private static String pct(long carDays, int cars, long calendarDays) {
+        if (cars == 0 || calendarDays == 0) return "-";
+        return String.format("%.1f%%", 100.0 * carDays / ((double) cars * calendarDays));
+    }
+}
@@ -0,0 +1,547 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Binary image of the live state that saveData writes next to the CSV files as
+ * fleet.snap: cars, customers, live rentals, each car's active rental and the demand
+ * counters. A --mapped start maps it instead of parsing the CSVs. Records are fixed
+ * width, so record i is found by arithmetic and only decoded when something asks for
+ * it; id lookups probe open-addressing tables stored in the file. Each record becomes
+ * one object the first time it is read, and from then on that object is the live one:
+ * bookings change it, never the file.
+ *
+ * Layout: header | cars | customers | rentals | car, customer and rental id tables |
+ *         active rentals by end date | demand counters | strings
+ * A string is an int length and UTF-8 bytes; records refer to it by its offset in the
+ * strings section. Not thread-safe: CarRentalSystem only uses it under its lock.
+ */
+final class FleetSnapshot {
+    static final String FILE_NAME = "fleet.snap";
+
+    private static final int MAGIC = 0x464C5453; // "FLTS"
+    private static final int FORMAT = 2; // 2 added the pricing settings to rentals
+    // magic, format, changeVersion, rentalSeq, four counts, nine section offsets
+    private static final int HEADER_BYTES = 72;
+
+    // Type codes; the names are the cars.csv types
+    private static final String[] TYPE_NAMES = {"Car", "EconomyCar", "SuvCar", "LuxuryCar"};
+    private static final Class<?>[] TYPE_CLASSES = {Car.class, EconomyCar.class, SuvCar.class, LuxuryCar.class};
+
+    // Car: id, type, available, brand, model, price per day, version, active rental (-1 for none)
+    private static final int CAR_BYTES = 34;
+    // Customer: id, name, version
+    private static final int CUSTOMER_BYTES = 16;
+    // Rental: id, car, customer, days, start day, flags, total, subtotal, discount amount, tax, price multiplier,
+    // amount paid, discount code, payment id (-1 for none), payment method, payment amount, version, tax rate,
+    // discount percent, pricing epoch
+    private static final int RENTAL_BYTES = 118;
+    private static final int ACTIVE = 1;
+    private static final int HAS_PAYMENT = 2;
+    private static final int PAID = 4;
+
+    private static final int PAGE_BITS = 12; // materialized objects are cached in pages of 4096
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private final MappedByteBuffer buf;
+    private final ObjLongConsumer<Customer> onCustomer; // told each customer's version as it is materialized
+    private final long changeVersion;
+    private final int rentalSeq;
+    private final int carCount;
+    private final int customerCount;
+    private final int rentalCount;
+    private final int activeCount;
+    private final int carsAt;
+    private final int customersAt;
+    private final int rentalsAt;
+    private final int carTableAt;
+    private final int customerTableAt;
+    private final int rentalTableAt;
+    private final int activeAt;
+    private final int demandAt;
+    private final int stringsAt;
+    private final Object[][] carCache;
+    private final Object[][] customerCache;
+    private final Object[][] rentalCache;
+
+    private FleetSnapshot(MappedByteBuffer buf, ObjLongConsumer<Customer> onCustomer) {
+        this.buf = buf;
+        this.onCustomer = onCustomer;
+        ByteBuffer h = buf.duplicate().position(8);
+        changeVersion = h.getLong();
+        rentalSeq = h.getInt();
+        carCount = h.getInt();
+        customerCount = h.getInt();
+        rentalCount = h.getInt();
+        activeCount = h.getInt();
+        carsAt = h.getInt();
+        customersAt = h.getInt();
+        rentalsAt = h.getInt();
+        carTableAt = h.getInt();
+        customerTableAt = h.getInt();
+        rentalTableAt = h.getInt();
+        activeAt = h.getInt();
+        demandAt = h.getInt();
+        stringsAt = h.getInt();
+        carCache = pages(carCount);
+        customerCache = pages(customerCount);
+        rentalCache = pages(rentalCount);
+    }
+
+    // Maps file; null if there is none or it is not in this format. Nothing is decoded yet.
+    static FleetSnapshot open(Path file, ObjLongConsumer<Customer> onCustomer) throws IOException {
+        if (!Files.exists(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) return null;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT) return null;
+            return new FleetSnapshot(buf, onCustomer);
+        }
+    }
+
+    public long getChangeVersion() { return changeVersion; }
+    public int getRentalSeq() { return rentalSeq; }
+    public int getCarCount() { return carCount; }
+    public int getCustomerCount() { return customerCount; }
+    public int getRentalCount() { return rentalCount; }
+    public int getActiveCount() { return activeCount; }
+
+    // Lists over the records, materializing on get; additions go after the mapped records
+    public List<Car> cars() { return new View<>(carCount, this::car); }
+    public List<Customer> customers() { return new View<>(customerCount, this::customer); }
+    public List<Rental> rentals() { return new View<>(rentalCount, this::rental); }
+
+    public Car car(int i) {
+        Car car = (Car) cached(carCache, i);
+        if (car != null) return car;
+        int at = carsAt + i * CAR_BYTES;
+        car = CarRentalSystem.createCarFromRecord(string(buf.getInt(at)), TYPE_NAMES[buf.get(at + 4)],
+                string(buf.getInt(at + 6)), string(buf.getInt(at + 10)), buf.getDouble(at + 14));
+        if (buf.get(at + 5) == 0) car.rent();
+        car.setVersion(buf.getLong(at + 22));
+        cache(carCache, i, car);
+        return car;
+    }
+
+    public Customer customer(int i) {
+        Customer customer = (Customer) cached(customerCache, i);
+        if (customer != null) return customer;
+        int at = customersAt + i * CUSTOMER_BYTES;
+        customer = new Customer(string(buf.getInt(at)), string(buf.getInt(at + 4)));
+        onCustomer.accept(customer, buf.getLong(at + 8));
+        cache(customerCache, i, customer);
+        return customer;
+    }
+
+    // Same fields and order of setters as a rentals.csv row gets when loaded
+    public Rental rental(int i) {
+        Rental r = (Rental) cached(rentalCache, i);
+        if (r != null) return r;
+        int at = rentalsAt + i * RENTAL_BYTES;
+        int flags = buf.get(at + 20);
+        double total = buf.getDouble(at + 21);
+        r = new Rental(string(buf.getInt(at)), car(buf.getInt(at + 4)), customer(buf.getInt(at + 8)), buf.getInt(at + 12),
+                LocalDate.ofEpochDay(buf.getInt(at + 16)), total);
+        r.setPricingBreakdown(string(buf.getInt(at + 69)), buf.getDouble(at + 29), buf.getDouble(at + 37), buf.getDouble(at + 45), total);
+        r.setPriceMultiplier(buf.getDouble(at + 53));
+        if ((flags & HAS_PAYMENT) != 0) {
+            Payment pay = new Payment(string(buf.getInt(at + 73)), buf.getDouble(at + 78), PaymentMethod.values()[buf.get(at + 77)]);
+            if ((flags & PAID) != 0) pay.process();
+            r.attachPayment(pay);
+        }
+        r.setAmountPaid(buf.getDouble(at + 61));
+        r.setVersion(buf.getLong(at + 86));
+        r.setPricedWith(buf.getDouble(at + 94), buf.getDouble(at + 102), buf.getLong(at + 110));
+        if ((flags & ACTIVE) == 0) r.markReturned();
+        cache(rentalCache, i, r);
+        return r;
+    }
+
+    // j-th active rental at the time of the snapshot, soonest end date first
+    public Rental activeRental(int j) {
+        return rental(buf.getInt(activeAt + j * 4));
+    }
+
+    // Lookups by upper-cased id; null if the snapshot has no such record
+    public Car findCar(String key) {
+        int i = find(carTableAt, carCount, carsAt, CAR_BYTES, key);
+        return i < 0 ? null : car(i);
+    }
+
+    public Customer findCustomer(String key) {
+        int i = find(customerTableAt, customerCount, customersAt, CUSTOMER_BYTES, key);
+        return i < 0 ? null : customer(i);
+    }
+
+    public Rental findRental(String key) {
+        int i = find(rentalTableAt, rentalCount, rentalsAt, RENTAL_BYTES, key);
+        return i < 0 ? null : rental(i);
+    }
+
+    // The rental that was active on this car when the snapshot was taken; it may have been returned since
+    public Rental activeRentalOf(Car car) {
+        int i = find(carTableAt, carCount, carsAt, CAR_BYTES, car.getCarId().toUpperCase());
+        if (i < 0 || car(i) != car) return null;
+        int r = buf.getInt(carsAt + i * CAR_BYTES + 30);
+        return r < 0 ? null : rental(r);
+    }
+
+    public List<DemandPricing.Counters> demandCounters() {
+        ByteBuffer in = buf.duplicate().position(demandAt);
+        int classes = in.getInt();
+        List<DemandPricing.Counters> counters = new ArrayList<>(classes);
+        for (int c = 0; c < classes; c++) {
+            Class<?> carClass = TYPE_CLASSES[in.get()];
+            int total = in.getInt();
+            int rented = in.getInt();
+            long[] days = new long[in.getInt()];
+            int[] booked = new int[days.length];
+            for (int i = 0; i < days.length; i++) {
+                days[i] = in.getLong();
+                booked[i] = in.getInt();
+            }
+            counters.add(new DemandPricing.Counters(carClass, total, rented, days, booked));
+        }
+        return counters;
+    }
+
+    private int find(int tableAt, int count, int recordsAt, int recordBytes, String key) {
+        if (count == 0) return -1;
+        int mask = tableSize(count) - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int entry = buf.getInt(tableAt + slot * 4);
+            if (entry == 0) return -1;
+            int i = entry - 1;
+            if (string(buf.getInt(recordsAt + i * recordBytes)).toUpperCase().equals(key)) return i;
+        }
+    }
+
+    private String string(int ref) {
+        if (ref < 0) return null;
+        int at = stringsAt + ref;
+        byte[] bytes = new byte[buf.getInt(at)];
+        buf.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Object[][] pages(int count) {
+        return new Object[(count + PAGE_MASK) >>> PAGE_BITS][];
+    }
+
+    private static Object cached(Object[][] pages, int i) {
+        Object[] page = pages[i >>> PAGE_BITS];
+        return page == null ? null : page[i & PAGE_MASK];
+    }
+
+    private static void cache(Object[][] pages, int i, Object value) {
+        Object[] page = pages[i >>> PAGE_BITS];
+        if (page == null) page = pages[i >>> PAGE_BITS] = new Object[1 << PAGE_BITS];
+        page[i & PAGE_MASK] = value;
+    }
+
+    // Power of two at least twice the count, so probes stay short and always reach an empty slot
+    private static int tableSize(int count) {
+        return count == 0 ? 0 : Integer.highestOneBit(count) * 4;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int typeCode(Class<?> carClass) {
+        for (int t = TYPE_CLASSES.length - 1; t > 0; t--) {
+            if (TYPE_CLASSES[t].isAssignableFrom(carClass)) return t;
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the snapshot through a temp file that is forced to disk and renamed over
+     * file. Rentals whose car or customer is not in the lists are left out, as loading
+     * rentals.csv drops them. A state too large to map in one piece is not written and
+     * any older file is removed, so a mapped start falls back to the CSV files; returns
+     * whether the file was written.
+     */
+    static boolean write(Path file, List<Car> cars, boolean[] carAvailable, long[] carVersion, List<Customer> customers,
+                         long[] customerVersion, List<Rental> rentals, int rentalSeq, long changeVersion,
+                         List<DemandPricing.Counters> demand) throws IOException {
+        Map<Car, Integer> carAt = new IdentityHashMap<>();
+        for (int i = 0; i < cars.size(); i++) carAt.put(cars.get(i), i);
+        Map<Customer, Integer> customerAt = new IdentityHashMap<>();
+        for (int i = 0; i < customers.size(); i++) customerAt.put(customers.get(i), i);
+        List<Rental> kept = new ArrayList<>(rentals.size());
+        int[] rentalCar = new int[rentals.size()];
+        int[] rentalCustomer = new int[rentals.size()];
+        for (Rental r : rentals) {
+            Integer car = carAt.get(r.getCar());
+            Integer customer = customerAt.get(r.getCustomer());
+            if (car == null || customer == null) continue;
+            rentalCar[kept.size()] = car;
+            rentalCustomer[kept.size()] = customer;
+            kept.add(r);
+        }
+
+        // Each car's active rental (the last one wins, as in the live index) and all of them by end day
+        int[] carActive = new int[cars.size()];
+        Arrays.fill(carActive, -1);
+        long[] byEnd = new long[kept.size()];
+        int active = 0;
+        for (int i = 0; i < kept.size(); i++) {
+            Rental r = kept.get(i);
+            if (!r.isActive()) continue;
+            carActive[rentalCar[i]] = i;
+            byEnd[active++] = (r.getEndDate().toEpochDay() << 32) | i;
+        }
+        Arrays.sort(byEnd, 0, active);
+
+        long demandBytes = 4;
+        for (DemandPricing.Counters k : demand) demandBytes += 13 + 12L * k.days.length;
+        long fixedBytes = HEADER_BYTES + (long) cars.size() * CAR_BYTES + (long) customers.size() * CUSTOMER_BYTES
+                + (long) kept.size() * RENTAL_BYTES + 4L * tableSize(cars.size()) + 4L * tableSize(customers.size())
+                + 4L * tableSize(kept.size()) + 4L * active + demandBytes;
+        if (fixedBytes > Integer.MAX_VALUE) {
+            Files.deleteIfExists(file);
+            return false;
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Path stringsTmp = file.resolveSibling(file.getFileName() + ".strings.tmp");
+        boolean fits;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             FileChannel sch = FileChannel.open(stringsTmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            Out out = new Out(ch);
+            Strings strings = new Strings(new Out(sch));
+            out.write(new byte[HEADER_BYTES]); // filled in once the section offsets are known
+
+            int carsAt = out.size();
+            for (int i = 0; i < cars.size(); i++) {
+                Car c = cars.get(i);
+                out.writeInt(strings.add(c.getCarId()));
+                out.writeByte(typeCode(c.getClass()));
+                out.writeBoolean(carAvailable[i]);
+                out.writeInt(strings.addShared(c.getBrand()));
+                out.writeInt(strings.addShared(c.getModel()));
+                out.writeDouble(c.getBasePricePerDay());
+                out.writeLong(carVersion[i]);
+                out.writeInt(carActive[i]);
+            }
+            int customersAt = out.size();
+            for (int i = 0; i < customers.size(); i++) {
+                Customer cu = customers.get(i);
+                out.writeInt(strings.add(cu.getCustomerId()));
+                out.writeInt(strings.add(cu.getName()));
+                out.writeLong(customerVersion[i]);
+            }
+            int rentalsAt = out.size();
+            for (int i = 0; i < kept.size(); i++) {
+                Rental r = kept.get(i);
+                Payment pay = r.getPayment();
+                String code = r.getDiscountCode();
+                out.writeInt(strings.add(r.getRentalId()));
+                out.writeInt(rentalCar[i]);
+                out.writeInt(rentalCustomer[i]);
+                out.writeInt(r.getDays());
+                out.writeInt((int) r.getStartDate().toEpochDay());
+                out.writeByte((r.isActive() ? ACTIVE : 0) | (pay != null ? HAS_PAYMENT : 0) | (pay != null && pay.isSuccessful() ? PAID : 0));
+                out.writeDouble(r.getTotalCost());
+                out.writeDouble(r.getSubtotalBeforeDiscount());
+                out.writeDouble(r.getDiscountAmount());
+                out.writeDouble(r.getTaxAmount());
+                out.writeDouble(r.getPriceMultiplier());
+                out.writeDouble(r.getAmountPaid());
+                out.writeInt(code == null || code.isEmpty() ? -1 : strings.addShared(code));
+                out.writeInt(pay == null ? -1 : strings.add(pay.getPaymentId()));
+                out.writeByte(pay == null ? 0 : pay.getMethod().ordinal());
+                out.writeDouble(pay == null ? 0 : pay.getAmount());
+                out.writeLong(r.getVersion());
+                out.writeDouble(r.getTaxRate());
+                out.writeDouble(r.getDiscountPercent());
+                out.writeLong(r.getPricingEpoch());
+            }
+            int carTableAt = out.size();
+            writeTable(out, cars.size(), i -> cars.get(i).getCarId());
+            int customerTableAt = out.size();
+            writeTable(out, customers.size(), i -> customers.get(i).getCustomerId());
+            int rentalTableAt = out.size();
+            writeTable(out, kept.size(), i -> kept.get(i).getRentalId());
+            int activeAt = out.size();
+            for (int j = 0; j < active; j++) out.writeInt((int) byEnd[j]);
+            int demandAt = out.size();
+            out.writeInt(demand.size());
+            for (DemandPricing.Counters k : demand) {
+                out.writeByte(typeCode(k.carClass));
+                out.writeInt(k.total);
+                out.writeInt(k.rented);
+                out.writeInt(k.days.length);
+                for (int i = 0; i < k.days.length; i++) {
+                    out.writeLong(k.days[i]);
+                    out.writeInt(k.booked[i]);
+                }
+            }
+            out.flush();
+            strings.out.flush();
+
+            int stringsAt = out.size();
+            long stringBytes = strings.out.position;
+            fits = stringsAt + stringBytes <= Integer.MAX_VALUE;
+            if (fits) {
+                for (long pos = 0; pos < stringBytes; ) pos += sch.transferTo(pos, stringBytes - pos, ch);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(FORMAT).putLong(changeVersion).putInt(rentalSeq)
+                        .putInt(cars.size()).putInt(customers.size()).putInt(kept.size()).putInt(active)
+                        .putInt(carsAt).putInt(customersAt).putInt(rentalsAt)
+                        .putInt(carTableAt).putInt(customerTableAt).putInt(rentalTableAt)
+                        .putInt(activeAt).putInt(demandAt).putInt(stringsAt)
+                        .flip();
+                ch.write(header, 0);
+                ch.force(true);
+            }
+        }
+        if (!fits) {
+            // string section past int offsets; deleted only now that the channels are closed
+            Files.deleteIfExists(tmp);
+            Files.deleteIfExists(file);
+            return false;
+        }
+        DataSnapshot.moveIntoPlace(tmp, file);
+        return true;
+    }
+
+    // Open-addressing table of record index + 1 (0 is empty); a repeated id takes over its slot, so the later record wins
+    private static void writeTable(Out out, int count, IntFunction<String> idAt) throws IOException {
+        int[] table = new int[tableSize(count)];
+        int mask = table.length - 1;
+        for (int i = 0; i < count; i++) {
+            String key = idAt.apply(i).toUpperCase();
+            int slot = hash(key) & mask;
+            while (table[slot] != 0 && !idAt.apply(table[slot] - 1).toUpperCase().equals(key)) slot = (slot + 1) & mask;
+            table[slot] = i + 1;
+        }
+        for (int entry : table) out.writeInt(entry);
+    }
+
+    // Big-endian like ByteBuffer, buffered without the per-call locking of BufferedOutputStream
+    private static final class Out {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long position; // bytes written so far, flushed or not
+
+        Out(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        // Offsets are ints; past 2 GB this saturates and write() refuses the file anyway
+        int size() {
+            return (int) Math.min(position, Integer.MAX_VALUE);
+        }
+
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+            position += bytes;
+            return buf;
+        }
+
+        void writeByte(int v) throws IOException { room(1).put((byte) v); }
+        void writeBoolean(boolean v) throws IOException { room(1).put((byte) (v ? 1 : 0)); }
+        void writeInt(int v) throws IOException { room(4).putInt(v); }
+        void writeLong(long v) throws IOException { room(8).putLong(v); }
+        void writeDouble(double v) throws IOException { room(8).putDouble(v); }
+
+        void write(byte[] bytes) throws IOException {
+            if (bytes.length > buf.capacity()) {
+                flush();
+                position += bytes.length;
+                for (ByteBuffer b = ByteBuffer.wrap(bytes); b.hasRemaining(); ) ch.write(b);
+            } else {
+                room(bytes.length).put(bytes);
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+
+    // The strings section as it is written; brands, models and discount codes repeat, so they are stored once
+    private static final class Strings {
+        final Out out;
+        private final Map<String, Integer> shared = new HashMap<>();
+
+        Strings(Out out) {
+            this.out = out;
+        }
+
+        int add(String s) throws IOException {
+            if (s == null) return -1;
+            int ref = out.size();
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            return ref;
+        }
+
+        int addShared(String s) throws IOException {
+            if (s == null) return -1;
+            Integer ref = shared.get(s);
+            if (ref == null) {
+                ref = add(s);
+                shared.put(s, ref);
+            }
+            return ref;
+        }
+    }
+
+    // A live list whose first base elements are snapshot records, materialized on get
+    static final class View<T> extends AbstractList<T> implements RandomAccess {
+        private final int base;
+        private final IntFunction<T> record;
+        private final List<T> added = new ArrayList<>();
+
+        View(int base, IntFunction<T> record) {
+            this.base = base;
+            this.record = record;
+        }
+
+        @Override
+        public T get(int index) {
+            Objects.checkIndex(index, size());
+            return index < base ? record.apply(index) : added.get(index - base);
+        }
+
+        @Override
+        public int size() {
+            return base + added.size();
+        }
+
+        // Only appends: the live lists are never edited in place
+        @Override
+        public void add(int index, T element) {
+            if (index != size()) throw new UnsupportedOperationException("snapshot views only append");
+            added.add(element);
+            modCount++;
+        }
+    }
+}
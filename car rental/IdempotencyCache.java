@@ -0,0 +1,136 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Outcomes of rent, extend and return calls by client-supplied idempotency key, so a
+ * retried request gets the original result instead of a second rental or charge.
+ * Entries expire after ttlMillis and the oldest are evicted past capacity; insertion
+ * order is expiry order, so both checks only ever look at the head of the map.
+ *
+ * A key is bound to the request it first arrived with (operation and arguments); the
+ * same key with different arguments is refused rather than replayed.
+ */
+class IdempotencyCache {
+    static final int DEFAULT_CAPACITY = 10_000;
+    static final long DEFAULT_TTL_MILLIS = 24L * 60 * 60 * 1000;
+
+    static final class Outcome {
+        final String request;
+        final String rentalId;   // null when the call failed
+        final String failure;    // getLastFailure() of a failed call
+        final long expiresAtMillis;
+        Rental rental;           // resolved lazily after a reload; archived rentals may not be in memory
+
+        Outcome(String request, String rentalId, String failure, long expiresAtMillis, Rental rental) {
+            this.request = request;
+            this.rentalId = rentalId;
+            this.failure = failure;
+            this.expiresAtMillis = expiresAtMillis;
+            this.rental = rental;
+        }
+
+        boolean succeeded() { return rentalId != null; }
+    }
+
+    private final LinkedHashMap<String, Outcome> outcomes = new LinkedHashMap<>();
+    private final int capacity;
+    private final long ttlMillis;
+
+    IdempotencyCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS);
+    }
+
+    IdempotencyCache(int capacity, long ttlMillis) {
+        if (capacity <= 0 || ttlMillis <= 0) throw new IllegalArgumentException("capacity and ttl must be positive");
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+    }
+
+    // Canonical form of a call's arguments; a retry must match it exactly
+    static String fingerprint(String op, String target, int days, PaymentMethod method, String discountCode, LocalDate start) {
+        return op + "|" + target.trim().toUpperCase() + "|" + days + "|" + method + "|" +
+                (discountCode == null ? "" : discountCode.trim().toUpperCase()) + "|" + (start == null ? "" : start);
+    }
+
+    // Bookings also name the renter ("ID:" + customer id, or "NAME:" + walk-in name)
+    static String fingerprint(String op, String target, String renter, int days, PaymentMethod method, String discountCode, LocalDate start) {
+        return fingerprint(op, target, days, method, discountCode, start) + "|" + renter;
+    }
+
+    public synchronized Outcome get(String key) {
+        Outcome o = outcomes.get(key);
+        if (o != null && o.expiresAtMillis <= System.currentTimeMillis()) {
+            outcomes.remove(key);
+            return null;
+        }
+        return o;
+    }
+
+    public synchronized void put(String key, String request, Rental rental, String failure) {
+        long now = System.currentTimeMillis();
+        outcomes.remove(key); // keep insertion order equal to expiry order
+        outcomes.put(key, new Outcome(request, rental == null ? null : rental.getRentalId(), failure, now + ttlMillis, rental));
+        evict(now);
+    }
+
+    // Copy of the current entries for writing a checkpoint; outcomes themselves are not modified by writing
+    public synchronized IdempotencyCache copy() {
+        IdempotencyCache c = new IdempotencyCache(capacity, ttlMillis);
+        c.outcomes.putAll(outcomes);
+        return c;
+    }
+
+    public synchronized int size() {
+        return outcomes.size();
+    }
+
+    public synchronized void clear() {
+        outcomes.clear();
+    }
+
+    private void evict(long now) {
+        Iterator<Outcome> it = outcomes.values().iterator();
+        while (it.hasNext()) {
+            Outcome head = it.next();
+            if (outcomes.size() <= capacity && head.expiresAtMillis > now) break;
+            it.remove();
+        }
+    }
+
+    // idempotency.csv: key,request,rentalId,failure,expiresAtMillis (oldest first)
+    public synchronized void write(BufferedWriter bw) throws IOException {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Outcome> e : outcomes.entrySet()) {
+            Outcome o = e.getValue();
+            if (o.expiresAtMillis <= now) continue;
+            bw.write(String.join(",", CarRentalSystem.escape(e.getKey()), CarRentalSystem.escape(o.request),
+                    CarRentalSystem.escape(o.rentalId == null ? "" : o.rentalId),
+                    CarRentalSystem.escape(o.failure == null ? "" : o.failure), String.valueOf(o.expiresAtMillis)));
+            bw.newLine();
+        }
+    }
+
+    // Replaces the contents with what write() produced; rentals resolves ids of rentals still in memory
+    public synchronized void read(BufferedReader br, Function<String, Rental> rentals) throws IOException {
+        outcomes.clear();
+        long now = System.currentTimeMillis();
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] p = CarRentalSystem.splitCsv(line);
+            if (p.length < 5) continue;
+            long expires;
+            try { expires = Long.parseLong(p[4]); } catch (NumberFormatException ignore) { continue; }
+            if (expires <= now) continue;
+            String rentalId = p[2].isEmpty() ? null : p[2];
+            outcomes.put(p[0], new Outcome(p[1], rentalId, p[3].isEmpty() ? null : p[3], expires,
+                    rentalId == null ? null : rentals.apply(rentalId)));
+        }
+        evict(now);
+    }
+}
@@ -1,29 +1,32 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
 import java.util.Scanner;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.DayOfWeek;
+import java.time.temporal.ChronoUnit;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 class Car {
     private String carId;
-    private String brand;
-    private String model;
+    private final CarSpec spec; // class, brand and model, shared by every car of the same kind
     private double basePricePerDay;
     private boolean isAvailable;
+    private long version; // change version of the last add, rent or return (see CarRentalSystem.getChangeVersion)
 
     public Car(String carId, String brand, String model, double basePricePerDay) {
         this.carId = carId;
-        this.brand = brand;
-        this.model = model;
+        this.spec = CarSpec.of(getClass(), brand, model);
         this.basePricePerDay = basePricePerDay;
         this.isAvailable = true;
     }
@@ -31,19 +34,24 @@ class Car {
         return carId;
     }
 
+    public CarSpec getSpec() {
+        return spec;
+    }
+
     public String getBrand() {
-        return brand;
+        return spec.getBrand();
     }
 
     public String getModel() {
-        return model;
+        return spec.getModel();
     }
 
     public double getBasePricePerDay() {
         return basePricePerDay;
     }
 
-    public double calculatePrice(int rentalDays) {
+    // Price for the period under pricing's class rules; each subclass applies its own
+    public double calculatePrice(int rentalDays, PricingConfig pricing) {
         return basePricePerDay * rentalDays;
     }
 
@@ -59,9 +67,17 @@ class Car {
         isAvailable = true;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
-        return carId + " - " + brand + " " + model + (isAvailable ? " (Available)" : " (Rented)") +
+        return carId + " - " + spec.getBrand() + " " + spec.getModel() + (isAvailable ? " (Available)" : " (Rented)") +
                 String.format(" | $%.2f/day", basePricePerDay);
     }
 }
@@ -73,11 +89,11 @@ class EconomyCar extends Car {
     }
 
     @Override
-    public double calculatePrice(int rentalDays) {
+    public double calculatePrice(int rentalDays, PricingConfig pricing) {
         double price = getBasePricePerDay() * rentalDays;
         // Economy discount for long rentals
-        if (rentalDays >= 7) {
-            price *= 0.9; // 10% off
+        if (rentalDays >= pricing.getEconomyLongRentalDays()) {
+            price *= pricing.getEconomyLongRentalMultiplier(); // 10% off by default
         }
         return price;
     }
@@ -89,9 +105,9 @@ class SuvCar extends Car {
     }
 
     @Override
-    public double calculatePrice(int rentalDays) {
+    public double calculatePrice(int rentalDays, PricingConfig pricing) {
         // Slight SUV multiplier
-        return getBasePricePerDay() * 1.15 * rentalDays;
+        return getBasePricePerDay() * pricing.getSuvMultiplier() * rentalDays;
     }
 }
 
@@ -101,11 +117,11 @@ class LuxuryCar extends Car {
     }
 
     @Override
-    public double calculatePrice(int rentalDays) {
+    public double calculatePrice(int rentalDays, PricingConfig pricing) {
         // Luxury multiplier with optional long-rental perk
-        double price = getBasePricePerDay() * 1.6 * rentalDays;
-        if (rentalDays >= 5) {
-            price -= 50.0; // flat perk
+        double price = getBasePricePerDay() * pricing.getLuxuryMultiplier() * rentalDays;
+        if (rentalDays >= pricing.getLuxuryPerkDays()) {
+            price -= pricing.getLuxuryPerk(); // flat perk
         }
         return Math.max(price, 0.0);
     }
@@ -143,6 +159,13 @@ class Rental {
     private double subtotalBeforeDiscount; // base price before discount and tax
     private double discountAmount; // absolute amount off
     private double taxAmount; // absolute tax amount
+    private double priceMultiplier = 1.0; // demand multiplier agreed at booking; extensions and returns keep it
+    private double amountPaid; // sum of successful payments; NaN when loaded from rows that predate it
+    private long version; // change version of the last booking, extension or return; 0 in rows that predate it
+    // Settings the breakdown was priced with, so an audit can check it against its own rules; NaN and 0 in rows that predate them
+    private double taxRate = Double.NaN;
+    private double discountPercent = Double.NaN;
+    private long pricingEpoch; // PricingConfig.getEpoch() of the config that priced the subtotal
 
     public Rental(String rentalId, Car car, Customer customer, int days, LocalDate startDate, double totalCost) {
         this.rentalId = rentalId;
@@ -177,9 +200,35 @@ class Rental {
     public double getSubtotalBeforeDiscount() { return subtotalBeforeDiscount; }
     public double getDiscountAmount() { return discountAmount; }
     public double getTaxAmount() { return taxAmount; }
+    public double getPriceMultiplier() { return priceMultiplier; }
+    public double getAmountPaid() { return amountPaid; }
+    public long getVersion() { return version; }
+    public double getTaxRate() { return taxRate; }
+    public double getDiscountPercent() { return discountPercent; }
+    public long getPricingEpoch() { return pricingEpoch; }
+
+    public void setPricedWith(double taxRate, double discountPercent, long pricingEpoch) {
+        this.taxRate = taxRate;
+        this.discountPercent = discountPercent;
+        this.pricingEpoch = pricingEpoch;
+    }
 
+    public void setPriceMultiplier(double priceMultiplier) {
+        this.priceMultiplier = priceMultiplier;
+    }
+
+    // The latest payment is kept; amountPaid accumulates all of them
     public void attachPayment(Payment payment) {
         this.payment = payment;
+        if (payment != null && payment.isSuccessful()) amountPaid += payment.getAmount();
+    }
+
+    public void setAmountPaid(double amountPaid) {
+        this.amountPaid = amountPaid;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
     }
 
     public void markReturned() {
@@ -202,6 +251,20 @@ class Rental {
         this.taxAmount = taxAmount;
         this.totalCost = total;
     }
+
+    // Frozen copy for a checkpoint; the payment is complete once attached, so it is shared
+    public Rental copy() {
+        Rental r = new Rental(rentalId, car, customer, days, startDate, totalCost);
+        r.endDate = endDate;
+        r.payment = payment;
+        r.active = active;
+        r.setPricingBreakdown(discountCode, subtotalBeforeDiscount, discountAmount, taxAmount, totalCost);
+        r.priceMultiplier = priceMultiplier;
+        r.amountPaid = amountPaid;
+        r.version = version;
+        r.setPricedWith(taxRate, discountPercent, pricingEpoch);
+        return r;
+    }
 }
 
 enum PaymentMethod { CASH, CARD }
@@ -240,44 +303,168 @@ class Payment {
     }
 }
 
+// Price of a prospective or recomputed rental; amounts are already rounded to cents
+class Quote {
+    private final double subtotal;
+    private final String discountCode; // normalized; null when no code applies
+    private final double discountAmount;
+    private final double taxAmount;
+    private final double total;
+    private final RedemptionStatus couponStatus;
+    private final double demandMultiplier;
+    private final double taxRate;
+    private final double discountPercent;
+    private final long pricingEpoch;
+
+    Quote(double subtotal, String discountCode, double discountAmount, double taxAmount, double total, RedemptionStatus couponStatus,
+          double demandMultiplier, double taxRate, double discountPercent, long pricingEpoch) {
+        this.subtotal = subtotal;
+        this.discountCode = discountCode;
+        this.discountAmount = discountAmount;
+        this.taxAmount = taxAmount;
+        this.total = total;
+        this.couponStatus = couponStatus;
+        this.demandMultiplier = demandMultiplier;
+        this.taxRate = taxRate;
+        this.discountPercent = discountPercent;
+        this.pricingEpoch = pricingEpoch;
+    }
+
+    public double getSubtotal() { return subtotal; }
+    public String getDiscountCode() { return discountCode; }
+    public double getDiscountAmount() { return discountAmount; }
+    public double getTaxAmount() { return taxAmount; }
+    public double getTotal() { return total; }
+    public RedemptionStatus getCouponStatus() { return couponStatus; }
+    public double getDemandMultiplier() { return demandMultiplier; }
+    public double getTaxRate() { return taxRate; }
+    public double getDiscountPercent() { return discountPercent; }
+    public long getPricingEpoch() { return pricingEpoch; }
+}
+
+// Fleet-wide totals shown under Reports
+class FleetReport {
+    private final int totalCars;
+    private final int availableCars;
+    private final int activeRentals;
+    private final double closedRevenue;
+
+    FleetReport(int totalCars, int availableCars, int activeRentals, double closedRevenue) {
+        this.totalCars = totalCars;
+        this.availableCars = availableCars;
+        this.activeRentals = activeRentals;
+        this.closedRevenue = closedRevenue;
+    }
+
+    public int getTotalCars() { return totalCars; }
+    public int getAvailableCars() { return availableCars; }
+    public int getRentedCars() { return totalCars - availableCars; }
+    public int getActiveRentals() { return activeRentals; }
+    public double getClosedRevenue() { return closedRevenue; }
+}
+
 class CarRentalSystem {
     private List<Car> cars;
     private List<Customer> customers;
     private List<Rental> rentals;
-    private double taxRate = 0.08; // 8% tax
-    private String pendingDiscountCode = ""; // transient during booking flow
-    private Map<String, Double> discountCodeToPercent = new HashMap<>();
-    private double seasonalMultiplier = 0.10; // +10% in peak months
-    private double weekendMultiplier = 0.05;  // +5% if any weekend day
-    private int seasonalStartMonth = 6; // June
-    private int seasonalEndMonth = 8;   // August
+    // Id lookups (keys upper-cased, ids are case-insensitive) and active rental indexes
+    private final Map<String, Car> carIndex = new HashMap<>();
+    private final Map<String, Customer> customerIndex = new HashMap<>();
+    private final Map<Car, Rental> activeByCar = new HashMap<>();
+    private final Map<String, Rental> activeById = new HashMap<>();
+    private PricingConfig pricing = PricingConfig.DEFAULT; // tax, seasonal and weekend settings; replaced, never mutated
+    private final CouponEngine coupons;
+    private final boolean ownsCoupons; // false for a branch shard: the router loads and saves the shared engine
+    private final RentalMetrics metrics = new RentalMetrics();
+    private final RentalEventBus events = new RentalEventBus();
+    private final RentalAggregates aggregates = new RentalAggregates();
+    private final DemandPricing demandPricing = new DemandPricing();
+    private final OverdueScheduler overdue = new OverdueScheduler(LocalDate.now(), 1); // due-soon one day ahead
+    private ScheduledExecutorService overdueMonitor;
+    private int rentalSeq = 0; // last issued rental number; survives archiving, unlike rentals.size()
+    private List<Rental> archiving = List.of(); // split off by a save, not yet appended to the archive
+    private int archiveRetentionDays = 180; // closed rentals older than this move to the archive on save (0 = never)
+    private RentalArchive archive; // opened once a data directory is known
+    private volatile boolean consoleOutput = true; // off when serving requests that report results themselves
+    private final ThreadLocal<String> lastFailure = new ThreadLocal<>();
+    private final String idPrefix; // prepended to rental and payment ids, e.g. "NYC-" for a branch shard
+    private ReplicationLog replicationLog; // set on a replication leader; every committed change is appended
+    private volatile boolean readOnly = false; // replication follower: changes only arrive through applyReplicated
+    private final IdempotencyCache idempotency = new IdempotencyCache(); // outcomes of keyed rent/extend/return calls
+    private final QuoteCache quoteCache = new QuoteCache();
+    private long pricingVersion = 0; // part of every quote cache key; bumped when tax, coupons or pricing settings change
+    private final Object saveLock = new Object(); // one checkpoint at a time; taken before the system lock, never inside it
+    private ScheduledExecutorService saver; // background and periodic saves, created on first use
+    private long changeVersion = 0; // last version stamped on a changed car, customer or rental; never goes back
+    private final Map<Customer, Long> customerVersions = new java.util.IdentityHashMap<>(); // customers may be shared across branches
+    private final Object exportLock = new Object(); // one export at a time
+    private FleetSnapshot mapped; // after a mapped load: records not materialized yet are looked up here
 
     public CarRentalSystem() {
+        this("");
+    }
+
+    public CarRentalSystem(String idPrefix) {
+        this(idPrefix, null);
+    }
+
+    // sharedCoupons: the engine of a BranchRouter, so coupon limits hold across branches; null for an own engine
+    public CarRentalSystem(String idPrefix, CouponEngine sharedCoupons) {
+        this.idPrefix = idPrefix;
         cars = new ArrayList<>();
         customers = new ArrayList<>();
         rentals = new ArrayList<>();
-        // Seed default discount codes
-        discountCodeToPercent.put("SAVE10", 0.10);
-        discountCodeToPercent.put("SAVE15", 0.15);
-        discountCodeToPercent.put("VIP20", 0.20);
+        ownsCoupons = sharedCoupons == null;
+        coupons = ownsCoupons ? new CouponEngine() : sharedCoupons;
+        if (ownsCoupons) seedCoupons(coupons);
     }
 
-    public void addCar(Car car) {
+    // Default discount codes
+    static void seedCoupons(CouponEngine coupons) {
+        coupons.put("SAVE10", 0.10);
+        coupons.put("SAVE15", 0.15);
+        coupons.put("VIP20", 0.20);
+    }
+
+    public synchronized void addCar(Car car) {
+        car.setVersion(nextVersion());
         cars.add(car);
+        demandPricing.carAdded(car);
+        carIndex.put(car.getCarId().toUpperCase(), car);
+        replicate("CAR", () -> carToCsv(car));
     }
 
-    public void addCustomer(Customer customer) {
+    public synchronized void addCustomer(Customer customer) {
         customers.add(customer);
+        customerVersions.put(customer, nextVersion());
+        customerIndex.put(customer.getCustomerId().toUpperCase(), customer);
+        replicate("CUSTOMER", () -> customerToCsv(customer, changeVersion));
     }
 
-    public Customer findCustomerById(String customerId) {
-        for (Customer c : customers) {
-            if (c.getCustomerId().equalsIgnoreCase(customerId)) return c;
-        }
-        return null;
+    // Returns the registered customer with this id, adding the given one if there is none
+    public synchronized Customer addCustomerIfAbsent(Customer customer) {
+        Customer existing = findCustomerById(customer.getCustomerId());
+        if (existing != null) return existing;
+        addCustomer(customer);
+        return customer;
+    }
+
+    // Creates a customer with the next free CUS id
+    public synchronized Customer registerCustomer(String name) {
+        // a shard's prefix keeps its ids apart from the router's and other branches'
+        Customer customer = new Customer(idPrefix + "CUS" + (customers.size() + 1), name);
+        addCustomer(customer);
+        return customer;
     }
 
-    public List<Customer> findCustomersByName(String name) {
+    public synchronized Customer findCustomerById(String customerId) {
+        if (customerId == null) return null;
+        String key = customerId.trim().toUpperCase();
+        Customer customer = customerIndex.get(key);
+        return customer == null && mapped != null ? mapped.findCustomer(key) : customer;
+    }
+
+    public synchronized List<Customer> findCustomersByName(String name) {
         List<Customer> result = new ArrayList<>();
         for (Customer c : customers) {
             if (c.getName().equalsIgnoreCase(name)) result.add(c);
@@ -285,14 +472,23 @@ class CarRentalSystem {
         return result;
     }
 
-    public void listAllCars() {
+    public synchronized List<Customer> getCustomers() {
+        return new ArrayList<>(customers);
+    }
+
+    // Copy of the fleet list, for callers that iterate without holding the lock
+    public synchronized List<Car> getCars() {
+        return new ArrayList<>(cars);
+    }
+
+    public synchronized void listAllCars() {
         System.out.println("\n== All Cars ==");
         for (Car car : cars) {
             System.out.println(car.toString());
         }
     }
 
-    public void listAvailableCars() {
+    public synchronized void listAvailableCars() {
         System.out.println("\n== Available Cars ==");
         for (Car car : cars) {
             if (car.isAvailable()) {
@@ -301,112 +497,242 @@ class CarRentalSystem {
         }
     }
 
-    public Car findCarById(String carId) {
-        for (Car car : cars) {
-            if (car.getCarId().equalsIgnoreCase(carId)) {
-                return car;
-            }
-        }
-        return null;
+    public synchronized Car findCarById(String carId) {
+        if (carId == null) return null;
+        String key = carId.trim().toUpperCase();
+        Car car = carIndex.get(key);
+        return car == null && mapped != null ? mapped.findCar(key) : car;
     }
 
-    public boolean isCarAvailable(String carId) {
+    public synchronized boolean isCarAvailable(String carId) {
         Car car = findCarById(carId);
         return car != null && car.isAvailable();
     }
 
-    public Rental findActiveRentalByCar(Car car) {
-        for (Rental rental : rentals) {
-            if (rental.getCar() == car && rental.isActive()) {
-                return rental;
-            }
-        }
-        return null;
+    // Rentals from a mapped snapshot are not in the indexes; one returned since then is no longer active
+    public synchronized Rental findActiveRentalByCar(Car car) {
+        Rental rental = activeByCar.get(car);
+        if (rental == null && mapped != null) rental = mapped.activeRentalOf(car);
+        return rental != null && rental.isActive() ? rental : null;
+    }
+
+    public synchronized Rental findActiveRentalById(String rentalId) {
+        if (rentalId == null) return null;
+        String key = rentalId.trim().toUpperCase();
+        Rental rental = activeById.get(key);
+        if (rental == null && mapped != null) rental = mapped.findRental(key);
+        return rental != null && rental.isActive() ? rental : null;
+    }
+
+    public RentalMetrics getMetrics() {
+        return metrics;
+    }
+
+    public RentalEventBus getEvents() {
+        return events;
+    }
+
+    // Aggregates are counted here on the calling thread; the bus only feeds external subscribers
+    private void publish(RentalEvent event) {
+        aggregates.onEvent(event, true);
+        events.publish(event);
+    }
+
+    public void setConsoleOutput(boolean consoleOutput) {
+        this.consoleOutput = consoleOutput;
+    }
+
+    // Why the last rentCar/extendRental/finalizeReturn on this thread failed, or null
+    public String getLastFailure() {
+        return lastFailure.get();
+    }
+
+    // Price without side effects: no coupon use is consumed
+    public synchronized Quote quote(Car car, LocalDate startDate, int days, String discountCode, String customerId) {
+        RedemptionStatus status = coupons.check(discountCode, customerId, startDate);
+        return priceFor(car, startDate, days, status == RedemptionStatus.APPLIED ? CouponEngine.normalize(discountCode) : null, status,
+                demandPricing.multiplier(car, startDate, days));
+    }
+
+    public Rental rentCar(Car car, Customer customer, int days, PaymentMethod method) {
+        return rentCar(car, customer, days, method, null);
+    }
+
+    public Rental rentCar(Car car, Customer customer, int days, PaymentMethod method, String discountCode) {
+        return rentCar(car, customer, days, method, discountCode, LocalDate.now());
+    }
+
+    // Start date is explicit so batch replays can book on the day the original booking was made
+    public Rental rentCar(Car car, Customer customer, int days, PaymentMethod method, String discountCode, LocalDate startDate) {
+        return rentCar(car, customer, days, method, discountCode, startDate, null);
+    }
+
+    // A repeated idempotencyKey returns the first call's outcome without pricing or charging again
+    public synchronized Rental rentCar(Car car, Customer customer, int days, PaymentMethod method, String discountCode, LocalDate startDate,
+                                       String idempotencyKey) {
+        String renter = customer == null ? "" : "ID:" + customer.getCustomerId().trim().toUpperCase();
+        return rent(car, renter, () -> customer, days, method, discountCode, startDate, idempotencyKey);
+    }
+
+    // Registers the walk-in through register(name) only when the booking is not a replay; the key
+    // lookup and the registration share this lock, so concurrent retries never register twice
+    public synchronized Rental rentCarForWalkIn(Car car, String name, java.util.function.Function<String, Customer> register, int days,
+                                                PaymentMethod method, String discountCode, LocalDate startDate, String idempotencyKey) {
+        String walkIn = name.trim();
+        return rent(car, "NAME:" + walkIn, () -> register.apply(walkIn), days, method, discountCode, startDate, idempotencyKey);
     }
 
-    public Rental findActiveRentalById(String rentalId) {
-        for (Rental rental : rentals) {
-            if (rental.isActive() && rental.getRentalId().equalsIgnoreCase(rentalId)) {
-                return rental;
+    // renter identifies the customer in the request fingerprint: a reused key for someone else is a mismatch
+    private Rental rent(Car car, String renter, java.util.function.Supplier<Customer> customer, int days, PaymentMethod method,
+                        String discountCode, LocalDate startDate, String idempotencyKey) {
+        long t0 = metrics.start();
+        lastFailure.remove();
+        try {
+            if (readOnly) {
+                fail(null, "This node is a read-only replica; send changes to the leader.");
+                return null;
             }
+            if (idempotencyKey == null) return doRentCar(car, customer.get(), days, method, discountCode, startDate);
+            String request = IdempotencyCache.fingerprint("RENT", car.getCarId(), renter, days, method, discountCode, startDate);
+            IdempotencyCache.Outcome prior = idempotency.get(idempotencyKey);
+            if (prior != null) return replay(prior, request);
+            return remember(idempotencyKey, request, doRentCar(car, customer.get(), days, method, discountCode, startDate));
+        } finally {
+            metrics.record(MetricOp.RENT, t0);
         }
-        return null;
     }
 
-    public Rental rentCar(Car car, Customer customer, int days, PaymentMethod method) {
+    private Rental doRentCar(Car car, Customer customer, int days, PaymentMethod method, String requestedCode, LocalDate startDate) {
+        if (customer == null) {
+            fail(null, "Customer not found.");
+            return null;
+        }
         if (!car.isAvailable()) {
-            System.out.println("Car is not available for rent.");
+            fail(MetricOutcome.CAR_NOT_AVAILABLE, "Car is not available for rent.");
             return null;
         }
 
-        LocalDate startDate = LocalDate.now();
-        double base = computePolicyAdjustedBase(car, startDate, days);
-        String discountCode = pendingDiscountCode; // set just before call
-        double discountPct = getDiscountPercent(discountCode);
-        double discountAmt = round2(base * discountPct);
-        double taxable = base - discountAmt;
-        double taxAmt = round2(taxable * taxRate);
-        double total = round2(taxable + taxAmt);
-        String rentalId = "RNT" + (rentals.size() + 1);
-        Rental rental = new Rental(rentalId, car, customer, days, startDate, total);
-        rental.setPricingBreakdown(discountCode, round2(base), discountAmt, taxAmt, total);
-
-        String paymentId = "PAY" + (rentals.size() + 1);
-        Payment payment = new Payment(paymentId, total, method);
-        boolean ok = payment.process();
+        String discountCode = null;
+        RedemptionStatus redemption = coupons.redeem(requestedCode, customer.getCustomerId(), startDate);
+        if (redemption == RedemptionStatus.APPLIED) {
+            discountCode = CouponEngine.normalize(requestedCode);
+        } else if (redemption != RedemptionStatus.NO_CODE) {
+            metrics.count(MetricOutcome.COUPON_REJECTED);
+            say("Discount code not applied: " + describe(redemption));
+        }
+        double demand = demandPricing.multiplier(car, startDate, days);
+        Quote q = priceFor(car, startDate, days, discountCode, redemption, demand);
+        int seq = rentalSeq + 1;
+        String rentalId = idPrefix + "RNT" + seq;
+        Rental rental = new Rental(rentalId, car, customer, days, startDate, q.getTotal());
+        rental.setPricingBreakdown(discountCode, q.getSubtotal(), q.getDiscountAmount(), q.getTaxAmount(), q.getTotal());
+        rental.setPricedWith(q.getTaxRate(), q.getDiscountPercent(), q.getPricingEpoch());
+        rental.setPriceMultiplier(demand);
+
+        String paymentId = idPrefix + "PAY" + seq;
+        Payment payment = new Payment(paymentId, q.getTotal(), method);
+        boolean ok = processPayment(payment);
         rental.attachPayment(payment);
 
         if (ok) {
             car.rent();
+            car.setVersion(nextVersion());
+            rental.setVersion(changeVersion);
+            demandPricing.carRented(car);
+            demandPricing.book(car, startDate, days, 1);
             rentals.add(rental);
-            System.out.println("Payment successful. Rental confirmed.\n" + invoiceFor(rental));
+            activeByCar.put(car, rental);
+            activeById.put(rentalId.toUpperCase(), rental);
+            rentalSeq = seq;
+            overdue.schedule(rental);
+            if (discountCode != null) {
+                String redeemed = discountCode;
+                replicate("REDEEM", () -> redeemed + "," + escape(customer.getCustomerId()));
+            }
+            replicate("RENT", () -> rentalToCsv(rental));
+            publish(new RentalCreated(rental));
+            publish(new PaymentCaptured(rental, payment));
+            sayInvoice("Payment successful. Rental confirmed.", rental);
             return rental;
         } else {
-            System.out.println("Payment failed. Rental not created.");
+            if (discountCode != null) coupons.release(discountCode, customer.getCustomerId());
+            fail(null, "Payment failed. Rental not created.");
             return null;
         }
     }
 
-    public void finalizeReturn(Car car, int actualDaysUsed, PaymentMethod method) {
+    public Rental finalizeReturn(Car car, int actualDaysUsed, PaymentMethod method) {
+        return finalizeReturn(car, actualDaysUsed, method, null);
+    }
+
+    public synchronized Rental finalizeReturn(Car car, int actualDaysUsed, PaymentMethod method, String idempotencyKey) {
+        long t0 = metrics.start();
+        lastFailure.remove();
+        try {
+            if (readOnly) {
+                fail(null, "This node is a read-only replica; send changes to the leader.");
+                return null;
+            }
+            if (idempotencyKey == null) return doFinalizeReturn(car, actualDaysUsed, method);
+            String request = IdempotencyCache.fingerprint("RETURN", car.getCarId(), actualDaysUsed, method, null, null);
+            IdempotencyCache.Outcome prior = idempotency.get(idempotencyKey);
+            if (prior != null) return replay(prior, request);
+            return remember(idempotencyKey, request, doFinalizeReturn(car, actualDaysUsed, method));
+        } finally {
+            metrics.record(MetricOp.RETURN, t0);
+        }
+    }
+
+    private Rental doFinalizeReturn(Car car, int actualDaysUsed, PaymentMethod method) {
         Rental rental = findActiveRentalByCar(car);
         if (rental == null) {
-            System.out.println("Car was not rented.");
-            return;
+            fail(MetricOutcome.CAR_NOT_RENTED, "Car was not rented.");
+            return null;
         }
         if (actualDaysUsed < rental.getDays()) {
             // No refunds for early return in this simple model; just close rental at booked days
             actualDaysUsed = rental.getDays();
         }
-        double base = computePolicyAdjustedBase(car, rental.getStartDate(), actualDaysUsed);
         String discountCode = rental.getDiscountCode();
-        double discountPct = getDiscountPercent(discountCode);
-        double discountAmt = round2(base * discountPct);
-        double taxable = base - discountAmt;
-        double taxAmt = round2(taxable * taxRate);
-        double newTotal = round2(taxable + taxAmt);
+        Quote q = priceFor(car, rental.getStartDate(), actualDaysUsed, discountCode, null, rental.getPriceMultiplier());
+        double newTotal = q.getTotal();
         double delta = newTotal - rental.getTotalCost();
+        Payment extraPayment = null;
         if (delta > 0) {
-            String paymentId = "PAY" + (rentals.size() + 1) + "R";
+            String paymentId = idPrefix + "PAY" + (rentalSeq + 1) + "R";
             Payment payment = new Payment(paymentId, delta, method);
-            boolean ok = payment.process();
+            boolean ok = processPayment(payment);
             if (!ok) {
-                System.out.println("Additional payment failed. Return aborted.");
-                return;
+                fail(null, "Additional payment failed. Return aborted.");
+                return null;
             }
             rental.attachPayment(payment);
+            extraPayment = payment;
         }
         // Update rental record
+        demandPricing.book(car, rental.getStartDate(), rental.getDays(), -1);
         int extraDays = actualDaysUsed - rental.getDays();
         if (extraDays > 0) {
             rental.applyExtension(extraDays);
         }
-        rental.setPricingBreakdown(discountCode, round2(base), discountAmt, taxAmt, newTotal);
+        rental.setPricingBreakdown(discountCode, q.getSubtotal(), q.getDiscountAmount(), q.getTaxAmount(), newTotal);
+        rental.setPricedWith(q.getTaxRate(), q.getDiscountPercent(), q.getPricingEpoch());
         rental.markReturned();
         car.returnCar();
-        System.out.println("Car returned. Final invoice:\n" + invoiceFor(rental));
-    }
-
-    public void listActiveRentals() {
+        car.setVersion(nextVersion());
+        rental.setVersion(changeVersion);
+        demandPricing.carReturned(car);
+        activeByCar.remove(car);
+        activeById.remove(rental.getRentalId().toUpperCase());
+        overdue.cancel(rental);
+        replicate("RETURN", () -> rentalToCsv(rental));
+        if (extraPayment != null) publish(new PaymentCaptured(rental, extraPayment));
+        publish(new RentalReturned(rental, actualDaysUsed));
+        sayInvoice("Car returned. Final invoice:", rental);
+        return rental;
+    }
+
+    public synchronized void listActiveRentals() {
         System.out.println("\n== Active Rentals ==");
         if (rentals.isEmpty()) {
             System.out.println("No rentals yet.");
@@ -423,44 +749,192 @@ class CarRentalSystem {
         }
     }
 
-    public void extendRental(String rentalId, int extraDays, PaymentMethod method) {
+    public Rental extendRental(String rentalId, int extraDays, PaymentMethod method) {
+        return extendRental(rentalId, extraDays, method, null);
+    }
+
+    public synchronized Rental extendRental(String rentalId, int extraDays, PaymentMethod method, String idempotencyKey) {
+        long t0 = metrics.start();
+        lastFailure.remove();
+        try {
+            if (readOnly) {
+                fail(null, "This node is a read-only replica; send changes to the leader.");
+                return null;
+            }
+            if (idempotencyKey == null) return doExtendRental(rentalId, extraDays, method);
+            String request = IdempotencyCache.fingerprint("EXTEND", rentalId, extraDays, method, null, null);
+            IdempotencyCache.Outcome prior = idempotency.get(idempotencyKey);
+            if (prior != null) return replay(prior, request);
+            return remember(idempotencyKey, request, doExtendRental(rentalId, extraDays, method));
+        } finally {
+            metrics.record(MetricOp.EXTEND, t0);
+        }
+    }
+
+    private Rental doExtendRental(String rentalId, int extraDays, PaymentMethod method) {
         if (extraDays <= 0) {
-            System.out.println("Extra days must be positive.");
-            return;
+            fail(MetricOutcome.INVALID_EXTENSION, "Extra days must be positive.");
+            return null;
         }
         Rental rental = findActiveRentalById(rentalId);
         if (rental == null) {
-            System.out.println("Active rental not found.");
-            return;
+            fail(MetricOutcome.RENTAL_NOT_FOUND, "Active rental not found.");
+            return null;
         }
         Car car = rental.getCar();
         int newTotalDays = rental.getDays() + extraDays;
-        double base = computePolicyAdjustedBase(car, rental.getStartDate(), newTotalDays);
         String discountCode = rental.getDiscountCode();
-        double discountPct = getDiscountPercent(discountCode);
-        double discountAmt = round2(base * discountPct);
-        double taxable = base - discountAmt;
-        double taxAmt = round2(taxable * taxRate);
-        double newTotalCost = round2(taxable + taxAmt);
+        Quote q = priceFor(car, rental.getStartDate(), newTotalDays, discountCode, null, rental.getPriceMultiplier());
+        double newTotalCost = q.getTotal();
         double additionalAmount = newTotalCost - rental.getTotalCost();
         if (additionalAmount <= 0) {
             // no charge scenario (e.g., discounts)
+            demandPricing.book(car, rental.getEndDate(), extraDays, 1);
             rental.applyExtension(extraDays);
-            rental.setPricingBreakdown(discountCode, round2(base), discountAmt, taxAmt, newTotalCost);
-            System.out.println("Extension applied with no additional charge.\n" + invoiceFor(rental));
-            return;
+            rental.setPricingBreakdown(discountCode, q.getSubtotal(), q.getDiscountAmount(), q.getTaxAmount(), newTotalCost);
+            rental.setPricedWith(q.getTaxRate(), q.getDiscountPercent(), q.getPricingEpoch());
+            rental.setVersion(nextVersion());
+            overdue.schedule(rental);
+            replicate("EXTEND", () -> rentalToCsv(rental));
+            publish(new RentalExtended(rental, extraDays, 0.0));
+            sayInvoice("Extension applied with no additional charge.", rental);
+            return rental;
         }
-        String paymentId = "PAY" + (rentals.size() + 1) + "E";
+        String paymentId = idPrefix + "PAY" + (rentalSeq + 1) + "E";
         Payment payment = new Payment(paymentId, additionalAmount, method);
-        boolean ok = payment.process();
+        boolean ok = processPayment(payment);
         if (!ok) {
-            System.out.println("Payment failed. Extension not applied.");
-            return;
+            fail(null, "Payment failed. Extension not applied.");
+            return null;
         }
         rental.attachPayment(payment);
+        demandPricing.book(car, rental.getEndDate(), extraDays, 1);
         rental.applyExtension(extraDays);
-        rental.setPricingBreakdown(discountCode, round2(base), discountAmt, taxAmt, newTotalCost);
-        System.out.println("Extension applied successfully. Updated invoice:\n" + invoiceFor(rental));
+        rental.setPricingBreakdown(discountCode, q.getSubtotal(), q.getDiscountAmount(), q.getTaxAmount(), newTotalCost);
+        rental.setPricedWith(q.getTaxRate(), q.getDiscountPercent(), q.getPricingEpoch());
+        rental.setVersion(nextVersion());
+        overdue.schedule(rental);
+        replicate("EXTEND", () -> rentalToCsv(rental));
+        publish(new RentalExtended(rental, extraDays, additionalAmount));
+        publish(new PaymentCaptured(rental, payment));
+        sayInvoice("Extension applied successfully. Updated invoice:", rental);
+        return rental;
+    }
+
+    // Advance the overdue index to today and publish due-soon / overdue events for what crossed over
+    public synchronized int checkOverdue(LocalDate today) {
+        return overdue.advance(today, new OverdueListener() {
+            @Override
+            public void onDueSoon(Rental rental) {
+                publish(new RentalDueSoon(rental));
+            }
+
+            @Override
+            public void onOverdue(Rental rental, LocalDate day) {
+                publish(new RentalOverdue(rental, day));
+            }
+        });
+    }
+
+    public synchronized List<Rental> getOverdueRentals() {
+        return overdue.listOverdue();
+    }
+
+    public synchronized List<Rental> getRentalsDueWithin(int days) {
+        return overdue.listDueWithin(days);
+    }
+
+    // Runs checkOverdue on a daemon thread every periodSeconds
+    public synchronized void startOverdueMonitor(long periodSeconds) {
+        if (overdueMonitor != null) return;
+        overdueMonitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "overdue-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        overdueMonitor.scheduleAtFixedRate(() -> checkOverdue(LocalDate.now()), 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    private void showOverdue() {
+        checkOverdue(LocalDate.now());
+        DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE;
+        System.out.println("\n== Overdue Rentals ==");
+        List<Rental> late = getOverdueRentals();
+        if (late.isEmpty()) System.out.println("None.");
+        for (Rental r : late) {
+            long days = ChronoUnit.DAYS.between(r.getEndDate(), LocalDate.now());
+            System.out.println(r.getRentalId() + " | " + r.getCustomer().getName() + " | " + r.getCar().getCarId() +
+                    " | due " + r.getEndDate().format(fmt) + " | " + days + " day(s) overdue");
+        }
+        System.out.println("\n== Due Within " + overdue.getDueSoonDays() + " Day(s) ==");
+        List<Rental> soon = getRentalsDueWithin(overdue.getDueSoonDays());
+        if (soon.isEmpty()) System.out.println("None.");
+        for (Rental r : soon) {
+            System.out.println(r.getRentalId() + " | " + r.getCustomer().getName() + " | " + r.getCar().getCarId() +
+                    " | due " + r.getEndDate().format(fmt));
+        }
+    }
+
+    // Policy-adjusted base scaled by the demand multiplier, then discount, then tax on the discounted amount
+    private Quote priceFor(Car car, LocalDate start, int days, String discountCode, RedemptionStatus couponStatus, double demand) {
+        // the coupon version covers changes made through other systems sharing the engine
+        return quoteCache.lookup(car, start, days, discountCode, couponStatus, demand, pricingVersion + coupons.getVersion(),
+                () -> computeQuote(car, start, days, discountCode, couponStatus, demand));
+    }
+
+    private Quote computeQuote(Car car, LocalDate start, int days, String discountCode, RedemptionStatus couponStatus, double demand) {
+        return pricing.quote(car, start, days, discountCode, getDiscountPercent(discountCode), couponStatus, demand);
+    }
+
+    private Rental remember(String idempotencyKey, String request, Rental result) {
+        idempotency.put(idempotencyKey, request, result, result == null ? lastFailure.get() : null);
+        return result;
+    }
+
+    private Rental replay(IdempotencyCache.Outcome prior, String request) {
+        if (!prior.request.equals(request)) {
+            fail(MetricOutcome.IDEMPOTENCY_CONFLICT, "Idempotency key was already used for a different request.");
+            return null;
+        }
+        metrics.count(MetricOutcome.IDEMPOTENT_REPLAY);
+        if (!prior.succeeded()) {
+            lastFailure.set(prior.failure);
+            return null;
+        }
+        if (prior.rental == null && mapped != null) prior.rental = mapped.findRental(prior.rentalId.toUpperCase());
+        if (prior.rental == null) {
+            // only after a reload, for rentals archived since
+            List<Rental> archived = readArchived(RentalArchive.COL_RENTAL_ID, id -> id.equalsIgnoreCase(prior.rentalId));
+            prior.rental = archived.isEmpty() ? null : archived.get(0);
+            if (prior.rental == null) {
+                fail(null, "Rental " + prior.rentalId + " from the original request is no longer on record.");
+                return null;
+            }
+        }
+        return prior.rental;
+    }
+
+    private void say(String message) {
+        if (consoleOutput) System.out.println(message);
+    }
+
+    // Invoices are only rendered when someone will read them
+    private void sayInvoice(String header, Rental rental) {
+        if (consoleOutput) System.out.println(header + "\n" + invoiceFor(rental));
+    }
+
+    private void fail(MetricOutcome outcome, String message) {
+        if (outcome != null) metrics.count(outcome);
+        lastFailure.set(message);
+        say(message);
+    }
+
+    private boolean processPayment(Payment payment) {
+        long t0 = metrics.start();
+        boolean ok = payment.process();
+        metrics.record(MetricOp.PAYMENT, t0);
+        if (!ok) metrics.count(MetricOutcome.PAYMENT_FAILED);
+        return ok;
     }
 
     private String invoiceFor(Rental rental) {
@@ -476,12 +950,15 @@ class CarRentalSystem {
         if (rental.getSubtotalBeforeDiscount() > 0) {
             sb.append(String.format("Subtotal: $%.2f\n", rental.getSubtotalBeforeDiscount()));
         }
+        if (rental.getPriceMultiplier() != 1.0) {
+            sb.append(String.format("Demand pricing: x%.3f (included in subtotal)\n", rental.getPriceMultiplier()));
+        }
         if (rental.getDiscountAmount() > 0) {
             String code = rental.getDiscountCode() == null ? "" : rental.getDiscountCode();
             sb.append(String.format("Discount %s: -$%.2f\n", code.isEmpty() ? "" : ("[" + code + "]"), rental.getDiscountAmount()));
         }
         if (rental.getTaxAmount() > 0) {
-            sb.append(String.format("Tax (%.0f%%): $%.2f\n", taxRate * 100.0, rental.getTaxAmount()));
+            sb.append(String.format("Tax (%.0f%%): $%.2f\n", pricing.getTaxRate() * 100.0, rental.getTaxAmount()));
         }
         sb.append(String.format("Total: $%.2f\n", rental.getTotalCost()));
         if (rental.getPayment() != null) {
@@ -493,11 +970,17 @@ class CarRentalSystem {
 
     // Discount logic
     private double getDiscountPercent(String code) {
-        if (code == null) return 0.0;
-        String c = code.trim().toUpperCase();
-        if (c.isEmpty()) return 0.0;
-        Double pct = discountCodeToPercent.get(c);
-        return pct == null ? 0.0 : pct;
+        return coupons.percentFor(code);
+    }
+
+    private String describe(RedemptionStatus status) {
+        switch (status) {
+            case UNKNOWN: return "unknown code.";
+            case EXPIRED: return "code has expired.";
+            case EXHAUSTED: return "code has no uses left.";
+            case CUSTOMER_LIMIT: return "customer has reached the limit for this code.";
+            default: return status.name();
+        }
     }
 
     private double round2(double v) {
@@ -555,6 +1038,18 @@ class CarRentalSystem {
         }
     }
 
+    private LocalDate readOptionalDate(Scanner scanner, String prompt) {
+        while (true) {
+            String line = readNonEmptyLine(scanner, prompt).trim();
+            if (line.equalsIgnoreCase("none")) return null;
+            try {
+                return LocalDate.parse(line);
+            } catch (java.time.format.DateTimeParseException ex) {
+                System.out.println("Invalid date. Use yyyy-MM-dd.");
+            }
+        }
+    }
+
     private String readNonEmptyLine(Scanner scanner, String prompt) {
         while (true) {
             System.out.print(prompt);
@@ -567,93 +1062,140 @@ class CarRentalSystem {
     }
 
     // Persistence helpers
+
+    /**
+     * Writes a checkpoint of the current state to dirPath. Only capturing the snapshot
+     * holds the system lock; formatting and writing the files do not, so bookings keep
+     * going while a large state is saved. Saves themselves run one at a time.
+     */
     public void saveData(String dirPath) {
+        long t0 = metrics.start();
         try {
-            Path dir = Paths.get(dirPath);
-            if (!Files.exists(dir)) {
-                Files.createDirectories(dir);
+            synchronized (saveLock) {
+                doSaveData(dirPath);
             }
+        } finally {
+            metrics.record(MetricOp.SAVE, t0);
+        }
+    }
 
-            // cars.csv: id,type,brand,model,price,available
-            try (BufferedWriter bw = Files.newBufferedWriter(dir.resolve("cars.csv"))) {
-                for (Car c : cars) {
-                    String type = (c instanceof LuxuryCar) ? "LuxuryCar" : (c instanceof SuvCar) ? "SuvCar" : (c instanceof EconomyCar) ? "EconomyCar" : "Car";
-                    bw.write(String.join(",",
-                            escape(c.getCarId()),
-                            type,
-                            escape(c.getBrand()),
-                            escape(c.getModel()),
-                            String.valueOf(c.getBasePricePerDay()),
-                            String.valueOf(c.isAvailable())));
-                    bw.newLine();
-                }
-            }
+    // Runs saveData on the background saver thread; the future completes once the files are on disk
+    public java.util.concurrent.CompletableFuture<Void> saveDataInBackground(String dirPath) {
+        return java.util.concurrent.CompletableFuture.runAsync(() -> saveData(dirPath), saver());
+    }
 
-            // customers.csv: id,name
-            try (BufferedWriter bw = Files.newBufferedWriter(dir.resolve("customers.csv"))) {
-                for (Customer cu : customers) {
-                    bw.write(String.join(",", escape(cu.getCustomerId()), escape(cu.getName())));
-                    bw.newLine();
-                }
-            }
+    // Saves to dirPath every periodSeconds on the background saver thread
+    public void startAutosave(String dirPath, long periodSeconds) {
+        saver().scheduleAtFixedRate(() -> saveData(dirPath), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
 
-            DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE;
-            // rentals.csv: rentalId,carId,customerId,days,startDate,totalCost,active,paymentId,paymentMethod,paymentAmount,paidOn,discountCode,subtotal,discountAmount,taxAmount
-            try (BufferedWriter bw = Files.newBufferedWriter(dir.resolve("rentals.csv"))) {
-                for (Rental r : rentals) {
-                    String paymentId = (r.getPayment() != null) ? r.getPayment().getPaymentId() : "";
-                    String paymentMethod = (r.getPayment() != null) ? r.getPayment().getMethod().name() : "";
-                    String paymentAmount = (r.getPayment() != null) ? String.valueOf(r.getPayment().getAmount()) : "";
-                    String paidOn = (r.getPayment() != null && r.getPayment().isSuccessful()) ? r.getPayment().getPaidOn().format(fmt) : "";
-                    bw.write(String.join(",",
-                            escape(r.getRentalId()),
-                            escape(r.getCar().getCarId()),
-                            escape(r.getCustomer().getCustomerId()),
-                            String.valueOf(r.getDays()),
-                            r.getStartDate().format(fmt),
-                            String.valueOf(r.getTotalCost()),
-                            String.valueOf(r.isActive()),
-                            escape(paymentId),
-                            paymentMethod,
-                            paymentAmount,
-                            paidOn,
-                            escape(r.getDiscountCode() == null ? "" : r.getDiscountCode()),
-                            String.valueOf(r.getSubtotalBeforeDiscount()),
-                            String.valueOf(r.getDiscountAmount()),
-                            String.valueOf(r.getTaxAmount())));
-                    bw.newLine();
-                }
+    private ScheduledExecutorService saver() {
+        synchronized (saveLock) {
+            if (saver == null) {
+                saver = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "background-save");
+                    t.setDaemon(true);
+                    return t;
+                });
             }
+            return saver;
+        }
+    }
 
-            // settings.csv: taxRate
-            try (BufferedWriter bw = Files.newBufferedWriter(dir.resolve("settings.csv"))) {
-                bw.write("taxRate," + taxRate);
-                bw.newLine();
-                bw.write("seasonalMultiplier," + seasonalMultiplier);
-                bw.newLine();
-                bw.write("weekendMultiplier," + weekendMultiplier);
-                bw.newLine();
-                bw.write("seasonalStartMonth," + seasonalStartMonth);
-                bw.newLine();
-                bw.write("seasonalEndMonth," + seasonalEndMonth);
-                bw.newLine();
+    private void doSaveData(String dirPath) {
+        try {
+            Path dir = Paths.get(dirPath);
+            if (!Files.exists(dir)) {
+                Files.createDirectories(dir);
             }
 
-            // coupons.csv: code,percent
-            try (BufferedWriter bw = Files.newBufferedWriter(dir.resolve("coupons.csv"))) {
-                for (Map.Entry<String, Double> e : discountCodeToPercent.entrySet()) {
-                    bw.write(escape(e.getKey()) + "," + e.getValue());
-                    bw.newLine();
-                }
+            DataSnapshot snapshot = captureForSave(dir);
+            // Closed rentals split off by the capture reach the archive before rentals.csv drops them
+            int moved = archiveSplit();
+            if (moved > 0) say("Archived " + moved + " closed rentals.");
+            if (!snapshot.writeTo(dir)) {
+                say("Fleet snapshot skipped: the state is too large to map; a mapped start will read the CSV files.");
             }
+            // The checkpoint covers every redemption journaled before its generation
+            if (ownsCoupons) CouponEngine.deleteJournalsBefore(dir, snapshot.getCouponGeneration());
 
-            System.out.println("Data saved to: " + dir.toAbsolutePath());
+            say("Data saved to: " + dir.toAbsolutePath());
         } catch (IOException e) {
+            metrics.count(MetricOutcome.SAVE_FAILED);
             System.out.println("Failed to save data: " + e.getMessage());
         }
     }
 
-    public void loadData(String dirPath) {
+    private synchronized DataSnapshot captureForSave(Path dir) throws IOException {
+        long t0 = metrics.start();
+        try {
+            // Closed rentals past the retention window are split off here and archived after the lock is released
+            openArchive(dir);
+            if (archiveRetentionDays > 0) splitClosedBefore(LocalDate.now().minusDays(archiveRetentionDays));
+            // Redemptions from here on go to a fresh journal that the checkpoint does not include
+            long generation = ownsCoupons ? coupons.rotateJournal(dir) : 0;
+            return snapshot(generation);
+        } finally {
+            metrics.record(MetricOp.SNAPSHOT, t0);
+        }
+    }
+
+    // Caller holds the lock
+    private DataSnapshot snapshot(long couponGeneration) {
+        return snapshot(couponGeneration, List.of());
+    }
+
+    private DataSnapshot snapshot(long couponGeneration, List<Rental> alsoClosed) {
+        boolean[] available = new boolean[cars.size()];
+        long[] carVersion = new long[cars.size()];
+        for (int i = 0; i < available.length; i++) {
+            available[i] = cars.get(i).isAvailable();
+            carVersion[i] = cars.get(i).getVersion();
+        }
+        long[] customerVersion = new long[customers.size()];
+        for (int i = 0; i < customerVersion.length; i++) customerVersion[i] = customerVersions.getOrDefault(customers.get(i), 0L);
+        List<Rental> rentalCopy = new ArrayList<>(rentals.size());
+        for (Rental r : rentals) rentalCopy.add(r.isActive() ? r.copy() : r); // closed rentals no longer change
+        rentalCopy.addAll(alsoClosed);
+        return new DataSnapshot(new ArrayList<>(cars), available, carVersion, new ArrayList<>(customers), customerVersion, rentalCopy,
+                settingsRows(), ownsCoupons ? coupons.copy() : null, couponGeneration, idempotency.copy(), rentalSeq, changeVersion, demandPricing.counters());
+    }
+
+    // settings.csv: key,value
+    private List<String> settingsRows() {
+        List<String> rows = new ArrayList<>();
+        rows.add("taxRate," + pricing.getTaxRate());
+        rows.add("seasonalMultiplier," + pricing.getSeasonalMultiplier());
+        rows.add("weekendMultiplier," + pricing.getWeekendMultiplier());
+        rows.add("seasonalStartMonth," + pricing.getSeasonalStartMonth());
+        rows.add("seasonalEndMonth," + pricing.getSeasonalEndMonth());
+        rows.add("suvMultiplier," + pricing.getSuvMultiplier());
+        rows.add("luxuryMultiplier," + pricing.getLuxuryMultiplier());
+        rows.add("luxuryPerk," + pricing.getLuxuryPerk());
+        rows.add("luxuryPerkDays," + pricing.getLuxuryPerkDays());
+        rows.add("economyLongRentalMultiplier," + pricing.getEconomyLongRentalMultiplier());
+        rows.add("economyLongRentalDays," + pricing.getEconomyLongRentalDays());
+        rows.add("rentalSeq," + rentalSeq);
+        rows.add("changeVersion," + changeVersion);
+        rows.add("archiveRetentionDays," + archiveRetentionDays);
+        rows.add("dynamicPricing," + demandPricing.isEnabled());
+        rows.add("dynamicMaxSurge," + demandPricing.getMaxSurge());
+        rows.add("dynamicIdleDiscount," + demandPricing.getIdleDiscount());
+        rows.add("quoteCacheSize," + quoteCache.getMaxEntries());
+        rows.add("quoteCacheTtlSeconds," + quoteCache.getTtlSeconds());
+        return rows;
+    }
+
+    public synchronized void loadData(String dirPath) {
+        long t0 = metrics.start();
+        try {
+            doLoadData(dirPath);
+        } finally {
+            metrics.record(MetricOp.LOAD, t0);
+        }
+    }
+
+    private void doLoadData(String dirPath) {
         try {
             Path dir = Paths.get(dirPath);
             if (!Files.exists(dir)) {
@@ -664,6 +1206,8 @@ class CarRentalSystem {
             List<Car> loadedCars = new ArrayList<>();
             List<Customer> loadedCustomers = new ArrayList<>();
             List<Rental> loadedRentals = new ArrayList<>();
+            Map<Customer, Long> loadedCustomerVersions = new java.util.IdentityHashMap<>();
+            long maxVersion = 0; // files from before change versions have none
 
             // Load cars
             Path carsFile = dir.resolve("cars.csv");
@@ -681,6 +1225,8 @@ class CarRentalSystem {
                         boolean available = Boolean.parseBoolean(p[5]);
                         Car car = createCarFromRecord(id, type, brand, model, price);
                         if (!available) car.rent();
+                        if (p.length > 6) car.setVersion(Long.parseLong(p[6]));
+                        maxVersion = Math.max(maxVersion, car.getVersion());
                         loadedCars.add(car);
                     }
                 }
@@ -694,191 +1240,918 @@ class CarRentalSystem {
                     while ((line = br.readLine()) != null) {
                         String[] p = splitCsv(line);
                         if (p.length < 2) continue;
-                        loadedCustomers.add(new Customer(unescape(p[0]), unescape(p[1])));
+                        Customer cu = new Customer(unescape(p[0]), unescape(p[1]));
+                        long version = p.length > 2 ? Long.parseLong(p[2]) : 0;
+                        maxVersion = Math.max(maxVersion, version);
+                        loadedCustomers.add(cu);
+                        loadedCustomerVersions.put(cu, version);
                     }
                 }
             }
 
             // Build quick lookup maps
-            // Simple linear searches suffice given small lists
+            Map<String, Car> carsById = new HashMap<>();
+            for (Car c : loadedCars) carsById.put(c.getCarId().toUpperCase(), c);
+            Map<String, Customer> customersById = new HashMap<>();
+            for (Customer cu : loadedCustomers) customersById.put(cu.getCustomerId().toUpperCase(), cu);
 
-            // Load rentals
+            // Load rentals (archived history stays on disk until a query needs it)
             Path rentalsFile = dir.resolve("rentals.csv");
+            int maxSeq = 0;
             if (Files.exists(rentalsFile)) {
                 try (BufferedReader br = Files.newBufferedReader(rentalsFile)) {
                     String line;
-                    DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE;
                     while ((line = br.readLine()) != null) {
-                        String[] p = splitCsv(line);
-                        if (p.length < 15) continue;
-                        String rentalId = unescape(p[0]);
-                        String carId = unescape(p[1]);
-                        String customerId = unescape(p[2]);
-                        int days = Integer.parseInt(p[3]);
-                        LocalDate start = LocalDate.parse(p[4], fmt);
-                        double total = Double.parseDouble(p[5]);
-                        boolean active = Boolean.parseBoolean(p[6]);
-                        String paymentId = unescape(p[7]);
-                        String methodStr = p[8];
-                        String amountStr = p[9];
-                        String paidOnStr = p[10];
-                        String discountCode = unescape(p[11]);
-                        double subtotalBefore = Double.parseDouble(p[12]);
-                        double discountAmt = Double.parseDouble(p[13]);
-                        double taxAmt = Double.parseDouble(p[14]);
-
-                        Car car = null;
-                        for (Car c : loadedCars) { if (c.getCarId().equalsIgnoreCase(carId)) { car = c; break; } }
-                        Customer cust = null;
-                        for (Customer cu : loadedCustomers) { if (cu.getCustomerId().equalsIgnoreCase(customerId)) { cust = cu; break; } }
-                        if (car == null || cust == null) continue;
-
-                        Rental r = new Rental(rentalId, car, cust, days, start, total);
-                        r.setPricingBreakdown(discountCode.isEmpty() ? null : discountCode, subtotalBefore, discountAmt, taxAmt, total);
-                        if (paymentId != null && !paymentId.isEmpty() && amountStr != null && !amountStr.isEmpty() && methodStr != null && !methodStr.isEmpty()) {
-                            PaymentMethod pm = PaymentMethod.valueOf(methodStr);
-                            double amt = Double.parseDouble(amountStr);
-                            Payment pay = new Payment(paymentId, amt, pm);
-                            if (paidOnStr != null && !paidOnStr.isEmpty()) {
-                                // Mark processed
-                                pay.process();
-                            }
-                            r.attachPayment(pay);
-                        }
-                        if (!active) {
-                            r.markReturned();
-                        }
+                        Rental r = rentalFromCsv(splitCsv(line), carsById, customersById);
+                        if (r == null) continue;
                         loadedRentals.add(r);
+                        maxSeq = Math.max(maxSeq, rentalNumber(r.getRentalId()));
+                        maxVersion = Math.max(maxVersion, r.getVersion());
                     }
                 }
             }
 
+            openArchive(dir);
+            dropArchived(loadedRentals);
+
             this.cars = loadedCars;
             this.customers = loadedCustomers;
             this.rentals = loadedRentals;
-
-            // Load settings
-            Path settingsFile = dir.resolve("settings.csv");
-            if (Files.exists(settingsFile)) {
-                try (BufferedReader br = Files.newBufferedReader(settingsFile)) {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        String[] p = splitCsv(line);
-                        if (p.length >= 2 && "taxRate".equalsIgnoreCase(p[0])) {
-                            try { this.taxRate = Double.parseDouble(p[1]); } catch (NumberFormatException ignore) {}
-                        } else if (p.length >= 2 && "seasonalMultiplier".equalsIgnoreCase(p[0])) {
-                            try { this.seasonalMultiplier = Double.parseDouble(p[1]); } catch (NumberFormatException ignore) {}
-                        } else if (p.length >= 2 && "weekendMultiplier".equalsIgnoreCase(p[0])) {
-                            try { this.weekendMultiplier = Double.parseDouble(p[1]); } catch (NumberFormatException ignore) {}
-                        } else if (p.length >= 2 && "seasonalStartMonth".equalsIgnoreCase(p[0])) {
-                            try { this.seasonalStartMonth = Integer.parseInt(p[1]); } catch (NumberFormatException ignore) {}
-                        } else if (p.length >= 2 && "seasonalEndMonth".equalsIgnoreCase(p[0])) {
-                            try { this.seasonalEndMonth = Integer.parseInt(p[1]); } catch (NumberFormatException ignore) {}
-                        }
-                    }
-                }
-            }
-
-            // Load coupons
-            Path couponsFile = dir.resolve("coupons.csv");
-            if (Files.exists(couponsFile)) {
-                Map<String, Double> loaded = new HashMap<>();
-                try (BufferedReader br = Files.newBufferedReader(couponsFile)) {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        String[] p = splitCsv(line);
-                        if (p.length < 2) continue;
-                        String code = unescape(p[0]).trim().toUpperCase();
-                        try {
-                            double pct = Double.parseDouble(p[1]);
-                            if (pct > 0 && pct < 1) loaded.put(code, pct);
-                        } catch (NumberFormatException ignore) {}
-                    }
-                }
-                if (!loaded.isEmpty()) {
-                    discountCodeToPercent = loaded;
-                }
+            this.mapped = null;
+            this.archiving = List.of();
+            customerVersions.clear();
+            customerVersions.putAll(loadedCustomerVersions);
+            rebuildIndexes();
+            this.rentalSeq = maxSeq;
+            // versions only grow, even across a reload, so export watermarks stay meaningful
+            this.changeVersion = Math.max(changeVersion, Math.max(maxVersion, archive.getMaxVersion()));
+
+            // Load idempotency outcomes, pointing them at the rentals just loaded
+            Map<String, Rental> rentalsById = new HashMap<>();
+            if (Files.exists(dir.resolve("idempotency.csv"))) {
+                for (Rental r : loadedRentals) rentalsById.put(r.getRentalId().toUpperCase(), r);
             }
+            loadIdempotency(dir, id -> rentalsById.get(id.toUpperCase()));
+            loadSettings(dir);
+            loadCoupons(dir);
 
+            pricingVersion++;
+            // followers cannot follow a wholesale replacement entry by entry
+            replicate("RESYNC", () -> "");
             System.out.println("Data loaded from: " + dir.toAbsolutePath());
         } catch (IOException e) {
+            metrics.count(MetricOutcome.LOAD_FAILED);
             System.out.println("Failed to load data: " + e.getMessage());
         }
     }
 
-    private void showTaxRate() {
-        System.out.printf("Current tax rate: %.2f%%%n", taxRate * 100.0);
+    // dynamicPricing, dynamicMaxSurge and dynamicIdleDiscount, as stored in settings.csv and replicated
+    private boolean applyDynamicSetting(String key, String value) {
+        if ("dynamicPricing".equalsIgnoreCase(key)) {
+            demandPricing.setEnabled(Boolean.parseBoolean(value));
+        } else if ("dynamicMaxSurge".equalsIgnoreCase(key)) {
+            try { demandPricing.setMaxSurge(Double.parseDouble(value)); } catch (IllegalArgumentException ignore) {}
+        } else if ("dynamicIdleDiscount".equalsIgnoreCase(key)) {
+            try { demandPricing.setIdleDiscount(Double.parseDouble(value)); } catch (IllegalArgumentException ignore) {}
+        } else {
+            return false;
+        }
+        return true;
     }
 
-    private void listDiscountCodes() {
-        System.out.println("\n== Available Discount Codes ==");
-        if (discountCodeToPercent.isEmpty()) {
-            System.out.println("(none)");
-            return;
+    private void loadIdempotency(Path dir, java.util.function.Function<String, Rental> rentalsById) throws IOException {
+        Path idempotencyFile = dir.resolve("idempotency.csv");
+        if (Files.exists(idempotencyFile)) {
+            try (BufferedReader br = Files.newBufferedReader(idempotencyFile)) {
+                idempotency.read(br, rentalsById);
+            }
+        } else {
+            idempotency.clear();
         }
-        for (Map.Entry<String, Double> e : discountCodeToPercent.entrySet()) {
-            System.out.printf("%s - %.0f%%%n", e.getKey(), e.getValue() * 100.0);
+    }
+
+    /**
+     * Starts from the fleet.snap in dirPath instead of parsing the CSV files: the file is
+     * mapped and cars, customers and rentals are materialized as they are first used, so
+     * the first booking does not wait for the whole state. The small files (settings,
+     * coupons, idempotency keys) are read as usual. A snapshot that is missing or older
+     * than settings.csv falls back to loadData.
+     */
+    public synchronized void loadMapped(String dirPath) {
+        long t0 = metrics.start();
+        try {
+            doLoadMapped(dirPath);
+        } finally {
+            metrics.record(MetricOp.LOAD, t0);
         }
     }
 
-    private void changeTaxRate(Scanner scanner) {
-        double newRate = readDoubleInRange(scanner, "Enter new tax rate percentage (e.g., 8 for 8%): ", 0.0, 50.0);
-        this.taxRate = round2(newRate / 100.0);
-        showTaxRate();
+    private void doLoadMapped(String dirPath) {
+        Path dir = Paths.get(dirPath);
+        FleetSnapshot snapshot;
+        try {
+            snapshot = FleetSnapshot.open(dir.resolve(FleetSnapshot.FILE_NAME), customerVersions::put);
+        } catch (IOException e) {
+            snapshot = null;
+        }
+        if (snapshot == null || snapshot.getChangeVersion() != savedChangeVersion(dir) || archivedSince(dir, snapshot)) {
+            System.out.println("No current fleet snapshot in " + dir.toAbsolutePath() + "; reading the CSV files.");
+            doLoadData(dirPath);
+            return;
+        }
+        try {
+            this.mapped = snapshot;
+            this.archiving = List.of();
+            this.cars = snapshot.cars();
+            this.customers = snapshot.customers();
+            this.rentals = snapshot.rentals();
+            customerVersions.clear();
+            carIndex.clear();
+            customerIndex.clear();
+            activeByCar.clear();
+            activeById.clear();
+            overdue.clear();
+            demandPricing.restore(snapshot.demandCounters());
+            this.rentalSeq = snapshot.getRentalSeq();
+            openArchive(dir);
+            this.changeVersion = Math.max(changeVersion, Math.max(snapshot.getChangeVersion(), archive.getMaxVersion()));
+            loadIdempotency(dir, id -> null); // resolved against the snapshot when a key is replayed
+            loadSettings(dir);
+            loadCoupons(dir);
+            pricingVersion++;
+            replicate("RESYNC", () -> "");
+            startWarmUp(snapshot);
+            System.out.println("Data mapped from: " + dir.toAbsolutePath() + " (" + snapshot.getCarCount() + " cars, "
+                    + snapshot.getCustomerCount() + " customers, " + snapshot.getRentalCount() + " rentals)");
+        } catch (IOException e) {
+            metrics.count(MetricOutcome.LOAD_FAILED);
+            System.out.println("Failed to load data: " + e.getMessage());
+        }
     }
 
-    private void manageDiscountCodes(Scanner scanner) {
-        while (true) {
-            System.out.println("\n== Manage Discount Codes ==");
-            System.out.println("1. List Codes");
-            System.out.println("2. Add/Update Code");
-            System.out.println("3. Remove Code");
-            System.out.println("4. Back");
-            int c = readIntInRange(scanner, "Choose: ", 1, 4);
-            if (c == 1) {
-                listDiscountCodes();
-            } else if (c == 2) {
-                String code = readNonEmptyLine(scanner, "Enter code (e.g., SAVE10): ").trim().toUpperCase();
-                double pct = readDoubleInRange(scanner, "Enter percent (e.g., 10 for 10%): ", 0.0, 90.0);
-                discountCodeToPercent.put(code, round2(pct / 100.0));
-                System.out.println("Saved.");
-            } else if (c == 3) {
-                String code = readNonEmptyLine(scanner, "Enter code to remove: ").trim().toUpperCase();
-                if (discountCodeToPercent.remove(code) != null) {
-                    System.out.println("Removed.");
-                } else {
-                    System.out.println("Code not found.");
-                }
-            } else {
-                break;
+    // changeVersion in settings.csv, which is written last; -1 if there is none
+    private static long savedChangeVersion(Path dir) {
+        Path settingsFile = dir.resolve("settings.csv");
+        if (!Files.exists(settingsFile)) return -1;
+        try (BufferedReader br = Files.newBufferedReader(settingsFile)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] p = splitCsv(line);
+                if (p.length >= 2 && "changeVersion".equalsIgnoreCase(p[0])) return Long.parseLong(p[1]);
             }
+        } catch (IOException | NumberFormatException ignore) {
         }
+        return -1;
     }
 
-    private double computePolicyAdjustedBase(Car car, LocalDate start, int days) {
-        double base = car.calculatePrice(days);
-        double multiplier = 1.0;
-        // Seasonal
-        int m = start.getMonthValue();
-        boolean inSeason;
-        if (seasonalStartMonth <= seasonalEndMonth) {
-            inSeason = (m >= seasonalStartMonth && m <= seasonalEndMonth);
+    /**
+     * A second after a mapped load, a low-priority daemon thread puts the snapshot's
+     * active rentals on the overdue index, soonest end date first, then materializes
+     * everything else. It holds the lock for one slice at a time, so bookings interleave
+     * with it, and the first save or report does not have to materialize the whole state
+     * under the lock. It stops if another load replaces the snapshot.
+     */
+    private void startWarmUp(FleetSnapshot snapshot) {
+        Thread t = new Thread(() -> warmUp(snapshot), "snapshot-warmup");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    private void warmUp(FleetSnapshot snapshot) {
+        try {
+            Thread.sleep(1000); // the first requests after startup go first
+        } catch (InterruptedException e) {
+            return;
+        }
+        boolean current = inSlices(snapshot, snapshot.getActiveCount(), j -> {
+            Rental r = snapshot.activeRental(j);
+            // rentals extended meanwhile are scheduled already, returned ones are done
+            if (r.isActive() && !overdue.isScheduled(r)) overdue.schedule(r);
+        });
+        current = current && inSlices(snapshot, snapshot.getRentalCount(), snapshot::rental)
+                && inSlices(snapshot, snapshot.getCarCount(), snapshot::car);
+        if (current) inSlices(snapshot, snapshot.getCustomerCount(), snapshot::customer);
+    }
+
+    // Runs step for 0..count-1, holding the lock for 1024 steps at a time; false once the snapshot is replaced
+    private boolean inSlices(FleetSnapshot snapshot, int count, java.util.function.IntConsumer step) {
+        for (int from = 0; from < count; from += 1024) {
+            synchronized (this) {
+                if (mapped != snapshot) return false;
+                for (int i = from; i < Math.min(from + 1024, count); i++) step.accept(i);
+            }
+            Thread.yield(); // let waiting bookings have the lock before the next slice
+        }
+        return true;
+    }
+
+    // settings.csv; keys this version does not know are skipped
+    private void loadSettings(Path dir) throws IOException {
+        Path settingsFile = dir.resolve("settings.csv");
+        if (Files.exists(settingsFile)) {
+            try (BufferedReader br = Files.newBufferedReader(settingsFile)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] p = splitCsv(line);
+                    if (p.length >= 2 && PricingConfig.isSetting(p[0])) {
+                        try { pricing = pricing.withSetting(p[0], p[1]); } catch (IllegalArgumentException ignore) {}
+                    } else if (p.length >= 2 && "rentalSeq".equalsIgnoreCase(p[0])) {
+                        try { this.rentalSeq = Math.max(this.rentalSeq, Integer.parseInt(p[1])); } catch (NumberFormatException ignore) {}
+                    } else if (p.length >= 2 && "changeVersion".equalsIgnoreCase(p[0])) {
+                        try { this.changeVersion = Math.max(this.changeVersion, Long.parseLong(p[1])); } catch (NumberFormatException ignore) {}
+                    } else if (p.length >= 2 && "archiveRetentionDays".equalsIgnoreCase(p[0])) {
+                        try { this.archiveRetentionDays = Integer.parseInt(p[1]); } catch (NumberFormatException ignore) {}
+                    } else if (p.length >= 2 && "quoteCacheSize".equalsIgnoreCase(p[0])) {
+                        try { quoteCache.configure(Integer.parseInt(p[1]), quoteCache.getTtlSeconds()); } catch (IllegalArgumentException ignore) {}
+                    } else if (p.length >= 2 && "quoteCacheTtlSeconds".equalsIgnoreCase(p[0])) {
+                        try { quoteCache.configure(quoteCache.getMaxEntries(), Long.parseLong(p[1])); } catch (IllegalArgumentException ignore) {}
+                    } else if (p.length >= 2) {
+                        applyDynamicSetting(p[0], p[1]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void loadCoupons(Path dir) throws IOException {
+        if (ownsCoupons) loadCoupons(coupons, dir);
+    }
+
+    // coupons.csv (older files only have code,percent), per-customer uses and redemptions journaled since
+    static void loadCoupons(CouponEngine coupons, Path dir) throws IOException {
+        Path couponsFile = dir.resolve("coupons.csv");
+        if (Files.exists(couponsFile)) {
+            CouponEngine loaded = new CouponEngine();
+            long generation = 0; // files from before journal generations have no #generation line
+            try (BufferedReader br = Files.newBufferedReader(couponsFile)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] p = splitCsv(line);
+                    if (p.length < 2) continue;
+                    if ("#generation".equals(p[0])) {
+                        try { generation = Long.parseLong(p[1]); } catch (NumberFormatException ignore) {}
+                        continue;
+                    }
+                    String code = unescape(p[0]).trim().toUpperCase();
+                    try {
+                        double pct = Double.parseDouble(p[1]);
+                        if (!(pct > 0 && pct < 1)) continue;
+                        LocalDate expires = (p.length > 2 && !p[2].isEmpty()) ? LocalDate.parse(p[2]) : null;
+                        int maxUses = p.length > 3 ? Integer.parseInt(p[3]) : 0;
+                        int perCustomer = p.length > 4 ? Integer.parseInt(p[4]) : 0;
+                        loaded.put(code, pct, expires, maxUses, perCustomer);
+                        if (p.length > 5) loaded.restoreUsage(code, Integer.parseInt(p[5]));
+                    } catch (NumberFormatException | java.time.format.DateTimeParseException ignore) {}
+                }
+            }
+            Path usesFile = dir.resolve("coupon_customer_uses.csv");
+            if (Files.exists(usesFile)) {
+                try (BufferedReader br = Files.newBufferedReader(usesFile)) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        String[] p = splitCsv(line);
+                        if (p.length < 3) continue;
+                        try { loaded.restoreCustomerUses(p[0], p[1], Integer.parseInt(p[2])); } catch (NumberFormatException ignore) {}
+                    }
+                }
+            }
+            if (!loaded.isEmpty()) {
+                // Redemptions journaled since the checkpoint, possibly across several generations
+                coupons.replaceAll(loaded);
+                coupons.recoverJournals(dir, generation);
+            }
+        }
+    }
+
+    private void rebuildIndexes() {
+        carIndex.clear();
+        for (Car c : cars) carIndex.put(c.getCarId().toUpperCase(), c);
+        customerIndex.clear();
+        for (Customer cu : customers) customerIndex.put(cu.getCustomerId().toUpperCase(), cu);
+        activeByCar.clear();
+        activeById.clear();
+        overdue.clear();
+        for (Rental r : rentals) {
+            if (!r.isActive()) continue;
+            activeByCar.put(r.getCar(), r);
+            activeById.put(r.getRentalId().toUpperCase(), r);
+            overdue.schedule(r);
+        }
+        demandPricing.reset(cars, new ArrayList<>(activeById.values()));
+    }
+
+    // cars.csv row layout, also shipped to replication followers
+    static String carToCsv(Car c) {
+        return carToCsv(c, c.isAvailable(), c.getVersion());
+    }
+
+    static String carToCsv(Car c, boolean available, long version) {
+        String type = (c instanceof LuxuryCar) ? "LuxuryCar" : (c instanceof SuvCar) ? "SuvCar" : (c instanceof EconomyCar) ? "EconomyCar" : "Car";
+        return String.join(",",
+                escape(c.getCarId()),
+                type,
+                escape(c.getBrand()),
+                escape(c.getModel()),
+                String.valueOf(c.getBasePricePerDay()),
+                String.valueOf(available),
+                String.valueOf(version));
+    }
+
+    // customers.csv row layout, also shipped to replication followers
+    static String customerToCsv(Customer cu, long version) {
+        return String.join(",", escape(cu.getCustomerId()), escape(cu.getName()), String.valueOf(version));
+    }
+
+    // rentals.csv row layout, shared with the archive
+    static String rentalToCsv(Rental r) {
+        String[] fields = rentalFields(r);
+        for (int i = 0; i < fields.length; i++) fields[i] = escape(fields[i]);
+        return String.join(",", fields);
+    }
+
+    // The rentals.csv fields unescaped, as the archive and the export store them
+    static String[] rentalFields(Rental r) {
+        DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE;
+        String paymentId = (r.getPayment() != null) ? r.getPayment().getPaymentId() : "";
+        String paymentMethod = (r.getPayment() != null) ? r.getPayment().getMethod().name() : "";
+        String paymentAmount = (r.getPayment() != null) ? String.valueOf(r.getPayment().getAmount()) : "";
+        String paidOn = (r.getPayment() != null && r.getPayment().isSuccessful()) ? r.getPayment().getPaidOn().format(fmt) : "";
+        return new String[]{
+                r.getRentalId(),
+                r.getCar().getCarId(),
+                r.getCustomer().getCustomerId(),
+                String.valueOf(r.getDays()),
+                r.getStartDate().format(fmt),
+                String.valueOf(r.getTotalCost()),
+                String.valueOf(r.isActive()),
+                paymentId,
+                paymentMethod,
+                paymentAmount,
+                paidOn,
+                r.getDiscountCode() == null ? "" : r.getDiscountCode(),
+                String.valueOf(r.getSubtotalBeforeDiscount()),
+                String.valueOf(r.getDiscountAmount()),
+                String.valueOf(r.getTaxAmount()),
+                String.valueOf(r.getPriceMultiplier()),
+                Double.isNaN(r.getAmountPaid()) ? "" : String.valueOf(r.getAmountPaid()),
+                String.valueOf(r.getVersion()),
+                Double.isNaN(r.getTaxRate()) ? "" : String.valueOf(r.getTaxRate()),
+                Double.isNaN(r.getDiscountPercent()) ? "" : String.valueOf(r.getDiscountPercent()),
+                r.getPricingEpoch() == 0 ? "" : String.valueOf(r.getPricingEpoch())};
+    }
+
+    private Rental rentalFromCsv(String[] p, Map<String, Car> carsById, Map<String, Customer> customersById) {
+        if (p.length < 15) return null;
+        DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE;
+        String rentalId = unescape(p[0]);
+        String carId = unescape(p[1]);
+        String customerId = unescape(p[2]);
+        int days = Integer.parseInt(p[3]);
+        LocalDate start = LocalDate.parse(p[4], fmt);
+        double total = Double.parseDouble(p[5]);
+        boolean active = Boolean.parseBoolean(p[6]);
+        String paymentId = unescape(p[7]);
+        String methodStr = p[8];
+        String amountStr = p[9];
+        String paidOnStr = p[10];
+        String discountCode = unescape(p[11]);
+        double subtotalBefore = Double.parseDouble(p[12]);
+        double discountAmt = Double.parseDouble(p[13]);
+        double taxAmt = Double.parseDouble(p[14]);
+
+        Car car = carsById.get(carId.toUpperCase());
+        Customer cust = customersById.get(customerId.toUpperCase());
+        if (car == null || cust == null) return null;
+
+        Rental r = new Rental(rentalId, car, cust, days, start, total);
+        r.setPricingBreakdown(discountCode.isEmpty() ? null : discountCode, subtotalBefore, discountAmt, taxAmt, total);
+        // priceMultiplier and amountPaid came later; older files and archive partitions stop at taxAmount
+        if (p.length > 15 && !p[15].isEmpty()) r.setPriceMultiplier(Double.parseDouble(p[15]));
+        if (paymentId != null && !paymentId.isEmpty() && amountStr != null && !amountStr.isEmpty() && methodStr != null && !methodStr.isEmpty()) {
+            PaymentMethod pm = PaymentMethod.valueOf(methodStr);
+            double amt = Double.parseDouble(amountStr);
+            Payment pay = new Payment(paymentId, amt, pm);
+            if (paidOnStr != null && !paidOnStr.isEmpty()) {
+                // Mark processed
+                pay.process();
+            }
+            r.attachPayment(pay);
+        }
+        r.setAmountPaid(p.length > 16 && !p[16].isEmpty() ? Double.parseDouble(p[16]) : Double.NaN);
+        if (p.length > 17 && !p[17].isEmpty()) r.setVersion(Long.parseLong(p[17]));
+        if (p.length > 20 && !p[20].isEmpty()) {
+            r.setPricedWith(p[18].isEmpty() ? Double.NaN : Double.parseDouble(p[18]),
+                    p[19].isEmpty() ? Double.NaN : Double.parseDouble(p[19]), Long.parseLong(p[20]));
+        }
+        if (!active) {
+            r.markReturned();
+        }
+        return r;
+    }
+
+    // Number after "RNT", ignoring any branch prefix
+    private static int rentalNumber(String rentalId) {
+        try {
+            int at = rentalId.lastIndexOf("RNT");
+            return at >= 0 ? Integer.parseInt(rentalId.substring(at + 3)) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Replication
+
+    // The row is only built when a log is attached, so a standalone system skips the formatting
+    private void replicate(String type, java.util.function.Supplier<String> row) {
+        if (replicationLog != null) replicationLog.append(type, row.get());
+    }
+
+    public synchronized void setReplicationLog(ReplicationLog replicationLog) {
+        this.replicationLog = replicationLog;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Writes the data files plus the archive partitions into dir and returns the last
+     * replication log entry they include. The snapshot is taken and the archive files are
+     * opened under the lock, which keeps them consistent with that entry (entries are
+     * appended under the same lock); the copying and writing happen after it is released.
+     */
+    public long writeSnapshot(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        DataSnapshot snapshot;
+        Map<String, java.nio.channels.FileChannel> archiveFiles = Map.of();
+        long seq;
+        synchronized (this) {
+            // rentals a save is still moving into the archive go along as rows; loading drops any the copy already holds
+            snapshot = snapshot(coupons.getJournalGeneration(), archiving);
+            if (archive != null) archiveFiles = archive.openFiles();
+            seq = replicationLog == null ? 0 : replicationLog.getLastSeq();
+        }
+        try {
+            if (!archiveFiles.isEmpty()) {
+                Path archiveCopy = Files.createDirectories(dir.resolve("archive"));
+                for (Map.Entry<String, java.nio.channels.FileChannel> e : archiveFiles.entrySet()) {
+                    java.nio.channels.FileChannel in = e.getValue();
+                    try (java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open(archiveCopy.resolve(e.getKey()),
+                            java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.TRUNCATE_EXISTING,
+                            java.nio.file.StandardOpenOption.WRITE)) {
+                        for (long pos = 0, size = in.size(); pos < size; ) pos += in.transferTo(pos, size - pos, out);
+                    }
+                }
+            }
+        } finally {
+            for (java.nio.channels.FileChannel ch : archiveFiles.values()) ch.close();
+        }
+        snapshot.writeTo(dir);
+        return seq;
+    }
+
+    // Follower side: apply one change committed on the leader. Rows use the data file layouts.
+    public synchronized void applyReplicated(String type, String row) {
+        String[] p = splitCsv(row);
+        switch (type) {
+            case "CAR":
+                if (p.length >= 6 && findCarById(p[0]) == null) {
+                    Car car = createCarFromRecord(unescape(p[0]), p[1], unescape(p[2]), unescape(p[3]), Double.parseDouble(p[4]));
+                    if (!Boolean.parseBoolean(p[5])) car.rent();
+                    addCar(car);
+                }
+                break;
+            case "CUSTOMER":
+                if (p.length >= 2 && findCustomerById(p[0]) == null) addCustomer(new Customer(unescape(p[0]), unescape(p[1])));
+                break;
+            case "TAX":
+                pricing = pricing.withTaxRate(Double.parseDouble(p[0]));
+                pricingVersion++;
+                break;
+            case "PRICING":
+                if (p.length >= 2) applyDynamicSetting(p[0], p[1]);
+                pricingVersion++;
+                break;
+            case "COUPON":
+                if (p.length >= 5) {
+                    coupons.put(p[0], Double.parseDouble(p[1]), p[2].isEmpty() ? null : LocalDate.parse(p[2]),
+                            Integer.parseInt(p[3]), Integer.parseInt(p[4]));
+                    pricingVersion++;
+                }
+                break;
+            case "COUPON_REMOVE":
+                coupons.remove(p[0]);
+                pricingVersion++;
+                break;
+            case "REDEEM":
+                if (p.length >= 2) coupons.applyRedemption(p[0], p[1].isEmpty() ? null : unescape(p[1]), 1);
+                break;
+            case "RENT":
+            case "EXTEND":
+            case "RETURN":
+                applyReplicatedRental(rentalFromCsv(p, carIndex, customerIndex));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void applyReplicatedRental(Rental shipped) {
+        if (shipped == null) return; // unknown car or customer; the next snapshot repairs it
+        Rental current = findActiveRentalById(shipped.getRentalId());
+        Car car = shipped.getCar();
+        if (current == null) {
+            if (!shipped.isActive() || findActiveRentalByCar(car) != null) return;
+            car.rent();
+            car.setVersion(nextVersion());
+            shipped.setVersion(changeVersion);
+            demandPricing.carRented(car);
+            demandPricing.book(car, shipped.getStartDate(), shipped.getDays(), 1);
+            rentals.add(shipped);
+            activeByCar.put(car, shipped);
+            activeById.put(shipped.getRentalId().toUpperCase(), shipped);
+            rentalSeq = Math.max(rentalSeq, rentalNumber(shipped.getRentalId()));
+            overdue.schedule(shipped);
+            return;
+        }
+        // Update the existing Rental in place so lists and indexes that hold it stay valid
+        demandPricing.book(car, current.getStartDate(), current.getDays(), -1);
+        current.applyExtension(shipped.getDays() - current.getDays());
+        current.setPricingBreakdown(shipped.getDiscountCode(), shipped.getSubtotalBeforeDiscount(), shipped.getDiscountAmount(),
+                shipped.getTaxAmount(), shipped.getTotalCost());
+        current.setPricedWith(shipped.getTaxRate(), shipped.getDiscountPercent(), shipped.getPricingEpoch());
+        current.attachPayment(shipped.getPayment());
+        current.setAmountPaid(shipped.getAmountPaid());
+        current.setVersion(nextVersion());
+        if (shipped.isActive()) {
+            demandPricing.book(car, current.getStartDate(), current.getDays(), 1);
+            overdue.schedule(current);
         } else {
-            // wrap around year
-            inSeason = (m >= seasonalStartMonth || m <= seasonalEndMonth);
+            current.markReturned();
+            current.getCar().returnCar();
+            current.getCar().setVersion(changeVersion);
+            demandPricing.carReturned(current.getCar());
+            activeByCar.remove(current.getCar());
+            activeById.remove(current.getRentalId().toUpperCase());
+            overdue.cancel(current);
+        }
+    }
+
+    // Incremental export
+
+    // Stamps a change to a car, customer or rental; caller holds the lock
+    private long nextVersion() {
+        return ++changeVersion;
+    }
+
+    // Version of the latest change; an export up to it includes everything committed so far
+    public synchronized long getChangeVersion() {
+        return changeVersion;
+    }
+
+    /**
+     * Writes what changed since the last export to dirPath as a new batch (see DataExport).
+     * Live records are copied a slice at a time under the lock, so bookings keep going
+     * while a large export runs; exports themselves run one at a time.
+     */
+    public DataExport.Result exportChanges(String dirPath) throws IOException {
+        long t0 = metrics.start();
+        try {
+            synchronized (exportLock) {
+                DataExport export;
+                synchronized (this) {
+                    export = new DataExport(this, archive, changeVersion);
+                }
+                return export.run(Paths.get(dirPath));
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.count(MetricOutcome.EXPORT_FAILED);
+            throw e;
+        } finally {
+            metrics.record(MetricOp.EXPORT, t0);
+        }
+    }
+
+    // DataExport copies the next slice of each list while this holds the lock
+    synchronized void exportSlice(DataExport export) {
+        export.collect(cars, customers, customerVersions, rentals);
+    }
+
+    public void showExport(String dirPath) {
+        try {
+            System.out.print(DataExport.describe(exportChanges(dirPath)));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to export data: " + e.getMessage());
+        }
+    }
+
+    // Archive tier
+
+    private void openArchive(Path dataDir) throws IOException {
+        Path archiveDir = dataDir.resolve("archive");
+        if (archive == null || !archive.getDir().toAbsolutePath().equals(archiveDir.toAbsolutePath())) {
+            archive = new RentalArchive(archiveDir);
+        }
+    }
+
+    /**
+     * A save archives closed rentals before it rewrites rentals.csv, so a crash or a failed
+     * write in between leaves them in both. The archive copy wins: they are dropped from the
+     * loaded list, otherwise reports, history and exports would count them twice.
+     */
+    private void dropArchived(List<Rental> loaded) throws IOException {
+        Map<java.time.YearMonth, java.util.Set<String>> closedByMonth = new java.util.TreeMap<>();
+        for (Rental r : loaded) {
+            if (r.isActive()) continue;
+            closedByMonth.computeIfAbsent(java.time.YearMonth.from(r.getStartDate()), k -> new java.util.HashSet<>())
+                    .add(r.getRentalId());
+        }
+        if (closedByMonth.isEmpty()) return;
+        java.util.Set<String> archived = archive.findArchived(closedByMonth);
+        if (archived.isEmpty()) return;
+        loaded.removeIf(r -> !r.isActive() && archived.contains(r.getRentalId()));
+        say("Skipped " + archived.size() + " closed rentals that were already archived.");
+    }
+
+    // Same situation for a mapped start: an archive written after fleet.snap means the snapshot
+    // may still hold archived rentals, so the CSV path (which drops them) is taken instead
+    private static boolean archivedSince(Path dir, FleetSnapshot snapshot) {
+        try {
+            Path manifest = dir.resolve("archive").resolve("manifest.csv");
+            return Files.exists(manifest) && Files.getLastModifiedTime(manifest)
+                    .compareTo(Files.getLastModifiedTime(dir.resolve(FleetSnapshot.FILE_NAME))) > 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    // Takes closed rentals that ended before cutoff out of rentals; archiveSplit writes them. Caller holds the lock.
+    private void splitClosedBefore(LocalDate cutoff) {
+        List<Rental> keep = new ArrayList<>();
+        List<Rental> moving = new ArrayList<>(archiving);
+        for (Rental r : rentals) {
+            if (!r.isActive() && r.getEndDate().isBefore(cutoff)) {
+                moving.add(r);
+            } else {
+                keep.add(r);
+            }
+        }
+        if (moving.size() == archiving.size()) return;
+        rentals = keep;
+        archiving = moving;
+    }
+
+    /**
+     * Appends the split-off rentals to the archive without holding the system lock, so
+     * bookings go on while the partitions are rewritten; returns how many moved. If the
+     * append fails they go back into rentals, and the next save tries again.
+     */
+    private int archiveSplit() throws IOException {
+        List<Rental> moving;
+        RentalArchive target;
+        synchronized (this) {
+            moving = archiving;
+            target = archive;
+        }
+        if (moving.isEmpty()) return 0;
+        List<String> rows = new ArrayList<>(moving.size());
+        for (Rental r : moving) rows.add(rentalToCsv(r)); // closed rentals no longer change
+        try {
+            target.append(rows);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                if (archiving == moving) { // not replaced by a load in the meantime
+                    List<Rental> restored = new ArrayList<>(moving);
+                    restored.addAll(rentals);
+                    rentals = restored;
+                    archiving = List.of();
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (archiving == moving) archiving = List.of();
+        }
+        return rows.size();
+    }
+
+    // Lock order is saveLock, then the system lock; the archive append runs under saveLock alone
+    public void archiveClosedRentals(String dirPath, LocalDate cutoff) {
+        synchronized (saveLock) {
+            try {
+                synchronized (this) {
+                    openArchive(Paths.get(dirPath));
+                    splitClosedBefore(cutoff);
+                }
+                int moved = archiveSplit();
+                say("Archived " + moved + " closed rentals that ended before " + cutoff + ".");
+            } catch (IOException e) {
+                System.out.println("Failed to archive rentals: " + e.getMessage());
+                return;
+            }
+            saveData(dirPath);
+        }
+    }
+
+    // Archived rentals whose value in column passes filter, rebuilt against the live cars and customers
+    private List<Rental> readArchived(int column, java.util.function.Predicate<String> filter) {
+        List<Rental> result = new ArrayList<>();
+        if (archive == null) return result;
+        Map<String, Car> carsById = new HashMap<>();
+        for (Car c : cars) carsById.put(c.getCarId().toUpperCase(), c);
+        Map<String, Customer> customersById = new HashMap<>();
+        for (Customer cu : customers) customersById.put(cu.getCustomerId().toUpperCase(), cu);
+        try {
+            archive.scan(null, null, null, column, filter, p -> {
+                Rental r = rentalFromCsv(p, carsById, customersById);
+                if (r != null) result.add(r);
+            });
+        } catch (IOException e) {
+            System.out.println("Failed to read archive: " + e.getMessage());
+        }
+        return result;
+    }
+
+    private void showTaxRate() {
+        System.out.printf("Current tax rate: %.2f%%%n", pricing.getTaxRate() * 100.0);
+    }
+
+    private void listDiscountCodes() {
+        System.out.println("\n== Available Discount Codes ==");
+        if (coupons.isEmpty()) {
+            System.out.println("(none)");
+            return;
+        }
+        // Single-use campaign codes are summarised rather than printed one by one
+        int[] singleUse = new int[2]; // total, redeemed
+        coupons.forEach(c -> {
+            if (c.isSingleUse()) {
+                singleUse[0]++;
+                if (c.getUsed() > 0) singleUse[1]++;
+                return;
+            }
+            StringBuilder sb = new StringBuilder(String.format("%s - %.0f%%", c.getCode(), c.getPercent() * 100.0));
+            if (c.getExpiresOn() != null) sb.append(" | expires ").append(c.getExpiresOn());
+            if (c.getMaxUses() > 0) sb.append(" | used ").append(c.getUsed()).append("/").append(c.getMaxUses());
+            else if (c.getUsed() > 0) sb.append(" | used ").append(c.getUsed());
+            if (c.getPerCustomerLimit() > 0) sb.append(" | max ").append(c.getPerCustomerLimit()).append(" per customer");
+            System.out.println(sb);
+        });
+        if (singleUse[0] > 0) {
+            System.out.println("Single-use codes: " + singleUse[0] + " (" + singleUse[1] + " redeemed)");
+        }
+    }
+
+    private void changeTaxRate(Scanner scanner) {
+        double newRate = readDoubleInRange(scanner, "Enter new tax rate percentage (e.g., 8 for 8%): ", 0.0, 50.0);
+        setTaxRate(round2(newRate / 100.0));
+        showTaxRate();
+    }
+
+    public synchronized void setTaxRate(double taxRate) {
+        pricing = pricing.withTaxRate(taxRate);
+        pricingVersion++;
+        replicate("TAX", () -> String.valueOf(taxRate));
+    }
+
+    public synchronized double getTaxRate() {
+        return pricing.getTaxRate();
+    }
+
+    public synchronized PricingConfig getPricing() {
+        return pricing;
+    }
+
+    private void manageDiscountCodes(Scanner scanner) {
+        while (true) {
+            System.out.println("\n== Manage Discount Codes ==");
+            System.out.println("1. List Codes");
+            System.out.println("2. Add/Update Code");
+            System.out.println("3. Remove Code");
+            System.out.println("4. Issue Single-Use Codes");
+            System.out.println("5. Back");
+            int c = readIntInRange(scanner, "Choose: ", 1, 5);
+            if (c == 1) {
+                listDiscountCodes();
+            } else if (c == 2) {
+                String code = readNonEmptyLine(scanner, "Enter code (e.g., SAVE10): ").trim().toUpperCase();
+                double pct = readDoubleInRange(scanner, "Enter percent (e.g., 10 for 10%): ", 0.0, 90.0);
+                LocalDate expires = readOptionalDate(scanner, "Expiry date yyyy-MM-dd (or 'none'): ");
+                int maxUses = readIntInRange(scanner, "Maximum total uses (0 for unlimited): ", 0, Integer.MAX_VALUE);
+                int perCustomer = readIntInRange(scanner, "Maximum uses per customer (0 for unlimited): ", 0, Integer.MAX_VALUE);
+                putCoupon(code, round2(pct / 100.0), expires, maxUses, perCustomer);
+                System.out.println("Saved.");
+            } else if (c == 3) {
+                String code = readNonEmptyLine(scanner, "Enter code to remove: ").trim().toUpperCase();
+                if (removeCoupon(code)) {
+                    System.out.println("Removed.");
+                } else {
+                    System.out.println("Code not found.");
+                }
+            } else if (c == 4) {
+                String prefix = readNonEmptyLine(scanner, "Code prefix (e.g., SPRING): ");
+                int count = readIntInRange(scanner, "How many codes: ", 1, 10_000_000);
+                double pct = readDoubleInRange(scanner, "Enter percent (e.g., 10 for 10%): ", 0.0, 90.0);
+                LocalDate expires = readOptionalDate(scanner, "Expiry date yyyy-MM-dd (or 'none'): ");
+                String file = readNonEmptyLine(scanner, "File to write the codes to (e.g., codes.txt): ");
+                try {
+                    int issued = issueCoupons(prefix, count, round2(pct / 100.0), expires, Paths.get(file.trim()));
+                    System.out.println("Issued " + issued + " codes to " + Paths.get(file.trim()).toAbsolutePath());
+                } catch (IOException e) {
+                    System.out.println("Failed to issue codes: " + e.getMessage());
+                }
+            } else {
+                break;
+            }
         }
-        if (inSeason) multiplier += seasonalMultiplier;
-        // Weekend if any day overlaps Sat/Sun
-        boolean hasWeekend = false;
-        for (int i = 0; i < days; i++) {
-            DayOfWeek dow = start.plusDays(i).getDayOfWeek();
-            if (dow == DayOfWeek.SATURDAY || dow == DayOfWeek.SUNDAY) { hasWeekend = true; break; }
+    }
+
+    public synchronized void putCoupon(String code, double percent, LocalDate expiresOn, int maxUses, int perCustomerLimit) {
+        coupons.put(code, percent, expiresOn, maxUses, perCustomerLimit);
+        pricingVersion++;
+        replicate("COUPON", () -> CouponEngine.normalize(code) + "," + percent + "," + (expiresOn == null ? "" : expiresOn.toString())
+                + "," + maxUses + "," + perCustomerLimit);
+    }
+
+    public synchronized boolean removeCoupon(String code) {
+        if (!coupons.remove(code)) return false;
+        pricingVersion++;
+        replicate("COUPON_REMOVE", () -> CouponEngine.normalize(code));
+        return true;
+    }
+
+    // Issued outside the lock (a batch can be millions of codes); followers catch up from a snapshot
+    public int issueCoupons(String prefix, int count, double percent, LocalDate expiresOn, Path exportFile) throws IOException {
+        int issued = coupons.issueBatch(prefix, count, percent, expiresOn, exportFile);
+        synchronized (this) {
+            pricingVersion++;
+            replicate("RESYNC", () -> "");
+        }
+        return issued;
+    }
+
+    public synchronized void setDynamicPricing(boolean enabled) {
+        demandPricing.setEnabled(enabled);
+        dynamicPricingChanged("dynamicPricing", String.valueOf(enabled));
+    }
+
+    public synchronized void setMaxSurge(double maxSurge) {
+        demandPricing.setMaxSurge(maxSurge);
+        dynamicPricingChanged("dynamicMaxSurge", String.valueOf(demandPricing.getMaxSurge()));
+    }
+
+    public synchronized void setIdleDiscount(double idleDiscount) {
+        demandPricing.setIdleDiscount(idleDiscount);
+        dynamicPricingChanged("dynamicIdleDiscount", String.valueOf(demandPricing.getIdleDiscount()));
+    }
+
+    // Cached quotes priced under the old settings stop matching
+    private void dynamicPricingChanged(String key, String value) {
+        pricingVersion++;
+        replicate("PRICING", () -> key + "," + value);
+    }
+
+    public QuoteCache getQuoteCache() {
+        return quoteCache;
+    }
+
+    public synchronized void configureQuoteCache(int maxEntries, long ttlSeconds) {
+        quoteCache.configure(maxEntries, ttlSeconds);
+    }
+
+    public DemandPricing getDemandPricing() {
+        return demandPricing;
+    }
+
+    private void manageDynamicPricing(Scanner scanner) {
+        while (true) {
+            System.out.println("\n== Dynamic Pricing ==");
+            for (String line : demandPricing.describe()) System.out.println(line);
+            System.out.printf("Status: %s, max surge +%.0f%%, idle discount -%.0f%%%n", demandPricing.isEnabled() ? "on" : "off",
+                    demandPricing.getMaxSurge() * 100.0, demandPricing.getIdleDiscount() * 100.0);
+            System.out.println("1. Turn " + (demandPricing.isEnabled() ? "Off" : "On"));
+            System.out.println("2. Set Max Surge");
+            System.out.println("3. Set Idle Discount");
+            System.out.println("4. Back");
+            int c = readIntInRange(scanner, "Choose: ", 1, 4);
+            if (c == 1) {
+                setDynamicPricing(!demandPricing.isEnabled());
+            } else if (c == 2) {
+                setMaxSurge(readDoubleInRange(scanner, "Max surge percentage when a class is fully booked (e.g., 50): ", 0.0, 500.0) / 100.0);
+            } else if (c == 3) {
+                setIdleDiscount(readDoubleInRange(scanner, "Discount percentage when a class is idle (e.g., 10): ", 0.0, 90.0) / 100.0);
+            } else {
+                break;
+            }
         }
-        if (hasWeekend) multiplier += weekendMultiplier;
-        return round2(base * multiplier);
     }
 
-    private Car createCarFromRecord(String id, String type, String brand, String model, double price) {
+    static Car createCarFromRecord(String id, String type, String brand, String model, double price) {
         if ("LuxuryCar".equalsIgnoreCase(type)) return new LuxuryCar(id, brand, model, price);
         if ("SuvCar".equalsIgnoreCase(type)) return new SuvCar(id, brand, model, price);
         if ("EconomyCar".equalsIgnoreCase(type)) return new EconomyCar(id, brand, model, price);
@@ -886,7 +2159,7 @@ class CarRentalSystem {
     }
 
     // Simple CSV escaping to handle commas
-    private String escape(String s) {
+    static String escape(String s) {
         if (s == null) return "";
         if (s.contains(",") || s.contains("\"") || s.contains("\n")) {
             return '"' + s.replace("\"", "\"\"") + '"';
@@ -894,7 +2167,7 @@ class CarRentalSystem {
         return s;
     }
 
-    private String[] splitCsv(String line) {
+    static String[] splitCsv(String line) {
         List<String> parts = new ArrayList<>();
         StringBuilder cur = new StringBuilder();
         boolean inQuotes = false;
@@ -926,9 +2199,9 @@ class CarRentalSystem {
         return parts.toArray(new String[0]);
     }
 
-    private String unescape(String s) { return s; }
+    private static String unescape(String s) { return s; }
 
-    public void listCustomerHistoryById(String customerId) {
+    public synchronized void listCustomerHistoryById(String customerId) {
         Customer c = findCustomerById(customerId);
         if (c == null) {
             System.out.println("Customer not found.");
@@ -937,7 +2210,7 @@ class CarRentalSystem {
         listCustomerHistory(c);
     }
 
-    public void listCustomerHistoryByName(String name) {
+    public synchronized void listCustomerHistoryByName(String name) {
         List<Customer> matches = findCustomersByName(name);
         if (matches.isEmpty()) {
             System.out.println("No customer with that name.");
@@ -953,48 +2226,236 @@ class CarRentalSystem {
         listCustomerHistory(matches.get(0));
     }
 
+    // Live rentals of the customer, oldest first
+    private List<Rental> liveRentalsOf(Customer customer) {
+        List<Rental> result = new ArrayList<>();
+        for (Rental r : rentals) {
+            if (r.getCustomer().getCustomerId().equalsIgnoreCase(customer.getCustomerId())) result.add(r);
+        }
+        return result;
+    }
+
+    // Older history lives in the archive and is only read when asked for
+    private List<Rental> archivedRentalsOf(Customer customer) {
+        return readArchived(RentalArchive.COL_CUSTOMER_ID, id -> id.equalsIgnoreCase(customer.getCustomerId()));
+    }
+
+    // Full history (live, then archived); null if the customer is unknown
+    public synchronized List<Rental> getRentalHistory(String customerId) {
+        Customer c = findCustomerById(customerId);
+        if (c == null) return null;
+        List<Rental> result = liveRentalsOf(c);
+        result.addAll(archivedRentalsOf(c));
+        return result;
+    }
+
     private void listCustomerHistory(Customer customer) {
         System.out.println("\n== Rental History for " + customer.getName() + " (" + customer.getCustomerId() + ") ==");
         DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd");
         boolean any = false;
-        for (Rental r : rentals) {
-            if (r.getCustomer().getCustomerId().equalsIgnoreCase(customer.getCustomerId())) {
-                any = true;
-                String status = r.isActive() ? "ACTIVE" : "CLOSED";
-                System.out.println(r.getRentalId() + " | " + r.getCar().getCarId() + " - " + r.getCar().getBrand() + " " + r.getCar().getModel()
-                        + " | " + r.getStartDate().format(fmt) + " to " + r.getEndDate().format(fmt)
-                        + String.format(" | $%.2f | %s", r.getTotalCost(), status));
-            }
+        for (Rental r : liveRentalsOf(customer)) {
+            any = true;
+            String status = r.isActive() ? "ACTIVE" : "CLOSED";
+            System.out.println(r.getRentalId() + " | " + r.getCar().getCarId() + " - " + r.getCar().getBrand() + " " + r.getCar().getModel()
+                    + " | " + r.getStartDate().format(fmt) + " to " + r.getEndDate().format(fmt)
+                    + String.format(" | $%.2f | %s", r.getTotalCost(), status));
+        }
+        for (Rental r : archivedRentalsOf(customer)) {
+            any = true;
+            System.out.println(r.getRentalId() + " | " + r.getCar().getCarId() + " - " + r.getCar().getBrand() + " " + r.getCar().getModel()
+                    + " | " + r.getStartDate().format(fmt) + " to " + r.getEndDate().format(fmt)
+                    + String.format(" | $%.2f | %s", r.getTotalCost(), "ARCHIVED"));
         }
         if (!any) {
             System.out.println("No rentals found for this customer.");
         }
     }
 
-    private void showReports() {
-        System.out.println("\n== Reports ==");
+    public synchronized FleetReport report() {
         int totalCars = cars.size();
         int availableCars = 0;
         for (Car c : cars) if (c.isAvailable()) availableCars++;
-        int rentedCars = totalCars - availableCars;
         int activeRentals = 0;
         double totalRevenue = 0.0;
         for (Rental r : rentals) {
             if (r.isActive()) activeRentals++;
             if (!r.isActive()) totalRevenue += r.getTotalCost();
         }
-        System.out.println("Total cars: " + totalCars);
-        System.out.println("Available cars: " + availableCars);
-        System.out.println("Rented cars: " + rentedCars);
-        System.out.println("Active rentals: " + activeRentals);
-        System.out.printf("Revenue (closed rentals): $%.2f%n", totalRevenue);
+        if (archive != null) totalRevenue += archive.getRevenue();
+        return new FleetReport(totalCars, availableCars, activeRentals, totalRevenue);
+    }
+
+    private void showReports() {
+        System.out.println("\n== Reports ==");
+        FleetReport report = report();
+        System.out.println("Total cars: " + report.getTotalCars());
+        System.out.println("Available cars: " + report.getAvailableCars());
+        System.out.println("Rented cars: " + report.getRentedCars());
+        System.out.println("Active rentals: " + report.getActiveRentals());
+        System.out.printf("Revenue (closed rentals): $%.2f%n", report.getClosedRevenue());
+        System.out.printf("Since startup: %d bookings, %d extensions, %d returns, $%.2f captured%n",
+                aggregates.getCreated(), aggregates.getExtended(), aggregates.getReturned(), aggregates.getCapturedAmount());
+    }
+
+    // Only the snapshot of fleet and live rentals holds the lock; the archive is scanned outside it
+    public void showFleetAnalytics() {
+        FleetAnalytics analytics;
+        RentalArchive source;
+        synchronized (this) {
+            analytics = new FleetAnalytics(new ArrayList<>(cars), pricing.getSeasonalStartMonth(), pricing.getSeasonalEndMonth());
+            analytics.setLiveRentals(rentals);
+            source = archive;
+        }
+        System.out.println("\n== Fleet Analytics ==");
+        try {
+            System.out.print(analytics.run(source));
+        } catch (IOException e) {
+            System.out.println("Failed to analyse rental history: " + e.getMessage());
+        }
     }
 
-    private void exportInvoice(String rentalId, String dirPath) {
+    // Re-prices all live and archived rentals and reconciles payments; only copying the live rentals holds the lock
+    public BillingAudit.Result runBillingAudit() throws IOException {
+        BillingAudit audit;
+        RentalArchive source;
+        synchronized (this) {
+            audit = new BillingAudit(pricing, cars);
+            audit.setLiveRentals(rentals);
+            source = archive;
+        }
+        return audit.run(source);
+    }
+
+    public void showBillingAudit() {
+        System.out.println("\n== Billing Audit ==");
+        try {
+            long t0 = System.nanoTime();
+            BillingAudit.Result result = runBillingAudit();
+            System.out.print(BillingAudit.describe(result, (System.nanoTime() - t0) / 1_000_000));
+        } catch (IOException e) {
+            System.out.println("Failed to audit billing: " + e.getMessage());
+        }
+    }
+
+    // Replays all rentals under baseline and each candidate; config k + 1 of the result is candidates.get(k)
+    public RepricingSimulator.Result runRepricing(PricingConfig baseline, List<PricingConfig> candidates) throws IOException {
+        RepricingSimulator sim;
+        RentalArchive source;
+        synchronized (this) {
+            sim = new RepricingSimulator(baseline, candidates, cars, coupons);
+            sim.setLiveRentals(rentals);
+            source = archive;
+        }
+        return sim.run(source);
+    }
+
+    // Each spec is name=value pairs changing the current settings (see RepricingSimulator.parseCandidate)
+    public void showRepricing(List<String> specs) {
+        System.out.println("\n== What-if Repricing ==");
+        PricingConfig baseline = getPricing();
+        List<PricingConfig> candidates = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        for (String spec : specs) {
+            try {
+                candidates.add(RepricingSimulator.parseCandidate(spec, baseline));
+                labels.add(spec.trim());
+            } catch (IllegalArgumentException e) {
+                System.out.println("Skipping '" + spec.trim() + "': " + e.getMessage());
+            }
+        }
+        if (candidates.isEmpty()) {
+            System.out.println("No candidates to simulate.");
+            return;
+        }
+        try {
+            long t0 = System.nanoTime();
+            RepricingSimulator.Result result = runRepricing(baseline, candidates);
+            System.out.print(RepricingSimulator.describe(result, labels, (System.nanoTime() - t0) / 1_000_000));
+        } catch (IOException e) {
+            System.out.println("Failed to simulate repricing: " + e.getMessage());
+        }
+    }
+
+    private void readRepricingCandidates(Scanner scanner) {
+        System.out.println("Current settings: " + getPricing());
+        System.out.println("Enter one candidate per line as name=value pairs (e.g., taxRate=0.09 suvMultiplier=1.2); empty line to run.");
+        List<String> specs = new ArrayList<>();
+        while (true) {
+            System.out.print("Candidate " + (specs.size() + 1) + ": ");
+            if (!scanner.hasNextLine()) break;
+            String line = scanner.nextLine().trim();
+            if (line.isEmpty()) break;
+            specs.add(line);
+        }
+        showRepricing(specs);
+    }
+
+    // Revenue of rentals starting in [from, to], by start month; the archive decodes only two columns
+    public synchronized void showRevenueReport(LocalDate from, LocalDate to) {
+        java.util.TreeMap<java.time.YearMonth, double[]> byMonth = new java.util.TreeMap<>(); // {rentals, revenue}
+        for (Rental r : rentals) {
+            LocalDate start = r.getStartDate();
+            if (start.isBefore(from) || start.isAfter(to)) continue;
+            double[] m = byMonth.computeIfAbsent(java.time.YearMonth.from(start), k -> new double[2]);
+            m[0]++;
+            m[1] += r.getTotalCost();
+        }
+        if (archive != null) {
+            try {
+                int[] columns = {RentalArchive.COL_START_DATE, RentalArchive.COL_TOTAL};
+                archive.scan(from, to, columns, -1, null, p -> {
+                    LocalDate start = LocalDate.parse(p[RentalArchive.COL_START_DATE]);
+                    if (start.isBefore(from) || start.isAfter(to)) return;
+                    double[] m = byMonth.computeIfAbsent(java.time.YearMonth.from(start), k -> new double[2]);
+                    m[0]++;
+                    m[1] += Double.parseDouble(p[RentalArchive.COL_TOTAL]);
+                });
+            } catch (IOException e) {
+                System.out.println("Failed to read archive: " + e.getMessage());
+            }
+        }
+        System.out.println("\n== Revenue " + (from.equals(LocalDate.MIN) ? "(any)" : from) + " to "
+                + (to.equals(LocalDate.MAX) ? "(any)" : to) + " ==");
+        if (byMonth.isEmpty()) {
+            System.out.println("No rentals in range.");
+            return;
+        }
+        double total = 0.0;
+        for (Map.Entry<java.time.YearMonth, double[]> e : byMonth.entrySet()) {
+            System.out.printf("%s | %d rentals | $%.2f%n", e.getKey(), (long) e.getValue()[0], e.getValue()[1]);
+            total += e.getValue()[1];
+        }
+        System.out.printf("Total: $%.2f%n", total);
+    }
+
+    private void showMetrics(Scanner scanner) {
+        System.out.println("\n== Metrics ==");
+        System.out.print(metrics.snapshot().toText());
+        System.out.println(quoteCache.describe());
+        int c = readIntInRange(scanner, "Export (1) None (2) Text file (3) JSON file: ", 1, 3);
+        if (c == 1) return;
+        String file = readNonEmptyLine(scanner, "Enter file to write (e.g., metrics.json): ").trim();
+        try {
+            if (c == 2) {
+                metrics.exportText(Paths.get(file));
+            } else {
+                metrics.exportJson(Paths.get(file));
+            }
+            System.out.println("Metrics written to: " + Paths.get(file).toAbsolutePath());
+        } catch (IOException e) {
+            System.out.println("Failed to export metrics: " + e.getMessage());
+        }
+    }
+
+    private synchronized void exportInvoice(String rentalId, String dirPath) {
         Rental target = null;
         for (Rental r : rentals) {
             if (r.getRentalId().equalsIgnoreCase(rentalId)) { target = r; break; }
         }
+        if (target == null) {
+            List<Rental> archived = readArchived(RentalArchive.COL_RENTAL_ID, id -> id.equalsIgnoreCase(rentalId));
+            if (!archived.isEmpty()) target = archived.get(0);
+        }
         if (target == null) {
             System.out.println("Rental not found.");
             return;
@@ -1014,7 +2475,13 @@ class CarRentalSystem {
 
     public void menu() {
         Scanner scanner = new Scanner(System.in);
+        menu(scanner);
+        scanner.close();
+        System.out.println("\nThank you for using the Car Rental System!");
+    }
 
+    // Runs until Exit; the scanner stays open, so a branch console can open another branch's menu
+    public void menu(Scanner scanner) {
         while (true) {
             System.out.println("===== Car Rental System =====");
             System.out.println("1. List All Cars");
@@ -1033,7 +2500,16 @@ class CarRentalSystem {
             System.out.println("14. Reports");
             System.out.println("15. Export Invoice");
             System.out.println("16. Manage Discount Codes");
-            int choice = readIntInRange(scanner, "Enter your choice: ", 1, 16);
+            System.out.println("17. Metrics");
+            System.out.println("18. Archive Closed Rentals");
+            System.out.println("19. Revenue by Date Range");
+            System.out.println("20. Overdue Rentals");
+            System.out.println("21. Fleet Analytics & Forecast");
+            System.out.println("22. Dynamic Pricing");
+            System.out.println("23. Billing Audit");
+            System.out.println("24. Export Changes (JSON Lines + columnar)");
+            System.out.println("25. What-if Repricing");
+            int choice = readIntInRange(scanner, "Enter your choice: ", 1, 25);
 
             if (choice == 1) {
                 listAllCars();
@@ -1051,7 +2527,6 @@ class CarRentalSystem {
                 int rentalDays = readPositiveInt(scanner, "Enter the number of days for rental: ");
                 String discount = readNonEmptyLine(scanner, "Enter discount code (or press Enter to skip): ");
                 if (discount.equalsIgnoreCase("skip")) discount = "";
-                pendingDiscountCode = discount; // store temporarily for rentCar
 
                 Car selectedCar = findCarById(carId);
                 if (selectedCar == null || !selectedCar.isAvailable()) {
@@ -1059,25 +2534,29 @@ class CarRentalSystem {
                     continue;
                 }
 
-                Customer newCustomer = new Customer("CUS" + (customers.size() + 1), customerName);
-                addCustomer(newCustomer);
+                Customer newCustomer = registerCustomer(customerName);
 
                 int pm = readIntInRange(scanner, "Payment method (1-Cash, 2-Card): ", 1, 2);
                 PaymentMethod method = (pm == 2) ? PaymentMethod.CARD : PaymentMethod.CASH;
 
-                double base = selectedCar.calculatePrice(rentalDays);
-                double discPct = getDiscountPercent(discount);
-                double discAmt = round2(base * discPct);
-                double taxable = base - discAmt;
-                double taxAmt = round2(taxable * taxRate);
-                double totalPreview = round2(taxable + taxAmt);
-                System.out.printf("Subtotal: $%.2f%n", base);
-                if (discAmt > 0) System.out.printf("Discount: -$%.2f (%s)%n", discAmt, discount.toUpperCase());
-                System.out.printf("Tax (%.0f%%): $%.2f%n", taxRate * 100.0, taxAmt);
-                System.out.printf("Total: $%.2f%n", totalPreview);
+                // the same pipeline rentCar charges through: surcharges, demand, coupon and tax
+                Quote preview = quote(selectedCar, LocalDate.now(), rentalDays, discount, newCustomer.getCustomerId());
+                RedemptionStatus couponStatus = preview.getCouponStatus();
+                if (couponStatus != RedemptionStatus.APPLIED && couponStatus != RedemptionStatus.NO_CODE) {
+                    System.out.println("Discount code not applied: " + describe(couponStatus));
+                }
+                System.out.printf("Subtotal: $%.2f%n", preview.getSubtotal());
+                if (preview.getDemandMultiplier() != 1.0) {
+                    System.out.printf("Demand pricing: x%.3f (included in subtotal)%n", preview.getDemandMultiplier());
+                }
+                if (preview.getDiscountAmount() > 0) {
+                    System.out.printf("Discount: -$%.2f (%s)%n", preview.getDiscountAmount(), preview.getDiscountCode());
+                }
+                System.out.printf("Tax (%.0f%%): $%.2f%n", getPricing().getTaxRate() * 100.0, preview.getTaxAmount());
+                System.out.printf("Total: $%.2f%n", preview.getTotal());
                 String confirm = readNonEmptyLine(scanner, "Confirm rental (Y/N): ");
                 if (confirm.equalsIgnoreCase("Y")) {
-                    rentCar(selectedCar, newCustomer, rentalDays, method);
+                    rentCar(selectedCar, newCustomer, rentalDays, method, discount);
                 } else {
                     System.out.println("Rental canceled.");
                 }
@@ -1134,13 +2613,33 @@ class CarRentalSystem {
                 exportInvoice(rid, dir);
             } else if (choice == 16) {
                 manageDiscountCodes(scanner);
+            } else if (choice == 17) {
+                showMetrics(scanner);
+            } else if (choice == 18) {
+                String dir = readNonEmptyLine(scanner, "Enter data directory (e.g., data): ");
+                LocalDate cutoff = readOptionalDate(scanner, "Archive rentals that ended before yyyy-MM-dd (or 'none' for the retention window): ");
+                if (cutoff == null) cutoff = LocalDate.now().minusDays(archiveRetentionDays);
+                archiveClosedRentals(dir, cutoff);
+            } else if (choice == 19) {
+                LocalDate from = readOptionalDate(scanner, "From yyyy-MM-dd (or 'none'): ");
+                LocalDate to = readOptionalDate(scanner, "To yyyy-MM-dd (or 'none'): ");
+                showRevenueReport(from == null ? LocalDate.MIN : from, to == null ? LocalDate.MAX : to);
+            } else if (choice == 20) {
+                showOverdue();
+            } else if (choice == 21) {
+                showFleetAnalytics();
+            } else if (choice == 22) {
+                manageDynamicPricing(scanner);
+            } else if (choice == 23) {
+                showBillingAudit();
+            } else if (choice == 24) {
+                showExport(readNonEmptyLine(scanner, "Enter export directory (e.g., export): ").trim());
+            } else if (choice == 25) {
+                readRepricingCandidates(scanner);
             } else {
                 System.out.println("Invalid choice. Please enter a valid option.");
             }
         }
-
-        scanner.close();
-        System.out.println("\nThank you for using the Car Rental System!");
     }
 
 }
@@ -1154,7 +2653,270 @@ public class Main{
         rentalSystem.addCar(car1);
         rentalSystem.addCar(car2);
         rentalSystem.addCar(car3);
+        rentalSystem.getMetrics().registerJmx("default");
+
+        // Options: --data <dir>, --mapped <dir> (like --data, from fleet.snap), --event-log <file>, --batch <file>, --http <port>, --loadgen <url|local> [clients] [seconds],
+        //          --workload [key=value ...] (see WorkloadConfig), --leader <port>, --follow <host:port>,
+        //          --replication-bench [followers] [readers] [seconds] [writes/s], --autosave <seconds> (needs --data),
+        //          --export <dir> (changes since the last export, then exit),
+        //          --selfcheck [dir] (round-trip checks of fleet.snap and the archive formats, then exit),
+        //          --branches <CODE,CODE,...> (one shard per branch; with --data, --http and --autosave)
+        Map<String, String> options = new HashMap<>();
+        List<String> loadgen = new ArrayList<>();
+        List<String> workload = new ArrayList<>();
+        List<String> replicationBench = new ArrayList<>();
+        List<String> selfCheck = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--loadgen".equals(args[i]) || "--workload".equals(args[i]) || "--replication-bench".equals(args[i])
+                    || "--selfcheck".equals(args[i])) {
+                List<String> target = "--loadgen".equals(args[i]) ? loadgen : "--workload".equals(args[i]) ? workload
+                        : "--selfcheck".equals(args[i]) ? selfCheck : replicationBench;
+                options.put(args[i], "");
+                while (i + 1 < args.length && !args[i + 1].startsWith("--")) target.add(args[++i]);
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i], args[++i]);
+            }
+        }
+
+        if (options.containsKey("--selfcheck")) {
+            if (!runSelfCheck(selfCheck)) System.exit(1);
+            return;
+        }
+        if (options.containsKey("--branches")) {
+            runBranches(options);
+            return;
+        }
+        if (options.containsKey("--mapped")) {
+            rentalSystem.loadMapped(options.get("--mapped"));
+            options.putIfAbsent("--data", options.get("--mapped")); // saves go back to the same directory
+        } else if (options.containsKey("--data")) {
+            rentalSystem.loadData(options.get("--data"));
+        }
+        if (options.containsKey("--event-log")) {
+            try {
+                rentalSystem.getEvents().subscribe("journal", new RentalEventJournal(Paths.get(options.get("--event-log"))));
+            } catch (IOException e) {
+                System.out.println("Failed to open event log: " + e.getMessage());
+            }
+        }
+        if (options.containsKey("--workload")) {
+            try {
+                new WorkloadGenerator(WorkloadConfig.parse(workload)).run();
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid workload: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        if (options.containsKey("--replication-bench")) {
+            runReplicationBenchmark(replicationBench);
+            return;
+        }
+        if (options.containsKey("--export")) {
+            rentalSystem.showExport(options.get("--export"));
+            return;
+        }
+        if (options.containsKey("--batch")) {
+            runBatch(rentalSystem, options.get("--batch"), options.get("--data"));
+            return;
+        }
+        if ((options.containsKey("--leader") || options.containsKey("--follow")) && !startReplication(rentalSystem, options)) return;
+        rentalSystem.startOverdueMonitor(60);
+        if (options.containsKey("--autosave")) {
+            try {
+                long period = Long.parseLong(options.get("--autosave"));
+                if (!options.containsKey("--data") || period <= 0) throw new IllegalArgumentException("needs --data and a positive period");
+                rentalSystem.startAutosave(options.get("--data"), period);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Autosave not started: " + e.getMessage());
+            }
+        }
+        if (options.containsKey("--http")) {
+            try {
+                rentalSystem.setConsoleOutput(false);
+                RentalHttpServer server = new RentalHttpServer(rentalSystem);
+                server.start(Integer.parseInt(options.get("--http")));
+                System.out.println("Serving HTTP on port " + server.getPort());
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Failed to start HTTP server: " + e.getMessage());
+            }
+            return;
+        }
+        if (options.containsKey("--loadgen")) {
+            runLoadGenerator(rentalSystem, loadgen);
+            return;
+        }
 
         rentalSystem.menu();
+        // drain subscribers (e.g. the event journal) before the JVM exits
+        rentalSystem.getEvents().close();
+    }
+
+    // One shard per branch behind a BranchRouter; the demo fleet goes to the first branch of an empty system
+    private static void runBranches(Map<String, String> options) {
+        for (String ignored : options.keySet()) {
+            if (!ignored.equals("--branches") && !ignored.equals("--data") && !ignored.equals("--http") && !ignored.equals("--autosave")) {
+                System.out.println("Only --data, --http and --autosave apply with --branches; ignoring " + ignored);
+            }
+        }
+        BranchRouter router = new BranchRouter();
+        String dataDir = options.get("--data");
+        try {
+            if (dataDir != null) router.loadAll(dataDir);
+            for (String code : options.get("--branches").split(",")) {
+                if (!code.trim().isEmpty()) router.addBranch(code);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Failed to set up branches: " + e.getMessage());
+            router.close();
+            return;
+        }
+        if (router.getBranchCodes().isEmpty()) {
+            System.out.println("No branches given.");
+            router.close();
+            return;
+        }
+        if (router.report().getTotalCars() == 0) {
+            String first = BranchRouter.normalizeCode(options.get("--branches").split(",")[0]);
+            router.addCar(first, new EconomyCar("C001", "Toyota", "Camry", 60.0));
+            router.addCar(first, new SuvCar("C002", "Honda", "Accord", 70.0));
+            router.addCar(first, new LuxuryCar("C003", "Mahindra", "Thar", 150.0));
+        }
+        for (String code : router.getBranchCodes()) router.getBranch(code).startOverdueMonitor(60);
+        if (options.containsKey("--autosave")) {
+            try {
+                long period = Long.parseLong(options.get("--autosave"));
+                if (dataDir == null || period <= 0) throw new IllegalArgumentException("needs --data and a positive period");
+                router.startAutosave(dataDir, period);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Autosave not started: " + e.getMessage());
+            }
+        }
+        if (options.containsKey("--http")) {
+            try {
+                router.setConsoleOutput(false);
+                RentalHttpServer server = new RentalHttpServer(router);
+                server.start(Integer.parseInt(options.get("--http")));
+                System.out.println("Serving HTTP on port " + server.getPort() + " for branches " + router.getBranchCodes());
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Failed to start HTTP server: " + e.getMessage());
+                router.close();
+            }
+            return;
+        }
+
+        Scanner scanner = new Scanner(System.in);
+        while (true) {
+            System.out.println("===== Branches: " + String.join(", ", router.getBranchCodes()) + " =====");
+            System.out.print("Enter branch code (a new code opens a branch, 'exit' to quit): ");
+            if (!scanner.hasNextLine()) break;
+            String code = scanner.nextLine().trim();
+            if (code.equalsIgnoreCase("exit")) break;
+            if (code.isEmpty()) continue;
+            try {
+                router.addBranch(code).menu(scanner);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        scanner.close();
+        if (dataDir != null) {
+            try {
+                router.saveAll(dataDir);
+            } catch (IOException e) {
+                System.out.println("Failed to save branches: " + e.getMessage());
+            }
+        }
+        router.close();
+        System.out.println("\nThank you for using the Car Rental System!");
+    }
+
+    // --leader ships changes to followers; --follow turns this node into a read-only replica
+    private static boolean startReplication(CarRentalSystem rentalSystem, Map<String, String> options) {
+        try {
+            if (options.containsKey("--follow")) {
+                String leaderAddress = options.get("--follow");
+                int colon = leaderAddress.lastIndexOf(':');
+                if (colon <= 0) throw new IllegalArgumentException("expected host:port, got " + leaderAddress);
+                new ReplicationFollower(rentalSystem, leaderAddress.substring(0, colon),
+                        Integer.parseInt(leaderAddress.substring(colon + 1))).start();
+                System.out.println("Following leader at " + leaderAddress + " (read-only)");
+            } else {
+                ReplicationLeader leader = new ReplicationLeader(rentalSystem);
+                leader.start(Integer.parseInt(options.get("--leader")));
+                System.out.println("Replication leader on port " + leader.getPort());
+            }
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Failed to start replication: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void runReplicationBenchmark(List<String> args) {
+        int followers = args.size() > 0 ? Integer.parseInt(args.get(0)) : 2;
+        int readers = args.size() > 1 ? Integer.parseInt(args.get(1)) : 6;
+        int seconds = args.size() > 2 ? Integer.parseInt(args.get(2)) : 5;
+        int writesPerSecond = args.size() > 3 ? Integer.parseInt(args.get(3)) : 1000;
+        try {
+            new ReplicationBenchmark(followers, readers, seconds, writesPerSecond).run();
+        } catch (IOException e) {
+            System.out.println("Replication benchmark failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Works in the given directory, or in a temp directory that is removed afterwards
+    private static boolean runSelfCheck(List<String> args) {
+        Path dir = null;
+        try {
+            dir = args.isEmpty() ? Files.createTempDirectory("car-rental-selfcheck") : Files.createDirectories(Paths.get(args.get(0)));
+            return new StorageSelfCheck(dir).run();
+        } catch (IOException e) {
+            System.out.println("Self-check failed: " + e.getMessage());
+            return false;
+        } finally {
+            if (dir != null && args.isEmpty()) ReplicationLeader.deleteTree(dir);
+        }
+    }
+
+    // Replays a command file, then saves back to the data directory if one was given
+    private static void runBatch(CarRentalSystem rentalSystem, String file, String dataDir) {
+        rentalSystem.setConsoleOutput(false);
+        try {
+            new RentalBatchRunner(rentalSystem).run(Paths.get(file));
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Batch failed: " + e.getMessage());
+            return;
+        } finally {
+            rentalSystem.setConsoleOutput(true);
+        }
+        if (dataDir != null) rentalSystem.saveData(dataDir);
+    }
+
+    // "local" starts an in-process server over the demo fleet and drives it
+    private static void runLoadGenerator(CarRentalSystem rentalSystem, List<String> args) {
+        String url = args.isEmpty() ? "local" : args.get(0);
+        int clients = args.size() > 1 ? Integer.parseInt(args.get(1)) : 64;
+        int seconds = args.size() > 2 ? Integer.parseInt(args.get(2)) : 10;
+        List<String> carIds = new ArrayList<>();
+        for (Car c : rentalSystem.getCars()) carIds.add(c.getCarId());
+        RentalHttpServer server = null;
+        try {
+            if ("local".equals(url)) {
+                rentalSystem.setConsoleOutput(false);
+                server = new RentalHttpServer(rentalSystem);
+                server.start(0);
+                url = "http://localhost:" + server.getPort();
+            }
+            System.out.println("Load test against " + url + " with " + clients + " clients for " + seconds + "s");
+            new HttpLoadGenerator(url, carIds).run(clients, seconds);
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Load test failed: " + e.getMessage());
+        } finally {
+            if (server != null) server.stop();
+        }
     }
 }
@@ -0,0 +1,388 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Timed operations on the booking path
+enum MetricOp { RENT, RETURN, EXTEND, PAYMENT, SAVE, LOAD, SNAPSHOT, EXPORT }
+
+// Counted outcomes other than plain success
+enum MetricOutcome {
+    CAR_NOT_AVAILABLE, CAR_NOT_RENTED, RENTAL_NOT_FOUND, INVALID_EXTENSION,
+    PAYMENT_FAILED, COUPON_REJECTED, SAVE_FAILED, LOAD_FAILED, EXPORT_FAILED, IDEMPOTENT_REPLAY, IDEMPOTENCY_CONFLICT
+}
+
+/**
+ * HDR-style latency histogram: values below 32ns are exact, above that each
+ * power of two is split into 16 linear sub-buckets, so any reported percentile
+ * is within ~6% of the true value. Recording is a few uncontended atomics.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKETS = 16;
+    private static final int LINEAR = 32;
+    private static final int BUCKETS = LINEAR + (63 - 5) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        total.increment();
+        sum.add(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    public long getCount() { return total.sum(); }
+    public long getMax() { return max.get(); }
+
+    public double getMean() {
+        long n = total.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    // Upper bound of the bucket containing the q-th quantile (0 < q <= 1)
+    public long percentile(double q) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBoundOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    // Adds other's recordings to this histogram
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        long m = max.get();
+        long o = other.max.get();
+        while (o > m && !max.compareAndSet(m, o)) {
+            m = max.get();
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int indexOf(long v) {
+        if (v < LINEAR) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) ((v >>> (exp - 4)) & (SUB_BUCKETS - 1));
+        return LINEAR + (exp - 5) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < LINEAR) return index;
+        int exp = (index - LINEAR) / SUB_BUCKETS + 5;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exp - 4)) - 1;
+    }
+}
+
+// Point-in-time copy of all counters, safe to hand to exporters
+class MetricsSnapshot {
+    static class OpStats {
+        final long count;
+        final double meanNanos;
+        final long p50Nanos;
+        final long p90Nanos;
+        final long p99Nanos;
+        final long p999Nanos;
+        final long maxNanos;
+
+        // count is every call; the latencies come from the sampled ones in h
+        OpStats(long count, LatencyHistogram h) {
+            this.count = count;
+            this.meanNanos = h.getMean();
+            this.p50Nanos = h.percentile(0.50);
+            this.p90Nanos = h.percentile(0.90);
+            this.p99Nanos = h.percentile(0.99);
+            this.p999Nanos = h.percentile(0.999);
+            this.maxNanos = h.getMax();
+        }
+    }
+
+    private final long takenAtMillis;
+    private final Map<MetricOp, OpStats> ops;
+    private final Map<MetricOutcome, Long> outcomes;
+
+    MetricsSnapshot(long takenAtMillis, Map<MetricOp, OpStats> ops, Map<MetricOutcome, Long> outcomes) {
+        this.takenAtMillis = takenAtMillis;
+        this.ops = ops;
+        this.outcomes = outcomes;
+    }
+
+    public long getTakenAtMillis() { return takenAtMillis; }
+    public OpStats get(MetricOp op) { return ops.get(op); }
+    public long get(MetricOutcome outcome) { return outcomes.get(outcome); }
+
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-8s %10s %10s %10s %10s %10s %10s%n", "op", "count", "mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)"));
+        for (MetricOp op : MetricOp.values()) {
+            OpStats s = ops.get(op);
+            sb.append(String.format("%-8s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", op.name(), s.count,
+                    s.meanNanos / 1000.0, s.p50Nanos / 1000.0, s.p99Nanos / 1000.0, s.p999Nanos / 1000.0, s.maxNanos / 1000.0));
+        }
+        for (MetricOutcome o : MetricOutcome.values()) {
+            sb.append(String.format("%-20s %10d%n", o.name().toLowerCase(), outcomes.get(o)));
+        }
+        return sb.toString();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"takenAtMillis\":").append(takenAtMillis).append(",\"operations\":{");
+        boolean first = true;
+        for (MetricOp op : MetricOp.values()) {
+            OpStats s = ops.get(op);
+            if (!first) sb.append(',');
+            first = false;
+            sb.append('"').append(op.name().toLowerCase()).append("\":{")
+                    .append("\"count\":").append(s.count)
+                    .append(",\"meanNanos\":").append(Math.round(s.meanNanos))
+                    .append(",\"p50Nanos\":").append(s.p50Nanos)
+                    .append(",\"p90Nanos\":").append(s.p90Nanos)
+                    .append(",\"p99Nanos\":").append(s.p99Nanos)
+                    .append(",\"p999Nanos\":").append(s.p999Nanos)
+                    .append(",\"maxNanos\":").append(s.maxNanos).append('}');
+        }
+        sb.append("},\"outcomes\":{");
+        first = true;
+        for (MetricOutcome o : MetricOutcome.values()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append('"').append(o.name().toLowerCase()).append("\":").append(outcomes.get(o));
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+}
+
+/**
+ * Counters and latency histograms for the rental engine.
+ * Callers bracket an operation with start()/record(); when disabled start() returns 0
+ * and record() is a no-op, so the booking path pays a single volatile read.
+ *
+ * Only one call in SAMPLE_EVERY is timed: two clock reads and a histogram update cost
+ * ~120ns, which on every call put a ~1us booking (two timed operations) 20% over, far
+ * past the 1% budget. Sampled percentiles stay within the histogram's own error once
+ * an operation has a few thousand calls. Calls are still counted exactly, with plain
+ * opaque increments rather than atomics: the engine records under its own lock, and a
+ * lost update between unlocked callers (saves, exports) would only undercount.
+ */
+class RentalMetrics {
+    static final int SAMPLE_EVERY = 64;
+    private static final VarHandle CALLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final EnumMap<MetricOp, LatencyHistogram> latencies = new EnumMap<>(MetricOp.class);
+    private final long[] calls = new long[MetricOp.values().length];
+    private final EnumMap<MetricOutcome, LongAdder> outcomes = new EnumMap<>(MetricOutcome.class);
+    private volatile boolean enabled = true;
+    private int tick; // racy on purpose: a lost update only shifts which call gets timed
+
+    RentalMetrics() {
+        for (MetricOp op : MetricOp.values()) latencies.put(op, new LatencyHistogram());
+        for (MetricOutcome o : MetricOutcome.values()) outcomes.put(o, new LongAdder());
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    // 0 when disabled or when this call is not sampled; record() still counts it
+    public long start() {
+        if (!enabled || (++tick & (SAMPLE_EVERY - 1)) != 0) return 0L;
+        return System.nanoTime();
+    }
+
+    public void record(MetricOp op, long startNanos) {
+        if (!enabled) return;
+        int i = op.ordinal();
+        CALLS.setOpaque(calls, i, (long) CALLS.getOpaque(calls, i) + 1);
+        if (startNanos != 0L) latencies.get(op).record(System.nanoTime() - startNanos);
+    }
+
+    public long count(MetricOp op) {
+        return (long) CALLS.getOpaque(calls, op.ordinal());
+    }
+
+    public void count(MetricOutcome outcome) {
+        if (enabled) outcomes.get(outcome).increment();
+    }
+
+    public LatencyHistogram histogram(MetricOp op) {
+        return latencies.get(op);
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<MetricOp, MetricsSnapshot.OpStats> ops = new EnumMap<>(MetricOp.class);
+        for (MetricOp op : MetricOp.values()) ops.put(op, new MetricsSnapshot.OpStats(count(op), latencies.get(op)));
+        Map<MetricOutcome, Long> counts = new EnumMap<>(MetricOutcome.class);
+        for (MetricOutcome o : MetricOutcome.values()) counts.put(o, outcomes.get(o).sum());
+        return new MetricsSnapshot(System.currentTimeMillis(), ops, counts);
+    }
+
+    public void reset() {
+        for (LatencyHistogram h : latencies.values()) h.reset();
+        for (int i = 0; i < calls.length; i++) CALLS.setOpaque(calls, i, 0L);
+        for (LongAdder a : outcomes.values()) a.reset();
+    }
+
+    public void exportText(Path file) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(file)) {
+            bw.write(snapshot().toText());
+        }
+    }
+
+    public void exportJson(Path file) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(file)) {
+            bw.write(snapshot().toJson());
+            bw.newLine();
+        }
+    }
+
+    // Registers under CarRentalSystem:type=Metrics,name=<name> on the platform MBean server
+    public void registerJmx(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("CarRentalSystem:type=Metrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+            server.registerMBean(new MetricsMBean(this), objectName);
+        } catch (JMException e) {
+            System.out.println("Failed to register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    // Read-only JMX view: <op>Count, <op>MeanMicros, <op>P99Micros, <op>MaxMicros and one attribute per outcome
+    private static class MetricsMBean implements DynamicMBean {
+        private final RentalMetrics metrics;
+        private final MBeanInfo info;
+
+        MetricsMBean(RentalMetrics metrics) {
+            this.metrics = metrics;
+            java.util.List<MBeanAttributeInfo> attrs = new java.util.ArrayList<>();
+            for (MetricOp op : MetricOp.values()) {
+                String base = op.name().toLowerCase();
+                attrs.add(new MBeanAttributeInfo(base + "Count", "long", base + " calls", true, false, false));
+                attrs.add(new MBeanAttributeInfo(base + "MeanMicros", "double", base + " mean latency", true, false, false));
+                attrs.add(new MBeanAttributeInfo(base + "P99Micros", "double", base + " p99 latency", true, false, false));
+                attrs.add(new MBeanAttributeInfo(base + "MaxMicros", "double", base + " max latency", true, false, false));
+            }
+            for (MetricOutcome o : MetricOutcome.values()) {
+                attrs.add(new MBeanAttributeInfo(camel(o), "long", o.name().toLowerCase() + " count", true, false, false));
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clear all counters and histograms",
+                    null, "void", MBeanOperationInfo.ACTION);
+            this.info = new MBeanInfo(RentalMetrics.class.getName(), "Car rental metrics",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+        }
+
+        private static String camel(MetricOutcome o) {
+            StringBuilder sb = new StringBuilder();
+            boolean upper = false;
+            for (char c : o.name().toLowerCase().toCharArray()) {
+                if (c == '_') {
+                    upper = true;
+                } else {
+                    sb.append(upper ? Character.toUpperCase(c) : c);
+                    upper = false;
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            for (MetricOutcome o : MetricOutcome.values()) {
+                if (camel(o).equals(attribute)) return metrics.outcomes.get(o).sum();
+            }
+            for (MetricOp op : MetricOp.values()) {
+                String base = op.name().toLowerCase();
+                if (!attribute.startsWith(base)) continue;
+                LatencyHistogram h = metrics.latencies.get(op);
+                String suffix = attribute.substring(base.length());
+                if (suffix.equals("Count")) return metrics.count(op);
+                if (suffix.equals("MeanMicros")) return h.getMean() / 1000.0;
+                if (suffix.equals("P99Micros")) return h.percentile(0.99) / 1000.0;
+                if (suffix.equals("MaxMicros")) return h.getMax() / 1000.0;
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException ignore) {
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws javax.management.ReflectionException {
+            if (!"reset".equals(actionName)) {
+                throw new javax.management.ReflectionException(new NoSuchMethodException(actionName));
+            }
+            metrics.reset();
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Called from OverdueScheduler.advance for each rental crossing a threshold
+interface OverdueListener {
+    void onDueSoon(Rental rental);
+    void onOverdue(Rental rental, LocalDate today);
+}
+
+/**
+ * Index of active rentals by end date, so overdue and due-soon checks never scan rentals.
+ * A ring of one-day slots covers the next WHEEL_DAYS days from the current day; rentals
+ * ending further out wait in a small overflow map and drop into the ring as it turns.
+ * Each slot only ever holds rentals ending on that exact day, so advancing by a day
+ * touches one slot for overdue and one for due-soon. Rentals that pass their end date
+ * move to an overdue list, which is what listOverdue() walks.
+ *
+ * Not thread-safe: CarRentalSystem calls it while holding its own lock.
+ */
+class OverdueScheduler {
+    private static final int WHEEL_DAYS = 4096; // ~11 years
+    private static final int MASK = WHEEL_DAYS - 1;
+
+    private static final int IN_WHEEL = 0;
+    private static final int IN_OVERFLOW = 1;
+    private static final int OVERDUE = 2;
+
+    private static final class Node {
+        final Rental rental;
+        final long endDay;
+        int state;
+        boolean dueSoonFired;
+        Node prev;
+        Node next;
+
+        Node(Rental rental, long endDay) {
+            this.rental = rental;
+            this.endDay = endDay;
+        }
+    }
+
+    private final Node[] slots = new Node[WHEEL_DAYS];
+    private final TreeMap<Long, List<Node>> overflow = new TreeMap<>();
+    private final Map<Rental, Node> nodes = new HashMap<>();
+    private final Node overdueHead = new Node(null, 0); // sentinel of a circular list
+    private final int dueSoonDays;
+    private long today;             // first day not yet declared overdue
+    private long dueSoonThrough;    // last end day that has had due-soon fired
+    // entries scheduled already inside a threshold; nodes cancelled or rescheduled meanwhile are skipped
+    private final List<Node> pendingOverdue = new ArrayList<>();
+    private final List<Node> pendingDueSoon = new ArrayList<>();
+    private int overdueCount = 0;
+
+    OverdueScheduler(LocalDate today, int dueSoonDays) {
+        if (dueSoonDays < 0 || dueSoonDays >= WHEEL_DAYS) throw new IllegalArgumentException("dueSoonDays out of range");
+        this.dueSoonDays = dueSoonDays;
+        this.today = today.toEpochDay();
+        this.dueSoonThrough = this.today + dueSoonDays;
+        overdueHead.prev = overdueHead;
+        overdueHead.next = overdueHead;
+    }
+
+    public int size() { return nodes.size(); }
+    public int getOverdueCount() { return overdueCount; }
+    public int getDueSoonDays() { return dueSoonDays; }
+    public boolean isScheduled(Rental rental) { return nodes.containsKey(rental); }
+
+    // Add or move a rental to its current end date; notifications are delivered on the next advance()
+    public void schedule(Rental rental) {
+        cancel(rental);
+        Node n = new Node(rental, rental.getEndDate().toEpochDay());
+        nodes.put(rental, n);
+        if (n.endDay < today) {
+            pushOverdue(n);
+            pendingOverdue.add(n);
+            return;
+        }
+        if (n.endDay <= dueSoonThrough) pendingDueSoon.add(n);
+        if (n.endDay < today + WHEEL_DAYS) {
+            link(n);
+        } else {
+            n.state = IN_OVERFLOW;
+            overflow.computeIfAbsent(n.endDay, k -> new ArrayList<>()).add(n);
+        }
+    }
+
+    public void cancel(Rental rental) {
+        Node n = nodes.remove(rental);
+        if (n == null) return;
+        if (n.state == IN_WHEEL) {
+            unlink(n);
+        } else if (n.state == OVERDUE) {
+            unlink(n);
+            overdueCount--;
+        } else {
+            List<Node> list = overflow.get(n.endDay);
+            list.remove(n);
+            if (list.isEmpty()) overflow.remove(n.endDay);
+        }
+    }
+
+    public void clear() {
+        for (Rental r : new ArrayList<>(nodes.keySet())) cancel(r);
+        pendingDueSoon.clear();
+        pendingOverdue.clear();
+    }
+
+    /**
+     * Move the wheel forward to newToday, firing due-soon for rentals now ending within
+     * dueSoonDays and overdue for rentals whose end date has passed. Cost is one slot per
+     * elapsed day plus the rentals that fire; a same-day call only drains pending entries.
+     */
+    public int advance(LocalDate newToday, OverdueListener listener) {
+        long target = newToday.toEpochDay();
+        int fired = 0;
+        for (Node n : pendingDueSoon) {
+            if (nodes.get(n.rental) == n && n.state != OVERDUE && !n.dueSoonFired) {
+                n.dueSoonFired = true;
+                listener.onDueSoon(n.rental);
+                fired++;
+            }
+        }
+        pendingDueSoon.clear();
+        for (Node n : pendingOverdue) {
+            if (nodes.get(n.rental) == n && n.state == OVERDUE) {
+                listener.onOverdue(n.rental, newToday);
+                fired++;
+            }
+        }
+        pendingOverdue.clear();
+
+        while (today < target) {
+            int slot = (int) (today & MASK);
+            Node n = slots[slot];
+            slots[slot] = null;
+            while (n != null) {
+                Node next = n.next;
+                pushOverdue(n);
+                listener.onOverdue(n.rental, newToday);
+                fired++;
+                n = next;
+            }
+            today++;
+            // the day that just entered the ring's far end
+            pullOverflow(today + WHEEL_DAYS - 1);
+        }
+        // after a long gap the due-soon cursor can trail today; those days have already fired overdue
+        dueSoonThrough = Math.max(dueSoonThrough, today - 1);
+        while (dueSoonThrough < target + dueSoonDays) {
+            dueSoonThrough++;
+            for (Node n = slots[(int) (dueSoonThrough & MASK)]; n != null; n = n.next) {
+                if (!n.dueSoonFired) {
+                    n.dueSoonFired = true;
+                    listener.onDueSoon(n.rental);
+                    fired++;
+                }
+            }
+        }
+        return fired;
+    }
+
+    // Rentals past their end date, in the order they were found overdue
+    public List<Rental> listOverdue() {
+        List<Rental> result = new ArrayList<>(overdueCount);
+        for (Node n = overdueHead.next; n != overdueHead; n = n.next) result.add(n.rental);
+        return result;
+    }
+
+    // Active rentals ending between today and today + days (inclusive), by end date
+    public List<Rental> listDueWithin(int days) {
+        List<Rental> result = new ArrayList<>();
+        long last = Math.min(today + days, today + WHEEL_DAYS - 1);
+        for (long d = today; d <= last; d++) {
+            for (Node n = slots[(int) (d & MASK)]; n != null; n = n.next) result.add(n.rental);
+        }
+        return result;
+    }
+
+    private void pullOverflow(long day) {
+        if (overflow.isEmpty() || overflow.firstKey() > day) return;
+        List<Node> list = overflow.remove(day);
+        if (list == null) return;
+        for (Node n : list) link(n);
+    }
+
+    private void link(Node n) {
+        int slot = (int) (n.endDay & MASK);
+        n.state = IN_WHEEL;
+        n.prev = null;
+        n.next = slots[slot];
+        if (n.next != null) n.next.prev = n;
+        slots[slot] = n;
+    }
+
+    private void pushOverdue(Node n) {
+        n.state = OVERDUE;
+        n.prev = overdueHead.prev;
+        n.next = overdueHead;
+        overdueHead.prev.next = n;
+        overdueHead.prev = n;
+        overdueCount++;
+    }
+
+    private void unlink(Node n) {
+        if (n.state == OVERDUE) {
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+        } else {
+            if (n.prev != null) {
+                n.prev.next = n.next;
+            } else {
+                slots[(int) (n.endDay & MASK)] = n.next;
+            }
+            if (n.next != null) n.next.prev = n.prev;
+        }
+        n.prev = null;
+        n.next = null;
+    }
+}
@@ -0,0 +1,226 @@
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The pricing settings as one immutable value: tax rate, seasonal and weekend
+ * surcharges, the peak season months and the class rules the Car subclasses price by
+ * (SUV and luxury multipliers, the luxury long-rental perk, the economy long-rental
+ * discount). CarRentalSystem swaps in a new instance whenever a setting changes, so
+ * code that prices outside the system lock (the billing audit, what-if repricing)
+ * always sees one consistent set.
+ *
+ * The arithmetic here is the booking pipeline itself: quotes, extensions, returns and
+ * audits all price through it, so they agree to the cent.
+ */
+final class PricingConfig {
+    static final PricingConfig DEFAULT = new PricingConfig(0.08, 0.10, 0.05, 6, 8);
+
+    // Setting names, as in settings.csv and the what-if simulator's candidates
+    static final List<String> SETTINGS = List.of("taxRate", "seasonalMultiplier", "weekendMultiplier", "seasonalStartMonth",
+            "seasonalEndMonth", "suvMultiplier", "luxuryMultiplier", "luxuryPerk", "luxuryPerkDays",
+            "economyLongRentalMultiplier", "economyLongRentalDays");
+
+    private final double taxRate;
+    private final double seasonalMultiplier; // added in peak months
+    private final double weekendMultiplier;  // added if any rented day is a Saturday or Sunday
+    private final int seasonalStartMonth;
+    private final int seasonalEndMonth;      // may be before the start month: the season wraps the year
+    private final double suvMultiplier;
+    private final double luxuryMultiplier;
+    private final double luxuryPerk;         // flat amount off luxury rentals of luxuryPerkDays or more
+    private final int luxuryPerkDays;
+    private final double economyLongRentalMultiplier; // economy rentals of economyLongRentalDays or more
+    private final int economyLongRentalDays;
+    private final long epoch;
+
+    PricingConfig(double taxRate, double seasonalMultiplier, double weekendMultiplier, int seasonalStartMonth, int seasonalEndMonth) {
+        this(taxRate, seasonalMultiplier, weekendMultiplier, seasonalStartMonth, seasonalEndMonth, 1.15, 1.6, 50.0, 5, 0.9, 7);
+    }
+
+    private PricingConfig(double taxRate, double seasonalMultiplier, double weekendMultiplier, int seasonalStartMonth, int seasonalEndMonth,
+                          double suvMultiplier, double luxuryMultiplier, double luxuryPerk, int luxuryPerkDays,
+                          double economyLongRentalMultiplier, int economyLongRentalDays) {
+        this.taxRate = taxRate;
+        this.seasonalMultiplier = seasonalMultiplier;
+        this.weekendMultiplier = weekendMultiplier;
+        this.seasonalStartMonth = seasonalStartMonth;
+        this.seasonalEndMonth = seasonalEndMonth;
+        this.suvMultiplier = suvMultiplier;
+        this.luxuryMultiplier = luxuryMultiplier;
+        this.luxuryPerk = luxuryPerk;
+        this.luxuryPerkDays = luxuryPerkDays;
+        this.economyLongRentalMultiplier = economyLongRentalMultiplier;
+        this.economyLongRentalDays = economyLongRentalDays;
+        this.epoch = fingerprint(seasonalMultiplier + "," + weekendMultiplier + "," + seasonalStartMonth + "," + seasonalEndMonth
+                + "," + suvMultiplier + "," + luxuryMultiplier + "," + luxuryPerk + "," + luxuryPerkDays
+                + "," + economyLongRentalMultiplier + "," + economyLongRentalDays);
+    }
+
+    public double getTaxRate() { return taxRate; }
+    public double getSeasonalMultiplier() { return seasonalMultiplier; }
+    public double getWeekendMultiplier() { return weekendMultiplier; }
+    public int getSeasonalStartMonth() { return seasonalStartMonth; }
+    public int getSeasonalEndMonth() { return seasonalEndMonth; }
+    public double getSuvMultiplier() { return suvMultiplier; }
+    public double getLuxuryMultiplier() { return luxuryMultiplier; }
+    public double getLuxuryPerk() { return luxuryPerk; }
+    public int getLuxuryPerkDays() { return luxuryPerkDays; }
+    public double getEconomyLongRentalMultiplier() { return economyLongRentalMultiplier; }
+    public int getEconomyLongRentalDays() { return economyLongRentalDays; }
+
+    // Identifies the settings a subtotal depends on (all but the tax rate): configs that price
+    // every car the same share it. Rentals record the one that priced them; 0 is never used.
+    public long getEpoch() { return epoch; }
+
+    // 64-bit FNV-1a of the settings text
+    private static long fingerprint(String settings) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < settings.length(); i++) {
+            h ^= settings.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    public PricingConfig withTaxRate(double rate) {
+        return new PricingConfig(rate, seasonalMultiplier, weekendMultiplier, seasonalStartMonth, seasonalEndMonth,
+                suvMultiplier, luxuryMultiplier, luxuryPerk, luxuryPerkDays, economyLongRentalMultiplier, economyLongRentalDays);
+    }
+
+    public PricingConfig withSeasonalMultiplier(double multiplier) {
+        return new PricingConfig(taxRate, multiplier, weekendMultiplier, seasonalStartMonth, seasonalEndMonth,
+                suvMultiplier, luxuryMultiplier, luxuryPerk, luxuryPerkDays, economyLongRentalMultiplier, economyLongRentalDays);
+    }
+
+    public PricingConfig withWeekendMultiplier(double multiplier) {
+        return new PricingConfig(taxRate, seasonalMultiplier, multiplier, seasonalStartMonth, seasonalEndMonth,
+                suvMultiplier, luxuryMultiplier, luxuryPerk, luxuryPerkDays, economyLongRentalMultiplier, economyLongRentalDays);
+    }
+
+    public PricingConfig withSeason(int startMonth, int endMonth) {
+        return new PricingConfig(taxRate, seasonalMultiplier, weekendMultiplier, startMonth, endMonth,
+                suvMultiplier, luxuryMultiplier, luxuryPerk, luxuryPerkDays, economyLongRentalMultiplier, economyLongRentalDays);
+    }
+
+    public PricingConfig withSuvMultiplier(double multiplier) {
+        return new PricingConfig(taxRate, seasonalMultiplier, weekendMultiplier, seasonalStartMonth, seasonalEndMonth,
+                multiplier, luxuryMultiplier, luxuryPerk, luxuryPerkDays, economyLongRentalMultiplier, economyLongRentalDays);
+    }
+
+    public PricingConfig withLuxuryPricing(double multiplier, double perk, int perkDays) {
+        return new PricingConfig(taxRate, seasonalMultiplier, weekendMultiplier, seasonalStartMonth, seasonalEndMonth,
+                suvMultiplier, multiplier, perk, perkDays, economyLongRentalMultiplier, economyLongRentalDays);
+    }
+
+    public PricingConfig withEconomyPricing(double longRentalMultiplier, int longRentalDays) {
+        return new PricingConfig(taxRate, seasonalMultiplier, weekendMultiplier, seasonalStartMonth, seasonalEndMonth,
+                suvMultiplier, luxuryMultiplier, luxuryPerk, luxuryPerkDays, longRentalMultiplier, longRentalDays);
+    }
+
+    /**
+     * This config with one setting, named as in SETTINGS (any case), set from its text
+     * value. Throws IllegalArgumentException for an unknown name, a value that does not
+     * parse or a month outside 1-12.
+     */
+    public PricingConfig withSetting(String name, String value) {
+        String v = value.trim();
+        switch (name.trim().toLowerCase()) {
+            case "taxrate": return withTaxRate(Double.parseDouble(v));
+            case "seasonalmultiplier": return withSeasonalMultiplier(Double.parseDouble(v));
+            case "weekendmultiplier": return withWeekendMultiplier(Double.parseDouble(v));
+            case "seasonalstartmonth": return withSeason(month(v), seasonalEndMonth);
+            case "seasonalendmonth": return withSeason(seasonalStartMonth, month(v));
+            case "suvmultiplier": return withSuvMultiplier(Double.parseDouble(v));
+            case "luxurymultiplier": return withLuxuryPricing(Double.parseDouble(v), luxuryPerk, luxuryPerkDays);
+            case "luxuryperk": return withLuxuryPricing(luxuryMultiplier, Double.parseDouble(v), luxuryPerkDays);
+            case "luxuryperkdays": return withLuxuryPricing(luxuryMultiplier, luxuryPerk, Integer.parseInt(v));
+            case "economylongrentalmultiplier": return withEconomyPricing(Double.parseDouble(v), economyLongRentalDays);
+            case "economylongrentaldays": return withEconomyPricing(economyLongRentalMultiplier, Integer.parseInt(v));
+            default: throw new IllegalArgumentException("unknown pricing setting " + name);
+        }
+    }
+
+    public static boolean isSetting(String name) {
+        for (String s : SETTINGS) {
+            if (s.equalsIgnoreCase(name.trim())) return true;
+        }
+        return false;
+    }
+
+    private static int month(String v) {
+        int m = Integer.parseInt(v);
+        if (m < 1 || m > 12) throw new IllegalArgumentException("month must be 1-12: " + v);
+        return m;
+    }
+
+    // name=value for every setting, in SETTINGS order; the form the what-if simulator reads back
+    @Override
+    public String toString() {
+        return "taxRate=" + taxRate + " seasonalMultiplier=" + seasonalMultiplier + " weekendMultiplier=" + weekendMultiplier
+                + " seasonalStartMonth=" + seasonalStartMonth + " seasonalEndMonth=" + seasonalEndMonth
+                + " suvMultiplier=" + suvMultiplier + " luxuryMultiplier=" + luxuryMultiplier + " luxuryPerk=" + luxuryPerk
+                + " luxuryPerkDays=" + luxuryPerkDays + " economyLongRentalMultiplier=" + economyLongRentalMultiplier
+                + " economyLongRentalDays=" + economyLongRentalDays;
+    }
+
+    public boolean inSeason(int month) {
+        return seasonalStartMonth <= seasonalEndMonth
+                ? month >= seasonalStartMonth && month <= seasonalEndMonth
+                : month >= seasonalStartMonth || month <= seasonalEndMonth;
+    }
+
+    // Whether [startDay, startDay + days) includes a Saturday or Sunday, from the epoch day alone
+    static boolean hasWeekend(long startDay, int days) {
+        if (days <= 0) return false;
+        if (days >= 7) return true;
+        int dow = (int) Math.floorMod(startDay + 3, 7L); // 0 = Monday; 1970-01-01 was a Thursday
+        return dow >= 5 || dow + days - 1 >= 5;
+    }
+
+    // Car's price for the period under these class rules, with the seasonal and weekend surcharges, rounded to cents
+    public double policyBase(Car car, LocalDate start, int days) {
+        return policyBase(car, start.getMonthValue(), start.toEpochDay(), days);
+    }
+
+    public double policyBase(Car car, int startMonth, long startDay, int days) {
+        double multiplier = 1.0;
+        if (inSeason(startMonth)) multiplier += seasonalMultiplier;
+        if (hasWeekend(startDay, days)) multiplier += weekendMultiplier;
+        return round2(car.calculatePrice(days, this) * multiplier);
+    }
+
+    // policyBase scaled by the demand multiplier agreed at booking
+    public double subtotal(Car car, int startMonth, long startDay, int days, double demand) {
+        double base = policyBase(car, startMonth, startDay, days);
+        return demand == 1.0 ? base : round2(base * demand);
+    }
+
+    public double discountAmount(double subtotal, double discountPercent) {
+        return round2(subtotal * discountPercent);
+    }
+
+    public double taxAmount(double subtotal, double discountAmount) {
+        return taxAmount(subtotal, discountAmount, taxRate);
+    }
+
+    static double taxAmount(double subtotal, double discountAmount, double taxRate) {
+        return round2((subtotal - discountAmount) * taxRate);
+    }
+
+    public static double total(double subtotal, double discountAmount, double taxAmount) {
+        return round2(subtotal - discountAmount + taxAmount);
+    }
+
+    public Quote quote(Car car, LocalDate start, int days, String discountCode, double discountPercent,
+                       RedemptionStatus couponStatus, double demand) {
+        double subtotal = subtotal(car, start.getMonthValue(), start.toEpochDay(), days, demand);
+        double discount = discountAmount(subtotal, discountPercent);
+        double tax = taxAmount(subtotal, discount);
+        return new Quote(subtotal, discountCode, discount, tax, total(subtotal, discount, tax), couponStatus, demand,
+                taxRate, discountPercent, epoch);
+    }
+
+    static double round2(double v) {
+        return Math.round(v * 100.0) / 100.0;
+    }
+}
@@ -0,0 +1,147 @@
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of computed quotes. A quote depends only on the car's class and day rate,
+ * the period, the applied discount code, the demand multiplier and the pricing
+ * settings, so that is the key; the settings enter as CarRentalSystem's pricing
+ * version, which is bumped on every tax, coupon or data change. Stale entries are
+ * never matched again and age out of the LRU order. Entries also expire after the TTL.
+ *
+ * Not thread-safe: CarRentalSystem calls it while holding its own lock. The hit and
+ * miss counters can be read from any thread.
+ */
+class QuoteCache {
+    static final int DEFAULT_MAX_ENTRIES = 4096;
+    static final long DEFAULT_TTL_SECONDS = 300;
+
+    private static final class Key {
+        final Class<?> carClass;
+        final double dayRate;
+        final long startDay;
+        final int days;
+        final String discountCode;
+        final RedemptionStatus couponStatus;
+        final double demand;
+        final long pricingVersion;
+        final int hash;
+
+        Key(Car car, LocalDate start, int days, String discountCode, RedemptionStatus couponStatus, double demand, long pricingVersion) {
+            this.carClass = car.getClass();
+            this.dayRate = car.getBasePricePerDay();
+            this.startDay = start.toEpochDay();
+            this.days = days;
+            this.discountCode = discountCode;
+            this.couponStatus = couponStatus;
+            this.demand = demand;
+            this.pricingVersion = pricingVersion;
+            int h = carClass.hashCode();
+            h = 31 * h + Double.hashCode(dayRate);
+            h = 31 * h + Long.hashCode(startDay);
+            h = 31 * h + days;
+            h = 31 * h + (discountCode == null ? 0 : discountCode.hashCode());
+            h = 31 * h + (couponStatus == null ? 0 : couponStatus.ordinal() + 1);
+            h = 31 * h + Double.hashCode(demand);
+            this.hash = 31 * h + Long.hashCode(pricingVersion);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return hash == k.hash && startDay == k.startDay && days == k.days && pricingVersion == k.pricingVersion
+                    && carClass == k.carClass && dayRate == k.dayRate && demand == k.demand
+                    && couponStatus == k.couponStatus && Objects.equals(discountCode, k.discountCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Cached {
+        final Quote quote;
+        final long expiresAtNanos;
+
+        Cached(Quote quote, long expiresAtNanos) {
+            this.quote = quote;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final LinkedHashMap<Key, Cached> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long ttlNanos = DEFAULT_TTL_SECONDS * 1_000_000_000L;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public int getMaxEntries() { return maxEntries; }
+    public long getTtlSeconds() { return ttlNanos / 1_000_000_000L; }
+    public int size() { return entries.size(); }
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    // maxEntries 0 turns caching off
+    public void configure(int maxEntries, long ttlSeconds) {
+        if (maxEntries < 0 || ttlSeconds <= 0) throw new IllegalArgumentException("size must be >= 0 and ttl > 0");
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        trim();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public void resetCounters() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    // The cached quote for these inputs, or the one pricer computes (and caches)
+    public Quote lookup(Car car, LocalDate start, int days, String discountCode, RedemptionStatus couponStatus, double demand,
+                        long pricingVersion, Supplier<Quote> pricer) {
+        if (maxEntries == 0) return pricer.get();
+        Key key = new Key(car, start, days, discountCode, couponStatus, demand, pricingVersion);
+        long now = System.nanoTime();
+        Cached c = entries.get(key);
+        if (c != null && c.expiresAtNanos - now > 0) {
+            hits.increment();
+            return c.quote;
+        }
+        misses.increment();
+        Quote q = pricer.get();
+        entries.put(key, new Cached(q, now + ttlNanos));
+        trim();
+        return q;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Key, Cached>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public String describe() {
+        return String.format("Quote cache: %d/%d entries, ttl %ds, %d hits, %d misses (hit ratio %.1f%%), %d evicted",
+                entries.size(), maxEntries, getTtlSeconds(), hits.sum(), misses.sum(), 100.0 * getHitRatio(), evictions.sum());
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Cold tier for closed rentals. Rows keep the rentals.csv fields and are grouped by
+ * start month into columnar partitions (archive/rentals-YYYY-MM.rcol, see
+ * ColumnarRentalFile), so range queries skip months from the file name and footer and
+ * only decode the columns they ask for. A small manifest keeps per-month row counts and
+ * revenue so reports do not have to read the partitions at all. Gzip CSV segments
+ * written by earlier versions are still readable and are folded in on the next append.
+ */
+class RentalArchive {
+    static final int COL_RENTAL_ID = 0;
+    static final int COL_CUSTOMER_ID = 2;
+    static final int COL_START_DATE = 4;
+    static final int COL_TOTAL = 5;
+
+    private static final String PREFIX = "rentals-";
+    private static final String SUFFIX = ".rcol";
+    private static final String LEGACY_SUFFIX = ".csv.gz";
+
+    private final Path dir;
+    private final TreeMap<YearMonth, long[]> manifest = new TreeMap<>(); // month -> {rows, revenueCents, maxVersion}
+
+    RentalArchive(Path dir) throws IOException {
+        this.dir = dir;
+        loadManifest();
+    }
+
+    public Path getDir() { return dir; }
+
+    public long getRowCount() {
+        long n = 0;
+        for (long[] m : manifest.values()) n += m[0];
+        return n;
+    }
+
+    public double getRevenue() {
+        long cents = 0;
+        for (long[] m : manifest.values()) cents += m[1];
+        return cents / 100.0;
+    }
+
+    // Highest change version archived, overall or in one month; 0 for rows that predate versions
+    public synchronized long getMaxVersion() {
+        long max = 0;
+        for (long[] m : manifest.values()) max = Math.max(max, m[2]);
+        return max;
+    }
+
+    public synchronized long getMaxVersion(YearMonth month) {
+        long[] m = manifest.get(month);
+        return m == null ? 0 : m[2];
+    }
+
+    // Append rentals.csv-formatted rows; each touched month is rewritten to a temp file and swapped in
+    public synchronized void append(List<String> rows) throws IOException {
+        if (rows.isEmpty()) return;
+        Files.createDirectories(dir);
+        Map<YearMonth, List<String[]>> byMonth = new TreeMap<>();
+        for (String row : rows) {
+            String[] p = CarRentalSystem.splitCsv(row);
+            YearMonth month = YearMonth.from(LocalDate.parse(p[COL_START_DATE]));
+            byMonth.computeIfAbsent(month, k -> new ArrayList<>()).add(p);
+        }
+        for (Map.Entry<YearMonth, List<String[]>> e : byMonth.entrySet()) {
+            Path segment = segmentFile(e.getKey());
+            Path legacy = legacyFile(e.getKey());
+            List<String[]> merged = new ArrayList<>();
+            Set<String> existingIds = new HashSet<>();
+            Consumer<String[]> keep = p -> {
+                existingIds.add(p[COL_RENTAL_ID]);
+                merged.add(p);
+            };
+            if (Files.exists(segment)) ColumnarRentalFile.scan(segment, keep);
+            if (Files.exists(legacy)) scanLegacy(legacy, keep);
+            for (String[] p : e.getValue()) {
+                // a crash between archiving and rewriting rentals.csv can offer the same row twice
+                if (!existingIds.add(p[COL_RENTAL_ID])) continue;
+                merged.add(p);
+            }
+            ColumnarRentalFile.write(segment, merged);
+            Files.deleteIfExists(legacy);
+            // from all rows, not just the new ones: after a crash before saveManifest the
+            // partition already holds rows the manifest never counted
+            manifest.put(e.getKey(), totals(merged));
+        }
+        saveManifest();
+    }
+
+    // {rows, revenueCents, maxVersion} of one month's rows
+    private static long[] totals(List<String[]> rows) {
+        long[] totals = new long[3];
+        for (String[] p : rows) {
+            totals[0]++;
+            if (!p[COL_TOTAL].isEmpty()) totals[1] += Math.round(Double.parseDouble(p[COL_TOTAL]) * 100.0);
+            if (p.length > ColumnarRentalFile.COL_VERSION && !p[ColumnarRentalFile.COL_VERSION].isEmpty()) {
+                totals[2] = Math.max(totals[2], Long.parseLong(p[ColumnarRentalFile.COL_VERSION]));
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Visit archived rentals that may overlap [from, to] (null bounds are open).
+     * Only the listed columns are decoded (null = all); with filterColumn >= 0 the other
+     * columns are decoded only in partitions where some row passes the filter.
+     */
+    public void scan(LocalDate from, LocalDate to, int[] columns, int filterColumn, Predicate<String> filter,
+                     Consumer<String[]> visitor) throws IOException {
+        YearMonth last = to == null ? null : YearMonth.from(to);
+        for (YearMonth month : months()) {
+            if (last != null && month.isAfter(last)) continue;
+            Path segment = segmentFile(month);
+            if (Files.exists(segment)) {
+                if (!ColumnarRentalFile.readFooter(segment).overlaps(from, to)) continue;
+                ColumnarRentalFile.scan(segment, columns, filterColumn, filter, visitor);
+            }
+            Path legacy = legacyFile(month);
+            if (Files.exists(legacy)) {
+                scanLegacy(legacy, p -> {
+                    if (filterColumn < 0 || filter.test(p[filterColumn])) visitor.accept(p);
+                });
+            }
+        }
+    }
+
+    public void scanAll(Consumer<String[]> visitor) throws IOException {
+        scan(null, null, null, -1, null, visitor);
+    }
+
+    // Months with archived rows, oldest first; each can be scanned independently (and concurrently)
+    public List<YearMonth> getMonths() throws IOException {
+        return months();
+    }
+
+    public void scanMonth(YearMonth month, int[] columns, Consumer<String[]> visitor) throws IOException {
+        Path segment = segmentFile(month);
+        if (Files.exists(segment)) ColumnarRentalFile.scan(segment, columns, -1, null, visitor);
+        Path legacy = legacyFile(month);
+        if (Files.exists(legacy)) scanLegacy(legacy, visitor);
+    }
+
+    // Of the given rental ids (grouped by start month), the ones some partition already holds
+    public Set<String> findArchived(Map<YearMonth, Set<String>> idsByMonth) throws IOException {
+        Set<String> found = new HashSet<>();
+        int[] idOnly = {COL_RENTAL_ID};
+        for (Map.Entry<YearMonth, Set<String>> e : idsByMonth.entrySet()) {
+            Set<String> ids = e.getValue();
+            scanMonth(e.getKey(), idOnly, p -> {
+                if (ids.contains(p[COL_RENTAL_ID])) found.add(p[COL_RENTAL_ID]);
+            });
+        }
+        return found;
+    }
+
+    // The month decoded into primitive columns (see ColumnarRentalFile.Columns), in scanMonth row order
+    public List<ColumnarRentalFile.Columns> readMonth(YearMonth month, int[] columns) throws IOException {
+        List<ColumnarRentalFile.Columns> blocks = new ArrayList<>();
+        Path segment = segmentFile(month);
+        if (Files.exists(segment)) blocks.add(ColumnarRentalFile.readColumns(segment, columns));
+        Path legacy = legacyFile(month);
+        if (Files.exists(legacy)) {
+            List<String[]> rows = new ArrayList<>();
+            scanLegacy(legacy, rows::add);
+            blocks.add(ColumnarRentalFile.toColumns(rows, columns));
+        }
+        return blocks;
+    }
+
+    private void scanLegacy(Path file, Consumer<String[]> visitor) throws IOException {
+        try (BufferedReader br = gzipReader(file)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                visitor.accept(CarRentalSystem.splitCsv(line));
+            }
+        }
+    }
+
+    private List<YearMonth> months() throws IOException {
+        Set<YearMonth> result = new TreeSet<>();
+        if (!Files.isDirectory(dir)) return new ArrayList<>(result);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIX + "*")) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                String suffix = name.endsWith(SUFFIX) ? SUFFIX : name.endsWith(LEGACY_SUFFIX) ? LEGACY_SUFFIX : null;
+                if (suffix == null) continue;
+                result.add(YearMonth.parse(name.substring(PREFIX.length(), name.length() - suffix.length())));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private Path legacyFile(YearMonth month) {
+        return dir.resolve(PREFIX + month + LEGACY_SUFFIX);
+    }
+
+    private Path segmentFile(YearMonth month) {
+        return dir.resolve(PREFIX + month + SUFFIX);
+    }
+
+    /**
+     * Read handles on the manifest and every partition, opened between appends. Both are only
+     * ever replaced by rename, so the handles keep reading this version while later appends
+     * go on; the caller copies from them and closes them.
+     */
+    public synchronized Map<String, FileChannel> openFiles() throws IOException {
+        Map<String, FileChannel> files = new TreeMap<>();
+        if (!Files.isDirectory(dir)) return files;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir,
+                f -> Files.isRegularFile(f) && !f.getFileName().toString().endsWith(".tmp"))) {
+            for (Path f : ds) files.put(f.getFileName().toString(), FileChannel.open(f, StandardOpenOption.READ));
+        } catch (IOException | RuntimeException e) {
+            for (FileChannel ch : files.values()) {
+                try {
+                    ch.close();
+                } catch (IOException ignore) {}
+            }
+            throw e;
+        }
+        return files;
+    }
+
+    // manifest.csv: month,rows,revenueCents,maxVersion (older manifests stop at revenueCents)
+    private void loadManifest() throws IOException {
+        Path file = dir.resolve("manifest.csv");
+        if (!Files.exists(file)) return;
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] p = line.split(",");
+                if (p.length < 3) continue;
+                try {
+                    manifest.put(YearMonth.parse(p[0]), new long[]{Long.parseLong(p[1]), Long.parseLong(p[2]), p.length > 3 ? Long.parseLong(p[3]) : 0});
+                } catch (RuntimeException ignore) {}
+            }
+        }
+    }
+
+    private void saveManifest() throws IOException {
+        Path tmp = dir.resolve("manifest.csv.tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp)) {
+            for (Map.Entry<YearMonth, long[]> e : manifest.entrySet()) {
+                bw.write(e.getKey() + "," + e.getValue()[0] + "," + e.getValue()[1] + "," + e.getValue()[2]);
+                bw.newLine();
+            }
+        }
+        Files.move(tmp, dir.resolve("manifest.csv"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static BufferedReader gzipReader(Path file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+enum BatchCommandType { CAR, CUSTOMER, BOOK, EXTEND, RETURN }
+
+// One parsed line of a batch file; error is set instead of the fields when the line did not parse
+class BatchCommand {
+    final long line;
+    final BatchCommandType type;
+    final String[] args;
+    final int days;
+    final PaymentMethod method;
+    final double price;
+    final LocalDate startDate;
+    final String error;
+
+    BatchCommand(long line, BatchCommandType type, String[] args, int days, PaymentMethod method, double price, LocalDate startDate) {
+        this.line = line;
+        this.type = type;
+        this.args = args;
+        this.days = days;
+        this.method = method;
+        this.price = price;
+        this.startDate = startDate;
+        this.error = null;
+    }
+
+    BatchCommand(long line, String error) {
+        this.line = line;
+        this.type = null;
+        this.args = null;
+        this.days = 0;
+        this.method = null;
+        this.price = 0;
+        this.startDate = null;
+        this.error = error;
+    }
+}
+
+/**
+ * Non-interactive driver that streams a command file through CarRentalSystem.
+ * A reader thread parses and validates lines into chunks while the calling thread
+ * executes the previous chunk, so file I/O and parsing overlap with booking work.
+ * One command per line, CSV quoted like the data files; blank lines and # comments are skipped:
+ *
+ *   car,<id>,<type>,<brand>,<model>,<pricePerDay>        type: Car|EconomyCar|SuvCar|LuxuryCar
+ *   customer,<id>,<name>                                 empty id registers the next CUS id
+ *   book,<carId>,<customerId>,<days>,<CASH|CARD>[,<coupon>[,<yyyy-MM-dd>]]
+ *   extend,<rentalId|carId>,<extraDays>,<CASH|CARD>
+ *   return,<carId>,<actualDays>,<CASH|CARD>
+ */
+class RentalBatchRunner {
+    private static final int CHUNK = 512;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final List<BatchCommand> END = new ArrayList<>();
+
+    private final CarRentalSystem system;
+    private final Map<BatchCommandType, long[]> counts = new EnumMap<>(BatchCommandType.class); // type -> {ok, failed}
+    private final List<String> errors = new ArrayList<>();
+    private long errorCount = 0;
+    private long commands = 0;
+
+    RentalBatchRunner(CarRentalSystem system) {
+        this.system = system;
+        for (BatchCommandType t : BatchCommandType.values()) counts.put(t, new long[2]);
+    }
+
+    public long getCommandCount() { return commands; }
+    public long getErrorCount() { return errorCount; }
+
+    public void run(Path file) throws IOException, InterruptedException {
+        BlockingQueue<List<BatchCommand>> queue = new ArrayBlockingQueue<>(8);
+        IOException[] readFailure = new IOException[1];
+        Thread reader = new Thread(() -> {
+            try {
+                readInto(file, queue);
+            } catch (IOException e) {
+                readFailure[0] = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException ignore) {}
+            }
+        }, "batch-reader");
+        reader.setDaemon(true);
+
+        long t0 = System.nanoTime();
+        reader.start();
+        List<BatchCommand> chunk;
+        while ((chunk = queue.take()) != END) {
+            for (BatchCommand c : chunk) execute(c);
+        }
+        reader.join();
+        long elapsed = System.nanoTime() - t0;
+        if (readFailure[0] != null) throw readFailure[0];
+        printSummary(file, elapsed);
+    }
+
+    private void readInto(Path file, BlockingQueue<List<BatchCommand>> queue) throws IOException, InterruptedException {
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            List<BatchCommand> chunk = new ArrayList<>(CHUNK);
+            String line;
+            long lineNo = 0;
+            while ((line = br.readLine()) != null) {
+                lineNo++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+                chunk.add(parse(lineNo, trimmed));
+                if (chunk.size() == CHUNK) {
+                    queue.put(chunk);
+                    chunk = new ArrayList<>(CHUNK);
+                }
+            }
+            if (!chunk.isEmpty()) queue.put(chunk);
+        }
+    }
+
+    static BatchCommand parse(long lineNo, String line) {
+        String[] p = CarRentalSystem.splitCsv(line);
+        BatchCommandType type;
+        try {
+            type = BatchCommandType.valueOf(p[0].trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return new BatchCommand(lineNo, "unknown command '" + p[0].trim() + "'");
+        }
+        for (int i = 1; i < p.length; i++) p[i] = p[i].trim();
+        try {
+            switch (type) {
+                case CAR:
+                    if (p.length < 6) return new BatchCommand(lineNo, "car needs id,type,brand,model,price");
+                    double price = Double.parseDouble(p[5]);
+                    if (price <= 0) return new BatchCommand(lineNo, "price must be positive");
+                    return new BatchCommand(lineNo, type, p, 0, null, price, null);
+                case CUSTOMER:
+                    if (p.length < 3 || p[2].isEmpty()) return new BatchCommand(lineNo, "customer needs id,name");
+                    return new BatchCommand(lineNo, type, p, 0, null, 0, null);
+                case BOOK:
+                    if (p.length < 5) return new BatchCommand(lineNo, "book needs carId,customerId,days,method");
+                    LocalDate start = p.length > 6 && !p[6].isEmpty() ? LocalDate.parse(p[6]) : null;
+                    return new BatchCommand(lineNo, type, p, positiveDays(p[3]), PaymentMethod.valueOf(p[4].toUpperCase()), 0, start);
+                default: // EXTEND, RETURN
+                    if (p.length < 4) return new BatchCommand(lineNo, type.name().toLowerCase() + " needs id,days,method");
+                    return new BatchCommand(lineNo, type, p, positiveDays(p[2]), PaymentMethod.valueOf(p[3].toUpperCase()), 0, null);
+            }
+        } catch (NumberFormatException e) {
+            return new BatchCommand(lineNo, "bad number: " + e.getMessage());
+        } catch (DateTimeParseException e) {
+            return new BatchCommand(lineNo, "bad date: " + e.getParsedString());
+        } catch (IllegalArgumentException e) {
+            return new BatchCommand(lineNo, "payment method must be CASH or CARD");
+        }
+    }
+
+    private static int positiveDays(String s) {
+        int days = Integer.parseInt(s);
+        if (days <= 0) throw new NumberFormatException("days must be positive");
+        return days;
+    }
+
+    private void execute(BatchCommand c) {
+        commands++;
+        if (c.error != null) {
+            error(c.line, c.error);
+            return;
+        }
+        String failure = null;
+        String[] p = c.args;
+        switch (c.type) {
+            case CAR:
+                if (system.findCarById(p[1]) != null) {
+                    failure = "duplicate car id " + p[1];
+                } else {
+                    system.addCar(CarRentalSystem.createCarFromRecord(p[1], p[2], p[3], p[4], c.price));
+                }
+                break;
+            case CUSTOMER:
+                if (p[1].isEmpty()) {
+                    system.registerCustomer(p[2]);
+                } else if (system.findCustomerById(p[1]) != null) {
+                    failure = "duplicate customer id " + p[1];
+                } else {
+                    system.addCustomer(new Customer(p[1], p[2]));
+                }
+                break;
+            case BOOK: {
+                Car car = system.findCarById(p[1]);
+                Customer customer = system.findCustomerById(p[2]);
+                if (car == null) {
+                    failure = "unknown car " + p[1];
+                } else if (customer == null) {
+                    failure = "unknown customer " + p[2];
+                } else {
+                    String coupon = p.length > 5 && !p[5].isEmpty() ? p[5] : null;
+                    LocalDate start = c.startDate != null ? c.startDate : LocalDate.now();
+                    if (system.rentCar(car, customer, c.days, c.method, coupon, start) == null) failure = system.getLastFailure();
+                }
+                break;
+            }
+            case EXTEND: {
+                // Rental ids depend on what was booked before, so the car being extended is accepted too
+                String rentalId = p[1];
+                if (system.findActiveRentalById(rentalId) == null) {
+                    Car car = system.findCarById(p[1]);
+                    Rental active = car == null ? null : system.findActiveRentalByCar(car);
+                    if (active != null) rentalId = active.getRentalId();
+                }
+                if (system.extendRental(rentalId, c.days, c.method) == null) failure = system.getLastFailure();
+                break;
+            }
+            case RETURN: {
+                Car car = system.findCarById(p[1]);
+                if (car == null) {
+                    failure = "unknown car " + p[1];
+                } else if (system.finalizeReturn(car, c.days, c.method) == null) {
+                    failure = system.getLastFailure();
+                }
+                break;
+            }
+            default: break;
+        }
+        counts.get(c.type)[failure == null ? 0 : 1]++;
+        if (failure != null) error(c.line, failure);
+    }
+
+    private void error(long line, String message) {
+        errorCount++;
+        if (errors.size() < MAX_REPORTED_ERRORS) errors.add("line " + line + ": " + message);
+    }
+
+    private void printSummary(Path file, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("\n== Batch " + file.getFileName() + " ==");
+        System.out.printf("%d commands in %.3fs (%.0f/s), %d errors%n", commands, seconds,
+                seconds > 0 ? commands / seconds : 0.0, errorCount);
+        for (Map.Entry<BatchCommandType, long[]> e : counts.entrySet()) {
+            long[] n = e.getValue();
+            if (n[0] + n[1] == 0) continue;
+            System.out.printf("  %-9s ok %d, failed %d%n", e.getKey().name().toLowerCase(), n[0], n[1]);
+        }
+        for (String err : errors) System.out.println("  " + err);
+        if (errorCount > errors.size()) System.out.println("  ... " + (errorCount - errors.size()) + " more errors");
+    }
+}
@@ -0,0 +1,372 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+enum RentalEventType { RENTAL_CREATED, RENTAL_EXTENDED, RENTAL_RETURNED, PAYMENT_CAPTURED, RENTAL_DUE_SOON, RENTAL_OVERDUE }
+
+/**
+ * Base for all lifecycle events. Rental fields are copied at publish time because
+ * the Rental itself keeps changing; getRental() is for identity lookups only.
+ */
+abstract class RentalEvent {
+    private final long timestampMillis;
+    private final Rental rental;
+    private final String rentalId;
+    private final String carId;
+    private final String customerId;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+    private final int days;
+    private final double totalCost;
+
+    protected RentalEvent(Rental rental) {
+        this.timestampMillis = System.currentTimeMillis();
+        this.rental = rental;
+        this.rentalId = rental.getRentalId();
+        this.carId = rental.getCar().getCarId();
+        this.customerId = rental.getCustomer().getCustomerId();
+        this.startDate = rental.getStartDate();
+        this.endDate = rental.getEndDate();
+        this.days = rental.getDays();
+        this.totalCost = rental.getTotalCost();
+    }
+
+    public abstract RentalEventType getType();
+
+    public long getTimestampMillis() { return timestampMillis; }
+    public Rental getRental() { return rental; }
+    public String getRentalId() { return rentalId; }
+    public String getCarId() { return carId; }
+    public String getCustomerId() { return customerId; }
+    public LocalDate getStartDate() { return startDate; }
+    public LocalDate getEndDate() { return endDate; }
+    public int getDays() { return days; }
+    public double getTotalCost() { return totalCost; }
+
+    @Override
+    public String toString() {
+        return getType() + "{" + rentalId + ", car=" + carId + ", customer=" + customerId +
+                ", " + startDate + ".." + endDate + ", " + days + " days, $" + String.format("%.2f", totalCost) + "}";
+    }
+}
+
+class RentalCreated extends RentalEvent {
+    RentalCreated(Rental rental) { super(rental); }
+    @Override public RentalEventType getType() { return RentalEventType.RENTAL_CREATED; }
+}
+
+class RentalExtended extends RentalEvent {
+    private final int extraDays;
+    private final double additionalAmount;
+
+    RentalExtended(Rental rental, int extraDays, double additionalAmount) {
+        super(rental);
+        this.extraDays = extraDays;
+        this.additionalAmount = additionalAmount;
+    }
+
+    public int getExtraDays() { return extraDays; }
+    public double getAdditionalAmount() { return additionalAmount; }
+    @Override public RentalEventType getType() { return RentalEventType.RENTAL_EXTENDED; }
+}
+
+class RentalReturned extends RentalEvent {
+    private final int actualDays;
+
+    RentalReturned(Rental rental, int actualDays) {
+        super(rental);
+        this.actualDays = actualDays;
+    }
+
+    public int getActualDays() { return actualDays; }
+    @Override public RentalEventType getType() { return RentalEventType.RENTAL_RETURNED; }
+}
+
+class PaymentCaptured extends RentalEvent {
+    private final String paymentId;
+    private final double amount;
+    private final PaymentMethod method;
+
+    PaymentCaptured(Rental rental, Payment payment) {
+        super(rental);
+        this.paymentId = payment.getPaymentId();
+        this.amount = payment.getAmount();
+        this.method = payment.getMethod();
+    }
+
+    public String getPaymentId() { return paymentId; }
+    public double getAmount() { return amount; }
+    public PaymentMethod getMethod() { return method; }
+    @Override public RentalEventType getType() { return RentalEventType.PAYMENT_CAPTURED; }
+
+    @Override
+    public String toString() {
+        return super.toString() + " payment=" + paymentId + " " + method + String.format(" $%.2f", amount);
+    }
+}
+
+class RentalDueSoon extends RentalEvent {
+    RentalDueSoon(Rental rental) { super(rental); }
+    @Override public RentalEventType getType() { return RentalEventType.RENTAL_DUE_SOON; }
+}
+
+class RentalOverdue extends RentalEvent {
+    private final long daysOverdue;
+
+    RentalOverdue(Rental rental, LocalDate today) {
+        super(rental);
+        this.daysOverdue = ChronoUnit.DAYS.between(rental.getEndDate(), today);
+    }
+
+    public long getDaysOverdue() { return daysOverdue; }
+    @Override public RentalEventType getType() { return RentalEventType.RENTAL_OVERDUE; }
+
+    @Override
+    public String toString() {
+        return super.toString() + " overdue " + daysOverdue + " days";
+    }
+}
+
+// Subscribers are called on their own consumer thread, never on the booking thread.
+// They must not call back into CarRentalSystem mutators (the publisher may be waiting on them).
+interface RentalEventListener {
+    void onEvent(RentalEvent event, boolean endOfBatch);
+}
+
+/**
+ * Bounded multi-producer ring buffer with one consumer thread per subscriber.
+ * Producers claim a sequence with a single CAS and only wait when the slowest
+ * subscriber is a full ring behind; consumers drain everything published so far
+ * as one batch, so a slow journal naturally batches its writes.
+ *
+ * Without subscribers publish returns at once and no thread runs. Slots are nulled
+ * once every subscriber has consumed them, so the ring does not keep old rentals
+ * reachable.
+ */
+class RentalEventBus {
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+
+    private final RentalEvent[] ring;
+    private final int mask;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLong cleared = new AtomicLong(-1); // slots up to here are consumed by all subscribers and nulled
+    private final AtomicBoolean clearing = new AtomicBoolean();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    RentalEventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new RentalEvent[size];
+        mask = size - 1;
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) published.set(i, -1);
+    }
+
+    RentalEventBus() {
+        this(8192);
+    }
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    public void publish(RentalEvent event) {
+        if (subscribers.isEmpty()) return;
+        long seq = claimed.incrementAndGet();
+        long wrapPoint = seq - ring.length;
+        int spins = 0;
+        while (wrapPoint > cleared.get()) {
+            clearConsumed(); // a consumer that went idle may not have cleared its last batch
+            spins = backOff(spins);
+        }
+        int slot = (int) (seq & mask);
+        ring[slot] = event;
+        published.set(slot, seq);
+    }
+
+    // Subscriber sees every event published after this call
+    public synchronized void subscribe(String name, RentalEventListener listener) {
+        Subscriber s = new Subscriber(name, listener, claimed.get());
+        subscribers.add(s);
+        s.thread.start();
+    }
+
+    public synchronized void unsubscribe(RentalEventListener listener) {
+        for (Subscriber s : subscribers) {
+            if (s.listener == listener) {
+                subscribers.remove(s);
+                s.stop();
+            }
+        }
+    }
+
+    // Drain outstanding events and stop all consumer threads
+    public synchronized void close() {
+        for (Subscriber s : subscribers) s.stop();
+        subscribers.clear();
+    }
+
+    public long lag(RentalEventListener listener) {
+        for (Subscriber s : subscribers) {
+            if (s.listener == listener) return claimed.get() - s.sequence.get();
+        }
+        return 0;
+    }
+
+    private long slowestSubscriber(long fallback) {
+        long min = fallback;
+        for (Subscriber s : subscribers) {
+            min = Math.min(min, s.sequence.get());
+        }
+        return min;
+    }
+
+    // One thread clears at a time; producers only reuse slots at or below cleared
+    private void clearConsumed() {
+        if (!clearing.compareAndSet(false, true)) return;
+        try {
+            long from = cleared.get();
+            long to = slowestSubscriber(claimed.get());
+            for (long seq = Math.max(from + 1, to - mask); seq <= to; seq++) ring[(int) (seq & mask)] = null;
+            if (to > from) cleared.set(to);
+        } finally {
+            clearing.set(false);
+        }
+    }
+
+    private static int backOff(int spins) {
+        if (spins < 100) {
+            Thread.onSpinWait();
+        } else if (spins < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000L);
+        }
+        return spins + 1;
+    }
+
+    private class Subscriber implements Runnable {
+        final String name;
+        final RentalEventListener listener;
+        final AtomicLong sequence; // last consumed
+        final Thread thread;
+        volatile boolean running = true;
+
+        Subscriber(String name, RentalEventListener listener, long startAfter) {
+            this.name = name;
+            this.listener = listener;
+            this.sequence = new AtomicLong(startAfter);
+            this.thread = new Thread(this, "rental-events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                long next = sequence.get() + 1;
+                long last = next - 1;
+                while (last - next + 1 < MAX_BATCH && published.get((int) ((last + 1) & mask)) == last + 1) {
+                    last++;
+                }
+                if (last < next) {
+                    if (!running && next > claimed.get()) return;
+                    // a long-idle consumer parks longer, so many buses (one per branch) do not keep a core busy
+                    if (idle >= 1000) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    } else {
+                        idle = backOff(idle);
+                    }
+                    continue;
+                }
+                idle = 0;
+                for (long seq = next; seq <= last; seq++) {
+                    RentalEvent event = ring[(int) (seq & mask)];
+                    try {
+                        listener.onEvent(event, seq == last);
+                    } catch (RuntimeException e) {
+                        System.out.println("Event subscriber " + name + " failed on " + event.getType() + ": " + e.getMessage());
+                    }
+                }
+                sequence.set(last);
+                clearConsumed();
+            }
+        }
+
+        void stop() {
+            running = false;
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
+
+// Running lifecycle totals fed from the event stream
+class RentalAggregates implements RentalEventListener {
+    private final LongAdder created = new LongAdder();
+    private final LongAdder extended = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final LongAdder payments = new LongAdder();
+    private final LongAdder capturedCents = new LongAdder();
+
+    @Override
+    public void onEvent(RentalEvent event, boolean endOfBatch) {
+        switch (event.getType()) {
+            case RENTAL_CREATED: created.increment(); break;
+            case RENTAL_EXTENDED: extended.increment(); break;
+            case RENTAL_RETURNED: returned.increment(); break;
+            case PAYMENT_CAPTURED:
+                payments.increment();
+                capturedCents.add(Math.round(((PaymentCaptured) event).getAmount() * 100.0));
+                break;
+            default: break;
+        }
+    }
+
+    public long getCreated() { return created.sum(); }
+    public long getExtended() { return extended.sum(); }
+    public long getReturned() { return returned.sum(); }
+    public long getPayments() { return payments.sum(); }
+    public double getCapturedAmount() { return capturedCents.sum() / 100.0; }
+}
+
+// Appends one line per event; flushes once per batch rather than per event
+class RentalEventJournal implements RentalEventListener {
+    private final BufferedWriter out;
+    private final Path file;
+
+    RentalEventJournal(Path file) throws IOException {
+        this.file = file;
+        this.out = Files.newBufferedWriter(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void onEvent(RentalEvent event, boolean endOfBatch) {
+        try {
+            out.write(event.getTimestampMillis() + " " + event);
+            out.newLine();
+            if (endOfBatch) out.flush();
+        } catch (IOException e) {
+            System.out.println("Failed to write event journal " + file + ": " + e.getMessage());
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,687 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Streaming JSON writer: values go straight to the underlying Writer, nothing is buffered per document
+class JsonWriter {
+    private final Writer out;
+    private final boolean[] hasItems = new boolean[32];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException { return open('{'); }
+    public JsonWriter endObject() throws IOException { return close('}'); }
+    public JsonWriter beginArray() throws IOException { return open('['); }
+    public JsonWriter endArray() throws IOException { return close(']'); }
+
+    public JsonWriter name(String name) throws IOException {
+        separator();
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String v) throws IOException {
+        separator();
+        if (v == null) {
+            out.write("null");
+        } else {
+            string(v);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long v) throws IOException {
+        separator();
+        out.write(Long.toString(v));
+        return this;
+    }
+
+    public JsonWriter value(double v) throws IOException {
+        separator();
+        out.write(Double.isFinite(v) ? Double.toString(v) : "null");
+        return this;
+    }
+
+    // A number already formatted by Long.toString or Double.toString (finite values only)
+    public JsonWriter number(String v) throws IOException {
+        separator();
+        out.write(v);
+        return this;
+    }
+
+    public JsonWriter value(boolean v) throws IOException {
+        separator();
+        out.write(v ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter field(String name, String v) throws IOException { return name(name).value(v); }
+    public JsonWriter field(String name, long v) throws IOException { return name(name).value(v); }
+    public JsonWriter field(String name, double v) throws IOException { return name(name).value(v); }
+    public JsonWriter field(String name, boolean v) throws IOException { return name(name).value(v); }
+
+    private JsonWriter open(char c) throws IOException {
+        separator();
+        out.write(c);
+        hasItems[++depth] = false;
+        return this;
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        out.write(c);
+        depth--;
+        return this;
+    }
+
+    private void separator() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasItems[depth]) out.write(',');
+            hasItems[depth] = true;
+        }
+    }
+
+    // Characters that need no escaping go out in runs, one write per run rather than per char
+    private void string(String s) throws IOException {
+        out.write('"');
+        int run = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x20 && ch != '"' && ch != '\\') continue;
+            out.write(s, run, i - run);
+            run = i + 1;
+            switch (ch) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default: out.write(String.format("\\u%04x", (int) ch));
+            }
+        }
+        out.write(s, run, s.length() - run);
+        out.write('"');
+    }
+}
+
+/**
+ * HTTP/JSON front end over CarRentalSystem using the JDK's built-in server.
+ * Every exchange runs on its own virtual thread; responses are chunked and
+ * serialized straight onto the socket.
+ *
+ *   GET  /cars?available=true&q=toyota        search the fleet
+ *   GET  /cars?brand=Toyota&model=Camry       exact brand and/or model, any case
+ *   POST /cars?carId=&type=&brand=&model=&pricePerDay=&branch=
+ *   GET  /quote?carId=&days=&coupon=&customerId=
+ *   POST /book?carId=&days=&method=&coupon=&customerId=|name=
+ *   POST /extend?rentalId=&days=&method=
+ *   POST /return?carId=&days=&method=
+ *   GET  /history?customerId=
+ *   GET  /report
+ *   GET  /branches, POST /branches?code=     branch mode only
+ * POST parameters may also be sent as an application/x-www-form-urlencoded body.
+ * POSTs take an Idempotency-Key header (or idempotencyKey parameter): a retry with the
+ * same key gets the original outcome instead of booking or charging again.
+ * On a read-only replica every POST is answered with 503.
+ *
+ * Served over a BranchRouter, car operations go to the car's branch and rental
+ * operations to the branch in the rental id's prefix; searches, history and the
+ * report cover every branch, and cars carry their branch code.
+ */
+class RentalHttpServer {
+    private final CarRentalSystem system; // null when serving branches
+    private final BranchRouter router;    // null when serving one system
+    private HttpServer server;
+    private ExecutorService executor;
+
+    RentalHttpServer(CarRentalSystem system) {
+        this.system = system;
+        this.router = null;
+    }
+
+    RentalHttpServer(BranchRouter router) {
+        this.system = null;
+        this.router = router;
+    }
+
+    public void start(int port) throws IOException {
+        // Small chunked responses otherwise stall on Nagle + delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 4096);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/cars", exchange -> dispatch(exchange, "POST".equals(exchange.getRequestMethod()) ? "POST" : "GET",
+                "POST".equals(exchange.getRequestMethod()) ? this::addCar : this::cars));
+        server.createContext("/quote", get(this::quote));
+        server.createContext("/book", post(this::book));
+        server.createContext("/extend", post(this::extend));
+        server.createContext("/return", post(this::returnCar));
+        server.createContext("/history", get(this::history));
+        server.createContext("/report", get(this::report));
+        server.createContext("/branches", exchange -> dispatch(exchange, "POST".equals(exchange.getRequestMethod()) ? "POST" : "GET",
+                "POST".equals(exchange.getRequestMethod()) ? this::addBranch : this::branches));
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private interface Endpoint {
+        void handle(Map<String, String> params, Response response) throws IOException;
+    }
+
+    // Collects the status and writes the body through a JsonWriter once the endpoint starts responding
+    private static class Response {
+        private final HttpExchange exchange;
+        private Writer writer;
+
+        Response(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        JsonWriter begin(int status) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, 0);
+            writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 8192);
+            return new JsonWriter(writer);
+        }
+
+        void error(int status, String message) throws IOException {
+            begin(status).beginObject().field("error", message).endObject();
+        }
+
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.close();
+            } else {
+                exchange.close();
+            }
+        }
+    }
+
+    private HttpHandler get(Endpoint endpoint) {
+        return exchange -> dispatch(exchange, "GET", endpoint);
+    }
+
+    private HttpHandler post(Endpoint endpoint) {
+        return exchange -> dispatch(exchange, "POST", endpoint);
+    }
+
+    private void dispatch(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        Response response = new Response(exchange);
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                response.error(405, "Use " + method);
+                return;
+            }
+            if ("POST".equals(method) && system != null && system.isReadOnly()) {
+                response.error(503, "Read-only replica; send changes to the leader");
+                return;
+            }
+            Map<String, String> params = params(exchange);
+            String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+            if (idempotencyKey != null && !idempotencyKey.isBlank()) params.put("idempotencyKey", idempotencyKey.trim());
+            endpoint.handle(params, response);
+        } catch (IllegalArgumentException e) {
+            response.error(400, e.getMessage());
+        } finally {
+            response.finish();
+        }
+    }
+
+    // Routing: the one system, or the branch that owns the car or rental (null if none does)
+
+    private CarRentalSystem systemForCar(String carId) {
+        return router == null ? system : router.branchForCar(carId);
+    }
+
+    private CarRentalSystem systemForRental(String rentalId) {
+        return router == null ? system : router.branchForRental(rentalId);
+    }
+
+    // Endpoints
+
+    private void cars(Map<String, String> params, Response response) throws IOException {
+        boolean availableOnly = Boolean.parseBoolean(params.getOrDefault("available", "false"));
+        String q = params.getOrDefault("q", "").trim();
+        CarSpec.Search search = q.isEmpty() ? null : CarSpec.search(q);
+        // unknown brand or model: code -1 never matches a car
+        int brand = params.containsKey("brand") ? CarSpec.brandCode(params.get("brand")) : -2;
+        int model = params.containsKey("model") ? CarSpec.modelCode(params.get("model")) : -2;
+        JsonWriter json = response.begin(200).beginArray();
+        for (String branch : router == null ? java.util.Collections.<String>singletonList(null) : router.getBranchCodes()) {
+            for (Car car : (branch == null ? system : router.getBranch(branch)).getCars()) {
+                if (availableOnly && !car.isAvailable()) continue;
+                if (brand != -2 && car.getSpec().getBrandCode() != brand) continue;
+                if (model != -2 && car.getSpec().getModelCode() != model) continue;
+                if (search != null && !search.test(car)) continue;
+                writeCar(json, car, branch);
+            }
+        }
+        json.endArray();
+    }
+
+    private void addCar(Map<String, String> params, Response response) throws IOException {
+        String carId = requiredParam(params, "carId");
+        String type = params.getOrDefault("type", "Car").trim();
+        String brand = requiredParam(params, "brand");
+        String model = requiredParam(params, "model");
+        double price = positiveDoubleParam(params, "pricePerDay");
+        CarRentalSystem target;
+        if (router == null) {
+            target = system;
+        } else {
+            String branch = requiredParam(params, "branch");
+            target = router.getBranch(branch);
+            if (target == null) {
+                response.error(404, "Branch not found");
+                return;
+            }
+        }
+        if (systemForCar(carId) != null && systemForCar(carId).findCarById(carId) != null) {
+            response.error(409, "Car id already used");
+            return;
+        }
+        Car car = CarRentalSystem.createCarFromRecord(carId.trim(), type, brand.trim(), model.trim(), price);
+        if (router == null) {
+            system.addCar(car);
+        } else {
+            router.addCar(params.get("branch"), car);
+        }
+        JsonWriter json = response.begin(200);
+        writeCar(json, car, router == null ? null : BranchRouter.normalizeCode(params.get("branch")));
+    }
+
+    private void branches(Map<String, String> params, Response response) throws IOException {
+        if (router == null) {
+            response.error(404, "Not serving branches");
+            return;
+        }
+        JsonWriter json = response.begin(200).beginArray();
+        for (Map.Entry<String, FleetReport> e : router.branchReports().entrySet()) {
+            json.beginObject().field("code", e.getKey());
+            writeReport(json, e.getValue());
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private void addBranch(Map<String, String> params, Response response) throws IOException {
+        if (router == null) {
+            response.error(404, "Not serving branches");
+            return;
+        }
+        String code = BranchRouter.normalizeCode(requiredParam(params, "code"));
+        router.addBranch(code);
+        JsonWriter json = response.begin(200).beginObject().field("code", code);
+        writeReport(json, router.getBranch(code).report());
+        json.endObject();
+    }
+
+    private void quote(Map<String, String> params, Response response) throws IOException {
+        CarRentalSystem sys = systemForCar(params.get("carId"));
+        Car car = requireCar(sys, params, response);
+        if (car == null) return;
+        int days = intParam(params, "days");
+        Quote q = sys.quote(car, LocalDate.now(), days, params.get("coupon"), params.get("customerId"));
+        JsonWriter json = response.begin(200).beginObject()
+                .field("carId", car.getCarId())
+                .field("days", days);
+        writeQuote(json, q);
+        json.endObject();
+    }
+
+    private void book(Map<String, String> params, Response response) throws IOException {
+        CarRentalSystem sys = systemForCar(params.get("carId"));
+        Car car = requireCar(sys, params, response);
+        if (car == null) return;
+        int days = intParam(params, "days");
+        PaymentMethod method = methodParam(params);
+        String idempotencyKey = params.get("idempotencyKey");
+        Rental rental;
+        if (params.containsKey("customerId")) {
+            Customer customer = router == null ? system.findCustomerById(params.get("customerId")) : router.findCustomerById(params.get("customerId"));
+            if (customer == null) {
+                response.error(404, "Customer not found");
+                return;
+            }
+            if (router != null) customer = sys.addCustomerIfAbsent(customer);
+            rental = sys.rentCar(car, customer, days, method, params.get("coupon"), LocalDate.now(), idempotencyKey);
+        } else {
+            String name = params.get("name");
+            if (name == null || name.trim().isEmpty()) throw new IllegalArgumentException("customerId or name is required");
+            // a retried booking must not register the walk-in customer a second time
+            Function<String, Customer> register = router == null
+                    ? system::registerCustomer
+                    : n -> sys.addCustomerIfAbsent(router.registerCustomer(n));
+            rental = sys.rentCarForWalkIn(car, name, register, days, method, params.get("coupon"), LocalDate.now(), idempotencyKey);
+        }
+        writeOutcome(response, sys, rental);
+    }
+
+    private void extend(Map<String, String> params, Response response) throws IOException {
+        String rentalId = params.get("rentalId");
+        if (rentalId == null) throw new IllegalArgumentException("rentalId is required");
+        CarRentalSystem sys = systemForRental(rentalId);
+        if (sys == null) {
+            response.error(404, "Rental not found");
+            return;
+        }
+        Rental rental = sys.extendRental(rentalId, intParam(params, "days"), methodParam(params), params.get("idempotencyKey"));
+        writeOutcome(response, sys, rental);
+    }
+
+    private void returnCar(Map<String, String> params, Response response) throws IOException {
+        CarRentalSystem sys = systemForCar(params.get("carId"));
+        Car car = requireCar(sys, params, response);
+        if (car == null) return;
+        Rental rental = sys.finalizeReturn(car, intParam(params, "days"), methodParam(params), params.get("idempotencyKey"));
+        writeOutcome(response, sys, rental);
+    }
+
+    private void history(Map<String, String> params, Response response) throws IOException {
+        String customerId = params.get("customerId");
+        List<Rental> history = router == null ? system.getRentalHistory(customerId) : router.getRentalHistory(customerId);
+        if (history == null) {
+            response.error(404, "Customer not found");
+            return;
+        }
+        JsonWriter json = response.begin(200).beginArray();
+        for (Rental r : history) writeRental(json, r);
+        json.endArray();
+    }
+
+    private void report(Map<String, String> params, Response response) throws IOException {
+        FleetReport report = router == null ? system.report() : router.report();
+        long hits = 0;
+        long misses = 0;
+        for (String code : router == null ? java.util.Collections.<String>singletonList(null) : router.getBranchCodes()) {
+            QuoteCache cache = (code == null ? system : router.getBranch(code)).getQuoteCache();
+            hits += cache.getHits();
+            misses += cache.getMisses();
+        }
+        JsonWriter json = response.begin(200).beginObject();
+        writeReport(json, report);
+        json.field("quoteCacheHits", hits)
+                .field("quoteCacheMisses", misses)
+                .field("quoteCacheHitRatio", hits + misses == 0 ? 0.0 : hits / (double) (hits + misses))
+                .endObject();
+    }
+
+    // Serialization
+
+    private void writeOutcome(Response response, CarRentalSystem sys, Rental rental) throws IOException {
+        if (rental == null) {
+            String reason = sys.getLastFailure();
+            response.error(409, reason == null ? "Operation failed" : reason);
+            return;
+        }
+        writeRental(response.begin(200), rental);
+    }
+
+    static void writeReport(JsonWriter json, FleetReport report) throws IOException {
+        json.field("totalCars", report.getTotalCars())
+                .field("availableCars", report.getAvailableCars())
+                .field("rentedCars", report.getRentedCars())
+                .field("activeRentals", report.getActiveRentals())
+                .field("closedRevenue", report.getClosedRevenue());
+    }
+
+    static void writeCar(JsonWriter json, Car car) throws IOException {
+        writeCar(json, car, null);
+    }
+
+    // branch is omitted when null
+    static void writeCar(JsonWriter json, Car car, String branch) throws IOException {
+        json.beginObject();
+        if (branch != null) json.field("branch", branch);
+        json.field("carId", car.getCarId())
+                .field("type", car.getClass().getSimpleName())
+                .field("brand", car.getBrand())
+                .field("model", car.getModel())
+                .field("pricePerDay", car.getBasePricePerDay())
+                .field("available", car.isAvailable())
+                .endObject();
+    }
+
+    static void writeQuote(JsonWriter json, Quote q) throws IOException {
+        json.field("subtotal", q.getSubtotal())
+                .field("discountCode", q.getDiscountCode())
+                .field("discount", q.getDiscountAmount())
+                .field("tax", q.getTaxAmount())
+                .field("total", q.getTotal())
+                .field("couponStatus", q.getCouponStatus() == null ? null : q.getCouponStatus().name())
+                .field("demandMultiplier", q.getDemandMultiplier());
+    }
+
+    static void writeRental(JsonWriter json, Rental r) throws IOException {
+        json.beginObject()
+                .field("rentalId", r.getRentalId())
+                .field("carId", r.getCar().getCarId())
+                .field("customerId", r.getCustomer().getCustomerId())
+                .field("customerName", r.getCustomer().getName())
+                .field("startDate", r.getStartDate().toString())
+                .field("endDate", r.getEndDate().toString())
+                .field("days", r.getDays())
+                .field("subtotal", r.getSubtotalBeforeDiscount())
+                .field("discountCode", r.getDiscountCode())
+                .field("discount", r.getDiscountAmount())
+                .field("tax", r.getTaxAmount())
+                .field("total", r.getTotalCost())
+                .field("active", r.isActive());
+        Payment p = r.getPayment();
+        if (p != null) {
+            json.name("payment").beginObject()
+                    .field("paymentId", p.getPaymentId())
+                    .field("method", p.getMethod().name())
+                    .field("amount", p.getAmount())
+                    .field("successful", p.isSuccessful())
+                    .endObject();
+        }
+        json.endObject();
+    }
+
+    // Parameters
+
+    // sys is systemForCar(carId); null when no branch has the car
+    private Car requireCar(CarRentalSystem sys, Map<String, String> params, Response response) throws IOException {
+        String carId = params.get("carId");
+        if (carId == null) throw new IllegalArgumentException("carId is required");
+        Car car = sys == null ? null : sys.findCarById(carId);
+        if (car == null) response.error(404, "Car not found");
+        return car;
+    }
+
+    private static String requiredParam(Map<String, String> params, String name) {
+        String v = params.get(name);
+        if (v == null || v.trim().isEmpty()) throw new IllegalArgumentException(name + " is required");
+        return v;
+    }
+
+    private static double positiveDoubleParam(Map<String, String> params, String name) {
+        String v = requiredParam(params, name);
+        try {
+            double d = Double.parseDouble(v.trim());
+            if (!(d > 0) || Double.isInfinite(d)) throw new IllegalArgumentException(name + " must be positive");
+            return d;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    private static int intParam(Map<String, String> params, String name) {
+        String v = params.get(name);
+        if (v == null) throw new IllegalArgumentException(name + " is required");
+        try {
+            int n = Integer.parseInt(v.trim());
+            if (n <= 0) throw new IllegalArgumentException(name + " must be positive");
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    private static PaymentMethod methodParam(Map<String, String> params) {
+        String v = params.getOrDefault("method", "CARD").trim().toUpperCase();
+        try {
+            return PaymentMethod.valueOf(v);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("method must be CASH or CARD");
+        }
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            try (InputStream in = exchange.getRequestBody()) {
+                parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void parseForm(String raw, Map<String, String> into) {
+        if (raw == null || raw.isEmpty()) return;
+        for (String pair : raw.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            into.put(key, value);
+        }
+    }
+}
+
+/**
+ * Local load generator for RentalHttpServer: N virtual-thread clients, each on one
+ * keep-alive connection, issue a read-heavy mix (90% quotes, 10% searches) for a
+ * fixed duration, then report throughput and latency percentiles. It speaks just
+ * enough HTTP/1.1 itself so that client overhead does not dominate the measurement.
+ */
+class HttpLoadGenerator {
+    private final String host;
+    private final int port;
+    private final List<String> carIds;
+
+    HttpLoadGenerator(String baseUrl, List<String> carIds) {
+        URI uri = URI.create(baseUrl);
+        this.host = uri.getHost();
+        this.port = uri.getPort() < 0 ? 80 : uri.getPort();
+        this.carIds = carIds;
+    }
+
+    public void run(int clients, int seconds) throws InterruptedException {
+        LatencyHistogram latencies = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        String[] coupons = {"", "SAVE10", "VIP20", "BOGUS"};
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            workers.add(Thread.ofVirtual().start(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    try (Socket socket = new Socket(host, port)) {
+                        socket.setTcpNoDelay(true);
+                        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        while (System.nanoTime() < deadline) {
+                            String path = rnd.nextInt(10) == 0
+                                    ? "/cars?available=true"
+                                    : "/quote?carId=" + carIds.get(rnd.nextInt(carIds.size())) + "&days=" + (1 + rnd.nextInt(14))
+                                      + "&coupon=" + coupons[rnd.nextInt(coupons.length)];
+                            long t0 = System.nanoTime();
+                            out.write(("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                            out.flush();
+                            if (readResponse(in) != 200) errors.increment();
+                            latencies.record(System.nanoTime() - t0);
+                        }
+                    } catch (IOException e) {
+                        errors.increment();
+                    }
+                }
+            }));
+        }
+        for (Thread t : workers) t.join();
+        long n = latencies.getCount();
+        System.out.printf("Requests: %d in %ds (%.0f req/s), errors: %d%n", n, seconds, n / (double) seconds, errors.sum());
+        System.out.printf("Latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                latencies.percentile(0.50) / 1e6, latencies.percentile(0.90) / 1e6,
+                latencies.percentile(0.99) / 1e6, latencies.getMax() / 1e6);
+    }
+
+    // Reads one response (Content-Length or chunked body) and returns its status code
+    private static int readResponse(InputStream in) throws IOException {
+        String status = readLine(in);
+        int code = Integer.parseInt(status.split(" ")[1]);
+        long length = -1;
+        boolean chunked = false;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            String lower = line.toLowerCase();
+            if (lower.startsWith("content-length:")) length = Long.parseLong(line.substring(15).trim());
+            if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) chunked = true;
+        }
+        if (chunked) {
+            while (true) {
+                long size = Long.parseLong(readLine(in).trim(), 16);
+                in.skipNBytes(size + 2);
+                if (size == 0) break;
+            }
+        } else if (length > 0) {
+            in.skipNBytes(length);
+        }
+        return code;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) throw new IOException("Connection closed");
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+}
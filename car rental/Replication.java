@@ -0,0 +1,494 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Ordered log of changes committed on a replication leader. CarRentalSystem appends
+ * while holding its own lock, so sequence numbers follow commit order. The newest
+ * CAPACITY entries are kept in a ring; a follower that falls further behind than that
+ * is sent a fresh snapshot instead.
+ */
+class ReplicationLog {
+    static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+
+    static final class Entry {
+        final long seq;
+        final long committedMicros; // wall clock, so followers on the same host can compute lag
+        final String type;
+        final String row;
+
+        Entry(long seq, long committedMicros, String type, String row) {
+            this.seq = seq;
+            this.committedMicros = committedMicros;
+            this.type = type;
+            this.row = row;
+        }
+    }
+
+    private final Entry[] ring = new Entry[CAPACITY];
+    private long lastSeq = 0;
+
+    static long nowMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+
+    public synchronized void append(String type, String row) {
+        lastSeq++;
+        ring[(int) (lastSeq & MASK)] = new Entry(lastSeq, nowMicros(), type, row);
+        notifyAll();
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Entries after seq, at most max of them, waiting up to timeoutMillis for the first.
+     * Returns null when seq is no longer in the ring.
+     */
+    public synchronized List<Entry> readAfter(long seq, int max, long timeoutMillis) throws InterruptedException {
+        if (seq < lastSeq - CAPACITY || seq > lastSeq) return null;
+        if (seq == lastSeq) {
+            wait(timeoutMillis);
+            // a burst while waiting can lap the ring past seq
+            if (seq < lastSeq - CAPACITY) return null;
+        }
+        List<Entry> batch = new ArrayList<>();
+        for (long s = seq + 1; s <= lastSeq && batch.size() < max; s++) {
+            Entry e = ring[(int) (s & MASK)];
+            if (e == null || e.seq != s) return null; // overwritten: the follower needs a snapshot
+            batch.add(e);
+        }
+        return batch;
+    }
+}
+
+/**
+ * Leader end of replication: followers connect over TCP, send the last sequence number
+ * they applied (-1 for none) and receive an optional snapshot followed by the entry
+ * stream. Wire format, all DataOutputStream primitives:
+ *
+ *   follower -> leader   long fromSeq
+ *   'S' long seq, int files, then per file: UTF name, int length, bytes
+ *   'E' long seq, long committedMicros, UTF type, UTF row
+ *   'H' long lastSeq, long nowMicros      (heartbeat, sent when idle for a second)
+ */
+class ReplicationLeader {
+    private static final int BATCH = 512;
+
+    private final CarRentalSystem system;
+    private final ReplicationLog log = new ReplicationLog();
+    private final List<Socket> followers = new ArrayList<>();
+    private ServerSocket server;
+    private volatile boolean running;
+
+    ReplicationLeader(CarRentalSystem system) {
+        this.system = system;
+    }
+
+    public ReplicationLog getLog() {
+        return log;
+    }
+
+    public void start(int port) throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        system.setReplicationLog(log);
+        running = true;
+        Thread.ofPlatform().daemon().name("replication-accept").start(() -> {
+            while (running) {
+                try {
+                    Socket s = server.accept();
+                    s.setTcpNoDelay(true);
+                    synchronized (followers) {
+                        followers.add(s);
+                    }
+                    Thread.ofVirtual().name("replication-" + s.getPort()).start(() -> serve(s));
+                } catch (IOException e) {
+                    if (running) System.out.println("Replication accept failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getFollowerCount() {
+        synchronized (followers) {
+            return followers.size();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        system.setReplicationLog(null);
+        try {
+            server.close();
+        } catch (IOException ignore) {}
+        synchronized (followers) {
+            for (Socket s : followers) {
+                try {
+                    s.close();
+                } catch (IOException ignore) {}
+            }
+            followers.clear();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024))) {
+            long cursor = in.readLong();
+            while (running) {
+                List<ReplicationLog.Entry> batch = cursor < 0 ? null : log.readAfter(cursor, BATCH, 1000);
+                if (batch == null) {
+                    cursor = sendSnapshot(out);
+                } else if (batch.isEmpty()) {
+                    out.writeByte('H');
+                    out.writeLong(log.getLastSeq());
+                    out.writeLong(ReplicationLog.nowMicros());
+                } else {
+                    for (ReplicationLog.Entry e : batch) {
+                        out.writeByte('E');
+                        out.writeLong(e.seq);
+                        out.writeLong(e.committedMicros);
+                        out.writeUTF(e.type);
+                        out.writeUTF(e.row);
+                    }
+                    cursor = batch.get(batch.size() - 1).seq;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // follower went away; it reconnects with its own position
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (followers) {
+                followers.remove(socket);
+            }
+        }
+    }
+
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        Path dir = Files.createTempDirectory("car-rental-snapshot");
+        try {
+            long seq = system.writeSnapshot(dir);
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(dir)) {
+                files = walk.filter(Files::isRegularFile).toList();
+            }
+            out.writeByte('S');
+            out.writeLong(seq);
+            out.writeInt(files.size());
+            for (Path f : files) {
+                byte[] data = Files.readAllBytes(f);
+                out.writeUTF(dir.relativize(f).toString().replace('\\', '/'));
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            return seq;
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    static void deleteTree(Path dir) {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : walk.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toList()) Files.deleteIfExists(p);
+        } catch (IOException ignore) {}
+    }
+}
+
+/**
+ * Follower end of replication. Keeps a read-only CarRentalSystem in step with a leader:
+ * on first connect (or after falling out of the leader's log) it loads a snapshot, then
+ * applies entries in order. Reconnects with its last applied sequence number after a
+ * dropped connection, so a short outage does not cost a snapshot.
+ */
+class ReplicationFollower {
+    private final CarRentalSystem system;
+    private final String host;
+    private final int port;
+    private final LatencyHistogram lag = new LatencyHistogram(); // commit on leader to applied here, in ns
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private volatile long appliedSeq = -1;
+    private volatile long leaderSeq = 0;
+    private volatile boolean connected;
+    private volatile boolean running;
+    private volatile Socket socket;
+    private Thread worker;
+    private Path snapshotDir; // the loaded snapshot; its archive copy stays in use until the next one
+
+    ReplicationFollower(CarRentalSystem system, String host, int port) {
+        this.system = system;
+        this.host = host;
+        this.port = port;
+        system.setReadOnly(true);
+        system.setConsoleOutput(false);
+    }
+
+    public void start() {
+        running = true;
+        worker = Thread.ofPlatform().daemon().name("replica-" + host + ":" + port).start(this::run);
+    }
+
+    public void stop() {
+        running = false;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignore) {}
+        }
+        if (worker != null) worker.interrupt();
+    }
+
+    public long getAppliedSeq() { return appliedSeq; }
+    public long getLeaderSeq() { return Math.max(leaderSeq, appliedSeq); }
+    public boolean isConnected() { return connected; }
+    public long getAppliedCount() { return applied.sum(); }
+    public long getSnapshotCount() { return snapshots.sum(); }
+    public LatencyHistogram getLag() { return lag; }
+
+    // Blocks until this follower has applied seq, or the timeout passes
+    public boolean awaitSeq(long seq, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (appliedSeq < seq) {
+            if (System.currentTimeMillis() >= deadline) return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public String describe() {
+        return String.format("replica of %s:%d %s, applied %d of %d (%d behind), %d snapshots, lag p50 %.2f ms p99 %.2f ms",
+                host, port, connected ? "connected" : "disconnected", appliedSeq, getLeaderSeq(),
+                Math.max(0, getLeaderSeq() - appliedSeq), snapshots.sum(), lag.percentile(0.50) / 1e6, lag.percentile(0.99) / 1e6);
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket(host, port)) {
+                socket = s;
+                s.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+                out.writeLong(appliedSeq);
+                out.flush();
+                connected = true;
+                while (running) {
+                    int kind = in.readByte();
+                    if (kind == 'S') {
+                        loadSnapshot(in);
+                    } else if (kind == 'E') {
+                        long seq = in.readLong();
+                        long committedMicros = in.readLong();
+                        String type = in.readUTF();
+                        String row = in.readUTF();
+                        if ("RESYNC".equals(type)) {
+                            appliedSeq = -1; // the leader replaced its data; reconnect for a snapshot
+                            break;
+                        }
+                        system.applyReplicated(type, row);
+                        appliedSeq = seq;
+                        applied.increment();
+                        lag.record(Math.max(0, ReplicationLog.nowMicros() - committedMicros) * 1000);
+                    } else if (kind == 'H') {
+                        leaderSeq = in.readLong();
+                        in.readLong();
+                    } else {
+                        throw new IOException("unexpected replication message " + kind);
+                    }
+                }
+            } catch (EOFException e) {
+                // leader closed the stream
+            } catch (IOException e) {
+                if (running && connected) System.out.println("Replication connection lost: " + e.getMessage());
+            } catch (RuntimeException e) {
+                // an entry or snapshot this replica could not apply; its state is suspect, so start over
+                System.out.println("Replication apply failed: " + e);
+                appliedSeq = -1;
+            } finally {
+                connected = false;
+                socket = null;
+            }
+            if (running) {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void loadSnapshot(DataInputStream in) throws IOException {
+        long seq = in.readLong();
+        int files = in.readInt();
+        Path dir = Files.createTempDirectory("car-rental-replica");
+        try {
+            for (int i = 0; i < files; i++) {
+                String name = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                Path target = dir.resolve(name).normalize();
+                if (!target.startsWith(dir)) throw new IOException("bad snapshot entry " + name);
+                Files.createDirectories(target.getParent());
+                Files.write(target, data);
+            }
+            system.loadData(dir.toString());
+            appliedSeq = seq;
+            leaderSeq = Math.max(leaderSeq, seq);
+            snapshots.increment();
+        } catch (IOException | RuntimeException e) {
+            ReplicationLeader.deleteTree(dir);
+            throw e;
+        }
+        if (snapshotDir != null) ReplicationLeader.deleteTree(snapshotDir);
+        snapshotDir = dir;
+    }
+}
+
+/**
+ * Measures read scaling and replication lag on localhost: a leader and N followers in
+ * one JVM, talking over real TCP sockets. One writer books and returns cars on the
+ * leader at a fixed rate while reader threads quote, look up cars and read history.
+ * Each round spreads the readers over the leader plus 0..N followers.
+ */
+class ReplicationBenchmark {
+    private final int followerCount;
+    private final int readers;
+    private final int seconds;
+    private final int writesPerSecond;
+    private final int carCount = 500;
+
+    ReplicationBenchmark(int followerCount, int readers, int seconds, int writesPerSecond) {
+        this.followerCount = followerCount;
+        this.readers = readers;
+        this.seconds = seconds;
+        this.writesPerSecond = writesPerSecond;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        CarRentalSystem leader = new CarRentalSystem();
+        leader.setConsoleOutput(false);
+        ReplicationLeader server = new ReplicationLeader(leader);
+        server.start(0);
+        for (int i = 1; i <= carCount; i++) {
+            Car car = i % 3 == 0 ? new SuvCar("R" + i, "Bench", "Suv " + i, 70 + i % 50)
+                    : new EconomyCar("R" + i, "Bench", "Economy " + i, 40 + i % 50);
+            leader.addCar(car);
+        }
+        for (int i = 1; i <= 1000; i++) leader.addCustomer(new Customer("RB" + i, "Bench Customer " + i));
+
+        List<CarRentalSystem> replicas = new ArrayList<>();
+        List<ReplicationFollower> followers = new ArrayList<>();
+        for (int i = 0; i < followerCount; i++) {
+            CarRentalSystem replica = new CarRentalSystem();
+            ReplicationFollower f = new ReplicationFollower(replica, "localhost", server.getPort());
+            f.start();
+            replicas.add(replica);
+            followers.add(f);
+        }
+        for (ReplicationFollower f : followers) {
+            if (!f.awaitSeq(server.getLog().getLastSeq(), 10_000)) System.out.println("Follower did not catch up: " + f.describe());
+        }
+        System.out.printf("Replication benchmark: %d cars, %d readers, 1 writer at %d/s, %ds per round%n",
+                carCount, readers, writesPerSecond, seconds);
+        System.out.println("nodes  reads/s     writes/s   read p99(us)  lag p50(ms)  lag p99(ms)");
+        for (int n = 0; n <= followerCount; n++) {
+            List<CarRentalSystem> nodes = new ArrayList<>();
+            nodes.add(leader);
+            nodes.addAll(replicas.subList(0, n));
+            for (ReplicationFollower f : followers) f.getLag().reset();
+            round(leader, server.getLog(), nodes, followers.subList(0, n));
+        }
+        for (ReplicationFollower f : followers) f.stop();
+        server.stop();
+    }
+
+    private void round(CarRentalSystem leader, ReplicationLog log, List<CarRentalSystem> nodes, List<ReplicationFollower> active) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        LatencyHistogram readLatency = new LatencyHistogram();
+        CountDownLatch done = new CountDownLatch(readers + 1);
+        Thread.ofPlatform().name("bench-writer").start(() -> {
+            SplittableRandom rnd = new SplittableRandom(1);
+            long interval = 1_000_000_000L / writesPerSecond;
+            long next = System.nanoTime();
+            while (System.nanoTime() < deadline) {
+                next += interval;
+                long wait = next - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                Car car = leader.findCarById("R" + (1 + rnd.nextInt(carCount)));
+                if (car.isAvailable()) {
+                    leader.rentCar(car, leader.findCustomerById("RB" + (1 + rnd.nextInt(1000))), 1 + rnd.nextInt(7), PaymentMethod.CARD);
+                } else {
+                    leader.finalizeReturn(car, 1, PaymentMethod.CARD);
+                }
+                writes.increment();
+            }
+            done.countDown();
+        });
+        for (int r = 0; r < readers; r++) {
+            CarRentalSystem node = nodes.get(r % nodes.size());
+            int seed = r;
+            Thread.ofPlatform().name("bench-reader-" + r).start(() -> {
+                SplittableRandom rnd = new SplittableRandom(seed + 100);
+                LocalDate today = LocalDate.now();
+                while (System.nanoTime() < deadline) {
+                    long t0 = System.nanoTime();
+                    int kind = rnd.nextInt(20);
+                    if (kind < 16) {
+                        Car car = node.findCarById("R" + (1 + rnd.nextInt(carCount)));
+                        if (car != null) node.quote(car, today, 1 + rnd.nextInt(7), null, null);
+                    } else if (kind < 19) {
+                        node.isCarAvailable("R" + (1 + rnd.nextInt(carCount)));
+                    } else {
+                        node.getRentalHistory("RB" + (1 + rnd.nextInt(1000)));
+                    }
+                    readLatency.record(System.nanoTime() - t0);
+                    reads.increment();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        long lastSeq = log.getLastSeq();
+        LatencyHistogram lag = new LatencyHistogram();
+        for (ReplicationFollower f : active) {
+            f.awaitSeq(lastSeq, 10_000);
+            lag.merge(f.getLag());
+        }
+        System.out.printf("%-6d %-11.0f %-10.0f %-13.1f %-12s %s%n", nodes.size(), reads.sum() / (double) seconds,
+                writes.sum() / (double) seconds, readLatency.percentile(0.99) / 1e3,
+                active.isEmpty() ? "-" : String.format("%.2f", lag.percentile(0.50) / 1e6),
+                active.isEmpty() ? "-" : String.format("%.2f", lag.percentile(0.99) / 1e6));
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * What-if repricing: replays every rental, live and archived (car, start date, days,
+ * coupon and the demand multiplier agreed at booking), through the current PricingConfig
+ * and any number of candidate configs, and reports what each candidate would have
+ * changed in revenue by car class and start month. Each rental is read once and priced
+ * under every config in the same inner loop, so adding candidates costs pricing work,
+ * not another pass over the archive.
+ *
+ * Sources are split the way BillingAudit splits them: live rentals in primitive arrays
+ * copied under the system lock, archive months as decoded columns, each slice or month
+ * a task on the common fork/join pool. Tasks keep only per-month sums in cents.
+ *
+ * The baseline is the current settings replayed, not the stored amounts, so a delta is
+ * the effect of the settings change alone. Revenue is before tax; tax is reported
+ * separately. A coupon that no longer exists is replayed at the rental's stored discount
+ * ratio; a car no longer in the fleet cannot be priced and its archived rentals are skipped.
+ */
+class RepricingSimulator {
+    private static final int LIVE_SLICE = 65536;
+    private static final long NONE = ColumnarRentalFile.Columns.EMPTY;
+    private static final int[] ARCHIVE_COLUMNS = {
+            ColumnarRentalFile.COL_CAR_ID, ColumnarRentalFile.COL_DAYS, ColumnarRentalFile.COL_START_DATE,
+            ColumnarRentalFile.COL_TOTAL, ColumnarRentalFile.COL_DISCOUNT_CODE, ColumnarRentalFile.COL_SUBTOTAL,
+            ColumnarRentalFile.COL_DISCOUNT_AMOUNT, ColumnarRentalFile.COL_PRICE_MULTIPLIER};
+
+    private final PricingConfig[] configs; // [0] is the baseline
+    private final Map<String, Car> fleet = new HashMap<>();
+    private final Map<Class<?>, Integer> classIndex = new LinkedHashMap<>();
+    private final CouponEngine coupons;
+
+    // Live rentals copied out under the system lock; money in cents
+    private Car[] liveCar = new Car[0];
+    private int[] liveClass = new int[0];
+    private long[] liveStart = new long[0];
+    private int[] liveDays = new int[0];
+    private long[] liveTotal = new long[0];
+    private long[] liveSubtotal = new long[0];
+    private long[] liveDiscount = new long[0];
+    private double[] liveMultiplier = new double[0];
+    private String[] liveCode = new String[0];
+
+    // Called under the CarRentalSystem lock; coupons is only read
+    RepricingSimulator(PricingConfig baseline, List<PricingConfig> candidates, List<Car> cars, CouponEngine coupons) {
+        this.configs = new PricingConfig[candidates.size() + 1];
+        configs[0] = baseline;
+        for (int k = 0; k < candidates.size(); k++) configs[k + 1] = candidates.get(k);
+        this.coupons = coupons;
+        for (Car c : cars) {
+            fleet.put(c.getCarId().toUpperCase(), c);
+            classIndex.putIfAbsent(c.getClass(), classIndex.size());
+        }
+    }
+
+    // Called under the CarRentalSystem lock
+    void setLiveRentals(List<Rental> rentals) {
+        int n = rentals.size();
+        liveCar = new Car[n];
+        liveClass = new int[n];
+        liveStart = new long[n];
+        liveDays = new int[n];
+        liveTotal = new long[n];
+        liveSubtotal = new long[n];
+        liveDiscount = new long[n];
+        liveMultiplier = new double[n];
+        liveCode = new String[n];
+        for (int i = 0; i < n; i++) {
+            Rental r = rentals.get(i);
+            liveCar[i] = r.getCar();
+            liveClass[i] = classIndex.computeIfAbsent(r.getCar().getClass(), k -> classIndex.size());
+            liveStart[i] = r.getStartDate().toEpochDay();
+            liveDays[i] = r.getDays();
+            liveTotal[i] = cents(r.getTotalCost());
+            liveSubtotal[i] = cents(r.getSubtotalBeforeDiscount());
+            liveDiscount[i] = cents(r.getDiscountAmount());
+            liveMultiplier[i] = r.getPriceMultiplier();
+            liveCode[i] = r.getDiscountCode();
+        }
+    }
+
+    /**
+     * A candidate from name=value pairs separated by spaces, commas or semicolons, each
+     * changing one setting of base; names as in PricingConfig.SETTINGS. Throws
+     * IllegalArgumentException for an empty spec or a pair withSetting rejects.
+     */
+    static PricingConfig parseCandidate(String spec, PricingConfig base) {
+        String trimmed = spec.trim();
+        if (trimmed.isEmpty()) throw new IllegalArgumentException("no settings given");
+        PricingConfig config = base;
+        for (String pair : trimmed.split("[\\s,;]+")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("expected name=value, got " + pair);
+            config = config.withSetting(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return config;
+    }
+
+    private static long cents(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    // Coupon percentage of a stored code; 0 without a code, NaN if the code no longer exists
+    private double percentOf(String code) {
+        if (code == null || code.isEmpty()) return 0.0;
+        Coupon c = coupons.get(code);
+        return c == null ? Double.NaN : c.getPercent();
+    }
+
+    // Partial results of one source; merged after all sources finish
+    static final class Result {
+        final int configs;
+        final int classes;
+        long rentals;
+        long repriced;
+        long unknownCar;      // archived car no longer in the fleet: not replayed
+        long unknownCoupon;   // replayed at the stored discount ratio
+        long recordedCents;   // stored totals of the replayed rentals
+        List<String> classNames = List.of();
+        // start month -> [(config * classes + class) * 2 + 0] revenue before tax, + 1 tax, in cents
+        final TreeMap<YearMonth, long[]> byMonth = new TreeMap<>();
+
+        Result(int configs, int classes) {
+            this.configs = configs;
+            this.classes = classes;
+        }
+
+        long[] month(YearMonth month) {
+            return byMonth.computeIfAbsent(month, m -> new long[configs * classes * 2]);
+        }
+
+        // Sum over months and classes of one config: {revenue, tax}
+        public long[] totals(int config) {
+            long[] t = new long[2];
+            for (long[] m : byMonth.values()) {
+                for (int c = 0; c < classes; c++) {
+                    int at = (config * classes + c) * 2;
+                    t[0] += m[at];
+                    t[1] += m[at + 1];
+                }
+            }
+            return t;
+        }
+
+        // Revenue of one config and class in a month, or over all months when month is null
+        public long revenue(int config, int carClass, YearMonth month) {
+            int at = (config * classes + carClass) * 2;
+            if (month != null) {
+                long[] m = byMonth.get(month);
+                return m == null ? 0 : m[at];
+            }
+            long sum = 0;
+            for (long[] m : byMonth.values()) sum += m[at];
+            return sum;
+        }
+
+        void merge(Result o) {
+            rentals += o.rentals;
+            repriced += o.repriced;
+            unknownCar += o.unknownCar;
+            unknownCoupon += o.unknownCoupon;
+            recordedCents += o.recordedCents;
+            for (Map.Entry<YearMonth, long[]> e : o.byMonth.entrySet()) {
+                long[] mine = month(e.getKey());
+                long[] theirs = e.getValue();
+                for (int i = 0; i < mine.length; i++) mine[i] += theirs[i];
+            }
+        }
+    }
+
+    // Prices one rental under every config into its month's sums
+    private void replay(Result res, long[] sums, Car car, int carClass, int startMonth, long startDay, int days,
+                        long total, long subtotal, long discount, double multiplier, double percent) {
+        res.rentals++;
+        if (car == null) {
+            res.unknownCar++;
+            return;
+        }
+        if (Double.isNaN(percent)) {
+            res.unknownCoupon++;
+            percent = subtotal > 0 && discount != NONE ? (double) discount / subtotal : 0.0;
+        }
+        res.repriced++;
+        res.recordedCents += total;
+        for (int k = 0; k < configs.length; k++) {
+            PricingConfig p = configs[k];
+            double sub = p.subtotal(car, startMonth, startDay, days, multiplier);
+            double disc = p.discountAmount(sub, percent);
+            int at = (k * res.classes + carClass) * 2;
+            sums[at] += cents(sub) - cents(disc);
+            sums[at + 1] += cents(p.taxAmount(sub, disc));
+        }
+    }
+
+    private Result replayLive(int lo, int hi) {
+        Result res = new Result(configs.length, classIndex.size());
+        Map<String, Double> percents = new HashMap<>();
+        YearMonth month = null;
+        long[] sums = null;
+        for (int i = lo; i < hi; i++) {
+            LocalDate start = LocalDate.ofEpochDay(liveStart[i]);
+            if (month == null || start.getYear() != month.getYear() || start.getMonthValue() != month.getMonthValue()) {
+                month = YearMonth.from(start);
+                sums = res.month(month);
+            }
+            String code = liveCode[i] == null ? "" : liveCode[i];
+            double percent = percents.computeIfAbsent(code, this::percentOf);
+            replay(res, sums, liveCar[i], liveClass[i], start.getMonthValue(), liveStart[i], liveDays[i],
+                    liveTotal[i], liveSubtotal[i], liveDiscount[i], liveMultiplier[i], percent);
+        }
+        return res;
+    }
+
+    private Result replayMonth(RentalArchive archive, YearMonth month) throws IOException {
+        Result res = new Result(configs.length, classIndex.size());
+        long[] sums = res.month(month);
+        for (ColumnarRentalFile.Columns b : archive.readMonth(month, ARCHIVE_COLUMNS)) {
+            // dictionary columns are resolved once per distinct value
+            Car[] cars = new Car[b.dictionarySize(ColumnarRentalFile.COL_CAR_ID)];
+            int[] classes = new int[cars.length];
+            for (int k = 0; k < cars.length; k++) {
+                cars[k] = fleet.get(b.dictionaryValue(ColumnarRentalFile.COL_CAR_ID, k).toUpperCase());
+                if (cars[k] != null) classes[k] = classIndex.get(cars[k].getClass());
+            }
+            double[] percents = new double[b.dictionarySize(ColumnarRentalFile.COL_DISCOUNT_CODE)];
+            for (int k = 0; k < percents.length; k++) {
+                percents[k] = percentOf(b.dictionaryValue(ColumnarRentalFile.COL_DISCOUNT_CODE, k));
+            }
+            double[] multipliers = new double[b.dictionarySize(ColumnarRentalFile.COL_PRICE_MULTIPLIER)];
+            for (int k = 0; k < multipliers.length; k++) {
+                String v = b.dictionaryValue(ColumnarRentalFile.COL_PRICE_MULTIPLIER, k);
+                multipliers[k] = v.isEmpty() ? 1.0 : Double.parseDouble(v); // rows from before demand pricing
+            }
+            for (int row = 0; row < b.getRows(); row++) {
+                int car = b.code(ColumnarRentalFile.COL_CAR_ID, row);
+                long total = b.number(ColumnarRentalFile.COL_TOTAL, row);
+                replay(res, sums, cars[car], classes[car], month.getMonthValue(), b.number(ColumnarRentalFile.COL_START_DATE, row),
+                        (int) b.number(ColumnarRentalFile.COL_DAYS, row), total == NONE ? 0 : total,
+                        b.number(ColumnarRentalFile.COL_SUBTOTAL, row), b.number(ColumnarRentalFile.COL_DISCOUNT_AMOUNT, row),
+                        multipliers[b.code(ColumnarRentalFile.COL_PRICE_MULTIPLIER, row)],
+                        percents[b.code(ColumnarRentalFile.COL_DISCOUNT_CODE, row)]);
+            }
+        }
+        return res;
+    }
+
+    public Result run(RentalArchive archive) throws IOException {
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (int from = 0; from < liveCar.length; from += LIVE_SLICE) {
+            final int lo = from;
+            final int hi = Math.min(liveCar.length, from + LIVE_SLICE);
+            tasks.add(() -> replayLive(lo, hi));
+        }
+        if (archive != null) {
+            for (YearMonth month : archive.getMonths()) {
+                tasks.add(() -> {
+                    try {
+                        return replayMonth(archive, month);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        }
+        Result total = new Result(configs.length, classIndex.size());
+        try {
+            for (Future<Result> f : ForkJoinPool.commonPool().invokeAll(tasks)) total.merge(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Repricing interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw new IOException("Repricing failed: " + cause.getMessage(), cause);
+        }
+        List<String> names = new ArrayList<>();
+        for (Class<?> c : classIndex.keySet()) names.add(c.getSimpleName());
+        total.classNames = names;
+        return total;
+    }
+
+    // labels.get(k) names candidate k + 1; config 0 is the baseline
+    static String describe(Result r, List<String> labels, long elapsedMs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Replayed %d rentals under %d configs in %d ms on %d threads%n",
+                r.repriced, r.configs, elapsedMs, ForkJoinPool.getCommonPoolParallelism()));
+        if (r.unknownCar + r.unknownCoupon > 0) {
+            sb.append(String.format("%d archived rentals skipped (car no longer in fleet); %d replayed at their stored discount (coupon deleted)%n",
+                    r.unknownCar, r.unknownCoupon));
+        }
+        long[] base = r.totals(0);
+        sb.append(String.format("Baseline (current settings): revenue $%.2f before tax, tax $%.2f, billed $%.2f (recorded $%.2f)%n",
+                base[0] / 100.0, base[1] / 100.0, (base[0] + base[1]) / 100.0, r.recordedCents / 100.0));
+        for (int k = 1; k < r.configs; k++) {
+            long[] t = r.totals(k);
+            sb.append(String.format("%nCandidate %d: %s%n", k, labels.get(k - 1)));
+            sb.append(String.format("  Revenue $%.2f before tax (%s, %s), tax %s, billed %s%n", t[0] / 100.0,
+                    signed(t[0] - base[0]), percent(t[0] - base[0], base[0]), signed(t[1] - base[1]),
+                    signed(t[0] + t[1] - base[0] - base[1])));
+            if (t[0] == base[0] && allEqual(r, k)) continue;
+            sb.append(String.format("  %-9s", "Month"));
+            for (String name : r.classNames) sb.append(String.format(" %14s", name));
+            sb.append(String.format(" %14s%n", "Total"));
+            for (YearMonth month : r.byMonth.keySet()) appendRow(sb, r, k, month.toString(), month);
+            appendRow(sb, r, k, "All", null);
+        }
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, Result r, int config, String label, YearMonth month) {
+        sb.append(String.format("  %-9s", label));
+        long row = 0;
+        for (int c = 0; c < r.classes; c++) {
+            long delta = r.revenue(config, c, month) - r.revenue(0, c, month);
+            row += delta;
+            sb.append(String.format(" %14s", signed(delta)));
+        }
+        sb.append(String.format(" %14s%n", signed(row)));
+    }
+
+    // Whether a config's revenue matches the baseline in every month and class
+    private static boolean allEqual(Result r, int config) {
+        for (YearMonth month : r.byMonth.keySet()) {
+            for (int c = 0; c < r.classes; c++) {
+                if (r.revenue(config, c, month) != r.revenue(0, c, month)) return false;
+            }
+        }
+        return true;
+    }
+
+    private static String signed(long cents) {
+        return String.format("%s$%.2f", cents < 0 ? "-" : "+", Math.abs(cents) / 100.0);
+    }
+
+    private static String percent(long delta, long base) {
+        return base == 0 ? "n/a" : String.format("%+.2f%%", delta * 100.0 / base);
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Round-trip checks for the binary storage formats, run with --selfcheck [dir]:
+ *   fleet.snap - save, map, materialize everything by saving again, and compare the
+ *     files byte for byte with the first save (and with a save after a CSV load);
+ *   archive partitions - rows written to a ColumnarRentalFile come back field for field,
+ *     in full, projected and as primitive columns;
+ *   legacy partitions - 15-column .rcol files and .csv.gz segments from before the
+ *     trailing columns still decode, with those columns blank, and are folded into a
+ *     full partition on the next append.
+ * Work happens in dir (a temp directory by default, removed afterwards). Each check
+ * prints one line; run returns false if any failed.
+ */
+class StorageSelfCheck {
+    private static final int LEGACY_COLUMNS = 15; // rentals.csv stopped at taxAmount
+
+    private final Path dir;
+    private int failures;
+
+    StorageSelfCheck(Path dir) {
+        this.dir = dir;
+    }
+
+    public boolean run() throws IOException {
+        check("fleet.snap round trip", this::fleetSnapshotRoundTrip);
+        check("archive partition round trip", this::partitionRoundTrip);
+        check("legacy 15-column partition", this::legacyPartition);
+        check("legacy gzip segment", this::legacySegment);
+        System.out.println(failures == 0 ? "Self-check passed." : "Self-check FAILED: " + failures + " check(s).");
+        return failures == 0;
+    }
+
+    private interface Check {
+        void run() throws IOException;
+    }
+
+    private void check(String name, Check check) {
+        try {
+            check.run();
+            System.out.println("ok      " + name);
+        } catch (IOException | RuntimeException | AssertionError e) {
+            failures++;
+            System.out.println("FAILED  " + name + ": " + e.getMessage());
+        }
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    // A small fleet with every car class, awkward names, coupons, demand pricing, extensions and returns
+    private static CarRentalSystem sampleSystem() {
+        CarRentalSystem s = new CarRentalSystem();
+        s.setConsoleOutput(false);
+        s.setDynamicPricing(true);
+        s.putCoupon("SPRING10", 0.10, null, 0, 0);
+        s.addCar(new Car("C001", "Fiat", "Panda", 35.0));
+        s.addCar(new EconomyCar("C002", "Toyota", "Yaris, \"Hybrid\"", 45.5));
+        s.addCar(new SuvCar("C003", "Škoda", "Kodiaq", 80.0));
+        s.addCar(new LuxuryCar("C004", "Mercedes", "S-Class", 210.0));
+        s.addCar(new EconomyCar("C005", "Toyota", "Yaris, \"Hybrid\"", 45.5));
+        Customer ann = s.registerCustomer("Ann O'Neil");
+        Customer zoe = s.registerCustomer("Zoë \"Z\", Jr.");
+        LocalDate today = LocalDate.now();
+        s.rentCar(s.findCarById("C001"), ann, 3, PaymentMethod.CARD, "SPRING10", today.minusDays(20));
+        s.finalizeReturn(s.findCarById("C001"), 5, PaymentMethod.CARD, null);
+        s.rentCar(s.findCarById("C003"), zoe, 7, PaymentMethod.CASH, null, today.minusDays(2));
+        s.extendRental(s.findActiveRentalByCar(s.findCarById("C003")).getRentalId(), 2, PaymentMethod.CASH, null);
+        s.rentCar(s.findCarById("C004"), ann, 5, PaymentMethod.CARD, "SPRING10", today);
+        s.rentCar(s.findCarById("C001"), zoe, 1, PaymentMethod.CARD, null, today.minusDays(1));
+        return s;
+    }
+
+    private void fleetSnapshotRoundTrip() throws IOException {
+        CarRentalSystem original = sampleSystem();
+        Path first = dir.resolve("snapshot-saved");
+        original.saveData(first.toString());
+        expect(Files.exists(first.resolve(FleetSnapshot.FILE_NAME)), "no fleet.snap written");
+
+        CarRentalSystem mapped = new CarRentalSystem();
+        mapped.setConsoleOutput(false);
+        mapped.loadMapped(first.toString());
+        Path second = dir.resolve("snapshot-mapped");
+        mapped.saveData(second.toString()); // walks every list, so every record is materialized
+        compareFiles(first, second, "mapped");
+
+        CarRentalSystem parsed = new CarRentalSystem();
+        parsed.setConsoleOutput(false);
+        parsed.loadData(first.toString());
+        Path third = dir.resolve("snapshot-parsed");
+        parsed.saveData(third.toString());
+        compareFiles(first, third, "CSV");
+    }
+
+    private static void compareFiles(Path expected, Path actual, String via) throws IOException {
+        for (String name : new String[]{"cars.csv", "customers.csv", "rentals.csv", FleetSnapshot.FILE_NAME}) {
+            expect(Arrays.equals(Files.readAllBytes(expected.resolve(name)), Files.readAllBytes(actual.resolve(name))),
+                    name + " differs after a " + via + " load and save");
+        }
+    }
+
+    // Rows as the archive stores them: rentals.csv fields, one array per rental
+    private List<String[]> sampleRows() throws IOException {
+        Path saved = dir.resolve("rows");
+        sampleSystem().saveData(saved.toString());
+        List<String[]> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(saved.resolve("rentals.csv"))) rows.add(CarRentalSystem.splitCsv(line));
+        expect(rows.size() == 4, "expected 4 sample rentals, got " + rows.size());
+        rows.sort((a, b) -> a[RentalArchive.COL_START_DATE].compareTo(b[RentalArchive.COL_START_DATE])); // the file's order
+        return rows;
+    }
+
+    private void partitionRoundTrip() throws IOException {
+        List<String[]> rows = sampleRows();
+        Path file = dir.resolve("partition.rcol");
+        ColumnarRentalFile.write(file, rows);
+
+        List<String[]> read = new ArrayList<>();
+        ColumnarRentalFile.scan(file, read::add);
+        expect(read.size() == rows.size(), "read " + read.size() + " rows, wrote " + rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            expect(sameRow(rows.get(i), read.get(i)),
+                    "row " + i + " came back as " + Arrays.toString(read.get(i)) + ", wrote " + Arrays.toString(rows.get(i)));
+        }
+
+        // a projection with a filter only fills the asked-for columns of the matching rows
+        String wanted = rows.get(1)[RentalArchive.COL_CUSTOMER_ID];
+        List<String[]> projected = new ArrayList<>();
+        ColumnarRentalFile.scan(file, new int[]{RentalArchive.COL_RENTAL_ID, RentalArchive.COL_TOTAL}, RentalArchive.COL_CUSTOMER_ID,
+                wanted::equals, projected::add);
+        int j = 0;
+        for (String[] row : rows) {
+            if (!row[RentalArchive.COL_CUSTOMER_ID].equals(wanted)) continue;
+            String[] p = projected.get(j++);
+            expect(p[RentalArchive.COL_RENTAL_ID].equals(row[RentalArchive.COL_RENTAL_ID])
+                    && p[RentalArchive.COL_TOTAL].equals(row[RentalArchive.COL_TOTAL])
+                    && p[ColumnarRentalFile.COL_CAR_ID] == null, "projected row " + Arrays.toString(p) + " does not match");
+        }
+        expect(j == projected.size(), "filter kept " + projected.size() + " rows, expected " + j);
+
+        ColumnarRentalFile.Columns columns = ColumnarRentalFile.readColumns(file, null);
+        for (int i = 0; i < rows.size(); i++) {
+            String[] row = rows.get(i);
+            expect(columns.number(RentalArchive.COL_TOTAL, i) == ColumnarRentalFile.cents(row[RentalArchive.COL_TOTAL])
+                    && columns.number(RentalArchive.COL_START_DATE, i) == LocalDate.parse(row[RentalArchive.COL_START_DATE]).toEpochDay()
+                    && columns.dictionaryValue(ColumnarRentalFile.COL_PRICING_EPOCH, columns.code(ColumnarRentalFile.COL_PRICING_EPOCH, i))
+                            .equals(row[ColumnarRentalFile.COL_PRICING_EPOCH]),
+                    "primitive columns of row " + i + " do not match");
+        }
+    }
+
+    // Field for field, money to the cent (an unrounded payment amount is stored rounded)
+    private static boolean sameRow(String[] written, String[] read) {
+        if (written.length != read.length) return false;
+        for (int col = 0; col < written.length; col++) {
+            boolean same = ColumnarRentalFile.storesCents(col) && !written[col].isEmpty() && !read[col].isEmpty()
+                    ? ColumnarRentalFile.cents(written[col]) == ColumnarRentalFile.cents(read[col])
+                    : written[col].equals(read[col]);
+            if (!same) return false;
+        }
+        return true;
+    }
+
+    private void legacyPartition() throws IOException {
+        List<String[]> rows = sampleRows();
+        Path archiveDir = Files.createDirectories(dir.resolve("legacy-rcol"));
+        YearMonth month = YearMonth.from(LocalDate.parse(rows.get(0)[RentalArchive.COL_START_DATE]));
+        List<String[]> monthRows = new ArrayList<>();
+        for (String[] row : rows) {
+            if (YearMonth.from(LocalDate.parse(row[RentalArchive.COL_START_DATE])).equals(month)) monthRows.add(row);
+        }
+        Path file = archiveDir.resolve("rentals-" + month + ".rcol");
+        ColumnarRentalFile.write(file, monthRows, LEGACY_COLUMNS);
+        expect(ColumnarRentalFile.readFooter(file).columns == LEGACY_COLUMNS, "footer does not have " + LEGACY_COLUMNS + " columns");
+
+        RentalArchive archive = new RentalArchive(archiveDir);
+        List<String[]> read = new ArrayList<>();
+        archive.scanMonth(month, null, read::add);
+        expectLegacyRows(monthRows, read);
+        ColumnarRentalFile.Columns columns = ColumnarRentalFile.readColumns(file, null);
+        expect(columns.number(ColumnarRentalFile.COL_AMOUNT_PAID, 0) == ColumnarRentalFile.Columns.EMPTY
+                && columns.dictionaryValue(ColumnarRentalFile.COL_PRICE_MULTIPLIER, columns.code(ColumnarRentalFile.COL_PRICE_MULTIPLIER, 0)).isEmpty(),
+                "trailing primitive columns are not blank");
+
+        foldIn(archive, month, monthRows);
+    }
+
+    private void legacySegment() throws IOException {
+        List<String[]> rows = sampleRows();
+        Path archiveDir = Files.createDirectories(dir.resolve("legacy-gzip"));
+        YearMonth month = YearMonth.from(LocalDate.parse(rows.get(0)[RentalArchive.COL_START_DATE]));
+        List<String[]> monthRows = new ArrayList<>();
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(archiveDir.resolve("rentals-" + month + ".csv.gz"))), StandardCharsets.UTF_8))) {
+            for (String[] row : rows) {
+                if (!YearMonth.from(LocalDate.parse(row[RentalArchive.COL_START_DATE])).equals(month)) continue;
+                monthRows.add(row);
+                bw.write(String.join(",", Arrays.copyOf(row, LEGACY_COLUMNS)));
+                bw.newLine();
+            }
+        }
+
+        RentalArchive archive = new RentalArchive(archiveDir);
+        List<String[]> read = new ArrayList<>();
+        archive.scanMonth(month, null, read::add);
+        expectLegacyRows(monthRows, read);
+
+        foldIn(archive, month, monthRows);
+    }
+
+    // The first 15 fields as written, anything after them blank (null and "" both mean blank)
+    private static void expectLegacyRows(List<String[]> written, List<String[]> read) {
+        expect(read.size() == written.size(), "read " + read.size() + " legacy rows, wrote " + written.size());
+        for (int i = 0; i < written.size(); i++) {
+            String[] w = written.get(i), r = read.get(i);
+            expect(sameRow(Arrays.copyOf(w, LEGACY_COLUMNS), Arrays.copyOf(r, LEGACY_COLUMNS)),
+                    "legacy row " + i + " came back as " + Arrays.toString(r));
+            for (int col = LEGACY_COLUMNS; col < r.length; col++) {
+                expect(r[col] == null || r[col].isEmpty(), "legacy row " + i + " has a value in column " + col);
+            }
+        }
+    }
+
+    // An append to the month rewrites it as one full partition; the legacy rows stay blank past column 15
+    private static void foldIn(RentalArchive archive, YearMonth month, List<String[]> legacyRows) throws IOException {
+        String[] added = legacyRows.get(0).clone();
+        added[RentalArchive.COL_RENTAL_ID] = "SELFCHECK1";
+        archive.append(List.of(String.join(",", added)));
+        Path partition = archive.getDir().resolve("rentals-" + month + ".rcol");
+        expect(ColumnarRentalFile.readFooter(partition).columns == ColumnarRentalFile.FIELD_COUNT, "append did not write a full partition");
+        expect(!Files.exists(archive.getDir().resolve("rentals-" + month + ".csv.gz")), "append left the gzip segment behind");
+        List<String[]> read = new ArrayList<>();
+        archive.scanMonth(month, null, read::add);
+        expect(read.size() == legacyRows.size() + 1, "month has " + read.size() + " rows after the append");
+        for (String[] r : read) {
+            if (r[RentalArchive.COL_RENTAL_ID].equals("SELFCHECK1")) {
+                expect(sameRow(added, r), "appended row came back as " + Arrays.toString(r));
+            } else {
+                expect(r[ColumnarRentalFile.COL_PRICING_EPOCH].isEmpty(), "legacy row gained a pricing epoch");
+            }
+        }
+        expect(archive.getRowCount() == legacyRows.size() + 1, "manifest counts " + archive.getRowCount() + " rows");
+    }
+}
@@ -0,0 +1,291 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scenario knobs for WorkloadGenerator, parsed from key=value arguments:
+ *
+ *   threads=1,4,16    one scenario per thread count
+ *   seconds=10        measured duration per scenario (after warmup=2 seconds)
+ *   cars=1000  customers=10000
+ *   fleet=60:30:10    Economy:Suv:Luxury share of the fleet
+ *   ops=60:15:25      book:extend:return share of operations
+ *   zipf=1.0          car popularity skew (0 = uniform)
+ *   coupon=0.1        share of bookings that try SAVE10
+ *   branches=1        branch shards behind a BranchRouter; cars are dealt round-robin
+ *   metrics=on        engine metrics on or off, to measure what they cost the booking path
+ */
+class WorkloadConfig {
+    int[] threads = {1, 4};
+    int seconds = 10;
+    int warmupSeconds = 2;
+    int cars = 1000;
+    int customers = 10000;
+    int[] fleetMix = {60, 30, 10};
+    int[] opMix = {60, 15, 25};
+    double zipf = 1.0;
+    double couponShare = 0.1;
+    int branches = 1;
+    boolean metrics = true;
+
+    static WorkloadConfig parse(List<String> args) {
+        WorkloadConfig c = new WorkloadConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected key=value: " + arg);
+            String key = arg.substring(0, eq).trim().toLowerCase();
+            String value = arg.substring(eq + 1).trim();
+            switch (key) {
+                case "threads": c.threads = ints(value, ",", 1); break;
+                case "seconds": c.seconds = ints(value, ",", 1)[0]; break;
+                case "warmup": c.warmupSeconds = Integer.parseInt(value); break;
+                case "cars": c.cars = ints(value, ",", 1)[0]; break;
+                case "customers": c.customers = ints(value, ",", 1)[0]; break;
+                case "fleet": c.fleetMix = ints(value, ":", 3); break;
+                case "ops": c.opMix = ints(value, ":", 3); break;
+                case "zipf": c.zipf = Double.parseDouble(value); break;
+                case "coupon": c.couponShare = Double.parseDouble(value); break;
+                case "branches": c.branches = ints(value, ",", 1)[0]; break;
+                case "metrics":
+                    if (!value.equalsIgnoreCase("on") && !value.equalsIgnoreCase("off")) throw new IllegalArgumentException("metrics must be on or off");
+                    c.metrics = value.equalsIgnoreCase("on");
+                    break;
+                default: throw new IllegalArgumentException("unknown workload option: " + key);
+            }
+        }
+        if (sum(c.fleetMix) <= 0 || sum(c.opMix) <= 0) throw new IllegalArgumentException("mix must not be all zero");
+        if (c.zipf < 0) throw new IllegalArgumentException("zipf must be >= 0");
+        return c;
+    }
+
+    private static int[] ints(String value, String sep, int expected) {
+        String[] parts = value.split(sep);
+        if (expected > 1 && parts.length != expected) throw new IllegalArgumentException("expected " + expected + " values: " + value);
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+            if (result[i] < 0 || (expected == 1 && result[i] == 0)) throw new IllegalArgumentException("bad value: " + value);
+        }
+        return result;
+    }
+
+    static int sum(int[] a) {
+        int s = 0;
+        for (int v : a) s += v;
+        return s;
+    }
+}
+
+/**
+ * In-process load generator for CarRentalSystem. Each scenario builds a fresh system
+ * with the configured fleet, then N platform threads book, extend and return cars
+ * chosen by Zipf popularity until the deadline. Latency is measured around each call,
+ * so it includes time spent waiting for the system lock; the engine's own service-time
+ * histograms and the ThreadMXBean blocked counts/times show how much of it was contention.
+ */
+class WorkloadGenerator {
+    private static final int BOOK = 0;
+    private static final int EXTEND = 1;
+    private static final int RETURN = 2;
+    private static final String[] OP_NAMES = {"book", "extend", "return"};
+
+    private final WorkloadConfig config;
+
+    WorkloadGenerator(WorkloadConfig config) {
+        this.config = config;
+    }
+
+    public void run() throws InterruptedException {
+        System.out.printf("Workload: %d cars (fleet %s) in %d branch%s, %d customers, zipf %.2f, ops book:extend:return %s, metrics %s%n",
+                config.cars, mix(config.fleetMix), config.branches, config.branches == 1 ? "" : "es",
+                config.customers, config.zipf, mix(config.opMix), config.metrics ? "on" : "off");
+        for (int threads : config.threads) {
+            runScenario(threads);
+        }
+    }
+
+    private void runScenario(int threads) throws InterruptedException {
+        BranchRouter router = new BranchRouter();
+        router.setConsoleOutput(false);
+        for (int b = 1; b <= config.branches; b++) router.addBranch("B" + b).getMetrics().setEnabled(config.metrics);
+        try {
+            Car[] cars = buildFleet(router);
+            Customer[] customers = new Customer[config.customers];
+            for (int i = 0; i < customers.length; i++) {
+                customers[i] = new Customer("WL" + (i + 1), "Load Customer " + (i + 1));
+                router.addCustomer(customers[i]);
+            }
+            double[] popularity = zipfCdf(cars.length, config.zipf);
+            int[] opCdf = cumulative(config.opMix);
+
+            ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            boolean contentionTiming = mx.isThreadContentionMonitoringSupported();
+            if (contentionTiming) mx.setThreadContentionMonitoringEnabled(true);
+
+            LatencyHistogram[] latency = new LatencyHistogram[3];
+            LongAdder[] ok = new LongAdder[3];
+            LongAdder[] failed = new LongAdder[3];
+            for (int i = 0; i < 3; i++) {
+                latency[i] = new LatencyHistogram();
+                ok[i] = new LongAdder();
+                failed[i] = new LongAdder();
+            }
+            long warmupEnd = System.nanoTime() + config.warmupSeconds * 1_000_000_000L;
+            long deadline = warmupEnd + config.seconds * 1_000_000_000L;
+            CountDownLatch warmedUp = new CountDownLatch(threads);
+            long[][] blockedAtStart = new long[threads][];
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int index = t;
+                final SplittableRandom rnd = new SplittableRandom(31L * t + 7);
+                workers.add(new Thread(() -> {
+                    boolean measuring = false;
+                    while (true) {
+                        long now = System.nanoTime();
+                        if (now >= deadline) break;
+                        if (!measuring && now >= warmupEnd) {
+                            measuring = true;
+                            blockedAtStart[index] = blocked(mx, Thread.currentThread().threadId());
+                            warmedUp.countDown();
+                        }
+                        int op = pick(opCdf, rnd.nextInt(opCdf[2]));
+                        Car car = cars[pickCar(popularity, rnd.nextDouble())];
+                        PaymentMethod method = rnd.nextBoolean() ? PaymentMethod.CARD : PaymentMethod.CASH;
+                        long t0 = System.nanoTime();
+                        boolean success;
+                        if (op == BOOK) {
+                            Customer customer = customers[rnd.nextInt(customers.length)];
+                            String coupon = rnd.nextDouble() < config.couponShare ? "SAVE10" : null;
+                            success = router.rentCar(car.getCarId(), customer.getCustomerId(), 1 + rnd.nextInt(14), method, coupon) != null;
+                        } else if (op == EXTEND) {
+                            Rental active = router.findActiveRentalByCar(car.getCarId());
+                            success = active != null && router.extendRental(active.getRentalId(), 1 + rnd.nextInt(3), method) != null;
+                        } else {
+                            success = router.finalizeReturn(car.getCarId(), 1 + rnd.nextInt(14), method) != null;
+                        }
+                        if (measuring) {
+                            latency[op].record(System.nanoTime() - t0);
+                            (success ? ok[op] : failed[op]).increment();
+                        }
+                    }
+                    if (!measuring) warmedUp.countDown();
+                }, "workload-" + t));
+            }
+            for (Thread w : workers) w.start();
+            warmedUp.await();
+            for (String code : router.getBranchCodes()) router.getBranch(code).getMetrics().reset();
+            long[][] blockedAtEnd = new long[threads][];
+            // sample blocked counters just before the workers exit; a dead thread has no ThreadInfo
+            while (System.nanoTime() < deadline - 50_000_000L) {
+                Thread.sleep(Math.max(1, (deadline - 50_000_000L - System.nanoTime()) / 1_000_000L));
+            }
+            for (int t = 0; t < threads; t++) blockedAtEnd[t] = blocked(mx, workers.get(t).threadId());
+            for (Thread w : workers) w.join();
+
+            report(threads, router, latency, ok, failed, blockedAtStart, blockedAtEnd, contentionTiming);
+        } finally {
+            // a scenario's idle buses and gather threads must not run into the next, busier one
+            router.close();
+        }
+    }
+
+    private void report(int threads, BranchRouter router, LatencyHistogram[] latency, LongAdder[] ok, LongAdder[] failed,
+                        long[][] blockedAtStart, long[][] blockedAtEnd, boolean contentionTiming) {
+        long total = 0;
+        for (LatencyHistogram h : latency) total += h.getCount();
+        System.out.printf("%n== %d thread%s, %ds ==%n", threads, threads == 1 ? "" : "s", config.seconds);
+        System.out.printf("Throughput: %.0f ops/s (%d ops)%n", total / (double) config.seconds, total);
+        System.out.println("op        ok       failed   p50(us)  p90(us)  p99(us)  max(us)");
+        for (int op = 0; op < 3; op++) {
+            LatencyHistogram h = latency[op];
+            System.out.printf("%-9s %-8d %-8d %-8.1f %-8.1f %-8.1f %-8.1f%n", OP_NAMES[op], ok[op].sum(), failed[op].sum(),
+                    h.percentile(0.50) / 1e3, h.percentile(0.90) / 1e3, h.percentile(0.99) / 1e3, h.getMax() / 1e3);
+        }
+        for (String code : config.metrics ? router.getBranchCodes() : List.<String>of()) {
+            LatencyHistogram service = router.getBranch(code).getMetrics().histogram(MetricOp.RENT);
+            System.out.printf("Engine service time (rent, inside lock, branch %s): p50 %.1f us, p99 %.1f us, %d rents%n",
+                    code, service.percentile(0.50) / 1e3, service.percentile(0.99) / 1e3,
+                    router.getBranch(code).getMetrics().count(MetricOp.RENT));
+        }
+        long blockedCount = 0;
+        long blockedMillis = 0;
+        for (int t = 0; t < threads; t++) {
+            if (blockedAtStart[t] == null || blockedAtEnd[t] == null) continue;
+            blockedCount += blockedAtEnd[t][0] - blockedAtStart[t][0];
+            blockedMillis += blockedAtEnd[t][1] - blockedAtStart[t][1];
+        }
+        if (contentionTiming) {
+            System.out.printf("Contention: %d monitor waits, %d ms blocked (%.1f%% of thread time)%n", blockedCount, blockedMillis,
+                    100.0 * blockedMillis / (threads * config.seconds * 1000.0));
+        } else {
+            System.out.printf("Contention: %d monitor waits (blocked time not supported by this JVM)%n", blockedCount);
+        }
+    }
+
+    private Car[] buildFleet(BranchRouter router) {
+        int[] cdf = cumulative(config.fleetMix);
+        Car[] cars = new Car[config.cars];
+        for (int i = 0; i < cars.length; i++) {
+            // spread types evenly over the id range so popularity does not correlate with type
+            int type = pick(cdf, (int) ((i * 7919L) % cdf[2]));
+            String id = "L" + (i + 1);
+            double price = 40 + (i * 37) % 160;
+            if (type == 0) cars[i] = new EconomyCar(id, "Load", "Economy " + (i + 1), price);
+            else if (type == 1) cars[i] = new SuvCar(id, "Load", "Suv " + (i + 1), price);
+            else cars[i] = new LuxuryCar(id, "Load", "Luxury " + (i + 1), price);
+            router.addCar("B" + (1 + i % config.branches), cars[i]);
+        }
+        return cars;
+    }
+
+    private static long[] blocked(ThreadMXBean mx, long threadId) {
+        ThreadInfo info = mx.getThreadInfo(threadId);
+        return info == null ? null : new long[]{info.getBlockedCount(), Math.max(0, info.getBlockedTime())};
+    }
+
+    // Cumulative distribution where rank i (0-based) has weight 1 / (i + 1)^s
+    static double[] zipfCdf(int n, double s) {
+        double[] cdf = new double[n];
+        double acc = 0;
+        for (int i = 0; i < n; i++) {
+            acc += 1.0 / Math.pow(i + 1, s);
+            cdf[i] = acc;
+        }
+        for (int i = 0; i < n; i++) cdf[i] /= acc;
+        return cdf;
+    }
+
+    private static int pickCar(double[] cdf, double u) {
+        int i = Arrays.binarySearch(cdf, u);
+        return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+    }
+
+    private static int[] cumulative(int[] weights) {
+        int[] cdf = new int[weights.length];
+        int acc = 0;
+        for (int i = 0; i < weights.length; i++) {
+            acc += weights[i];
+            cdf[i] = acc;
+        }
+        return cdf;
+    }
+
+    private static int pick(int[] cdf, int r) {
+        for (int i = 0; i < cdf.length; i++) {
+            if (r < cdf[i]) return i;
+        }
+        return cdf.length - 1;
+    }
+
+    private static String mix(int[] a) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < a.length; i++) sb.append(i == 0 ? "" : ":").append(a[i]);
+        return sb.toString();
+    }
+}